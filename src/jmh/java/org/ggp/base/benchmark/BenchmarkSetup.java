@@ -0,0 +1,67 @@
+package org.ggp.base.benchmark;
+
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.cache.ConcurrentCachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.compiled.CompiledRulesStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine.PropagationMode;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+/**
+ * BenchmarkSetup resolves the game and state machine parameters shared by
+ * the JMH benchmarks.
+ *
+ * By default, the benchmarks run on the local test games that every state
+ * machine can handle. Any key from the default game repository can be given
+ * instead, e.g. with -p game=chess.
+ */
+final class BenchmarkSetup {
+    private BenchmarkSetup() {
+    }
+
+    /**
+     * Returns the rules of the game with the given key, looking in the local
+     * test games (the kif files under games/test) first and in the default
+     * game repository otherwise.
+     */
+    static List<Gdl> getRules(String gameKey) {
+        GameRepository testGames = new TestGameRepository();
+        Game game = testGames.getGameKeys().contains(gameKey) ? testGames.getGame(gameKey)
+                : GameRepository.getDefaultRepository().getGame(gameKey);
+        if (game == null) {
+            throw new IllegalArgumentException("Game not found: " + gameKey);
+        }
+        return game.getRules();
+    }
+
+    /**
+     * Creates an uninitialized state machine of the given kind.
+     */
+    static StateMachine createStateMachine(String kind) {
+        if (kind.equals("prover")) {
+            return new ProverStateMachine();
+        } else if (kind.equals("tabledProver")) {
+            return new ProverStateMachine(true);
+        } else if (kind.equals("cachedProver")) {
+            return new CachedStateMachine(new ProverStateMachine());
+        } else if (kind.equals("concurrentCachedProver")) {
+            return new ConcurrentCachedStateMachine(new ProverStateMachine());
+        } else if (kind.equals("propNet")) {
+            return new CompiledPropNetStateMachine(PropagationMode.FORWARD);
+        } else if (kind.equals("propNetDifferential")) {
+            return new CompiledPropNetStateMachine(PropagationMode.DIFFERENTIAL);
+        } else if (kind.equals("propNetJit")) {
+            return new CompiledPropNetStateMachine(PropagationMode.JIT);
+        } else if (kind.equals("compiledRules")) {
+            return new CompiledRulesStateMachine();
+        }
+        throw new IllegalArgumentException("Unknown state machine: " + kind);
+    }
+}
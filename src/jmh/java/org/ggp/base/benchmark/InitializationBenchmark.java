@@ -0,0 +1,53 @@
+package org.ggp.base.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long each state machine takes to initialize from the rules
+ * of each game, which for the propnet machines includes building the propnet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InitializationBenchmark {
+    @Param({"ticTacToe", "connectFour", "simpleMutex", "test_case_1a", "test_case_1b",
+            "test_case_2a", "test_case_2b", "test_case_2c", "test_case_3a", "test_case_3c",
+            "test_case_3d", "test_case_4a", "test_case_5b", "test_case_5c", "test_case_5e",
+            "test_clean_not_distinct", "test_distinct_beginning_rule"})
+    public String game;
+
+    @Param({"prover", "cachedProver", "concurrentCachedProver", "propNet", "propNetDifferential", "propNetJit", "compiledRules"})
+    public String stateMachine;
+
+    private List<Gdl> rules;
+
+    @Setup
+    public void setUp() {
+        rules = BenchmarkSetup.getRules(game);
+    }
+
+    @Benchmark
+    public StateMachine initialize() {
+        StateMachine machine = BenchmarkSetup.createStateMachine(stateMachine);
+        machine.initialize(rules);
+        return machine;
+    }
+}
@@ -0,0 +1,112 @@
+package org.ggp.base.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.ggp.base.util.symbol.grammar.Symbol;
+import org.ggp.base.util.symbol.grammar.SymbolPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast rulesheets are parsed into symbols, by SymbolFactory and
+ * by the regex-and-split parser it replaced, which is kept here as a
+ * baseline.
+ *
+ * The inputs are the rulesheets of the local games, as the game repository
+ * stores them, and a synthetic description of about 1 MB: a board of ground
+ * facts with nested terms, like the larger games on Tiltyard.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+    private static final String SYNTHETIC = "synthetic1MB";
+
+    @Param({"ticTacToe", "connectFour", "maze", SYNTHETIC})
+    public String game;
+
+    private String rulesheet;
+
+    @Setup
+    public void setUp() {
+        if (game.equals(SYNTHETIC)) {
+            rulesheet = createSyntheticRulesheet(1 << 20);
+        } else {
+            GameRepository testGames = new TestGameRepository();
+            rulesheet = testGames.getGameKeys().contains(game) ? testGames.getGame(game).getRulesheet()
+                    : GameRepository.getDefaultRepository().getGame(game).getRulesheet();
+        }
+    }
+
+    @Benchmark
+    public Symbol streaming() throws Exception {
+        return SymbolFactory.create(rulesheet);
+    }
+
+    @Benchmark
+    public Symbol regexAndSplit() {
+        return RegexSymbolParser.create(rulesheet);
+    }
+
+    private static String createSyntheticRulesheet(int size) {
+        StringBuilder rulesheet = new StringBuilder(size + 100);
+        rulesheet.append("( (role red) (role blue)\n");
+        for (int i = 0; rulesheet.length() < size; i++) {
+            rulesheet.append("  (init (cell (coord ").append(i % 97).append(' ').append(i / 97)
+                    .append(") (piece ").append(i % 2 == 0 ? "red" : "blue").append(" pawn_").append(i % 13).append(")))\n");
+        }
+        rulesheet.append(')');
+        return rulesheet.toString();
+    }
+
+    /**
+     * The parser SymbolFactory used to have: three regular expression
+     * replacements over the whole text, a split on spaces, and a recursive
+     * descent over a linked list of the tokens.
+     */
+    private static final class RegexSymbolParser {
+        static Symbol create(String string) {
+            string = string.replaceAll("\\(", " ( ");
+            string = string.replaceAll("\\)", " ) ");
+            string = string.replaceAll("\\s+", " ");
+            string = string.trim();
+            List<String> tokens = new ArrayList<String>();
+            for (String token : string.split(" ")) {
+                tokens.add(token);
+            }
+            return convert(new LinkedList<String>(tokens));
+        }
+
+        private static Symbol convert(LinkedList<String> tokens) {
+            if (tokens.getFirst().equals("(")) {
+                List<Symbol> contents = new ArrayList<Symbol>();
+                tokens.removeFirst();
+                while (!tokens.getFirst().equals(")")) {
+                    contents.add(convert(tokens));
+                }
+                tokens.removeFirst();
+                return SymbolPool.getList(contents);
+            } else {
+                return SymbolPool.getAtom(tokens.removeFirst());
+            }
+        }
+    }
+}
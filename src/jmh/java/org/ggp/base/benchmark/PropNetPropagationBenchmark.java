@@ -0,0 +1,77 @@
+package org.ggp.base.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine.PropagationMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the propagation modes of the {@link CompiledPropNetStateMachine}
+ * on a propnet that is built once per game, so that initialization only
+ * covers what each mode does with the propnet. JIT mode takes longer to
+ * initialize, since it compiles the propnet to bytecode; comparing both
+ * scores with those of forward propagation tells how many states it takes
+ * for that to pay off during a short metagame.
+ *
+ * Wide games, such as nineBoardTicTacToe and connectFourLarge, are where
+ * differential propagation should pay off most, so they are measured by
+ * default alongside the local test games. They come from the default game
+ * repository, so running the benchmark with its default parameters needs
+ * network access; use -p game=ticTacToe,connectFour to run offline.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class PropNetPropagationBenchmark {
+    @Param({"ticTacToe", "connectFour", "nineBoardTicTacToe", "connectFourLarge"})
+    public String game;
+
+    @Param({"FORWARD", "DIFFERENTIAL", "JIT"})
+    public PropagationMode mode;
+
+    private PropNet propNet;
+    private CompiledPropNetStateMachine machine;
+    private MachineState initialState;
+    private final int[] depth = new int[1];
+
+    @Setup
+    public void setUp() throws Exception {
+        propNet = OptimizingPropNetFactory.create(BenchmarkSetup.getRules(game));
+        machine = new CompiledPropNetStateMachine(mode);
+        machine.initialize(propNet);
+        initialState = machine.getInitialState();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public CompiledPropNetStateMachine initialize() {
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine(mode);
+        machine.initialize(propNet);
+        return machine;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public MachineState depthCharge() throws Exception {
+        return machine.performDepthCharge(initialState, depth);
+    }
+}
@@ -0,0 +1,102 @@
+package org.ggp.base.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the prover with and without tabled resolution on the local games
+ * with recursive rules. In test_recursive_reachability, the recursion
+ * depends on the state, so it has to be proven again in every state; in the
+ * test_case_5 games, it only involves static relations, and is mostly
+ * proven once and cached.
+ *
+ * The legal move and goal benchmarks cycle through a fixed sample of states
+ * reached by random play.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecursiveRulesBenchmark {
+    private static final int SAMPLE_SIZE = 64;
+
+    @Param({"test_recursive_reachability", "test_case_5a", "test_case_5c", "test_case_5d", "test_case_5e"})
+    public String game;
+
+    @Param({"prover", "tabledProver"})
+    public String stateMachine;
+
+    private StateMachine machine;
+    private List<Role> roles;
+    private MachineState initialState;
+    private final int[] depth = new int[1];
+
+    private MachineState[] sampleStates;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        machine = BenchmarkSetup.createStateMachine(stateMachine);
+        machine.initialize(BenchmarkSetup.getRules(game));
+        roles = machine.getRoles();
+        initialState = machine.getInitialState();
+
+        Random random = new Random(0);
+        sampleStates = new MachineState[SAMPLE_SIZE];
+        MachineState state = initialState;
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            if (machine.isTerminal(state)) {
+                state = initialState;
+            }
+            sampleStates[i] = state;
+            List<Move> jointMove = new ArrayList<Move>();
+            for (Role role : roles) {
+                List<Move> legals = machine.getLegalMoves(state, role);
+                jointMove.add(legals.get(random.nextInt(legals.size())));
+            }
+            state = machine.getNextState(state, jointMove);
+        }
+    }
+
+    @Benchmark
+    public void legalMoves(Blackhole blackhole) throws Exception {
+        MachineState state = sampleStates[next];
+        next = (next + 1) % SAMPLE_SIZE;
+        for (Role role : roles) {
+            blackhole.consume(machine.getLegalMoves(state, role));
+        }
+    }
+
+    @Benchmark
+    public List<Integer> goals() throws Exception {
+        MachineState state = sampleStates[next];
+        next = (next + 1) % SAMPLE_SIZE;
+        return machine.getGoals(state);
+    }
+
+    @Benchmark
+    public MachineState depthCharge() throws Exception {
+        return machine.performDepthCharge(initialState, depth);
+    }
+}
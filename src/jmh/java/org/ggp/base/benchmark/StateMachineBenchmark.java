@@ -0,0 +1,130 @@
+package org.ggp.base.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of the main state machine operations for each
+ * state machine and game: generating the legal moves of every role,
+ * computing next states, and running full depth charges from the initial
+ * state, one at a time or in batches through
+ * {@link StateMachine#getAverageDiscountedScoresFromRepeatedDepthCharges}.
+ * Batches are scored per depth charge, so the two are comparable.
+ *
+ * The legal move and next state benchmarks cycle through a fixed sample of
+ * non-terminal states reached by random play, each paired with a random
+ * joint move, so that consecutive calls are about different states. For the
+ * caching state machines, every sample state is cached after the first pass,
+ * so those two benchmarks measure cache hits; the depth charges mostly visit
+ * new states, and so measure cache misses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateMachineBenchmark {
+    private static final int SAMPLE_SIZE = 256;
+    private static final int BATCH_SIZE = 64;
+
+    @Param({"ticTacToe", "connectFour", "simpleMutex", "test_case_1a", "test_case_1b",
+            "test_case_2a", "test_case_2b", "test_case_2c", "test_case_3a", "test_case_3c",
+            "test_case_3d", "test_case_4a", "test_case_5b", "test_case_5c", "test_case_5e",
+            "test_clean_not_distinct", "test_distinct_beginning_rule"})
+    public String game;
+
+    @Param({"prover", "cachedProver", "concurrentCachedProver", "propNet", "propNetDifferential", "propNetJit", "compiledRules"})
+    public String stateMachine;
+
+    private StateMachine machine;
+    private List<Role> roles;
+    private MachineState initialState;
+    private final int[] depth = new int[1];
+    private double[] averageScores;
+    private final double[] averageDepth = new double[1];
+
+    private MachineState[] sampleStates;
+    private List<List<Move>> sampleMoves;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        machine = BenchmarkSetup.createStateMachine(stateMachine);
+        machine.initialize(BenchmarkSetup.getRules(game));
+        roles = machine.getRoles();
+        initialState = machine.getInitialState();
+        averageScores = new double[roles.size()];
+
+        // The samples are generated with a separate prover, with a fixed
+        // seed, so that every state machine sees the same states and moves.
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(BenchmarkSetup.getRules(game));
+        Random random = new Random(0);
+        sampleStates = new MachineState[SAMPLE_SIZE];
+        sampleMoves = new ArrayList<List<Move>>(SAMPLE_SIZE);
+        MachineState state = prover.getInitialState();
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            if (prover.isTerminal(state)) {
+                state = prover.getInitialState();
+            }
+            List<Move> jointMove = new ArrayList<Move>();
+            for (Role role : prover.getRoles()) {
+                List<Move> legals = prover.getLegalMoves(state, role);
+                jointMove.add(legals.get(random.nextInt(legals.size())));
+            }
+            sampleStates[i] = machine.getMachineStateFromSentenceList(state.getContents());
+            sampleMoves.add(jointMove);
+            state = prover.getNextState(state, jointMove);
+        }
+    }
+
+    @Benchmark
+    public void legalMoves(Blackhole blackhole) throws Exception {
+        MachineState state = sampleStates[next];
+        next = (next + 1) % SAMPLE_SIZE;
+        for (Role role : roles) {
+            blackhole.consume(machine.getLegalMoves(state, role));
+        }
+    }
+
+    @Benchmark
+    public MachineState nextState() throws Exception {
+        int i = next;
+        next = (next + 1) % SAMPLE_SIZE;
+        return machine.getNextState(sampleStates[i], sampleMoves.get(i));
+    }
+
+    @Benchmark
+    public MachineState depthCharge() throws Exception {
+        return machine.performDepthCharge(initialState, depth);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public double[] batchedDepthCharges() throws Exception {
+        machine.getAverageDiscountedScoresFromRepeatedDepthCharges(initialState, averageScores, averageDepth, 1.0, BATCH_SIZE);
+        return averageScores;
+    }
+}
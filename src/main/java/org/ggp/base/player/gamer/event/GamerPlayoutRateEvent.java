@@ -0,0 +1,37 @@
+package org.ggp.base.player.gamer.event;
+
+import org.ggp.base.util.observer.Event;
+
+/**
+ * GamerPlayoutRateEvent reports how many playouts a simulation-based gamer
+ * ran while selecting a move, how long it spent doing so, and how many
+ * threads it used.
+ */
+public final class GamerPlayoutRateEvent extends Event
+{
+    private final long playouts;
+    private final long time;
+    private final int threads;
+
+    public GamerPlayoutRateEvent(long playouts, long time, int threads) {
+        this.playouts = playouts;
+        this.time = time;
+        this.threads = threads;
+    }
+
+    public long getPlayouts() {
+        return playouts;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public double getPlayoutsPerSecond() {
+        return time > 0 ? playouts * 1000.0 / time : 0;
+    }
+}
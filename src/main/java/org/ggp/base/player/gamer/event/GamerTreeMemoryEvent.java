@@ -0,0 +1,40 @@
+package org.ggp.base.player.gamer.event;
+
+import org.ggp.base.util.observer.Event;
+
+/**
+ * GamerTreeMemoryEvent reports the size of a tree-search gamer's search
+ * tree after it selects a move: the number of nodes in use, the number of
+ * nodes the tree has room for, the bytes allocated to the tree itself, and
+ * the heap in use by the whole player at that time.
+ */
+public final class GamerTreeMemoryEvent extends Event
+{
+    private final int nodes;
+    private final int nodeCapacity;
+    private final long treeBytes;
+    private final long heapBytes;
+
+    public GamerTreeMemoryEvent(int nodes, int nodeCapacity, long treeBytes, long heapBytes) {
+        this.nodes = nodes;
+        this.nodeCapacity = nodeCapacity;
+        this.treeBytes = treeBytes;
+        this.heapBytes = heapBytes;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public int getNodeCapacity() {
+        return nodeCapacity;
+    }
+
+    public long getTreeBytes() {
+        return treeBytes;
+    }
+
+    public long getHeapBytes() {
+        return heapBytes;
+    }
+}
@@ -39,6 +39,13 @@ public abstract class StateMachineGamer extends Gamer
 
     /**
      * Defines which state machine this gamer will use.
+     *
+     * Gamers that play on a propnet can reuse the propnets built in earlier
+     * matches of the same game by returning a
+     * {@link org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine}
+     * created with {@link org.ggp.base.util.propnet.cache.PropNetCache#getDefault()},
+     * as MCTSGamer does. On a cache hit, the state machine is ready as soon as
+     * the propnet has been read back, instead of after building it.
      * @return
      */
     public abstract StateMachine getInitialStateMachine();
@@ -179,7 +186,7 @@ public abstract class StateMachineGamer extends Gamer
         try
         {
             stateMachine = getInitialStateMachine();
-            stateMachine.initialize(getMatch().getGame().getRules());
+            stateMachine.initialize(getMatch().getGame().getRules(), timeout);
             currentState = stateMachine.getInitialState();
             role = stateMachine.getRoleFromConstant(getRoleName());
             getMatch().appendState(currentState.getContents());
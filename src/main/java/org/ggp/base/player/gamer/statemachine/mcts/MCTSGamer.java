@@ -0,0 +1,118 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.List;
+
+import org.ggp.base.player.gamer.event.GamerPlayoutRateEvent;
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.event.GamerTreeMemoryEvent;
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.cache.PropNetCache;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine.PropagationMode;
+
+/**
+ * MCTSGamer is a Monte Carlo tree search gamer, using decoupled UCT over an
+ * {@link MCTSTree}. It searches during metagaming and on every move until
+ * shortly before the deadline, and then plays the move it has tried most
+ * often at the root.
+ *
+ * The tree is kept from one move to the next: at each move, the subtree
+ * under the state the game actually reached becomes the new tree, and the
+ * rest is recycled. The tree is given a fixed share of the heap, and after
+ * each move the gamer reports the size of the tree in a
+ * {@link GamerTreeMemoryEvent} and the number of iterations it ran in a
+ * {@link GamerPlayoutRateEvent}.
+ *
+ * The gamer plays on a compiled propnet. Games the propnet can't be built
+ * for, or not in time, fall back to the prover. Subclasses can keep built
+ * propnets in a {@link PropNetCache}, returned from {@link #getPropNetCache()},
+ * so that a repeated game's start clock goes to the search rather than to
+ * building the propnet.
+ */
+public class MCTSGamer extends SampleGamer
+{
+    /** How long before the deadline the search stops. */
+    private static final long SAFETY_MARGIN = 1000;
+
+    private MCTSTree tree;
+
+    /**
+     * Returns the approximate number of bytes the search tree may use for
+     * its own arrays. By default, this is a quarter of the maximum heap size,
+     * which leaves room for the MachineStates referenced from the tree.
+     */
+    protected long getTreeBudget()
+    {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Returns the cache to take built propnets from and add them to, or null
+     * to build the propnet afresh for every match. By default there is no
+     * cache; override this to return {@link PropNetCache#getDefault()}, for
+     * instance, to keep built propnets across matches and runs of the player.
+     */
+    protected PropNetCache getPropNetCache()
+    {
+        return null;
+    }
+
+    @Override
+    public StateMachine getInitialStateMachine()
+    {
+        return new FailsafeStateMachine(new CompiledPropNetStateMachine(PropagationMode.FORWARD, getPropNetCache()));
+    }
+
+    @Override
+    public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        StateMachine theMachine = getStateMachine();
+        tree = new MCTSTree(theMachine, theMachine.createRolloutContext(), getTreeBudget());
+        tree.setRoot(getCurrentState());
+        tree.search(timeout - SAFETY_MARGIN);
+    }
+
+    @Override
+    public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        long start = System.currentTimeMillis();
+        long finishBy = timeout - SAFETY_MARGIN;
+
+        List<Move> moves = getStateMachine().getLegalMoves(getCurrentState(), getRole());
+        boolean reused = tree.setRoot(getCurrentState());
+        int reusedNodes = tree.getNumNodes();
+        int iterations = tree.search(finishBy);
+        Move selection = tree.getBestMove(getRole());
+
+        long stop = System.currentTimeMillis();
+
+        Runtime runtime = Runtime.getRuntime();
+        GamerTreeMemoryEvent memoryEvent = new GamerTreeMemoryEvent(tree.getNumNodes(), tree.getNodeCapacity(),
+                tree.getAllocatedBytes(), runtime.totalMemory() - runtime.freeMemory());
+        GamerLogger.log("MCTS", String.format("%d iterations in %d ms; expected score %.1f; %d nodes (%d kept from the previous move) of %d, %d KB in tree arrays%s, %d KB heap in use",
+                iterations, stop - start, tree.getRootScore(getRole()), tree.getNumNodes(), reused ? reusedNodes : 0,
+                tree.getNodeCapacity(), memoryEvent.getTreeBytes() / 1024, tree.isFull() ? " (full)" : "",
+                memoryEvent.getHeapBytes() / 1024));
+        notifyObservers(memoryEvent);
+        notifyObservers(new GamerPlayoutRateEvent(iterations, stop - start, 1));
+        notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start));
+        return selection;
+    }
+
+    @Override
+    public void stateMachineStop() {
+        tree = null;
+    }
+
+    @Override
+    public void stateMachineAbort() {
+        tree = null;
+    }
+}
@@ -0,0 +1,545 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.RolloutContext;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * MCTSTree is a Monte Carlo search tree for games with any number of roles
+ * and simultaneous moves, using decoupled UCT: in each node, every role picks
+ * its own move by the UCB1 rule over its own statistics, and the resulting
+ * joint move leads to the child node.
+ *
+ * The tree is stored in struct-of-arrays form rather than as node objects.
+ * Each node has a slot in a set of parallel arrays (state, parent, first
+ * child, next sibling, joint move and visit count), and a block in a second
+ * set of parallel arrays holding, for each role, the number of legal moves
+ * followed by the id, visit count and total score of each move. Both kinds of
+ * slots are handed out in creation order, and the arrays only grow, up to a
+ * fixed memory budget; once that is reached, the search keeps running
+ * playouts but stops adding nodes.
+ *
+ * When the game advances, {@link #setRoot(MachineState)} keeps the subtree
+ * under the new root and slides it down to the start of the arrays, so the
+ * slots of every discarded node are recycled without any allocation.
+ *
+ * An MCTSTree is not thread-safe.
+ */
+public final class MCTSTree
+{
+    /** The exploration constant of UCB1, for scores scaled to [0, 1]. */
+    private static final double EXPLORATION = 1.4;
+
+    /** Approximate bytes taken by one node slot, across the node arrays. */
+    private static final long NODE_BYTES = 8 + 5 * 4 + 8 + 1;
+    /** Approximate bytes taken by one move slot, across the move arrays. */
+    private static final long MOVE_BYTES = 3 * 4;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final StateMachine machine;
+    private final RolloutContext context;
+    private final List<Role> roles;
+    private final int numRoles;
+    private final long maxBytes;
+
+    // Node arrays
+    private MachineState[] states;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private long[] jointMoves;
+    private int[] visits;
+    private boolean[] terminals;
+    private int[] moveBlocks;
+    private int numNodes;
+
+    // Move arrays. For each non-terminal node, the block starting at
+    // moveBlocks[node] holds, for each role, a header slot with the number of
+    // legal moves followed by one slot per legal move.
+    private int[] moveIds;
+    private int[] moveVisits;
+    private float[] moveScores;
+    private int numMoveSlots;
+
+    /** Moves are stored in the tree by per-role ids. */
+    private final List<List<Move>> movesById;
+    private final List<Map<Move, Integer>> idsByMove;
+
+    private int root = -1;
+    private boolean full;
+
+    // Scratch space for a single iteration
+    private int[] pathNodes = new int[64];
+    private int[] pathMoves = new int[64];
+    private final int[] goals;
+
+    /**
+     * Creates an empty tree. Tree operations such as computing next states
+     * use the given state machine, while playouts run on the given rollout
+     * context. The node and move arrays will not grow beyond approximately
+     * the given number of bytes.
+     */
+    public MCTSTree(StateMachine machine, RolloutContext context, long maxBytes)
+    {
+        this.machine = machine;
+        this.context = context;
+        this.roles = machine.getRoles();
+        this.numRoles = roles.size();
+        this.maxBytes = maxBytes;
+        allocateNodes((int) Math.max(1, Math.min(INITIAL_CAPACITY, maxBytes / 2 / NODE_BYTES)));
+        allocateMoveSlots((int) Math.max(1, Math.min(INITIAL_CAPACITY * numRoles, maxBytes / 2 / MOVE_BYTES)));
+        movesById = new ArrayList<List<Move>>();
+        idsByMove = new ArrayList<Map<Move, Integer>>();
+        for (int r = 0; r < numRoles; r++) {
+            movesById.add(new ArrayList<Move>());
+            idsByMove.add(new HashMap<Move, Integer>());
+        }
+        goals = new int[numRoles];
+    }
+
+    /**
+     * Makes the given state the root of the tree. If it is the current root
+     * or one of its children, the subtree under it is kept, and the rest of
+     * the tree is discarded. Otherwise, the tree is cleared.
+     *
+     * @return true if part of the tree was kept.
+     */
+    public boolean setRoot(MachineState state) throws MoveDefinitionException
+    {
+        if (root >= 0) {
+            if (states[root].equals(state)) {
+                return true;
+            }
+            for (int child = firstChildren[root]; child >= 0; child = nextSiblings[child]) {
+                if (states[child].equals(state)) {
+                    compact(child);
+                    return true;
+                }
+            }
+        }
+        clear();
+        root = createNode(state, -1, 0);
+        if (root < 0) {
+            throw new IllegalStateException("The tree budget is too small to hold a single node.");
+        }
+        return false;
+    }
+
+    private void clear()
+    {
+        Arrays.fill(states, 0, numNodes, null);
+        numNodes = 0;
+        numMoveSlots = 0;
+        root = -1;
+        full = false;
+    }
+
+    /**
+     * Runs one iteration of the search: selects a path from the root down to
+     * a node that is new or terminal, runs a playout from there if it is not
+     * terminal, and adds the goal values reached to the statistics along the
+     * path.
+     */
+    public void iterate() throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException
+    {
+        int node = root;
+        int depth = 0;
+        while (true) {
+            if (terminals[node]) {
+                readGoals(states[node]);
+                break;
+            }
+            ensurePathCapacity(depth);
+            pathNodes[depth] = node;
+            long joint = selectJointMove(node, depth);
+            depth++;
+
+            int child = firstChildren[node];
+            while (child >= 0 && jointMoves[child] != joint) {
+                child = nextSiblings[child];
+            }
+            if (child >= 0) {
+                node = child;
+                continue;
+            }
+
+            MachineState nextState = machine.getNextState(states[node], getJointMove(depth - 1));
+            // If the tree is full, no node is created, but the playout is
+            // still run from the new state.
+            node = createNode(nextState, node, joint);
+            boolean terminal = node >= 0 ? terminals[node] : machine.isTerminal(nextState);
+            if (terminal) {
+                readGoals(nextState);
+            } else {
+                context.performRollout(nextState, goals);
+            }
+            break;
+        }
+
+        if (node >= 0) {
+            visits[node]++;
+        }
+        for (int i = 0; i < depth; i++) {
+            visits[pathNodes[i]]++;
+            for (int r = 0; r < numRoles; r++) {
+                int slot = pathMoves[i * numRoles + r];
+                moveVisits[slot]++;
+                moveScores[slot] += goals[r] / 100f;
+            }
+        }
+    }
+
+    /**
+     * Runs iterations until the given time.
+     *
+     * @return the number of iterations run.
+     */
+    public int search(long finishBy) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException
+    {
+        int iterations = 0;
+        while (System.currentTimeMillis() < finishBy) {
+            iterate();
+            iterations++;
+        }
+        return iterations;
+    }
+
+    /**
+     * Picks a move for each role in the given node by UCB1, records the
+     * chosen move slots in the path, and returns the joint move's index.
+     */
+    private long selectJointMove(int node, int depth)
+    {
+        double logVisits = Math.log(Math.max(1, visits[node]));
+        long joint = 0;
+        int slot = moveBlocks[node];
+        for (int r = 0; r < numRoles; r++) {
+            int numMoves = moveIds[slot];
+            int first = slot + 1;
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = first; i < first + numMoves; i++) {
+                if (moveVisits[i] == 0) {
+                    best = i;
+                    break;
+                }
+                double value = moveScores[i] / moveVisits[i] + EXPLORATION * Math.sqrt(logVisits / moveVisits[i]);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = i;
+                }
+            }
+            pathMoves[depth * numRoles + r] = best;
+            joint = joint * numMoves + (best - first);
+            slot = first + numMoves;
+        }
+        return joint;
+    }
+
+    private List<Move> getJointMove(int depth)
+    {
+        List<Move> jointMove = new ArrayList<Move>(numRoles);
+        for (int r = 0; r < numRoles; r++) {
+            jointMove.add(movesById.get(r).get(moveIds[pathMoves[depth * numRoles + r]]));
+        }
+        return jointMove;
+    }
+
+    private void readGoals(MachineState state) throws GoalDefinitionException
+    {
+        for (int r = 0; r < numRoles; r++) {
+            goals[r] = machine.getGoal(state, roles.get(r));
+        }
+    }
+
+    /**
+     * Returns the move of the given role that has been tried most often at
+     * the root, breaking ties by average score.
+     */
+    public Move getBestMove(Role role)
+    {
+        int r = roles.indexOf(role);
+        int slot = moveBlocks[root];
+        for (int q = 0; q < r; q++) {
+            slot += moveIds[slot] + 1;
+        }
+        int numMoves = moveIds[slot];
+        int best = slot + 1;
+        for (int i = slot + 2; i <= slot + numMoves; i++) {
+            if (moveVisits[i] > moveVisits[best] || (moveVisits[i] == moveVisits[best]
+                    && moveScores[i] > moveScores[best])) {
+                best = i;
+            }
+        }
+        return movesById.get(r).get(moveIds[best]);
+    }
+
+    /**
+     * Returns the average score, between 0 and 100, of the given role over
+     * all iterations through the root.
+     */
+    public double getRootScore(Role role)
+    {
+        int r = roles.indexOf(role);
+        int slot = moveBlocks[root];
+        for (int q = 0; q < r; q++) {
+            slot += moveIds[slot] + 1;
+        }
+        double total = 0;
+        long count = 0;
+        for (int i = slot + 1; i <= slot + moveIds[slot]; i++) {
+            total += moveScores[i];
+            count += moveVisits[i];
+        }
+        return count == 0 ? 0 : 100 * total / count;
+    }
+
+    public int getNumNodes()
+    {
+        return numNodes;
+    }
+
+    public int getNodeCapacity()
+    {
+        return states.length;
+    }
+
+    public int getRootVisits()
+    {
+        return visits[root];
+    }
+
+    /**
+     * Returns true if the tree stopped growing because it reached its
+     * memory budget.
+     */
+    public boolean isFull()
+    {
+        return full;
+    }
+
+    /**
+     * Returns the approximate number of bytes allocated to the node and move
+     * arrays, not counting the MachineStates referenced from the tree.
+     */
+    public long getAllocatedBytes()
+    {
+        return states.length * NODE_BYTES + moveIds.length * MOVE_BYTES;
+    }
+
+    /**
+     * Adds a node for the given state, or returns -1 if the tree has reached
+     * its memory budget.
+     */
+    private int createNode(MachineState state, int parent, long joint) throws MoveDefinitionException
+    {
+        boolean terminal = machine.isTerminal(state);
+        List<List<Move>> legalMoves = null;
+        int blockSize = 0;
+        if (!terminal) {
+            legalMoves = new ArrayList<List<Move>>(numRoles);
+            for (Role role : roles) {
+                List<Move> legals = machine.getLegalMoves(state, role);
+                legalMoves.add(legals);
+                blockSize += legals.size() + 1;
+            }
+        }
+        if (!ensureCapacity(numNodes + 1, numMoveSlots + blockSize)) {
+            full = true;
+            return -1;
+        }
+
+        int node = numNodes++;
+        states[node] = state;
+        parents[node] = parent;
+        firstChildren[node] = -1;
+        jointMoves[node] = joint;
+        visits[node] = 0;
+        terminals[node] = terminal;
+        moveBlocks[node] = numMoveSlots;
+        if (parent >= 0) {
+            nextSiblings[node] = firstChildren[parent];
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[node] = -1;
+        }
+        if (!terminal) {
+            for (int r = 0; r < numRoles; r++) {
+                List<Move> legals = legalMoves.get(r);
+                moveIds[numMoveSlots] = legals.size();
+                moveVisits[numMoveSlots] = 0;
+                moveScores[numMoveSlots] = 0;
+                numMoveSlots++;
+                for (Move move : legals) {
+                    moveIds[numMoveSlots] = getMoveId(r, move);
+                    moveVisits[numMoveSlots] = 0;
+                    moveScores[numMoveSlots] = 0;
+                    numMoveSlots++;
+                }
+            }
+        }
+        return node;
+    }
+
+    private int getMoveId(int r, Move move)
+    {
+        Integer id = idsByMove.get(r).get(move);
+        if (id == null) {
+            id = movesById.get(r).size();
+            movesById.get(r).add(move);
+            idsByMove.get(r).put(move, id);
+        }
+        return id;
+    }
+
+    private int getMoveBlockSize(int node)
+    {
+        if (terminals[node]) {
+            return 0;
+        }
+        int slot = moveBlocks[node];
+        for (int r = 0; r < numRoles; r++) {
+            slot += moveIds[slot] + 1;
+        }
+        return slot - moveBlocks[node];
+    }
+
+    /**
+     * Discards every node outside the subtree under the given node, which
+     * becomes the root, and slides the remaining nodes and move blocks down
+     * to the start of the arrays. Nodes and move blocks are allocated in
+     * creation order and children are always created after their parents,
+     * so the new root ends up at index 0 and no slot is overwritten before
+     * it has been moved.
+     */
+    private void compact(int newRoot)
+    {
+        // Mark the live nodes; children always have higher indices than
+        // their parents, so one ascending pass is enough.
+        int[] remap = new int[numNodes];
+        Arrays.fill(remap, -1);
+        remap[newRoot] = 0;
+        for (int i = newRoot + 1; i < numNodes; i++) {
+            if (parents[i] >= newRoot && remap[parents[i]] >= 0) {
+                remap[i] = 0;
+            }
+        }
+        int next = 0;
+        for (int i = newRoot; i < numNodes; i++) {
+            if (remap[i] >= 0) {
+                remap[i] = next++;
+            }
+        }
+
+        int nextMoveSlot = 0;
+        for (int i = newRoot; i < numNodes; i++) {
+            int j = remap[i];
+            if (j < 0) {
+                continue;
+            }
+            int blockSize = getMoveBlockSize(i);
+            int block = moveBlocks[i];
+            System.arraycopy(moveIds, block, moveIds, nextMoveSlot, blockSize);
+            System.arraycopy(moveVisits, block, moveVisits, nextMoveSlot, blockSize);
+            System.arraycopy(moveScores, block, moveScores, nextMoveSlot, blockSize);
+            moveBlocks[j] = nextMoveSlot;
+            nextMoveSlot += blockSize;
+
+            states[j] = states[i];
+            parents[j] = i == newRoot ? -1 : remap[parents[i]];
+            firstChildren[j] = firstChildren[i] < 0 ? -1 : remap[firstChildren[i]];
+            nextSiblings[j] = i == newRoot || nextSiblings[i] < 0 ? -1 : remap[nextSiblings[i]];
+            jointMoves[j] = i == newRoot ? 0 : jointMoves[i];
+            visits[j] = visits[i];
+            terminals[j] = terminals[i];
+        }
+        Arrays.fill(states, next, numNodes, null);
+        numNodes = next;
+        numMoveSlots = nextMoveSlot;
+        root = 0;
+        full = false;
+    }
+
+    /**
+     * Grows the arrays if needed so they can hold the given numbers of nodes
+     * and move slots, and returns false if that would exceed the budget.
+     * Arrays grow by up to double their size, but by less once the budget
+     * gets close.
+     */
+    private boolean ensureCapacity(int nodes, int moveSlots)
+    {
+        if (nodes <= states.length && moveSlots <= moveIds.length) {
+            return true;
+        }
+        int nodeCapacity = Math.max(nodes, states.length);
+        int moveCapacity = Math.max(moveSlots, moveIds.length);
+        long spare = maxBytes - nodeCapacity * NODE_BYTES - moveCapacity * MOVE_BYTES;
+        if (spare < 0) {
+            return false;
+        }
+        if (nodeCapacity > states.length) {
+            allocateNodes(nodeCapacity + (int) Math.min(states.length, spare / 2 / NODE_BYTES));
+        }
+        if (moveCapacity > moveIds.length) {
+            allocateMoveSlots(moveCapacity + (int) Math.min(moveIds.length, spare / 2 / MOVE_BYTES));
+        }
+        return true;
+    }
+
+    private void allocateNodes(int capacity)
+    {
+        if (states == null) {
+            states = new MachineState[capacity];
+            parents = new int[capacity];
+            firstChildren = new int[capacity];
+            nextSiblings = new int[capacity];
+            jointMoves = new long[capacity];
+            visits = new int[capacity];
+            terminals = new boolean[capacity];
+            moveBlocks = new int[capacity];
+        } else {
+            states = Arrays.copyOf(states, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            jointMoves = Arrays.copyOf(jointMoves, capacity);
+            visits = Arrays.copyOf(visits, capacity);
+            terminals = Arrays.copyOf(terminals, capacity);
+            moveBlocks = Arrays.copyOf(moveBlocks, capacity);
+        }
+    }
+
+    private void allocateMoveSlots(int capacity)
+    {
+        if (moveIds == null) {
+            moveIds = new int[capacity];
+            moveVisits = new int[capacity];
+            moveScores = new float[capacity];
+        } else {
+            moveIds = Arrays.copyOf(moveIds, capacity);
+            moveVisits = Arrays.copyOf(moveVisits, capacity);
+            moveScores = Arrays.copyOf(moveScores, capacity);
+        }
+    }
+
+    private void ensurePathCapacity(int depth)
+    {
+        if (depth == pathNodes.length) {
+            pathNodes = Arrays.copyOf(pathNodes, depth * 2);
+        }
+        if ((depth + 1) * numRoles > pathMoves.length) {
+            pathMoves = Arrays.copyOf(pathMoves, Math.max(pathMoves.length * 2, (depth + 1) * numRoles));
+        }
+    }
+}
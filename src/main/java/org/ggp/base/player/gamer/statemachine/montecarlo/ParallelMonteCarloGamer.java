@@ -0,0 +1,283 @@
+package org.ggp.base.player.gamer.statemachine.montecarlo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.ggp.base.player.gamer.event.GamerPlayoutRateEvent;
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.RolloutContext;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+
+/**
+ * ParallelMonteCarloGamer plays like the SampleMonteCarloGamer, picking the
+ * move with the highest average score over random playouts, but runs the
+ * playouts on worker threads, one per available processor by default.
+ *
+ * Each worker has its own {@link RolloutContext}, created from the gamer's
+ * state machine during metagaming, so the playouts only run truly in
+ * parallel when the state machine's rollout contexts are independent of
+ * each other (as those of the prover and the compiled propnet state
+ * machines are). Workers keep their own tallies and publish them
+ * periodically into shared lock-free counters, and are told to stop a
+ * safety margin before the deadline. A worker still stuck in a playout
+ * half that margin before the deadline is abandoned: it is interrupted,
+ * and its rollout context is replaced, so that it is never shared with
+ * the worker that takes its place at the next move.
+ *
+ * Along with the usual GamerSelectedMoveEvent, the gamer reports the number
+ * of playouts it ran for each move in a {@link GamerPlayoutRateEvent}.
+ */
+public class ParallelMonteCarloGamer extends SampleGamer
+{
+    /** How long before the deadline the workers stop running playouts. */
+    private static final long SAFETY_MARGIN = 1000;
+    /** How many playouts a worker runs between publishing its tallies. */
+    private static final int PUBLISH_INTERVAL = 16;
+
+    private ExecutorService pool;
+    private RolloutContext[] contexts;
+
+    /**
+     * Returns the number of worker threads to run playouts on.
+     */
+    protected int getNumThreads()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Plays on a compiled propnet, whose rollout contexts run independently
+     * of each other, falling back to the prover for games the propnet can't
+     * be built for in time.
+     */
+    @Override
+    public StateMachine getInitialStateMachine()
+    {
+        return new FailsafeStateMachine(new CompiledPropNetStateMachine());
+    }
+
+    @Override
+    public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        shutdownPool();
+        int numThreads = getNumThreads();
+        contexts = new RolloutContext[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            contexts[i] = getStateMachine().createRolloutContext();
+        }
+        // Not a fixed pool: abandoned workers keep their threads until their
+        // playouts end, and must not hold up the workers that replace them.
+        pool = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ParallelMonteCarloGamer worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        StateMachine theMachine = getStateMachine();
+        long start = System.currentTimeMillis();
+        long finishBy = timeout - SAFETY_MARGIN;
+
+        List<Move> moves = theMachine.getLegalMoves(getCurrentState(), getRole());
+        Move selection = moves.get(0);
+        if (moves.size() > 1) {
+            Tallies tallies = new Tallies(moves.size());
+            List<Future<?>> workers = new ArrayList<Future<?>>(contexts.length);
+            for (int i = 0; i < contexts.length; i++) {
+                workers.add(pool.submit(new Worker(contexts[i], getCurrentState(), getRole(), moves, i, finishBy, tallies)));
+            }
+            awaitWorkers(workers, finishBy);
+            tallies.stopped = true;
+
+            // Find the move with the best expected score.
+            int bestMove = 0;
+            double bestMoveScore = -1;
+            long playouts = 0;
+            for (int i = 0; i < moves.size(); i++) {
+                long attempts = tallies.attempts.get(i);
+                playouts += attempts;
+                if (attempts > 0) {
+                    double score = (double) tallies.points.get(i) / attempts;
+                    if (score > bestMoveScore) {
+                        bestMoveScore = score;
+                        bestMove = i;
+                    }
+                }
+            }
+            selection = moves.get(bestMove);
+
+            long time = System.currentTimeMillis() - start;
+            GamerPlayoutRateEvent rateEvent = new GamerPlayoutRateEvent(playouts, time, contexts.length);
+            GamerLogger.log("MonteCarlo", String.format("%d playouts on %d threads in %d ms (%.1f playouts/s)",
+                    playouts, contexts.length, time, rateEvent.getPlayoutsPerSecond()));
+            notifyObservers(rateEvent);
+        }
+
+        long stop = System.currentTimeMillis();
+
+        notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start));
+        return selection;
+    }
+
+    /**
+     * Waits for the workers to finish, which they do on their own shortly
+     * after the given time. Workers that throw are logged and ignored.
+     * Workers that are still running a little after the given time are
+     * interrupted and abandoned, and their rollout contexts are replaced
+     * with fresh ones, since the abandoned workers may go on using them
+     * until their current playouts end.
+     */
+    private void awaitWorkers(List<Future<?>> futures, long finishBy)
+    {
+        for (int i = 0; i < futures.size(); i++) {
+            Future<?> future = futures.get(i);
+            try {
+                future.get(Math.max(0, finishBy + SAFETY_MARGIN / 2 - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                GamerLogger.logStackTrace("GamePlayer", e);
+            } catch (TimeoutException e) {
+                GamerLogger.log("GamePlayer", "A Monte Carlo worker overran its deadline; replacing its rollout context.");
+                abandonWorker(futures, i);
+            } catch (InterruptedException e) {
+                for (int j = i; j < futures.size(); j++) {
+                    if (!futures.get(j).isDone()) {
+                        abandonWorker(futures, j);
+                    }
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void abandonWorker(List<Future<?>> futures, int i)
+    {
+        futures.get(i).cancel(true);
+        contexts[i] = getStateMachine().createRolloutContext();
+    }
+
+    @Override
+    public void stateMachineStop() {
+        shutdownPool();
+    }
+
+    @Override
+    public void stateMachineAbort() {
+        shutdownPool();
+    }
+
+    private void shutdownPool()
+    {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        contexts = null;
+    }
+
+    /**
+     * The total score and number of playouts for each candidate move,
+     * shared by all workers.
+     */
+    private static final class Tallies
+    {
+        final AtomicLongArray points;
+        final AtomicLongArray attempts;
+        volatile boolean stopped;
+
+        Tallies(int numMoves)
+        {
+            points = new AtomicLongArray(numMoves);
+            attempts = new AtomicLongArray(numMoves);
+        }
+    }
+
+    private static final class Worker implements Runnable
+    {
+        private final RolloutContext context;
+        private final MachineState state;
+        private final Role role;
+        private final int roleIndex;
+        private final List<Move> moves;
+        private final int firstMove;
+        private final long finishBy;
+        private final Tallies tallies;
+
+        Worker(RolloutContext context, MachineState state, Role role, List<Move> moves, int firstMove, long finishBy, Tallies tallies)
+        {
+            this.context = context;
+            this.state = state;
+            this.role = role;
+            this.roleIndex = context.getStateMachine().getRoles().indexOf(role);
+            this.moves = moves;
+            this.firstMove = firstMove;
+            this.finishBy = finishBy;
+            this.tallies = tallies;
+        }
+
+        @Override
+        public void run()
+        {
+            int numMoves = moves.size();
+            long[] points = new long[numMoves];
+            long[] attempts = new long[numMoves];
+            int[] goals = new int[context.getStateMachine().getRoles().size()];
+            // Workers start on different moves, so that each move gets a
+            // fair share of playouts even if time runs out early.
+            int i = firstMove % numMoves;
+            int sinceLastPublish = 0;
+            try {
+                while (!tallies.stopped && System.currentTimeMillis() < finishBy && !Thread.currentThread().isInterrupted()) {
+                    context.performRollout(state, role, moves.get(i), goals);
+                    points[i] += goals[roleIndex];
+                    attempts[i]++;
+                    i = (i + 1) % numMoves;
+                    if (++sinceLastPublish == PUBLISH_INTERVAL) {
+                        publish(points, attempts);
+                        sinceLastPublish = 0;
+                    }
+                }
+            } catch (Exception e) {
+                GamerLogger.logStackTrace("GamePlayer", e);
+            } finally {
+                publish(points, attempts);
+            }
+        }
+
+        private void publish(long[] points, long[] attempts)
+        {
+            for (int i = 0; i < points.length; i++) {
+                if (attempts[i] > 0) {
+                    tallies.points.addAndGet(i, points[i]);
+                    tallies.attempts.addAndGet(i, attempts[i]);
+                    points[i] = 0;
+                    attempts[i] = 0;
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,29 @@
 package org.ggp.base.util.concurrency;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 public class ConcurrencyUtils {
+    /** Interrupts threads whose deadlines have passed; see interruptAt. */
+    private static final ScheduledExecutorService deadlineTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ConcurrencyUtils deadline timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     private ConcurrencyUtils() {
     }
 
@@ -11,4 +34,137 @@ public class ConcurrencyUtils {
         if (Thread.currentThread().isInterrupted())
             throw new InterruptedException();
     }
+
+    /**
+     * Interrupts the current thread at the given deadline, a time in
+     * milliseconds like {@link System#currentTimeMillis()}, so that the
+     * next {@link #checkForInterruption()} on it throws, as does
+     * {@link #invokeAll(ExecutorService, List)} if it is waiting on tasks
+     * there, which are then cancelled. Long.MAX_VALUE means no deadline.
+     *
+     * The deadline is enforced from another thread, so checking for
+     * interruption costs no more than before. The caller must cancel the
+     * returned timer when done, e.g. in a finally block.
+     */
+    public static DeadlineTimer interruptAt(long deadline) {
+        DeadlineTimer timer = new DeadlineTimer(Thread.currentThread());
+        if (deadline != Long.MAX_VALUE) {
+            timer.future = deadlineTimer.schedule(timer, deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+        return timer;
+    }
+
+    /**
+     * Interrupts a thread at its deadline, unless cancelled first; see
+     * {@link ConcurrencyUtils#interruptAt(long)}.
+     */
+    public static final class DeadlineTimer implements Runnable {
+        private final Thread thread;
+        private volatile ScheduledFuture<?> future;
+        private boolean cancelled;
+        private boolean fired;
+
+        private DeadlineTimer(Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (!cancelled) {
+                fired = true;
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Stops the timer, and returns whether the deadline had passed. If
+         * it had, this clears the interruption it caused. This must be
+         * called on the thread the timer was started on.
+         */
+        public boolean cancel() {
+            boolean passed;
+            synchronized (this) {
+                cancelled = true;
+                passed = fired;
+            }
+            if (future != null) {
+                future.cancel(false);
+            }
+            if (passed) {
+                Thread.interrupted();
+            }
+            return passed;
+        }
+    }
+
+    /**
+     * Creates a pool of the given number of daemon threads, for work that
+     * callers wait on with {@link #invokeAll(ExecutorService, List)}. Returns
+     * null if there would be only one thread, in which case the callers do
+     * the work themselves. The caller should shut the pool down when done.
+     */
+    public static ExecutorService newDaemonPool(final String threadName, int numThreads) {
+        if (numThreads <= 1) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs the tasks on the pool, or one after another on the current thread
+     * if the pool is null or there is only one task, and returns their
+     * results in order. If any task fails, the others are cancelled and its exception is
+     * rethrown, unwrapped where possible.
+     */
+    public static <T> List<T> invokeAll(ExecutorService pool, List<? extends Callable<T>> tasks) throws InterruptedException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (pool == null || tasks.size() < 2) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw rethrow(e);
+                }
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw rethrow(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            //Stop any tasks still going on if we're giving up
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) throws InterruptedException {
+        if (t instanceof InterruptedException) {
+            throw (InterruptedException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
 }
@@ -1,14 +1,32 @@
 package org.ggp.base.util.gdl.grammar;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 @SuppressWarnings("serial")
 public final class GdlConstant extends GdlTerm
 {
 
+    private static final AtomicInteger nextId = new AtomicInteger();
+
     private final String value;
+    private final int id;
 
     GdlConstant(String value)
     {
         this.value = value.intern();
+        this.id = nextId.getAndIncrement();
+    }
+
+    /**
+     * Returns the id of this constant, a non-negative number that no other
+     * constant has, for use as a hash code or as a compact key in place of the
+     * constant. Ids are handed out in order as constants are created, and
+     * aren't reused when the pool reclaims a constant, so they keep growing
+     * over the life of a player and shouldn't be used to size arrays.
+     */
+    public int getId()
+    {
+        return id;
     }
 
     public String getValue()
@@ -28,6 +46,12 @@ public final class GdlConstant extends GdlTerm
         return GdlPool.getProposition(this);
     }
 
+    @Override
+    public int hashCode()
+    {
+        return id;
+    }
+
     @Override
     public String toString()
     {
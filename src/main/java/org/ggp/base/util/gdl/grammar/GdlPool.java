@@ -6,8 +6,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.collect.ImmutableList;
@@ -21,25 +19,41 @@ import com.google.common.collect.MapMaker;
  * objects may be checked for equality with an instance-equality check (==) rather
  * than a more expensive recursive equality check.
  * <p>
- * A long-lived game player may accumulate lots of objects in its pool. To remove
- * them, it may call {@link #drainPool()} in between games. Note that if this
- * method is called while references to Gdl objects other than keyword constants
- * are held elsewhere, bad things will happen.
+ * The pool doesn't keep its objects alive, so a long-lived game player doesn't
+ * accumulate the objects of the games it has played. Most objects are held
+ * weakly and are reclaimed by the garbage collector once nothing else refers to
+ * them, even while other matches go on in the same process. Functions and
+ * relations, which the prover tends to recreate, are held softly instead: they
+ * outlive their last reference until the JVM runs low on memory, and are only
+ * reclaimed then. {@link #drainPool()} can still be used to
+ * empty the pool at once, but if it is called while references to Gdl objects
+ * other than keyword constants are held elsewhere, bad things will happen.
+ * <p>
+ * Each {@link GdlConstant} and {@link GdlVariable} has an int id, which is
+ * used as its hash code and can stand in for the object as a compact key.
  */
 public final class GdlPool
 {
-    private static final ConcurrentMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>> distinctPool = new ConcurrentHashMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>>();
-    private static final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>> functionPool = new ConcurrentHashMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>>();
-    private static final ConcurrentMap<GdlLiteral, GdlNot> notPool = new ConcurrentHashMap<GdlLiteral, GdlNot>();
-    private static final ConcurrentMap<List<GdlLiteral>, GdlOr> orPool = new ConcurrentHashMap<List<GdlLiteral>, GdlOr>();
-    private static final ConcurrentMap<GdlConstant, GdlProposition> propositionPool = new ConcurrentHashMap<GdlConstant, GdlProposition>();
-    private static final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>> relationPool = new ConcurrentHashMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>>();
-    private static final ConcurrentMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>> rulePool = new ConcurrentHashMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>>();
-    private static final ConcurrentMap<String, GdlVariable> variablePool = new ConcurrentHashMap<String, GdlVariable>();
-    private static final ConcurrentMap<String, GdlConstant> constantPool = new ConcurrentHashMap<String, GdlConstant>();
-    //Access to constantCases and variableCases should be synchronized using their monitor locks.
-    private static final Map<String,String> constantCases = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
-    private static final Map<String,String> variableCases = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+    // Objects are held weakly (or, for functions and relations, softly, so they
+    // stay around until memory runs low), so that the objects of a match are
+    // reclaimed once the match is over and nothing else refers to them. An
+    // object can only be dropped from the pool once nothing refers to it, so
+    // the pool never hands out a second object equal to one still in use.
+    // Buckets are keyed weakly, and go away along with their keys.
+    private static final ConcurrentMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>> distinctPool = new MapMaker().weakKeys().makeMap();
+    private static final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>> functionPool = new MapMaker().weakKeys().makeMap();
+    private static final ConcurrentMap<GdlLiteral, GdlNot> notPool = new MapMaker().weakValues().makeMap();
+    private static final ConcurrentMap<List<GdlLiteral>, GdlOr> orPool = new MapMaker().weakValues().makeMap();
+    private static final ConcurrentMap<GdlConstant, GdlProposition> propositionPool = new MapMaker().weakValues().makeMap();
+    private static final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>> relationPool = new MapMaker().weakKeys().makeMap();
+    private static final ConcurrentMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>> rulePool = new MapMaker().weakKeys().makeMap();
+    private static final ConcurrentMap<String, GdlVariable> variablePool = new MapMaker().weakValues().makeMap();
+    private static final ConcurrentMap<String, GdlConstant> constantPool = new MapMaker().weakValues().makeMap();
+    // When case-insensitive, these map the case-folded form of a name to the
+    // object first created under any spelling of it. They are weak like the
+    // pools themselves, so a spelling is forgotten along with its object.
+    private static final ConcurrentMap<String, GdlConstant> constantCases = new MapMaker().weakValues().makeMap();
+    private static final ConcurrentMap<String, GdlVariable> variableCases = new MapMaker().weakValues().makeMap();
 
     // Controls whether we normalize the case of incoming constants and variables.
     public static volatile boolean caseSensitive = true;
@@ -91,9 +105,7 @@ public final class GdlPool
         relationPool.clear();
         rulePool.clear();
         variablePool.clear();
-        synchronized (variableCases) {
-            variableCases.clear();
-        }
+        variableCases.clear();
 
         // When draining the pool between matches, we still need to preserve the keywords
         // since there are global references to them. For example, the Prover state machine
@@ -106,14 +118,24 @@ public final class GdlPool
         for (String keyword : KEYWORDS) {
             keywordConstants.put(keyword, GdlPool.getConstant(keyword));
         }
-        synchronized (constantCases) {
-            constantPool.clear();
-            constantCases.clear();
-            for (Map.Entry<String,GdlConstant> keywordEntry : keywordConstants.entrySet()) {
-                constantCases.put(keywordEntry.getKey(), keywordEntry.getKey());
-                constantPool.put(keywordEntry.getKey(), keywordEntry.getValue());
-            }
+        constantPool.clear();
+        constantCases.clear();
+        for (Map.Entry<String,GdlConstant> keywordEntry : keywordConstants.entrySet()) {
+            constantPool.put(keywordEntry.getKey(), keywordEntry.getValue());
+        }
+    }
+
+    /**
+     * Folds each character of the name the way {@link String#CASE_INSENSITIVE_ORDER}
+     * compares it, so that two names are equal ignoring case exactly when their
+     * folded forms are equal.
+     */
+    private static String foldCase(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
         }
+        return new String(chars);
     }
 
     /**
@@ -139,45 +161,45 @@ public final class GdlPool
         if (KEYWORDS.contains(value.toLowerCase())) {
             value = value.toLowerCase();
         }
-        if (!caseSensitive) {
-            synchronized (constantCases) {
-                if (constantCases.containsKey(value)) {
-                    value = constantCases.get(value);
-                } else {
-                    constantCases.put(value, value);
-                }
-            }
+        String folded = caseSensitive ? null : foldCase(value);
+        if (folded != null) {
+            GdlConstant ret = constantCases.get(folded);
+            if (ret != null)
+                return ret;
         }
 
         GdlConstant ret = constantPool.get(value);
         if(ret == null)
             ret = addToPool(value, new GdlConstant(value), constantPool);
+        if (folded != null)
+            ret = addToPool(folded, ret, constantCases);
         return ret;
     }
 
     public static GdlVariable getVariable(String name)
     {
-        if (!caseSensitive) {
-            synchronized (variableCases) {
-                if (variableCases.containsKey(name)) {
-                    name = variableCases.get(name);
-                } else {
-                    variableCases.put(name, name);
-                }
-            }
+        String folded = caseSensitive ? null : foldCase(name);
+        if (folded != null) {
+            GdlVariable ret = variableCases.get(folded);
+            if (ret != null)
+                return ret;
         }
 
         GdlVariable ret = variablePool.get(name);
         if(ret == null)
             ret = addToPool(name, new GdlVariable(name), variablePool);
+        if (folded != null)
+            ret = addToPool(folded, ret, variableCases);
         return ret;
     }
 
     public static GdlDistinct getDistinct(GdlTerm arg1, GdlTerm arg2)
     {
         ConcurrentMap<GdlTerm, GdlDistinct> bucket = distinctPool.get(arg1);
-        if(bucket == null)
-            bucket = addToPool(arg1, new ConcurrentHashMap<GdlTerm, GdlDistinct>(), distinctPool);
+        if(bucket == null) {
+            ConcurrentMap<GdlTerm, GdlDistinct> newMap = new MapMaker().weakValues().makeMap();
+            bucket = addToPool(arg1, newMap, distinctPool);
+        }
 
         GdlDistinct ret = bucket.get(arg2);
         if(ret == null)
@@ -290,8 +312,10 @@ public final class GdlPool
     public static GdlRule getRule(GdlSentence head, List<GdlLiteral> body)
     {
         ConcurrentMap<List<GdlLiteral>, GdlRule> bucket = rulePool.get(head);
-        if(bucket == null)
-            bucket = addToPool(head, new ConcurrentHashMap<List<GdlLiteral>, GdlRule>(), rulePool);
+        if(bucket == null) {
+            ConcurrentMap<List<GdlLiteral>, GdlRule> newMap = new MapMaker().weakValues().makeMap();
+            bucket = addToPool(head, newMap, rulePool);
+        }
 
         GdlRule ret = bucket.get(body);
         if(ret == null) {
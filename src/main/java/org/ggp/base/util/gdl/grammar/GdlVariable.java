@@ -1,14 +1,32 @@
 package org.ggp.base.util.gdl.grammar;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 @SuppressWarnings("serial")
 public final class GdlVariable extends GdlTerm
 {
 
+    private static final AtomicInteger nextId = new AtomicInteger();
+
     private final String name;
+    private final int id;
 
     GdlVariable(String name)
     {
         this.name = name.intern();
+        this.id = nextId.getAndIncrement();
+    }
+
+    /**
+     * Returns the id of this variable, a non-negative number that no other
+     * variable has, for use as a hash code or as a compact key in place of the
+     * variable. Ids are handed out in order as variables are created, and
+     * aren't reused when the pool reclaims a variable, so they keep growing
+     * over the life of a player and shouldn't be used to size arrays.
+     */
+    public int getId()
+    {
+        return id;
     }
 
     public String getName()
@@ -28,6 +46,12 @@ public final class GdlVariable extends GdlTerm
         throw new RuntimeException("Unable to convert a GdlVariable to a GdlSentence!");
     }
 
+    @Override
+    public int hashCode()
+    {
+        return id;
+    }
+
     @Override
     public String toString()
     {
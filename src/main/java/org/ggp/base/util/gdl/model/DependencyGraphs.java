@@ -3,6 +3,7 @@ package org.ggp.base.util.gdl.model;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -13,6 +14,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Queues;
@@ -113,6 +115,44 @@ public class DependencyGraphs {
         return ordering;
     }
 
+    /**
+     * Given a dependency graph, returns its strata, as given by
+     * {@link #toposortSafe(Set, Multimap)}, grouped into levels. The strata
+     * in a level depend only on strata in earlier levels (and on
+     * themselves), never on each other, so they can be processed
+     * concurrently once the earlier levels are done.
+     *
+     * Each key in the given dependency graph depends on/is downstream of
+     * its associated values.
+     */
+    public static <T> List<List<Set<T>>> toposortLevels(
+            Set<T> allElements,
+            Multimap<T, T> dependencyGraph) {
+        List<Set<T>> strata = toposortSafe(allElements, dependencyGraph);
+        Map<T, Integer> levelsByElement = Maps.newHashMap();
+        List<List<Set<T>>> levels = Lists.newArrayList();
+        for (Set<T> stratum : strata) {
+            // Every stratum depended on comes earlier in the ordering
+            int level = 0;
+            for (T element : stratum) {
+                for (T dependency : dependencyGraph.get(element)) {
+                    Integer dependencyLevel = levelsByElement.get(dependency);
+                    if (dependencyLevel != null) {
+                        level = Math.max(level, dependencyLevel + 1);
+                    }
+                }
+            }
+            for (T element : stratum) {
+                levelsByElement.put(element, level);
+            }
+            if (level == levels.size()) {
+                levels.add(Lists.<Set<T>>newArrayList());
+            }
+            levels.get(level).add(stratum);
+        }
+        return levels;
+    }
+
     private static <T> void addOrMergeStratumAndAncestors(Set<T> curStratum,
             List<Set<T>> ordering, Set<Set<T>> toAdd,
             SetMultimap<Set<T>, Set<T>> strataDependencyGraph,
@@ -2,19 +2,46 @@ package org.ggp.base.util.gdl.model;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+
+import com.google.common.collect.ImmutableList;
 
 public class SentenceDomainModelFactory {
     private SentenceDomainModelFactory() {
     }
 
+    /**
+     * Creates the model, doing all the work on the calling thread.
+     */
     public static ImmutableSentenceDomainModel createWithCartesianDomains(List<Gdl> description) throws InterruptedException {
-        ImmutableSentenceFormModel formModel = SentenceFormModelFactory.create(description);
+        return createWithCartesianDomains(description, null);
+    }
+
+    /**
+     * Creates the model, working out the sentence forms of independent parts
+     * of the game concurrently on the given pool. If the pool is null, it
+     * does everything on the calling thread.
+     */
+    public static ImmutableSentenceDomainModel createWithCartesianDomains(List<Gdl> description, ExecutorService pool) throws InterruptedException {
+        long startTime = System.nanoTime();
+        ImmutableList<Gdl> gameRules = ImmutableList.copyOf(description);
+        SentenceFormsFinder sentenceFormsFinder = new SentenceFormsFinder(gameRules, pool);
+        sentenceFormsFinder.createModel();
+        long fixedPointTime = System.nanoTime();
+
+        ImmutableSentenceFormModel formModel = SentenceFormModelFactory.create(gameRules, sentenceFormsFinder);
+        long formModelTime = System.nanoTime();
 
-        SentenceFormsFinder sentenceFormsFinder = new SentenceFormsFinder(formModel.getDescription());
         Map<SentenceForm, SentenceFormDomain> domains = sentenceFormsFinder.findCartesianDomains();
+        long domainsTime = System.nanoTime();
 
+        GamerLogger.log("StateMachine", "Found " + domains.size() + " sentence forms: rule fixed point "
+                + (fixedPointTime - startTime) / 1000000 + " ms, form model "
+                + (formModelTime - fixedPointTime) / 1000000 + " ms, Cartesian domains "
+                + (domainsTime - formModelTime) / 1000000 + " ms");
         return ImmutableSentenceDomainModel.create(formModel, domains);
     }
 }
@@ -4,6 +4,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
 import org.ggp.base.util.gdl.GdlUtils;
@@ -22,13 +24,16 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
 import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
 import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
@@ -50,14 +55,30 @@ public class SentenceDomainModelOptimizer {
      *
      * The description for the game must have had the {@link VariableConstrainer}
      * applied to it.
+     *
+     * This does all the work on the calling thread.
      */
     public static ImmutableSentenceDomainModel restrictDomainsToUsefulValues(SentenceDomainModel oldModel) throws InterruptedException {
+        return restrictDomainsToUsefulValues(oldModel, null);
+    }
+
+    /**
+     * Like {@link #restrictDomainsToUsefulValues(SentenceDomainModel)}, but
+     * works out the domains of independent sentence forms concurrently on
+     * the given pool. If the pool is null, it does everything on the calling
+     * thread.
+     */
+    public static ImmutableSentenceDomainModel restrictDomainsToUsefulValues(SentenceDomainModel oldModel, ExecutorService pool) throws InterruptedException {
+        long startTime = System.nanoTime();
         // Start with everything from the current domain model.
         Map<SentenceForm, SetMultimap<Integer, GdlConstant>> neededAndPossibleConstantsByForm = Maps.newHashMap();
         for (SentenceForm form : oldModel.getSentenceForms()) {
             neededAndPossibleConstantsByForm.put(form, HashMultimap.<Integer, GdlConstant>create());
             addDomain(neededAndPossibleConstantsByForm.get(form), oldModel.getDomain(form), form);
         }
+        FormGraph neededGraph = FormGraph.forNeededConstants(oldModel);
+        FormGraph possibleGraph = FormGraph.forPossibleConstants(oldModel);
+        long graphsTime = System.nanoTime();
 
         /*
          * To minimize the contents of the domains, we repeatedly go through two processes to reduce
@@ -74,16 +95,140 @@ public class SentenceDomainModelOptimizer {
          * Constants removed because of one type of pass or the other may cause other constants
          * in other sentence forms to become unneeded or impossible, so we make multiple passes
          * until everything is stable.
+         *
+         * Within each pass, the constants of a form depend only on those of the forms upstream
+         * of it (for possible constants) or downstream of it (for needed constants), so each
+         * pass works through the strongly connected components of forms in dependency order,
+         * and on the independent components of each level concurrently.
          */
+        int rounds = 0;
+        long unneededNanos = 0;
+        long impossibleNanos = 0;
         boolean somethingChanged = true;
         while (somethingChanged) {
-            somethingChanged = removeUnneededConstants(neededAndPossibleConstantsByForm, oldModel);
-            somethingChanged |= removeImpossibleConstants(neededAndPossibleConstantsByForm, oldModel);
+            long roundStartTime = System.nanoTime();
+            somethingChanged = removeUnneededConstants(neededAndPossibleConstantsByForm, oldModel, neededGraph, pool);
+            long unneededTime = System.nanoTime();
+            somethingChanged |= removeImpossibleConstants(neededAndPossibleConstantsByForm, oldModel, possibleGraph, pool);
+            unneededNanos += unneededTime - roundStartTime;
+            impossibleNanos += System.nanoTime() - unneededTime;
+            rounds++;
         }
 
+        GamerLogger.log("StateMachine", "Restricted the domains of " + neededAndPossibleConstantsByForm.size()
+                + " sentence forms in " + rounds + " rounds: dependency graphs "
+                + (graphsTime - startTime) / 1000000 + " ms, unneeded constants "
+                + unneededNanos / 1000000 + " ms (" + neededGraph.levels.size() + " levels), impossible constants "
+                + impossibleNanos / 1000000 + " ms (" + possibleGraph.levels.size() + " levels)");
         return toSentenceDomainModel(neededAndPossibleConstantsByForm, oldModel);
     }
 
+    /**
+     * The rules of the game arranged for one of the two kinds of pass, so
+     * that the pass can go through the strongly connected components of
+     * sentence forms in order, and through the components of each level
+     * concurrently.
+     */
+    private static class FormGraph {
+        //The rules that can add to the constants of each form in the pass
+        private final SetMultimap<SentenceForm, GdlRule> rulesByForm = LinkedHashMultimap.create();
+        //The forms whose constants are injected into each form by the GDL keywords
+        private final SetMultimap<SentenceForm, SentenceForm> injectionsByForm = HashMultimap.create();
+        private final SetMultimap<SentenceForm, SentenceForm> dependencyGraph = HashMultimap.create();
+        private List<List<Set<SentenceForm>>> levels;
+
+        /**
+         * Needed constants flow from the head of each rule to every sentence
+         * in its body, positive or negated.
+         */
+        public static FormGraph forNeededConstants(SentenceFormModel model) {
+            FormGraph graph = new FormGraph();
+            for (GdlRule rule : getRules(model.getDescription())) {
+                SentenceForm headForm = model.getSentenceForm(rule.getHead());
+                for (GdlSentence sentence : getAllSentencesInBody(rule.getBody())) {
+                    SentenceForm form = model.getSentenceForm(sentence);
+                    graph.rulesByForm.put(form, rule);
+                    graph.dependencyGraph.put(form, headForm);
+                }
+            }
+            graph.levels = DependencyGraphs.toposortLevels(model.getSentenceForms(), graph.dependencyGraph);
+            return graph;
+        }
+
+        /**
+         * Possible constants flow from the positive conjuncts of each rule to
+         * its head, and along the language-based injections.
+         */
+        public static FormGraph forPossibleConstants(SentenceFormModel model) {
+            FormGraph graph = new FormGraph();
+            for (GdlRule rule : getRules(model.getDescription())) {
+                SentenceForm headForm = model.getSentenceForm(rule.getHead());
+                graph.rulesByForm.put(headForm, rule);
+                for (GdlSentence conjunct : getPositiveConjuncts(rule.getBody())) {
+                    graph.dependencyGraph.put(headForm, model.getSentenceForm(conjunct));
+                }
+            }
+            for (SentenceForm form : model.getSentenceForms()) {
+                GdlConstant resultingName = LANGUAGE_INJECTIONS.get(form.getName());
+                if (resultingName != null) {
+                    SentenceForm resultingForm = form.withName(resultingName);
+                    if (model.getSentenceForms().contains(resultingForm)) {
+                        graph.injectionsByForm.put(resultingForm, form);
+                        graph.dependencyGraph.put(resultingForm, form);
+                    }
+                }
+            }
+            graph.levels = DependencyGraphs.toposortLevels(model.getSentenceForms(), graph.dependencyGraph);
+            return graph;
+        }
+
+        public Set<GdlRule> getRulesFor(SentenceForm form) {
+            return rulesByForm.get(form);
+        }
+
+        public Set<SentenceForm> getInjectionsInto(SentenceForm form) {
+            return injectionsByForm.get(form);
+        }
+
+        /**
+         * Applies the pass to every component, in order, until each one
+         * stops changing.
+         */
+        public void applyByComponents(final ComponentPass pass, ExecutorService pool) throws InterruptedException {
+            for (List<Set<SentenceForm>> level : levels) {
+                List<Callable<Void>> tasks = Lists.newArrayList();
+                for (final Set<SentenceForm> component : level) {
+                    SentenceForm first = component.iterator().next();
+                    // Without recursion, one application reaches the fixed point
+                    final boolean recursive = component.size() > 1 || dependencyGraph.containsEntry(first, first);
+                    if (!recursive && !rulesByForm.containsKey(first) && !injectionsByForm.containsKey(first)) {
+                        continue;
+                    }
+                    tasks.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws InterruptedException {
+                            boolean somethingChanged = pass.apply(component);
+                            while (recursive && somethingChanged) {
+                                somethingChanged = pass.apply(component);
+                            }
+                            return null;
+                        }
+                    });
+                }
+                ConcurrencyUtils.invokeAll(pool, tasks);
+            }
+        }
+    }
+
+    private interface ComponentPass {
+        /**
+         * Adds constants to the forms in the component, given the constants
+         * of the forms they depend on, and returns whether any were added.
+         * Must only change the constants of forms in the component.
+         */
+        boolean apply(Set<SentenceForm> component) throws InterruptedException;
+    }
+
     private static void addDomain(
             SetMultimap<Integer, GdlConstant> setMultimap,
             SentenceFormDomain domain,
@@ -94,18 +239,33 @@ public class SentenceDomainModelOptimizer {
     }
 
     private static boolean removeImpossibleConstants(
-            Map<SentenceForm, SetMultimap<Integer, GdlConstant>> curDomains,
-            SentenceFormModel model) throws InterruptedException {
-        Map<SentenceForm, SetMultimap<Integer, GdlConstant>> newPossibleConstantsByForm = Maps.newHashMap();
+            final Map<SentenceForm, SetMultimap<Integer, GdlConstant>> curDomains,
+            final SentenceFormModel model,
+            final FormGraph graph,
+            ExecutorService pool) throws InterruptedException {
+        final Map<SentenceForm, SetMultimap<Integer, GdlConstant>> newPossibleConstantsByForm = Maps.newHashMap();
         for (SentenceForm form : curDomains.keySet()) {
             newPossibleConstantsByForm.put(form, HashMultimap.<Integer, GdlConstant>create());
         }
         populateInitialPossibleConstants(newPossibleConstantsByForm, curDomains, model);
 
-        boolean somethingChanged = true;
-        while (somethingChanged) {
-            somethingChanged = propagatePossibleConstants(newPossibleConstantsByForm, curDomains, model);
-        }
+        graph.applyByComponents(new ComponentPass() {
+            @Override
+            public boolean apply(Set<SentenceForm> component) throws InterruptedException {
+                boolean somethingChanged = false;
+                for (SentenceForm form : component) {
+                    for (GdlRule rule : graph.getRulesFor(form)) {
+                        somethingChanged |= propagatePossibleConstants(rule, newPossibleConstantsByForm, curDomains, model);
+                    }
+                    //Language-based injections
+                    for (SentenceForm injectedForm : graph.getInjectionsInto(form)) {
+                        ConcurrencyUtils.checkForInterruption();
+                        somethingChanged |= newPossibleConstantsByForm.get(form).putAll(newPossibleConstantsByForm.get(injectedForm));
+                    }
+                }
+                return somethingChanged;
+            }
+        }, pool);
 
         return retainNewDomains(curDomains, newPossibleConstantsByForm);
     }
@@ -129,6 +289,7 @@ public class SentenceDomainModelOptimizer {
     }
 
     private static boolean propagatePossibleConstants(
+            GdlRule rule,
             Map<SentenceForm, SetMultimap<Integer, GdlConstant>> newPossibleConstantsByForm,
             Map<SentenceForm, SetMultimap<Integer, GdlConstant>> curDomain,
             SentenceFormModel model) throws InterruptedException {
@@ -136,43 +297,18 @@ public class SentenceDomainModelOptimizer {
         //values in their heads
         boolean somethingChanged = false;
 
-        for (GdlRule rule : getRules(model.getDescription())) {
-            GdlSentence head = rule.getHead();
-
-            Map<GdlVariable, Set<GdlConstant>> domainsOfHeadVars = Maps.newHashMap();
-            for (GdlVariable varInHead : ImmutableSet.copyOf(GdlUtils.getVariables(rule.getHead()))) {
-                Set<GdlConstant> domain = getVarDomainInRuleBody(varInHead, rule, newPossibleConstantsByForm, curDomain, model);
-                domainsOfHeadVars.put(varInHead, domain);
-                somethingChanged |= addPossibleValuesToSentence(domain, head, varInHead, newPossibleConstantsByForm, model);
-            }
+        GdlSentence head = rule.getHead();
+        for (GdlVariable varInHead : ImmutableSet.copyOf(GdlUtils.getVariables(rule.getHead()))) {
+            Set<GdlConstant> domain = getVarDomainInRuleBody(varInHead, rule, newPossibleConstantsByForm, curDomain, model);
+            somethingChanged |= addPossibleValuesToSentence(domain, head, varInHead, newPossibleConstantsByForm, model);
         }
-
-        //Language-based injections
-        somethingChanged |= applyLanguageBasedInjections(GdlPool.INIT, GdlPool.TRUE, newPossibleConstantsByForm);
-        somethingChanged |= applyLanguageBasedInjections(GdlPool.NEXT, GdlPool.TRUE, newPossibleConstantsByForm);
-        somethingChanged |= applyLanguageBasedInjections(GdlPool.LEGAL, GdlPool.DOES, newPossibleConstantsByForm);
-
         return somethingChanged;
     }
 
-    private static boolean applyLanguageBasedInjections(
-            GdlConstant curName,
-            GdlConstant resultingName,
-            Map<SentenceForm, SetMultimap<Integer, GdlConstant>> newPossibleConstantsByForm) throws InterruptedException {
-        boolean somethingChanged = false;
-        for (SentenceForm form : newPossibleConstantsByForm.keySet()) {
-            ConcurrencyUtils.checkForInterruption();
-            if (form.getName() == curName) {
-                SentenceForm resultingForm = form.withName(resultingName);
-
-                SetMultimap<Integer, GdlConstant> curFormDomain = newPossibleConstantsByForm.get(form);
-                SetMultimap<Integer, GdlConstant> resultingFormDomain = newPossibleConstantsByForm.get(resultingForm);
-
-                somethingChanged |= resultingFormDomain.putAll(curFormDomain);
-            }
-        }
-        return somethingChanged;
-    }
+    private static final ImmutableMap<GdlConstant, GdlConstant> LANGUAGE_INJECTIONS = ImmutableMap.of(
+            GdlPool.INIT, GdlPool.TRUE,
+            GdlPool.NEXT, GdlPool.TRUE,
+            GdlPool.LEGAL, GdlPool.DOES);
 
     private static Set<GdlConstant> getVarDomainInRuleBody(
             GdlVariable varInHead,
@@ -227,17 +363,40 @@ public class SentenceDomainModelOptimizer {
 
     private static boolean removeUnneededConstants(
             Map<SentenceForm, SetMultimap<Integer, GdlConstant>> curDomains,
-            SentenceFormModel model) throws InterruptedException {
-        Map<SentenceForm, SetMultimap<Integer, GdlConstant>> newNeededConstantsByForm = Maps.newHashMap();
+            final SentenceFormModel model,
+            final FormGraph graph,
+            ExecutorService pool) throws InterruptedException {
+        final Map<SentenceForm, SetMultimap<Integer, GdlConstant>> newNeededConstantsByForm = Maps.newHashMap();
         for (SentenceForm form : curDomains.keySet()) {
             newNeededConstantsByForm.put(form, HashMultimap.<Integer, GdlConstant>create());
         }
         populateInitialNeededConstants(newNeededConstantsByForm, curDomains, model);
 
-        boolean somethingChanged = true;
-        while (somethingChanged) {
-            somethingChanged = propagateNeededConstants(newNeededConstantsByForm, curDomains, model);
+        //The domains of the variables in each rule don't change during the pass
+        final Map<GdlRule, Map<GdlVariable, Set<GdlConstant>>> varDomainsByRule = Maps.newHashMap();
+        for (GdlRule rule : getRules(model.getDescription())) {
+            ConcurrencyUtils.checkForInterruption();
+            if (!varDomainsByRule.containsKey(rule)) {
+                varDomainsByRule.put(rule, getVarDomains(rule, curDomains, model));
+            }
         }
+        //...so neither do the constants needed by variables outside the heads
+        applyRuleBodyOnlyPropagation(newNeededConstantsByForm, varDomainsByRule, model);
+
+        graph.applyByComponents(new ComponentPass() {
+            @Override
+            public boolean apply(Set<SentenceForm> component) throws InterruptedException {
+                Set<GdlRule> rules = Sets.newLinkedHashSet();
+                for (SentenceForm form : component) {
+                    rules.addAll(graph.getRulesFor(form));
+                }
+                boolean somethingChanged = false;
+                for (GdlRule rule : rules) {
+                    somethingChanged |= applyRuleHeadPropagation(rule, varDomainsByRule.get(rule), component, newNeededConstantsByForm, model);
+                }
+                return somethingChanged;
+            }
+        }, pool);
 
         return retainNewDomains(curDomains, newNeededConstantsByForm);
     }
@@ -253,34 +412,20 @@ public class SentenceDomainModelOptimizer {
         return somethingChanged;
     }
 
-    private static boolean propagateNeededConstants(
+    private static void applyRuleBodyOnlyPropagation(
             Map<SentenceForm, SetMultimap<Integer, GdlConstant>> neededConstantsByForm,
-            Map<SentenceForm, SetMultimap<Integer, GdlConstant>> curDomains,
+            Map<GdlRule, Map<GdlVariable, Set<GdlConstant>>> varDomainsByRule,
             SentenceFormModel model) throws InterruptedException {
-        boolean somethingChanged = false;
-
-        somethingChanged |= applyRuleHeadPropagation(neededConstantsByForm, curDomains, model);
-        somethingChanged |= applyRuleBodyOnlyPropagation(neededConstantsByForm, curDomains, model);
-
-        return somethingChanged;
-    }
-
-
-    private static boolean applyRuleBodyOnlyPropagation(
-            Map<SentenceForm, SetMultimap<Integer, GdlConstant>> neededConstantsByForm,
-            Map<SentenceForm, SetMultimap<Integer, GdlConstant>> curDomains,
-            SentenceFormModel model) throws InterruptedException {
-        boolean somethingChanged = false;
         //If a variable does not appear in the head of a variable,
         //then all the values that are in the intersections of all the
         //domains from the positive conjuncts containing the variable
         //become needed.
 
-        for (GdlRule rule : getRules(model.getDescription())) {
+        for (GdlRule rule : varDomainsByRule.keySet()) {
             GdlSentence head = rule.getHead();
             Set<GdlVariable> varsInHead = ImmutableSet.copyOf(GdlUtils.getVariables(head));
 
-            Map<GdlVariable, Set<GdlConstant>> varDomains = getVarDomains(rule, curDomains, model);
+            Map<GdlVariable, Set<GdlConstant>> varDomains = varDomainsByRule.get(rule);
             for (GdlVariable var : ImmutableSet.copyOf(GdlUtils.getVariables(rule))) {
                 if (!varsInHead.contains(var)) {
                     Set<GdlConstant> neededConstants = varDomains.get(var);
@@ -289,13 +434,11 @@ public class SentenceDomainModelOptimizer {
                                 ";\nrule is " + rule);
                     }
                     for (GdlLiteral conjunct : rule.getBody()) {
-                        somethingChanged |=
-                                addPossibleValuesToConjunct(neededConstants, conjunct, var, neededConstantsByForm, model);
+                        addPossibleValuesToConjunct(neededConstants, conjunct, var, neededConstantsByForm.keySet(), neededConstantsByForm, model);
                     }
                 }
             }
         }
-        return somethingChanged;
     }
 
     private static Map<GdlVariable, Set<GdlConstant>> getVarDomains(
@@ -328,8 +471,10 @@ public class SentenceDomainModelOptimizer {
     }
 
     private static boolean applyRuleHeadPropagation(
+            GdlRule rule,
+            Map<GdlVariable, Set<GdlConstant>> varDomains,
+            Set<SentenceForm> formsToChange,
             Map<SentenceForm, SetMultimap<Integer, GdlConstant>> neededConstantsByForm,
-            Map<SentenceForm, SetMultimap<Integer, GdlConstant>> curDomains,
             SentenceFormModel model) throws InterruptedException {
         boolean somethingChanged = false;
         //If a term that is a variable in the head of a rule needs a
@@ -338,26 +483,22 @@ public class SentenceDomainModelOptimizer {
         //positive conjuncts in the rule's body, then the value is
         //needed in every appearance of the variable in the rule
         //(positive or negative).
-        for (GdlRule rule : getRules(model.getDescription())) {
-            GdlSentence head = rule.getHead();
-            SentenceForm headForm = model.getSentenceForm(head);
-            List<GdlTerm> headTuple = GdlUtils.getTupleFromSentence(head);
-
-            Map<GdlVariable, Set<GdlConstant>> varDomains = getVarDomains(rule, curDomains, model);
+        GdlSentence head = rule.getHead();
+        SentenceForm headForm = model.getSentenceForm(head);
+        List<GdlTerm> headTuple = GdlUtils.getTupleFromSentence(head);
 
-            for (int i = 0; i < headTuple.size(); i++) {
-                ConcurrencyUtils.checkForInterruption();
-                if (headTuple.get(i) instanceof GdlVariable) {
-                    GdlVariable curVar = (GdlVariable) headTuple.get(i);
-                    Set<GdlConstant> neededConstants = neededConstantsByForm.get(headForm).get(i);
-
-                    //Whittle these down based on what's possible throughout the rule
-                    Set<GdlConstant> neededAndPossibleConstants = Sets.newHashSet(neededConstants);
-                    neededAndPossibleConstants.retainAll(varDomains.get(curVar));
-                    //Relay those values back to the conjuncts in the rule body
-                    for (GdlLiteral conjunct : rule.getBody()) {
-                        somethingChanged |= addPossibleValuesToConjunct(neededAndPossibleConstants, conjunct, curVar, neededConstantsByForm, model);
-                    }
+        for (int i = 0; i < headTuple.size(); i++) {
+            ConcurrencyUtils.checkForInterruption();
+            if (headTuple.get(i) instanceof GdlVariable) {
+                GdlVariable curVar = (GdlVariable) headTuple.get(i);
+                Set<GdlConstant> neededConstants = neededConstantsByForm.get(headForm).get(i);
+
+                //Whittle these down based on what's possible throughout the rule
+                Set<GdlConstant> neededAndPossibleConstants = Sets.newHashSet(neededConstants);
+                neededAndPossibleConstants.retainAll(varDomains.get(curVar));
+                //Relay those values back to the conjuncts in the rule body
+                for (GdlLiteral conjunct : rule.getBody()) {
+                    somethingChanged |= addPossibleValuesToConjunct(neededAndPossibleConstants, conjunct, curVar, formsToChange, neededConstantsByForm, model);
                 }
             }
         }
@@ -368,12 +509,20 @@ public class SentenceDomainModelOptimizer {
             Set<GdlConstant> neededAndPossibleConstants,
             GdlLiteral conjunct,
             GdlVariable curVar,
+            Set<SentenceForm> formsToChange,
             Map<SentenceForm, SetMultimap<Integer, GdlConstant>> neededConstantsByForm,
             SentenceFormModel model) throws InterruptedException {
         if (conjunct instanceof GdlSentence) {
-            return addPossibleValuesToSentence(neededAndPossibleConstants, (GdlSentence) conjunct, curVar, neededConstantsByForm, model);
+            GdlSentence sentence = (GdlSentence) conjunct;
+            if (!formsToChange.contains(model.getSentenceForm(sentence))) {
+                return false;
+            }
+            return addPossibleValuesToSentence(neededAndPossibleConstants, sentence, curVar, neededConstantsByForm, model);
         } else if (conjunct instanceof GdlNot) {
             GdlSentence innerSentence = (GdlSentence) ((GdlNot) conjunct).getBody();
+            if (!formsToChange.contains(model.getSentenceForm(innerSentence))) {
+                return false;
+            }
             return addPossibleValuesToSentence(neededAndPossibleConstants, innerSentence, curVar, neededConstantsByForm, model);
         } else if (conjunct instanceof GdlOr) {
             throw new IllegalArgumentException("The SentenceDomainModelOptimizer is not designed for game descriptions with OR. Use the DeORer.");
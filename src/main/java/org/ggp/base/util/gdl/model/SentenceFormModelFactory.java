@@ -41,7 +41,16 @@ public class SentenceFormModelFactory {
      */
     public static ImmutableSentenceFormModel create(List<Gdl> description) throws InterruptedException {
         ImmutableList<Gdl> gameRules = ImmutableList.copyOf(description);
-        ImmutableSet<SentenceForm> sentenceForms = getSentenceForms(gameRules);
+        return create(gameRules, new SentenceFormsFinder(gameRules));
+    }
+
+    /**
+     * Creates the model with the given finder for the game rules, so that the
+     * caller can go on to use the finder's model of the game, e.g. for its
+     * Cartesian domains, without working it out again.
+     */
+    static ImmutableSentenceFormModel create(ImmutableList<Gdl> gameRules, SentenceFormsFinder finder) throws InterruptedException {
+        ImmutableSet<SentenceForm> sentenceForms = finder.findSentenceForms();
         ImmutableSetMultimap<SentenceForm, GdlRule> rulesByForm = getRulesByForm(gameRules, sentenceForms);
         ImmutableSetMultimap<SentenceForm, GdlSentence> trueSentencesByForm = getTrueSentencesByForm(gameRules, sentenceForms);
         ImmutableSetMultimap<SentenceForm, SentenceForm> dependencyGraph = getDependencyGraph(sentenceForms, rulesByForm);
@@ -174,9 +183,4 @@ public class SentenceFormModelFactory {
 
         return builder.build();
     }
-
-    private static ImmutableSet<SentenceForm> getSentenceForms(
-            ImmutableList<Gdl> gameRules) throws InterruptedException {
-        return new SentenceFormsFinder(gameRules).findSentenceForms();
-    }
 }
@@ -4,6 +4,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
 import org.ggp.base.util.gdl.GdlUtils;
@@ -19,20 +21,43 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 
 public class SentenceFormsFinder {
+    //The names whose models are merged into other names' models, by the
+    //names they are merged into
+    private static final ImmutableSetMultimap<NameAndArity, NameAndArity> LANGUAGE_INJECTIONS = ImmutableSetMultimap.of(
+            new NameAndArity(GdlPool.TRUE, 1), new NameAndArity(GdlPool.INIT, 1),
+            new NameAndArity(GdlPool.TRUE, 1), new NameAndArity(GdlPool.NEXT, 1),
+            new NameAndArity(GdlPool.DOES, 2), new NameAndArity(GdlPool.LEGAL, 2));
+
     private final ImmutableList<Gdl> description;
+    private final ExecutorService pool;
     private final Map<NameAndArity, List<TermModel>> sentencesModel = Maps.newHashMap();
     private boolean haveCreatedModel = false;
 
     public SentenceFormsFinder(ImmutableList<Gdl> description) {
+        this(description, null);
+    }
+
+    /**
+     * Creates a finder that works out the models of independent parts of
+     * the game concurrently on the given pool. If the pool is null, it does
+     * everything on the calling thread.
+     */
+    public SentenceFormsFinder(ImmutableList<Gdl> description, ExecutorService pool) {
         this.description = description;
+        this.pool = pool;
     }
 
     public ImmutableSet<SentenceForm> findSentenceForms() throws InterruptedException {
@@ -47,7 +72,11 @@ public class SentenceFormsFinder {
         return getCartesianDomainsFromModel();
     }
 
-    private void createModel() throws InterruptedException {
+    /**
+     * Works out the model of every sentence name, if that hasn't been done
+     * yet. Exposed separately for timing.
+     */
+    void createModel() throws InterruptedException {
         synchronized (this) {
             if (!haveCreatedModel) {
                 addTrueSentencesToModel();
@@ -159,25 +188,75 @@ public class SentenceFormsFinder {
     }
 
     private void applyRulesToModel() throws InterruptedException {
-        //Apply injections
-        boolean changeMade = true;
-        while (changeMade) {
-            changeMade = false;
-            for (Gdl gdl : description) {
-                if (gdl instanceof GdlRule) {
-                    changeMade |= addRule((GdlRule) gdl);
+        // A name's model depends only on the models of the names in the
+        // positive bodies of its rules, and of the names injected into it.
+        // So we work out the models a strongly connected component of names
+        // at a time, with the independent components of each level in
+        // parallel. Every model is created up front, so that the components
+        // only change their own models and never the map itself.
+        final ListMultimap<NameAndArity, GdlRule> rulesByHead = ArrayListMultimap.create();
+        final SetMultimap<NameAndArity, NameAndArity> dependencyGraph = HashMultimap.create();
+        for (Gdl gdl : description) {
+            if (gdl instanceof GdlRule) {
+                GdlRule rule = (GdlRule) gdl;
+                NameAndArity headName = new NameAndArity(rule.getHead());
+                addModelIfMissing(headName);
+                rulesByHead.put(headName, rule);
+                for (GdlLiteral literal : rule.getBody()) {
+                    if (literal instanceof GdlRelation) {
+                        NameAndArity bodyName = new NameAndArity((GdlSentence) literal);
+                        addModelIfMissing(bodyName);
+                        dependencyGraph.put(headName, bodyName);
+                    }
                 }
             }
-            changeMade |= applyLanguageRules();
+        }
+        final SetMultimap<NameAndArity, NameAndArity> injectionsByTarget = HashMultimap.create();
+        for (Entry<NameAndArity, NameAndArity> injection : LANGUAGE_INJECTIONS.entries()) {
+            if (sentencesModel.containsKey(injection.getValue())) {
+                addModelIfMissing(injection.getKey());
+                injectionsByTarget.put(injection.getKey(), injection.getValue());
+                dependencyGraph.put(injection.getKey(), injection.getValue());
+            }
+        }
+
+        for (List<Set<NameAndArity>> level : DependencyGraphs.toposortLevels(ImmutableSet.copyOf(sentencesModel.keySet()), dependencyGraph)) {
+            List<Callable<Void>> tasks = Lists.newArrayList();
+            for (final Set<NameAndArity> component : level) {
+                NameAndArity first = component.iterator().next();
+                final boolean recursive = component.size() > 1 || dependencyGraph.containsEntry(first, first);
+                if (!recursive && !rulesByHead.containsKey(first) && !injectionsByTarget.containsKey(first)) {
+                    continue;
+                }
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        boolean changeMade = true;
+                        while (changeMade) {
+                            changeMade = false;
+                            for (NameAndArity name : component) {
+                                for (GdlRule rule : rulesByHead.get(name)) {
+                                    changeMade |= addRule(rule);
+                                }
+                                for (NameAndArity source : injectionsByTarget.get(name)) {
+                                    changeMade |= applyInjection(source, name);
+                                }
+                            }
+                            // Without recursion, one pass reaches the fixed point
+                            changeMade &= recursive;
+                        }
+                        return null;
+                    }
+                });
+            }
+            ConcurrencyUtils.invokeAll(pool, tasks);
         }
     }
 
-    private boolean applyLanguageRules() throws InterruptedException {
-        boolean changesMade = false;
-        changesMade |= applyInjection(new NameAndArity(GdlPool.INIT, 1), new NameAndArity(GdlPool.TRUE, 1));
-        changesMade |= applyInjection(new NameAndArity(GdlPool.NEXT, 1), new NameAndArity(GdlPool.TRUE, 1));
-        changesMade |= applyInjection(new NameAndArity(GdlPool.LEGAL, 2), new NameAndArity(GdlPool.DOES, 2));
-        return changesMade;
+    private void addModelIfMissing(NameAndArity name) {
+        if (!sentencesModel.containsKey(name)) {
+            sentencesModel.put(name, getNTermModels(name.getArity()));
+        }
     }
 
     private boolean applyInjection(NameAndArity oldName,
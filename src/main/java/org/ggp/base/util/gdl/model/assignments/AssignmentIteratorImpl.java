@@ -1,8 +1,7 @@
 package org.ggp.base.util.gdl.model.assignments;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,19 +15,32 @@ import org.ggp.base.util.gdl.grammar.GdlVariable;
 import com.google.common.collect.ImmutableList;
 
 // Not thread-safe
+// Iterate with either next() or the slot iterator, not both.
 public class AssignmentIteratorImpl implements AssignmentIterator {
-    private List<Integer> sourceTupleIndices = null;
+    private int[] sourceTupleIndices = null;
     //This time we just have integers to deal with
-    private List<Integer> valueIndices = null;
-    private List<GdlConstant> nextAssignment = new ArrayList<GdlConstant>();
+    private int[] valueIndices = null;
+    //Null once the iterator is used up
+    private GdlConstant[] nextAssignment = new GdlConstant[0];
+    //A view of nextAssignment, for the assignment functions
+    private List<GdlConstant> nextAssignmentList = Arrays.asList(nextAssignment);
     private Map<GdlVariable, GdlConstant> assignmentMap = new HashMap<GdlVariable, GdlConstant>();
 
+    //The distinct arguments that are constants (after the head assignment),
+    //and the slots of those that are variables
+    private GdlConstant[] distinctConstants1;
+    private GdlConstant[] distinctConstants2;
+    private int[] distinctSlots1;
+    private int[] distinctSlots2;
+
     private boolean headOnly = false;
     private boolean done = false;
     private final AssignmentIterationPlan plan;
+    private final Slots slots;
 
     public AssignmentIteratorImpl(AssignmentIterationPlan plan) {
         this.plan = plan;
+        this.slots = new Slots();
         //TODO: Handle this case with a separate class
         if(plan.getVarsToAssign() == null) {
             headOnly = true;
@@ -36,19 +48,27 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
         }
 
         //Set up source tuple...
-        sourceTupleIndices = new ArrayList<Integer>(plan.getTuplesBySource().size());
-        for(int i = 0; i < plan.getTuplesBySource().size(); i++) {
-            sourceTupleIndices.add(0);
-        }
+        sourceTupleIndices = new int[plan.getTuplesBySource().size()];
         //Set up...
-        valueIndices = new ArrayList<Integer>(plan.getVarsToAssign().size());
-        for(int i = 0; i < plan.getVarsToAssign().size(); i++) {
-            valueIndices.add(0);
-            nextAssignment.add(null);
-        }
+        valueIndices = new int[plan.getVarsToAssign().size()];
+        nextAssignment = new GdlConstant[plan.getVarsToAssign().size()];
+        nextAssignmentList = Arrays.asList(nextAssignment);
 
         assignmentMap.putAll(plan.getHeadAssignment());
 
+        int numDistincts = plan.getDistincts().size();
+        distinctConstants1 = new GdlConstant[numDistincts];
+        distinctConstants2 = new GdlConstant[numDistincts];
+        distinctSlots1 = new int[numDistincts];
+        distinctSlots2 = new int[numDistincts];
+        for(int d = 0; d < numDistincts; d++) {
+            GdlDistinct distinct = plan.getDistincts().get(d);
+            distinctSlots1[d] = getDistinctSlot(distinct.getArg1());
+            distinctConstants1[d] = getDistinctConstant(distinct.getArg1());
+            distinctSlots2[d] = getDistinctSlot(distinct.getArg2());
+            distinctConstants2[d] = getDistinctConstant(distinct.getArg2());
+        }
+
         //Update "nextAssignment" according to the values of the
         //value indices
         updateNextAssignment();
@@ -56,14 +76,21 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
         makeNextAssignmentValid();
     }
 
+    /**
+     * Returns a view of this iterator that gives its assignments as slots
+     * of constant ids.
+     */
+    public SlotAssignmentIterator getSlotIterator() {
+        return slots;
+    }
 
     private void makeNextAssignmentValid() {
         if(nextAssignment == null)
             return;
 
         //Something new that can pop up with functional constants...
-        for(int i = 0; i < nextAssignment.size(); i++) {
-            if(nextAssignment.get(i) == null) {
+        for(int i = 0; i < nextAssignment.length; i++) {
+            if(nextAssignment[i] == null) {
                 //Some function doesn't agree with the answer here
                 //So what do we increment?
                 incrementIndex(plan.getIndicesToChangeWhenNull().get(i));
@@ -75,43 +102,55 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
 
         //Find all the unsatisfied distincts
         //Find the pair with the earliest var. that needs to be changed
-        List<GdlVariable> varsToChange = new ArrayList<GdlVariable>();
-        for(int d = 0; d < plan.getDistincts().size(); d++) {
-            GdlDistinct distinct = plan.getDistincts().get(d);
+        boolean distinctUnsatisfied = false;
+        int leftmostIndex = -1;
+        for(int d = 0; d < distinctSlots1.length; d++) {
             //The assignments must use the assignments implied by nextAssignment
-            GdlConstant term1 = replaceVariables(distinct.getArg1());
-            GdlConstant term2 = replaceVariables(distinct.getArg2());
+            GdlConstant term1 = getDistinctValue(distinctSlots1[d], distinctConstants1[d]);
+            GdlConstant term2 = getDistinctValue(distinctSlots2[d], distinctConstants2[d]);
             if(term1.equals(term2)) {
                 //need to change one of these
-                varsToChange.add(plan.getVarsToChangePerDistinct().get(d));
+                distinctUnsatisfied = true;
+                GdlVariable varToChange = plan.getVarsToChangePerDistinct().get(d);
+                int index = plan.getVarsToAssign().indexOf(varToChange);
+                if(index != -1 && (leftmostIndex == -1 || index < leftmostIndex)) {
+                    leftmostIndex = index;
+                }
             }
         }
-        if(!varsToChange.isEmpty()) {
-            GdlVariable varToChange = getLeftmostVar(varsToChange);
+        if(distinctUnsatisfied) {
             //We want just the one, as it is a full restriction on its
             //own behalf
-            changeOneInNext(Collections.singleton(varToChange));
+            incrementIndex(leftmostIndex);
+            makeNextAssignmentValid();
         }
 
     }
 
-    private GdlVariable getLeftmostVar(List<GdlVariable> vars) {
-        for(GdlVariable var : plan.getVarsToAssign())
-            if(vars.contains(var))
-                return var;
-        return null;
+    private int getDistinctSlot(GdlTerm term) {
+        if(term instanceof GdlFunction)
+            return -2;
+        if(plan.getHeadAssignment().containsKey(term) || term instanceof GdlConstant)
+            return -1;
+        return plan.getVarsToAssign().indexOf(term);
     }
 
-    private GdlConstant replaceVariables(GdlTerm term) {
-        if(term instanceof GdlFunction)
-            throw new RuntimeException("Function in the distinct... not handled");
-        //Use the assignments implied by nextAssignment
+    private GdlConstant getDistinctConstant(GdlTerm term) {
+        //Translated in head assignment
         if(plan.getHeadAssignment().containsKey(term))
-            return plan.getHeadAssignment().get(term); //Translated in head assignment
+            return plan.getHeadAssignment().get(term);
         if(term instanceof GdlConstant)
             return (GdlConstant) term;
-        int index = plan.getVarsToAssign().indexOf(term);
-        return nextAssignment.get(index);
+        return null;
+    }
+
+    private GdlConstant getDistinctValue(int slot, GdlConstant constant) {
+        if(slot == -2)
+            throw new RuntimeException("Function in the distinct... not handled");
+        //Use the assignments implied by nextAssignment
+        if(slot == -1)
+            return constant;
+        return nextAssignment[slot];
     }
 
     private void incrementIndex(int index) {
@@ -135,17 +174,17 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
         //If it can't be increased, increase the number
         //to the left instead. If nothing can be
         //increased, trash the iterator.
-        int curValue = valueIndices.get(index);
+        int curValue = valueIndices[index];
         if(curValue == plan.getValuesToIterate().get(index).size() - 1) {
             //We have no room to increase the value
             incrementIndex(index - 1);
             return;
         }
         //Increment the current value
-        valueIndices.set(index, curValue + 1);
+        valueIndices[index] = curValue + 1;
         //Reset everything to the right of the current value
-        for(int i = index + 1; i < valueIndices.size(); i++)
-            valueIndices.set(i, 0);
+        for(int i = index + 1; i < valueIndices.length; i++)
+            valueIndices[i] = 0;
 
         //Update the assignment
         updateNextAssignment();
@@ -159,19 +198,19 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
         }
 
         //If we can't increase this source, increase the one to the left instead
-        int curValue = sourceTupleIndices.get(source);
+        int curValue = sourceTupleIndices[source];
         if(curValue == plan.getTuplesBySource().get(source).size() - 1) {
             incrementSource(source - 1);
             return;
         }
         //Increment the current source
-        sourceTupleIndices.set(source, curValue + 1);
+        sourceTupleIndices[source] = curValue + 1;
         //Reset all the sources to the right of it
-        for(int i = source + 1; i < sourceTupleIndices.size(); i++)
-            sourceTupleIndices.set(i, 0);
+        for(int i = source + 1; i < sourceTupleIndices.length; i++)
+            sourceTupleIndices[i] = 0;
         //Reset all the values set by iteration over domains
-        for(int i = 0; i < valueIndices.size(); i++)
-            valueIndices.set(i, 0);
+        for(int i = 0; i < valueIndices.length; i++)
+            valueIndices[i] = 0;
 
         //Update the assignment
         updateNextAssignment();
@@ -180,9 +219,9 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
 
     private void updateNextAssignment() {
         //Let's set according to the sources before we get to the remainder
-        for(int s = 0; s < sourceTupleIndices.size(); s++) {
+        for(int s = 0; s < sourceTupleIndices.length; s++) {
             ImmutableList<ImmutableList<GdlConstant>> tuples = plan.getTuplesBySource().get(s);
-            int curIndex = sourceTupleIndices.get(s);
+            int curIndex = sourceTupleIndices[s];
             if(tuples.size() == 0) {
                 // This could happen if e.g. there are no tuples that agree with
                 // the headAssignment.
@@ -197,10 +236,10 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
                 boolean putDontCheck = putDontCheckTuple.get(i);
                 int varSlotChosen = varsChosen.get(i);
                 if(putDontCheck) {
-                    nextAssignment.set(varSlotChosen, value);
+                    nextAssignment[varSlotChosen] = value;
                 } else {
                     //It's only at this point that we get to check...
-                    if(!nextAssignment.get(varSlotChosen).equals(value)) {
+                    if(!nextAssignment[varSlotChosen].equals(value)) {
                         //We need to correct the value
                         //This is wrong! The current tuple may be the constraining tuple.
                         //But we might need it for performance reasons when there isn't that case...
@@ -214,16 +253,16 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
             }
         }
 
-        for(int i = 0; i < valueIndices.size(); i++) {
+        for(int i = 0; i < valueIndices.length; i++) {
             if((plan.getValuesToCompute() == null || !plan.getValuesToCompute().containsKey(i))
                     && plan.getSourceDefiningSlot().get(i) == -1) {
-                nextAssignment.set(i, plan.getValuesToIterate().get(i).get(valueIndices.get(i)));
+                nextAssignment[i] = plan.getValuesToIterate().get(i).get(valueIndices[i]);
             } else if(plan.getSourceDefiningSlot().get(i) == -1) {
                 //Fill in based on a function
                 //Note that the values on the left must already be filled in
-                GdlConstant valueFromFunction = plan.getValuesToCompute().get(i).getValue(nextAssignment);
+                GdlConstant valueFromFunction = plan.getValuesToCompute().get(i).getValue(nextAssignmentList);
 //                  System.out.println("Setting based on a function: slot " + i + " to value " + valueFromFunction);
-                nextAssignment.set(i, valueFromFunction);
+                nextAssignment[i] = valueFromFunction;
             }
         }
     }
@@ -274,7 +313,7 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
                 if (nextAssignment == null) {
                     throw new IllegalStateException("nextAssignment is null");
                 }
-                if (!assignedValue.equals(nextAssignment.get(index))) {
+                if (!assignedValue.equals(nextAssignment[index])) {
                     //We've already changed one of these
                     return;
                 }
@@ -310,7 +349,7 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
         updateMap(); //Sets assignmentMap
 
         //Adds one to the nextAssignment
-        incrementIndex(valueIndices.size() - 1);
+        incrementIndex(valueIndices.length - 1);
         makeNextAssignmentValid();
 
         return assignmentMap;
@@ -319,7 +358,7 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
     private void updateMap() {
         //Sets the map to match the nextAssignment
         for(int i = 0; i < plan.getVarsToAssign().size(); i++) {
-            assignmentMap.put(plan.getVarsToAssign().get(i), nextAssignment.get(i));
+            assignmentMap.put(plan.getVarsToAssign().get(i), nextAssignment[i]);
         }
     }
 
@@ -337,4 +376,98 @@ public class AssignmentIteratorImpl implements AssignmentIterator {
     public void remove() {
         //Not implemented
     }
-}
\ No newline at end of file
+
+    /**
+     * The slots are the variables to assign, in order, followed by the
+     * variables of the head assignment.
+     */
+    private class Slots implements SlotAssignmentIterator {
+        private final ImmutableList<GdlVariable> variables;
+        private final int numAssigned;
+        private final int[] ids;
+        private final GdlConstant[] constants;
+
+        private Slots() {
+            ImmutableList.Builder<GdlVariable> builder = ImmutableList.builder();
+            List<GdlVariable> varsToAssign = plan.getVarsToAssign();
+            if(varsToAssign != null) {
+                builder.addAll(varsToAssign);
+            }
+            numAssigned = (varsToAssign == null) ? 0 : varsToAssign.size();
+            for(GdlVariable var : plan.getHeadAssignment().keySet()) {
+                if(varsToAssign == null || !varsToAssign.contains(var)) {
+                    builder.add(var);
+                }
+            }
+            variables = builder.build();
+            ids = new int[variables.size()];
+            constants = new GdlConstant[variables.size()];
+            for(int i = numAssigned; i < variables.size(); i++) {
+                constants[i] = plan.getHeadAssignment().get(variables.get(i));
+                ids[i] = constants[i].getId();
+            }
+        }
+
+        @Override
+        public List<GdlVariable> getVariables() {
+            return variables;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return AssignmentIteratorImpl.this.hasNext();
+        }
+
+        @Override
+        public int[] next() {
+            if(headOnly) {
+                if(plan.getAllDone() || done)
+                    throw new RuntimeException("Asking for next when all done");
+                done = true;
+                return ids;
+            }
+
+            for(int i = 0; i < numAssigned; i++) {
+                constants[i] = nextAssignment[i];
+                ids[i] = constants[i].getId();
+            }
+
+            //Adds one to the nextAssignment
+            incrementIndex(valueIndices.length - 1);
+            makeNextAssignmentValid();
+
+            return ids;
+        }
+
+        @Override
+        public GdlConstant getConstant(int slot) {
+            return constants[slot];
+        }
+
+        @Override
+        public void changeOneInNext(int[] slotsToChange) {
+            if(nextAssignment == null) {
+                return;
+            }
+            if(slotsToChange.length == 0 || headOnly) {
+                done = true;
+                return;
+            }
+
+            //Stop if any of these have already been changed, and otherwise
+            //increment the rightmost
+            int rightmostIndex = -1;
+            for(int slot : slotsToChange) {
+                if(slot < numAssigned) {
+                    if(!constants[slot].equals(nextAssignment[slot])) {
+                        //We've already changed one of these
+                        return;
+                    }
+                    rightmostIndex = Math.max(rightmostIndex, slot);
+                }
+            }
+            incrementIndex(rightmostIndex);
+            makeNextAssignmentValid();
+        }
+    }
+}
@@ -12,4 +12,6 @@ public interface Assignments extends Iterable<Map<GdlVariable, GdlConstant>> {
 
     AssignmentIterator getIterator();
 
+    SlotAssignmentIterator getSlotIterator();
+
 }
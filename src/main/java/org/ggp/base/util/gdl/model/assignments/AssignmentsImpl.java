@@ -345,6 +345,10 @@ public class AssignmentsImpl implements Assignments {
     public AssignmentIterator getIterator() {
         return new AssignmentIteratorImpl(getPlan());
     }
+    @Override
+    public SlotAssignmentIterator getSlotIterator() {
+        return new AssignmentIteratorImpl(getPlan()).getSlotIterator();
+    }
 
     private AssignmentIterationPlan getPlan() {
         return AssignmentIterationPlan.create(varsToAssign,
@@ -438,6 +442,23 @@ public class AssignmentsImpl implements Assignments {
     }
 
 
+    /**
+     * Searches for the best order in which to iterate over the variables of
+     * the given rule, given the current values of the completed sentence forms.
+     * Variables in the preassignment are left out of the ordering.
+     */
+    public static IterationOrderCandidate getBestIterationOrderCandidate(GdlRule rule,
+            Map<GdlVariable, Set<GdlConstant>> varDomains,
+            Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+            Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues,
+            Map<GdlVariable, GdlConstant> preassignment) {
+        Map<SentenceForm, Integer> completedSentenceFormSizes = new HashMap<SentenceForm, Integer>();
+        if(completedSentenceFormValues != null)
+            for(SentenceForm form : completedSentenceFormValues.keySet())
+                completedSentenceFormSizes.put(form, completedSentenceFormValues.get(form).size());
+        return getBestIterationOrderCandidate(rule, varDomains, functionInfoMap, completedSentenceFormSizes, preassignment, false); //TODO: True here?
+    }
+
     /**
      * Finds the iteration order (including variables, functions, and
      * source conjuncts) that is expected to result in the fastest iteration.
@@ -0,0 +1,45 @@
+package org.ggp.base.util.gdl.model.assignments;
+
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * Iterates over the same assignments as an {@link AssignmentIterator}, but
+ * gives each one as an array of slots instead of a map, so that a caller
+ * can check the assignments of a rule without allocating anything.
+ *
+ * Slot i holds the id (see {@link GdlConstant#getId()}) of the constant
+ * assigned to getVariables().get(i). The array returned by {@link #next()}
+ * is reused, and is only valid until the next call to next(). Use
+ * {@link SlotSentence} to look up or build the sentences of a rule under
+ * these assignments.
+ */
+public interface SlotAssignmentIterator {
+
+    /**
+     * Returns the variables of the rule, in slot order.
+     */
+    List<GdlVariable> getVariables();
+
+    boolean hasNext();
+
+    /**
+     * Returns the ids of the constants of the next assignment, by slot.
+     */
+    int[] next();
+
+    /**
+     * Returns the constant in the given slot of the assignment last
+     * returned by {@link #next()}.
+     */
+    GdlConstant getConstant(int slot);
+
+    /**
+     * Request that the next assignment change at least one of the given
+     * slots from the assignment last returned by {@link #next()}.
+     */
+    void changeOneInNext(int[] slotsToChange);
+
+}
@@ -0,0 +1,262 @@
+package org.ggp.base.util.gdl.model.assignments;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.transforms.CommonTransforms;
+
+/**
+ * A sentence of a rule, compiled against the slots of a
+ * {@link SlotAssignmentIterator}.
+ *
+ * The instance of the sentence under an assignment depends only on the
+ * constants of the sentence's own variables, so an {@link Index} of ground
+ * sentences is keyed by their ids. Looking up the instance under an
+ * assignment then reads those ids straight out of the slots, and neither
+ * builds the instance nor allocates anything.
+ */
+public final class SlotSentence {
+    private final GdlSentence sentence;
+    //The variables of the sentence, in order of first appearance
+    private final List<GdlVariable> variables;
+    //The slot of each of those variables
+    private final int[] slots;
+
+    private SlotSentence(GdlSentence sentence, List<GdlVariable> variables, int[] slots) {
+        this.sentence = sentence;
+        this.variables = variables;
+        this.slots = slots;
+    }
+
+    /**
+     * Compiles the sentence against the given slot variables, which must
+     * include all of its variables.
+     */
+    public static SlotSentence create(GdlSentence sentence, List<GdlVariable> slotVariables) {
+        List<GdlVariable> variables = GdlUtils.getVariables(sentence);
+        int[] slots = new int[variables.size()];
+        for(int k = 0; k < slots.length; k++) {
+            slots[k] = slotVariables.indexOf(variables.get(k));
+            if(slots[k] == -1) {
+                throw new IllegalArgumentException("Variable " + variables.get(k) + " of " + sentence + " has no slot in " + slotVariables);
+            }
+        }
+        return new SlotSentence(sentence, variables, slots);
+    }
+
+    public GdlSentence getSentence() {
+        return sentence;
+    }
+
+    /**
+     * Returns the slots of the variables in the sentence, e.g. to pass to
+     * {@link SlotAssignmentIterator#changeOneInNext(int[])}.
+     */
+    public int[] getSlots() {
+        return slots.clone();
+    }
+
+    /**
+     * Builds the instance of the sentence under the assignment last
+     * returned by the iterator.
+     */
+    public GdlSentence instantiate(SlotAssignmentIterator assignments) {
+        Map<GdlVariable, GdlConstant> assignment = new HashMap<GdlVariable, GdlConstant>();
+        for(int k = 0; k < slots.length; k++) {
+            assignment.put(variables.get(k), assignments.getConstant(slots[k]));
+        }
+        return CommonTransforms.replaceVariables(sentence, assignment);
+    }
+
+    /**
+     * Returns an index of the given ground sentences that are instances of
+     * this sentence. Other sentences are left out.
+     */
+    public Index index(Collection<GdlSentence> groundSentences) {
+        Index index = new Index(groundSentences.size());
+        for(GdlSentence groundSentence : groundSentences) {
+            index.add(groundSentence);
+        }
+        return index;
+    }
+
+    /**
+     * Returns an empty index, to be filled with {@link Index#add(GdlSentence)}.
+     */
+    public Index newIndex() {
+        return new Index(0);
+    }
+
+    /**
+     * Fills in the ids of the constants that the sentence's variables take
+     * in the given ground sentence, and returns false if the ground sentence
+     * isn't an instance of the sentence.
+     */
+    private boolean getKey(GdlSentence groundSentence, int[] key) {
+        if(!sentence.getName().equals(groundSentence.getName())
+                || sentence.arity() != groundSentence.arity()) {
+            return false;
+        }
+        Arrays.fill(key, -1);
+        for(int i = 0; i < sentence.arity(); i++) {
+            if(!getKey(sentence.get(i), groundSentence.get(i), key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean getKey(GdlTerm term, GdlTerm groundTerm, int[] key) {
+        if(term instanceof GdlVariable) {
+            if(!(groundTerm instanceof GdlConstant)) {
+                return false;
+            }
+            int k = variables.indexOf(term);
+            int id = ((GdlConstant) groundTerm).getId();
+            if(key[k] != -1 && key[k] != id) {
+                return false;
+            }
+            key[k] = id;
+            return true;
+        } else if(term instanceof GdlFunction) {
+            if(!(groundTerm instanceof GdlFunction)) {
+                return false;
+            }
+            GdlFunction function = (GdlFunction) term;
+            GdlFunction groundFunction = (GdlFunction) groundTerm;
+            if(!function.getName().equals(groundFunction.getName())
+                    || function.arity() != groundFunction.arity()) {
+                return false;
+            }
+            for(int i = 0; i < function.arity(); i++) {
+                if(!getKey(function.get(i), groundFunction.get(i), key)) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            return term.equals(groundTerm);
+        }
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    /**
+     * A set of ground instances of the sentence, keyed by the ids of the
+     * constants of its variables, in open-addressed arrays. Not thread-safe.
+     */
+    public final class Index {
+        //The keys of the entries, slots.length ints each
+        private int[] keys;
+        private GdlSentence[] instances;
+        private int size = 0;
+
+        private Index(int expectedSize) {
+            int capacity = 4;
+            while(capacity < expectedSize * 2) {
+                capacity *= 2;
+            }
+            keys = new int[capacity * slots.length];
+            instances = new GdlSentence[capacity];
+        }
+
+        /**
+         * Returns the instance of the sentence under the given slots, if it
+         * is in the index, and null otherwise.
+         */
+        public GdlSentence get(int[] assignment) {
+            int width = slots.length;
+            int hash = 0;
+            for(int k = 0; k < width; k++) {
+                hash = 31 * hash + assignment[slots[k]];
+            }
+            int mask = instances.length - 1;
+            for(int i = mix(hash) & mask; instances[i] != null; i = (i + 1) & mask) {
+                boolean matches = true;
+                for(int k = 0; k < width; k++) {
+                    if(keys[i * width + k] != assignment[slots[k]]) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if(matches) {
+                    return instances[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds a ground sentence to the index, if it is an instance of the
+         * sentence, and returns whether it is.
+         */
+        public boolean add(GdlSentence groundSentence) {
+            int[] key = new int[slots.length];
+            if(!getKey(groundSentence, key)) {
+                return false;
+            }
+            if((size + 1) * 2 > instances.length) {
+                resize();
+            }
+            put(key, groundSentence);
+            return true;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private void put(int[] key, GdlSentence instance) {
+            int width = key.length;
+            int hash = 0;
+            for(int k = 0; k < width; k++) {
+                hash = 31 * hash + key[k];
+            }
+            int mask = instances.length - 1;
+            int i = mix(hash) & mask;
+            for(; instances[i] != null; i = (i + 1) & mask) {
+                boolean matches = true;
+                for(int k = 0; k < width; k++) {
+                    if(keys[i * width + k] != key[k]) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if(matches) {
+                    return;
+                }
+            }
+            System.arraycopy(key, 0, keys, i * width, width);
+            instances[i] = instance;
+            size++;
+        }
+
+        private void resize() {
+            int width = slots.length;
+            int[] oldKeys = keys;
+            GdlSentence[] oldInstances = instances;
+            keys = new int[oldKeys.length * 2];
+            instances = new GdlSentence[oldInstances.length * 2];
+            size = 0;
+            for(int i = 0; i < oldInstances.length; i++) {
+                if(oldInstances[i] != null) {
+                    put(Arrays.copyOfRange(oldKeys, i * width, (i + 1) * width), oldInstances[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.ggp.base.util.gdl.transforms;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceDomainModelOptimizer;
+import org.ggp.base.util.pipeline.Pipeline;
+import org.ggp.base.util.pipeline.Stage;
+
+/**
+ * The transforms and models that a game description goes through before a
+ * state machine is built from it, as {@link Stage}s to run on a
+ * {@link Pipeline}. Transforms of the description report their output size
+ * in rules and sentences; models report theirs in sentence forms.
+ */
+public class GdlStages {
+    private GdlStages() {
+    }
+
+    public static final Stage<List<Gdl>, List<Gdl>> GDL_CLEANER = new TransformStage("GdlCleaner") {
+        @Override
+        public List<Gdl> run(List<Gdl> description) {
+            return GdlCleaner.run(description);
+        }
+    };
+
+    public static final Stage<List<Gdl>, List<Gdl>> DE_ORER = new TransformStage("DeORer") {
+        @Override
+        public List<Gdl> run(List<Gdl> description) {
+            return DeORer.run(description);
+        }
+    };
+
+    public static final Stage<List<Gdl>, List<Gdl>> VARIABLE_CONSTRAINER = new TransformStage("VariableConstrainer") {
+        @Override
+        public List<Gdl> run(List<Gdl> description) throws InterruptedException {
+            return VariableConstrainer.replaceFunctionValuedVariables(description);
+        }
+    };
+
+    public static final Stage<List<Gdl>, List<Gdl>> RELATIONIZER = new TransformStage("Relationizer") {
+        @Override
+        public List<Gdl> run(List<Gdl> description) throws InterruptedException {
+            return Relationizer.run(description);
+        }
+    };
+
+    public static final Stage<List<Gdl>, List<Gdl>> CONDENSATION_ISOLATOR = new TransformStage("CondensationIsolator") {
+        @Override
+        public List<Gdl> run(List<Gdl> description) throws InterruptedException {
+            return CondensationIsolator.run(description);
+        }
+    };
+
+    public static final Stage<List<Gdl>, List<Gdl>> DISTINCT_AND_NOT_MOVER = new TransformStage("DistinctAndNotMover") {
+        @Override
+        public List<Gdl> run(List<Gdl> description) {
+            return DistinctAndNotMover.run(description);
+        }
+    };
+
+    public static final Stage<SentenceDomainModel, ConstantChecker> CONSTANT_CHECKER = new Stage<SentenceDomainModel, ConstantChecker>("ConstantCheckerFactory") {
+        @Override
+        public ConstantChecker run(SentenceDomainModel model) throws InterruptedException {
+            return ConstantCheckerFactory.createWithForwardChaining(model);
+        }
+
+        @Override
+        public int getOutputSize(ConstantChecker constantChecker) {
+            return constantChecker.getConstantSentenceForms().size();
+        }
+    };
+
+    public static final Stage<List<Gdl>, SentenceDomainModel> DOMAIN_MODEL = new ModelStage<List<Gdl>>("SentenceDomainModelFactory") {
+        @Override
+        public SentenceDomainModel run(List<Gdl> description) throws InterruptedException {
+            return SentenceDomainModelFactory.createWithCartesianDomains(description);
+        }
+    };
+
+    public static final Stage<SentenceDomainModel, SentenceDomainModel> DOMAIN_MODEL_OPTIMIZER = new ModelStage<SentenceDomainModel>("SentenceDomainModelOptimizer") {
+        @Override
+        public SentenceDomainModel run(SentenceDomainModel model) throws InterruptedException {
+            return SentenceDomainModelOptimizer.restrictDomainsToUsefulValues(model);
+        }
+    };
+
+    /**
+     * Like {@link #DOMAIN_MODEL}, but works on the given pool, or on the
+     * calling thread if the pool is null.
+     */
+    public static Stage<List<Gdl>, SentenceDomainModel> domainModel(final ExecutorService pool) {
+        return new ModelStage<List<Gdl>>("SentenceDomainModelFactory") {
+            @Override
+            public SentenceDomainModel run(List<Gdl> description) throws InterruptedException {
+                return SentenceDomainModelFactory.createWithCartesianDomains(description, pool);
+            }
+        };
+    }
+
+    /**
+     * Like {@link #DOMAIN_MODEL_OPTIMIZER}, but works on the given pool, or
+     * on the calling thread if the pool is null.
+     */
+    public static Stage<SentenceDomainModel, SentenceDomainModel> domainModelOptimizer(final ExecutorService pool) {
+        return new ModelStage<SentenceDomainModel>("SentenceDomainModelOptimizer") {
+            @Override
+            public SentenceDomainModel run(SentenceDomainModel model) throws InterruptedException {
+                return SentenceDomainModelOptimizer.restrictDomainsToUsefulValues(model, pool);
+            }
+        };
+    }
+
+    private abstract static class TransformStage extends Stage<List<Gdl>, List<Gdl>> {
+        public TransformStage(String name) {
+            super(name);
+        }
+
+        @Override
+        public int getOutputSize(List<Gdl> description) {
+            return description.size();
+        }
+    }
+
+    private abstract static class ModelStage<I> extends Stage<I, SentenceDomainModel> {
+        public ModelStage(String name) {
+            super(name);
+        }
+
+        @Override
+        public int getOutputSize(SentenceDomainModel model) {
+            return model.getSentenceForms().size();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.ggp.base.util.loader;
+
+/**
+ * GeneratedClassLoader defines classes from bytecode generated at runtime,
+ * such as the game-specific code generated with javassist. Defining them
+ * through a class loader of our own avoids javassist's toClass(), which
+ * needs reflective access to ClassLoader.defineClass that recent JVMs deny.
+ *
+ * A generated class is in a different runtime package from the classes of
+ * its parent loader, even if the package names are the same, so it can only
+ * use their public members, and the protected members of the classes it
+ * extends.
+ */
+public final class GeneratedClassLoader extends ClassLoader
+{
+    public GeneratedClassLoader(ClassLoader parent)
+    {
+        super(parent);
+    }
+
+    public Class<?> define(String name, byte[] bytecode)
+    {
+        return defineClass(name, bytecode, 0, bytecode.length);
+    }
+}
@@ -0,0 +1,155 @@
+package org.ggp.base.util.pipeline;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import org.ggp.base.util.logging.GamerLogger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Runs a sequence of named {@link Stage}s, such as the transforms that turn
+ * a game description into a PropNet, and records how long each one took, how
+ * much it allocated and how big its output was. This shows which stage is
+ * using up the start clock on a given game.
+ *
+ * A stage may run other stages on the same pipeline, such as a clean-up pass
+ * it repeats as it goes. Each stage is then charged only for its own work,
+ * not for that of the stages it ran, and a stage that runs several times
+ * has its runs added up into one record.
+ *
+ * Allocation is measured on the thread that runs the pipeline, where the JVM
+ * supports it, so work that a stage hands off to other threads isn't
+ * counted. A pipeline is not thread-safe.
+ */
+public final class Pipeline {
+    /**
+     * The JVM's per-thread allocation counter, or null if it doesn't have
+     * one. That counter is only on com.sun.management.ThreadMXBean, which
+     * not every JVM ships, so this is resolved once and any failure just
+     * turns allocation figures off.
+     */
+    private static final com.sun.management.ThreadMXBean THREADS;
+    static {
+        com.sun.management.ThreadMXBean threads = null;
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                threads = (com.sun.management.ThreadMXBean) bean;
+                if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+                    threads = null;
+                }
+            }
+        } catch (Throwable t) {
+            threads = null;
+        }
+        THREADS = threads;
+    }
+
+    private final String name;
+    private final List<StageRecord> records = Lists.newArrayList();
+    /** The time and allocation of the stages run inside the current one. */
+    private long nestedNanos;
+    private long nestedBytes;
+
+    public Pipeline(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Runs the stage on the given input, records it, and returns its output.
+     * Nothing is recorded if the stage throws.
+     */
+    public <I, O> O run(Stage<I, O> stage, I input) throws InterruptedException {
+        long outerNestedNanos = nestedNanos;
+        long outerNestedBytes = nestedBytes;
+        nestedNanos = 0;
+        nestedBytes = 0;
+        long allocatedBefore = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        try {
+            O output = stage.run(input);
+            long nanos = System.nanoTime() - startTime;
+            long allocatedAfter = getAllocatedBytes();
+            long allocatedBytes = (allocatedBefore < 0 || allocatedAfter < 0) ? -1 : allocatedAfter - allocatedBefore;
+            // The stage is only charged for its own work, but the stage it
+            // ran inside, if any, isn't charged for any of it.
+            addRecord(stage.getName(), nanos - nestedNanos, allocatedBytes < 0 ? -1 : allocatedBytes - nestedBytes,
+                    stage.getOutputSize(output));
+            outerNestedNanos += nanos;
+            outerNestedBytes += Math.max(0, allocatedBytes);
+            return output;
+        } finally {
+            nestedNanos = outerNestedNanos;
+            nestedBytes = outerNestedBytes;
+        }
+    }
+
+    private void addRecord(String stageName, long nanos, long allocatedBytes, int outputSize) {
+        for (int i = 0; i < records.size(); i++) {
+            StageRecord record = records.get(i);
+            if (record.getName().equals(stageName)) {
+                records.set(i, record.plus(nanos, allocatedBytes, outputSize));
+                return;
+            }
+        }
+        records.add(new StageRecord(stageName, nanos, allocatedBytes, outputSize));
+    }
+
+    /**
+     * Returns a record of each stage run so far, in the order they first
+     * finished.
+     */
+    public ImmutableList<StageRecord> getRecords() {
+        return ImmutableList.copyOf(records);
+    }
+
+    /**
+     * Returns the total wall-clock time of the stages run so far.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (StageRecord record : records) {
+            total += record.getNanos();
+        }
+        return total;
+    }
+
+    /**
+     * Returns a one-line summary of the stages run so far, e.g.
+     * "OptimizingPropNetFactory: 41 ms; GdlCleaner 2 ms, 310 KB, 96 out; ...".
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(": ").append(getTotalNanos() / 1000000).append(" ms");
+        for (StageRecord record : records) {
+            sb.append("; ").append(record);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the summary to the given log, e.g. "StateMachine".
+     */
+    public void logSummary(String logFile) {
+        GamerLogger.log(logFile, getSummary());
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+
+    private static long getAllocatedBytes() {
+        if (THREADS == null) {
+            return -1;
+        }
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,29 @@
+package org.ggp.base.util.pipeline;
+
+/**
+ * A named step of a {@link Pipeline}, which takes the output of the step
+ * before it and produces the input of the step after it.
+ */
+public abstract class Stage<I, O> {
+    private final String name;
+
+    protected Stage(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name the stage is recorded under.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public abstract O run(I input) throws InterruptedException;
+
+    /**
+     * Returns the size of an output of the stage, in whatever unit suits it
+     * (rules, sentence forms, components...), to record alongside its
+     * timing. This should be cheap to work out.
+     */
+    public abstract int getOutputSize(O output);
+}
@@ -0,0 +1,81 @@
+package org.ggp.base.util.pipeline;
+
+/**
+ * What a {@link Pipeline} recorded about the runs of one of its stages.
+ */
+public final class StageRecord {
+    private final String name;
+    private final long nanos;
+    private final long allocatedBytes;
+    private final int outputSize;
+    private final int runs;
+
+    StageRecord(String name, long nanos, long allocatedBytes, int outputSize) {
+        this(name, nanos, allocatedBytes, outputSize, 1);
+    }
+
+    private StageRecord(String name, long nanos, long allocatedBytes, int outputSize, int runs) {
+        this.name = name;
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+        this.outputSize = outputSize;
+        this.runs = runs;
+    }
+
+    /**
+     * Returns this record with one more run of the stage added to it.
+     */
+    StageRecord plus(long nanos, long allocatedBytes, int outputSize) {
+        long totalBytes = (this.allocatedBytes < 0 || allocatedBytes < 0) ? -1 : this.allocatedBytes + allocatedBytes;
+        return new StageRecord(name, this.nanos + nanos, totalBytes, outputSize, runs + 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the wall-clock time the stage took, over all its runs, leaving
+     * out the stages it ran itself.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns the number of bytes the stage allocated on the thread that ran
+     * it, or -1 if the JVM can't measure that.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the size of the stage's output from its last run, as given by
+     * {@link Stage#getOutputSize(Object)}.
+     */
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * Returns the number of times the stage ran.
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(' ').append(nanos / 1000000).append(" ms");
+        if (allocatedBytes >= 0) {
+            sb.append(", ").append(allocatedBytes / 1024).append(" KB");
+        }
+        sb.append(", ").append(outputSize).append(" out");
+        if (runs > 1) {
+            sb.append(" (").append(runs).append(" runs)");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,539 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Role;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The ImmutablePropNet class is a compact, read-only form of a {@link PropNet},
+ * for holding on to a propnet once it has been built and optimized.
+ *
+ * Each component of a PropNet is an object with a HashSet of inputs and a
+ * HashSet of outputs, which take up far more memory than the graph itself.
+ * Here, components are numbered instead, and the graph is stored in
+ * compressed sparse row form: the inputs of component i are
+ * inputs[inputOffsets[i]] through inputs[inputOffsets[i+1]-1], and likewise
+ * for the outputs. The type of each component is a byte, and the sentence
+ * of each proposition is kept in an array.
+ *
+ * Components are numbered with the base propositions first, then the input
+ * propositions, then the other propositions, each sorted by the text of their
+ * sentences, and then the other components; ties are broken by a fingerprint
+ * of each component's place in the network (see getFingerprints). The inputs of each component
+ * are in order, and the legal and goal propositions of each role are sorted
+ * by sentence. So the numbering depends only on the network, not on the
+ * order in which the PropNet's sets happen to hold its components, and
+ * converting back and forth with {@link #toPropNet()} gives the same arrays.
+ *
+ * Use {@link #toPropNet()} to get back a PropNet, for tools that work on
+ * those, such as {@link PropNet#renderToFile(String)}.
+ */
+public final class ImmutablePropNet
+{
+    public static final byte TYPE_PROPOSITION = 0;
+    public static final byte TYPE_TRANSITION = 1;
+    public static final byte TYPE_AND = 2;
+    public static final byte TYPE_OR = 3;
+    public static final byte TYPE_NOT = 4;
+    public static final byte TYPE_TRUE = 5;
+    public static final byte TYPE_FALSE = 6;
+
+    private final ImmutableList<Role> roles;
+
+    /** The type of each component. */
+    private final byte[] types;
+    /** The sentence of each proposition, or null for other components. */
+    private final GdlSentence[] names;
+    private final int[] inputOffsets;
+    private final int[] inputs;
+    private final int[] outputOffsets;
+    private final int[] outputs;
+
+    private final int numBases;
+    private final int numInputs;
+    /** The legal and goal propositions of each role, in the order of the roles. */
+    private final int[][] legals;
+    private final int[][] goals;
+    private final int initProposition;
+    private final int terminalProposition;
+
+    /**
+     * Creates an ImmutablePropNet from its parts. The arrays are not copied,
+     * so the caller must not modify them afterwards.
+     */
+    public ImmutablePropNet(List<Role> roles, byte[] types, GdlSentence[] names, int[] inputOffsets, int[] inputs,
+            int numBases, int numInputs, int[][] legals, int[][] goals, int initProposition, int terminalProposition)
+    {
+        this.roles = ImmutableList.copyOf(roles);
+        this.types = types;
+        this.names = names;
+        this.inputOffsets = inputOffsets;
+        this.inputs = inputs;
+        this.numBases = numBases;
+        this.numInputs = numInputs;
+        this.legals = legals;
+        this.goals = goals;
+        this.initProposition = initProposition;
+        this.terminalProposition = terminalProposition;
+
+        // Invert the input lists to get the output lists.
+        int n = types.length;
+        outputOffsets = new int[n + 1];
+        for (int input : inputs)
+        {
+            outputOffsets[input + 1]++;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            outputOffsets[i + 1] += outputOffsets[i];
+        }
+        outputs = new int[inputs.length];
+        int[] outputCursor = Arrays.copyOf(outputOffsets, n);
+        for (int i = 0; i < n; i++)
+        {
+            for (int k = inputOffsets[i]; k < inputOffsets[i + 1]; k++)
+            {
+                outputs[outputCursor[inputs[k]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Creates an ImmutablePropNet with the same components and connections as
+     * the given propnet, which is not modified or referenced afterwards.
+     */
+    public static ImmutablePropNet create(PropNet propNet)
+    {
+        List<Component> components = getOrderedComponents(propNet);
+        Map<Component, Integer> indices = new HashMap<Component, Integer>();
+        for (int i = 0; i < components.size(); i++)
+        {
+            indices.put(components.get(i), i);
+        }
+        int numBases = propNet.getBasePropositions().size();
+        int numInputs = propNet.getInputPropositions().size();
+
+        int n = components.size();
+        byte[] types = new byte[n];
+        GdlSentence[] names = new GdlSentence[n];
+        int[] inputOffsets = new int[n + 1];
+        int numEdges = 0;
+        for (Component c : components)
+        {
+            numEdges += c.getInputs().size();
+        }
+        int[] inputs = new int[numEdges];
+        numEdges = 0;
+        for (int i = 0; i < n; i++)
+        {
+            Component c = components.get(i);
+            types[i] = getType(c);
+            if (c instanceof Proposition)
+            {
+                names[i] = ((Proposition) c).getName();
+            }
+            inputOffsets[i] = numEdges;
+            for (Component input : c.getInputs())
+            {
+                inputs[numEdges++] = indices.get(input);
+            }
+            Arrays.sort(inputs, inputOffsets[i], numEdges);
+        }
+        inputOffsets[n] = numEdges;
+
+        List<Role> roles = propNet.getRoles();
+        int[][] legals = new int[roles.size()][];
+        int[][] goals = new int[roles.size()][];
+        for (int r = 0; r < roles.size(); r++)
+        {
+            legals[r] = toIndices(sortedByName(propNet.getLegalPropositions().get(roles.get(r))), indices);
+            goals[r] = toIndices(sortedByName(propNet.getGoalPropositions().get(roles.get(r))), indices);
+        }
+        Proposition init = propNet.getInitProposition();
+        Proposition terminal = propNet.getTerminalProposition();
+        return new ImmutablePropNet(roles, types, names, inputOffsets, inputs, numBases, numInputs,
+                legals, goals, (init == null) ? -1 : indices.get(init), (terminal == null) ? -1 : indices.get(terminal));
+    }
+
+    /**
+     * Creates a new, mutable PropNet with the same components and connections
+     * as this one.
+     */
+    public PropNet toPropNet()
+    {
+        Component[] components = new Component[types.length];
+        for (int i = 0; i < types.length; i++)
+        {
+            switch (types[i])
+            {
+            case TYPE_PROPOSITION:
+                components[i] = new Proposition(names[i]);
+                break;
+            case TYPE_TRANSITION:
+                components[i] = new Transition();
+                break;
+            case TYPE_AND:
+                components[i] = new And();
+                break;
+            case TYPE_OR:
+                components[i] = new Or();
+                break;
+            case TYPE_NOT:
+                components[i] = new Not();
+                break;
+            default:
+                components[i] = new Constant(types[i] == TYPE_TRUE);
+            }
+        }
+        for (int i = 0; i < types.length; i++)
+        {
+            for (int k = inputOffsets[i]; k < inputOffsets[i + 1]; k++)
+            {
+                components[i].addInput(components[inputs[k]]);
+                components[inputs[k]].addOutput(components[i]);
+            }
+        }
+        return new PropNet(roles, new HashSet<Component>(Arrays.asList(components)));
+    }
+
+    /**
+     * Outputs the propnet in .dot format to a particular file, like
+     * {@link PropNet#renderToFile(String)}.
+     */
+    public void renderToFile(String filename)
+    {
+        toPropNet().renderToFile(filename);
+    }
+
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    public int getNumComponents()
+    {
+        return types.length;
+    }
+
+    /**
+     * Returns the number of base propositions, which are the components
+     * numbered from 0.
+     */
+    public int getNumBases()
+    {
+        return numBases;
+    }
+
+    /**
+     * Returns the number of input propositions, which are the components
+     * numbered right after the base propositions.
+     */
+    public int getNumInputs()
+    {
+        return numInputs;
+    }
+
+    public byte getType(int component)
+    {
+        return types[component];
+    }
+
+    /**
+     * Returns the sentence of the given proposition, or null if the component
+     * is not a proposition.
+     */
+    public GdlSentence getName(int component)
+    {
+        return names[component];
+    }
+
+    public int getInputCount(int component)
+    {
+        return inputOffsets[component + 1] - inputOffsets[component];
+    }
+
+    public int getInput(int component, int i)
+    {
+        return inputs[inputOffsets[component] + i];
+    }
+
+    public int getOutputCount(int component)
+    {
+        return outputOffsets[component + 1] - outputOffsets[component];
+    }
+
+    public int getOutput(int component, int i)
+    {
+        return outputs[outputOffsets[component] + i];
+    }
+
+    /**
+     * Returns the total number of connections between components.
+     */
+    public int getNumEdges()
+    {
+        return inputs.length;
+    }
+
+    /**
+     * Returns the legal propositions of the role with the given index.
+     */
+    public int[] getLegalPropositions(int role)
+    {
+        return legals[role].clone();
+    }
+
+    /**
+     * Returns the goal propositions of the role with the given index.
+     */
+    public int[] getGoalPropositions(int role)
+    {
+        return goals[role].clone();
+    }
+
+    /**
+     * Returns the INIT proposition, or -1 if there is none.
+     */
+    public int getInitProposition()
+    {
+        return initProposition;
+    }
+
+    /**
+     * Returns the terminal proposition, or -1 if there is none.
+     */
+    public int getTerminalProposition()
+    {
+        return terminalProposition;
+    }
+
+    /**
+     * Returns the components of the propnet in the order they are numbered:
+     * the base, input and other propositions, each sorted by sentence, and
+     * then the other components. Anything not told apart by its sentence is
+     * sorted by fingerprint.
+     */
+    private static List<Component> getOrderedComponents(PropNet propNet)
+    {
+        final List<Component> all = new ArrayList<Component>(propNet.getComponents());
+        Map<Component, Integer> indices = new HashMap<Component, Integer>();
+        for (int i = 0; i < all.size(); i++)
+        {
+            indices.put(all.get(i), i);
+        }
+        final long[] fingerprints = getFingerprints(all, indices);
+
+        List<Component> components = new ArrayList<Component>(all.size());
+        components.addAll(sortedByName(propNet.getBasePropositions().values()));
+        components.addAll(sortedByName(propNet.getInputPropositions().values()));
+        Set<Component> placed = new HashSet<Component>(components);
+        // The factory names many of its intermediate propositions alike, so
+        // the propositions fall back on their fingerprints too.
+        final String[] names = new String[all.size()];
+        List<Integer> others = new ArrayList<Integer>();
+        for (int i = 0; i < all.size(); i++)
+        {
+            Component c = all.get(i);
+            if (!placed.contains(c))
+            {
+                others.add(i);
+                if (c instanceof Proposition)
+                {
+                    names[i] = ((Proposition) c).getName().toString();
+                }
+            }
+        }
+        Collections.sort(others, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                if ((names[a] == null) != (names[b] == null))
+                {
+                    return (names[a] == null) ? 1 : -1;
+                }
+                int byName = (names[a] == null) ? 0 : names[a].compareTo(names[b]);
+                return (byName != 0) ? byName : Long.compare(fingerprints[a], fingerprints[b]);
+            }
+        });
+        for (int i : others)
+        {
+            components.add(all.get(i));
+        }
+        return components;
+    }
+
+    /**
+     * Returns a fingerprint of each component's place in the network. Each
+     * component starts out with a hash of its sentence, if it is a
+     * proposition, or of its type otherwise; then, round by round, each
+     * fingerprint is hashed together with the sorted fingerprints of the
+     * component's inputs and outputs, until that no longer tells any more
+     * components apart. Components that still share a fingerprint are
+     * connected alike as far as this can tell, and are ordered arbitrarily
+     * among themselves.
+     */
+    private static long[] getFingerprints(List<Component> components, Map<Component, Integer> indices)
+    {
+        int n = components.size();
+        int[][] inputs = new int[n][];
+        int[][] outputs = new int[n][];
+        long[] fingerprints = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            Component c = components.get(i);
+            inputs[i] = toIndices(c.getInputs(), indices);
+            outputs[i] = toIndices(c.getOutputs(), indices);
+            fingerprints[i] = (c instanceof Proposition) ? hash(((Proposition) c).getName().toString()) : getType(c);
+        }
+        int numDistinct = countDistinct(fingerprints);
+        long[] neighbors = new long[0];
+        while (true)
+        {
+            long[] next = new long[n];
+            for (int i = 0; i < n; i++)
+            {
+                long h = mix(fingerprints[i]);
+                for (int[] adjacent : new int[][] {inputs[i], outputs[i]})
+                {
+                    if (neighbors.length < adjacent.length)
+                    {
+                        neighbors = new long[adjacent.length];
+                    }
+                    for (int k = 0; k < adjacent.length; k++)
+                    {
+                        neighbors[k] = fingerprints[adjacent[k]];
+                    }
+                    Arrays.sort(neighbors, 0, adjacent.length);
+                    for (int k = 0; k < adjacent.length; k++)
+                    {
+                        h = mix(h ^ neighbors[k]);
+                    }
+                    h = mix(h + 1);
+                }
+                next[i] = h;
+            }
+            int nextDistinct = countDistinct(next);
+            fingerprints = next;
+            if (nextDistinct == numDistinct)
+            {
+                return fingerprints;
+            }
+            numDistinct = nextDistinct;
+        }
+    }
+
+    private static int countDistinct(long[] values)
+    {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++)
+        {
+            if (i == 0 || sorted[i] != sorted[i - 1])
+            {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /** A 64-bit FNV-1a hash of the string. */
+    private static long hash(String string)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++)
+        {
+            h = (h ^ string.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h)
+    {
+        h *= 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 32);
+    }
+
+    private static byte getType(Component c)
+    {
+        if (c instanceof Proposition)
+        {
+            return TYPE_PROPOSITION;
+        }
+        else if (c instanceof Transition)
+        {
+            return TYPE_TRANSITION;
+        }
+        else if (c instanceof And)
+        {
+            return TYPE_AND;
+        }
+        else if (c instanceof Or)
+        {
+            return TYPE_OR;
+        }
+        else if (c instanceof Not)
+        {
+            return TYPE_NOT;
+        }
+        else if (c instanceof Constant)
+        {
+            return c.getValue() ? TYPE_TRUE : TYPE_FALSE;
+        }
+        throw new IllegalArgumentException("Unhandled component type " + c.getClass());
+    }
+
+    private static List<Proposition> sortedByName(Collection<Proposition> propositions)
+    {
+        if (propositions == null)
+        {
+            return Collections.emptyList();
+        }
+        // Render each sentence once, rather than on every comparison.
+        final Map<Proposition, String> keys = new HashMap<Proposition, String>();
+        for (Proposition p : propositions)
+        {
+            keys.put(p, p.getName().toString());
+        }
+        List<Proposition> sorted = new ArrayList<Proposition>(keys.keySet());
+        Collections.sort(sorted, new Comparator<Proposition>()
+        {
+            @Override
+            public int compare(Proposition a, Proposition b)
+            {
+                return keys.get(a).compareTo(keys.get(b));
+            }
+        });
+        return sorted;
+    }
+
+    private static int[] toIndices(Collection<? extends Component> components, Map<Component, Integer> indices)
+    {
+        int[] result = new int[components.size()];
+        int i = 0;
+        for (Component c : components)
+        {
+            result[i++] = indices.get(c);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,578 @@
+package org.ggp.base.util.propnet.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.crypto.BaseHashing;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.ImmutablePropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * PropNetCache keeps built propnets on disk, so that a game that has been
+ * seen before doesn't need its propnet built again during the start clock.
+ *
+ * Entries are keyed by a hash of the game rules, rendered one per line in
+ * their canonical form, with every rule but the roles in sorted order. The
+ * same game keeps its key however its rulesheet was formatted, and whatever
+ * order its rules came in, except for the roles, whose order numbers them
+ * in the propnet. A scrambled copy of a game is a different game. Each entry
+ * is an {@link ImmutablePropNet} written out array by array, with the
+ * sentences of the propositions encoded over a table of their constants, and
+ * is read back through a memory-mapped buffer.
+ *
+ * The total size of the entries is capped. Reading or writing an entry marks
+ * it as recently used, and the least recently used entries are deleted
+ * whenever an entry is added that takes the cache over its cap.
+ *
+ * A cache may be shared by any number of threads. Other processes may use
+ * the same directory, since entries are written under a temporary name and
+ * then renamed into place.
+ */
+public final class PropNetCache
+{
+    /** Changed whenever the file format, or the propnets built, change. */
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x50524e43;
+    private static final String SUFFIX = ".propnet";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte TAG_NONE = 0;
+    private static final byte TAG_CONSTANT = 1;
+    private static final byte TAG_FUNCTION = 2;
+    private static final byte TAG_PROPOSITION = 3;
+    private static final byte TAG_RELATION = 4;
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static PropNetCache defaultCache;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Creates a cache storing its entries in the given directory, which is
+     * created if needed, and keeping them under the given total size.
+     */
+    public PropNetCache(File directory, long maxBytes)
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+    }
+
+    /**
+     * Returns the cache in the ".ggp-propnet-cache" directory of the user's
+     * home directory, capped at {@link #DEFAULT_MAX_BYTES}.
+     */
+    public static synchronized PropNetCache getDefault()
+    {
+        if (defaultCache == null)
+        {
+            defaultCache = new PropNetCache(new File(System.getProperty("user.home"), ".ggp-propnet-cache"), DEFAULT_MAX_BYTES);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Returns the key of the given game rules.
+     */
+    public static String computeKey(List<Gdl> rules)
+    {
+        StringBuilder canonicalRules = new StringBuilder();
+        canonicalRules.append(FORMAT_VERSION).append('\n');
+        List<String> otherRules = new ArrayList<String>();
+        for (Gdl gdl : rules)
+        {
+            if (gdl instanceof GdlRelation && ((GdlRelation) gdl).getName().equals(GdlPool.ROLE))
+            {
+                canonicalRules.append(gdl).append('\n');
+            }
+            else
+            {
+                otherRules.add(gdl.toString());
+            }
+        }
+        Collections.sort(otherRules);
+        for (String rule : otherRules)
+        {
+            canonicalRules.append(rule).append('\n');
+        }
+        return BaseHashing.computeSHA1Hash(canonicalRules.toString());
+    }
+
+    /**
+     * Returns the propnet for the given rules, from the cache if it's there,
+     * and otherwise by building it with the {@link OptimizingPropNetFactory}
+     * and adding it to the cache.
+     */
+    public ImmutablePropNet getOrCreate(List<Gdl> rules) throws InterruptedException
+    {
+        return getOrCreate(rules, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #getOrCreate(List)}, but gives up building the propnet at
+     * the given deadline, as given by System.currentTimeMillis().
+     *
+     * @throws InterruptedException if the thread is interrupted, or the
+     * deadline passes, while the propnet is built.
+     */
+    public ImmutablePropNet getOrCreate(List<Gdl> rules, long deadline) throws InterruptedException
+    {
+        String key = computeKey(rules);
+        ImmutablePropNet propNet = get(key);
+        if (propNet == null)
+        {
+            propNet = ImmutablePropNet.create(OptimizingPropNetFactory.create(rules, deadline,
+                    Runtime.getRuntime().availableProcessors(), null));
+            put(key, propNet);
+        }
+        return propNet;
+    }
+
+    /**
+     * Returns the cached propnet with the given key, or null if there is
+     * none.
+     */
+    public ImmutablePropNet get(String key)
+    {
+        File file = getFile(key);
+        if (!file.exists())
+        {
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        try
+        {
+            ImmutablePropNet propNet = read(file);
+            file.setLastModified(System.currentTimeMillis());
+            GamerLogger.log("StateMachine", "Loaded cached propnet " + key + " in "
+                    + (System.currentTimeMillis() - startTime) + " ms.");
+            return propNet;
+        }
+        catch (IOException e)
+        {
+            GamerLogger.logStackTrace("StateMachine", e);
+        }
+        catch (RuntimeException e)
+        {
+            // A truncated or corrupted entry; it will be replaced.
+            GamerLogger.logStackTrace("StateMachine", e);
+            file.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Adds a propnet to the cache under the given key, evicting the least
+     * recently used entries if the cache goes over its size cap. Failures to
+     * write are logged, but otherwise ignored.
+     */
+    public void put(String key, ImmutablePropNet propNet)
+    {
+        File file = getFile(key);
+        try
+        {
+            File tempFile = File.createTempFile(key, ".tmp", directory);
+            try
+            {
+                write(tempFile, propNet);
+                if (!tempFile.renameTo(file) && !file.exists())
+                {
+                    throw new IOException("Could not rename " + tempFile + " to " + file);
+                }
+            }
+            finally
+            {
+                tempFile.delete();
+            }
+        }
+        catch (IOException e)
+        {
+            GamerLogger.logStackTrace("StateMachine", e);
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Returns the total size of the entries in the cache, in bytes.
+     */
+    public long getSize()
+    {
+        long size = 0;
+        for (File entry : getEntries())
+        {
+            size += entry.length();
+        }
+        return size;
+    }
+
+    File getFile(String key)
+    {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private File[] getEntries()
+    {
+        File[] entries = directory.listFiles();
+        if (entries == null)
+        {
+            return new File[0];
+        }
+        List<File> result = new ArrayList<File>();
+        for (File entry : entries)
+        {
+            if (entry.getName().endsWith(SUFFIX))
+            {
+                result.add(entry);
+            }
+        }
+        return result.toArray(new File[result.size()]);
+    }
+
+    private synchronized void evict()
+    {
+        File[] entries = getEntries();
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        long size = 0;
+        for (File entry : entries)
+        {
+            lastUsed.put(entry, entry.lastModified());
+            size += entry.length();
+        }
+        Arrays.sort(entries, new Comparator<File>()
+        {
+            @Override
+            public int compare(File a, File b)
+            {
+                return Long.compare(lastUsed.get(a), lastUsed.get(b));
+            }
+        });
+        for (int i = 0; i < entries.length && size > maxBytes; i++)
+        {
+            long length = entries[i].length();
+            if (entries[i].delete())
+            {
+                size -= length;
+                GamerLogger.log("StateMachine", "Evicted cached propnet " + entries[i].getName());
+            }
+        }
+    }
+
+    private static void write(File file, ImmutablePropNet propNet) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            // The constants used by the roles and sentences
+            Map<GdlConstant, Integer> constants = new HashMap<GdlConstant, Integer>();
+            List<GdlConstant> constantList = new ArrayList<GdlConstant>();
+            for (Role role : propNet.getRoles())
+            {
+                addConstant(role.getName(), constants, constantList);
+            }
+            int n = propNet.getNumComponents();
+            for (int c = 0; c < n; c++)
+            {
+                if (propNet.getName(c) != null)
+                {
+                    addConstants(propNet.getName(c), constants, constantList);
+                }
+            }
+            out.writeInt(constantList.size());
+            for (GdlConstant constant : constantList)
+            {
+                byte[] bytes = constant.getValue().getBytes(UTF8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(propNet.getRoles().size());
+            for (Role role : propNet.getRoles())
+            {
+                out.writeInt(constants.get(role.getName()));
+            }
+
+            out.writeInt(n);
+            out.writeInt(propNet.getNumEdges());
+            out.writeInt(propNet.getNumBases());
+            out.writeInt(propNet.getNumInputs());
+            out.writeInt(propNet.getInitProposition());
+            out.writeInt(propNet.getTerminalProposition());
+            for (int c = 0; c < n; c++)
+            {
+                out.writeByte(propNet.getType(c));
+            }
+            for (int c = 0; c < n; c++)
+            {
+                out.writeInt(propNet.getInputCount(c));
+            }
+            for (int c = 0; c < n; c++)
+            {
+                for (int i = 0; i < propNet.getInputCount(c); i++)
+                {
+                    out.writeInt(propNet.getInput(c, i));
+                }
+            }
+            for (int r = 0; r < propNet.getRoles().size(); r++)
+            {
+                writeInts(out, propNet.getLegalPropositions(r));
+                writeInts(out, propNet.getGoalPropositions(r));
+            }
+            for (int c = 0; c < n; c++)
+            {
+                writeSentence(out, propNet.getName(c), constants);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static ImmutablePropNet read(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try
+        {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        finally
+        {
+            raf.close();
+        }
+        try
+        {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+            {
+                throw new IllegalStateException("Not a cached propnet of this version: " + file);
+            }
+
+            GdlConstant[] constants = new GdlConstant[buffer.getInt()];
+            for (int i = 0; i < constants.length; i++)
+            {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                constants[i] = GdlPool.getConstant(new String(bytes, UTF8));
+            }
+
+            List<Role> roles = new ArrayList<Role>();
+            int numRoles = buffer.getInt();
+            for (int r = 0; r < numRoles; r++)
+            {
+                roles.add(new Role(constants[buffer.getInt()]));
+            }
+
+            int n = buffer.getInt();
+            int numEdges = buffer.getInt();
+            int numBases = buffer.getInt();
+            int numInputs = buffer.getInt();
+            int initProposition = buffer.getInt();
+            int terminalProposition = buffer.getInt();
+            byte[] types = new byte[n];
+            buffer.get(types);
+            int[] inputOffsets = new int[n + 1];
+            for (int c = 0; c < n; c++)
+            {
+                inputOffsets[c + 1] = inputOffsets[c] + buffer.getInt();
+            }
+            if (inputOffsets[n] != numEdges)
+            {
+                throw new IllegalStateException("Inconsistent cached propnet: " + file);
+            }
+            int[] inputs = readInts(buffer, numEdges);
+            int[][] legals = new int[numRoles][];
+            int[][] goals = new int[numRoles][];
+            for (int r = 0; r < numRoles; r++)
+            {
+                legals[r] = readInts(buffer, buffer.getInt());
+                goals[r] = readInts(buffer, buffer.getInt());
+            }
+            GdlSentence[] names = new GdlSentence[n];
+            for (int c = 0; c < n; c++)
+            {
+                names[c] = readSentence(buffer, constants);
+            }
+            return new ImmutablePropNet(roles, types, names, inputOffsets, inputs, numBases, numInputs,
+                    legals, goals, initProposition, terminalProposition);
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IllegalStateException("Truncated cached propnet: " + file, e);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException
+    {
+        out.writeInt(values.length);
+        for (int value : values)
+        {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length)
+    {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * length);
+        return values;
+    }
+
+    private static void addConstant(GdlConstant constant, Map<GdlConstant, Integer> constants, List<GdlConstant> constantList)
+    {
+        if (!constants.containsKey(constant))
+        {
+            constants.put(constant, constantList.size());
+            constantList.add(constant);
+        }
+    }
+
+    private static void addConstants(GdlSentence sentence, Map<GdlConstant, Integer> constants, List<GdlConstant> constantList)
+    {
+        addConstant(sentence.getName(), constants, constantList);
+        if (sentence instanceof GdlRelation)
+        {
+            for (GdlTerm term : sentence.getBody())
+            {
+                addConstants(term, constants, constantList);
+            }
+        }
+    }
+
+    private static void addConstants(GdlTerm term, Map<GdlConstant, Integer> constants, List<GdlConstant> constantList)
+    {
+        if (term instanceof GdlConstant)
+        {
+            addConstant((GdlConstant) term, constants, constantList);
+        }
+        else if (term instanceof GdlFunction)
+        {
+            GdlFunction function = (GdlFunction) term;
+            addConstant(function.getName(), constants, constantList);
+            for (GdlTerm bodyTerm : function.getBody())
+            {
+                addConstants(bodyTerm, constants, constantList);
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("Propnet sentences must be ground, but found " + term);
+        }
+    }
+
+    private static void writeSentence(DataOutputStream out, GdlSentence sentence, Map<GdlConstant, Integer> constants) throws IOException
+    {
+        if (sentence == null)
+        {
+            out.writeByte(TAG_NONE);
+        }
+        else if (sentence instanceof GdlProposition)
+        {
+            out.writeByte(TAG_PROPOSITION);
+            out.writeInt(constants.get(sentence.getName()));
+        }
+        else
+        {
+            out.writeByte(TAG_RELATION);
+            out.writeInt(constants.get(sentence.getName()));
+            out.writeInt(sentence.arity());
+            for (GdlTerm term : sentence.getBody())
+            {
+                writeTerm(out, term, constants);
+            }
+        }
+    }
+
+    private static void writeTerm(DataOutputStream out, GdlTerm term, Map<GdlConstant, Integer> constants) throws IOException
+    {
+        if (term instanceof GdlConstant)
+        {
+            out.writeByte(TAG_CONSTANT);
+            out.writeInt(constants.get(term));
+        }
+        else
+        {
+            GdlFunction function = (GdlFunction) term;
+            out.writeByte(TAG_FUNCTION);
+            out.writeInt(constants.get(function.getName()));
+            out.writeInt(function.arity());
+            for (GdlTerm bodyTerm : function.getBody())
+            {
+                writeTerm(out, bodyTerm, constants);
+            }
+        }
+    }
+
+    private static GdlSentence readSentence(ByteBuffer buffer, GdlConstant[] constants)
+    {
+        byte tag = buffer.get();
+        switch (tag)
+        {
+        case TAG_NONE:
+            return null;
+        case TAG_PROPOSITION:
+            return GdlPool.getProposition(constants[buffer.getInt()]);
+        case TAG_RELATION:
+            GdlConstant name = constants[buffer.getInt()];
+            return GdlPool.getRelation(name, readTerms(buffer, constants));
+        default:
+            throw new IllegalStateException("Unknown sentence tag " + tag);
+        }
+    }
+
+    private static List<GdlTerm> readTerms(ByteBuffer buffer, GdlConstant[] constants)
+    {
+        int arity = buffer.getInt();
+        List<GdlTerm> body = new ArrayList<GdlTerm>(arity);
+        for (int i = 0; i < arity; i++)
+        {
+            byte tag = buffer.get();
+            if (tag == TAG_CONSTANT)
+            {
+                body.add(constants[buffer.getInt()]);
+            }
+            else if (tag == TAG_FUNCTION)
+            {
+                GdlConstant name = constants[buffer.getInt()];
+                body.add(GdlPool.getFunction(name, readTerms(buffer, constants)));
+            }
+            else
+            {
+                throw new IllegalStateException("Unknown term tag " + tag);
+            }
+        }
+        return body;
+    }
+}
@@ -12,9 +12,12 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.concurrency.ConcurrencyUtils.DeadlineTimer;
 import org.ggp.base.util.gdl.GdlUtils;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
@@ -28,8 +31,6 @@ import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
 import org.ggp.base.util.gdl.model.SentenceDomainModel;
-import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
-import org.ggp.base.util.gdl.model.SentenceDomainModelOptimizer;
 import org.ggp.base.util.gdl.model.SentenceForm;
 import org.ggp.base.util.gdl.model.SentenceForms;
 import org.ggp.base.util.gdl.model.SentenceModelUtils;
@@ -38,14 +39,13 @@ import org.ggp.base.util.gdl.model.assignments.Assignments;
 import org.ggp.base.util.gdl.model.assignments.AssignmentsFactory;
 import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
 import org.ggp.base.util.gdl.model.assignments.FunctionInfoImpl;
+import org.ggp.base.util.gdl.model.assignments.SlotAssignmentIterator;
+import org.ggp.base.util.gdl.model.assignments.SlotSentence;
 import org.ggp.base.util.gdl.transforms.CommonTransforms;
-import org.ggp.base.util.gdl.transforms.CondensationIsolator;
 import org.ggp.base.util.gdl.transforms.ConstantChecker;
-import org.ggp.base.util.gdl.transforms.ConstantCheckerFactory;
-import org.ggp.base.util.gdl.transforms.DeORer;
-import org.ggp.base.util.gdl.transforms.GdlCleaner;
-import org.ggp.base.util.gdl.transforms.Relationizer;
-import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.gdl.transforms.GdlStages;
+import org.ggp.base.util.pipeline.Pipeline;
+import org.ggp.base.util.pipeline.Stage;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
 import org.ggp.base.util.propnet.architecture.components.And;
@@ -108,16 +108,89 @@ public class OptimizingPropNetFactory {
     }
 
     public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+        return createAndLog(description, verbose, Long.MAX_VALUE, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Creates a PropNet for the game with the given description, giving up
+     * at the given deadline. Sentence forms in the same stratum of the
+     * dependency graph don't depend on each other, so their rules are
+     * grounded concurrently, on the given number of threads; the resulting
+     * components are still connected on the calling thread, one sentence
+     * form at a time.
+     *
+     * @param deadline the time, as given by System.currentTimeMillis(), by
+     * which the PropNet must be built, or Long.MAX_VALUE if there is none.
+     * @param listener told about each sentence form added, so the caller can
+     * tell whether the PropNet will be ready in time; may be null.
+     * @throws InterruptedException if the thread is interrupted, or the
+     * deadline passes, during PropNet creation.
+     */
+    public static PropNet create(List<Gdl> description, long deadline, int numThreads, ProgressListener listener) throws InterruptedException {
+        return createAndLog(description, false, deadline, numThreads, listener);
+    }
+
+    /**
+     * Like {@link #create(List, long, int, ProgressListener)}, but runs each
+     * step of the build as a stage of the given pipeline, which records what
+     * it cost. The caller can go on to run more stages on the pipeline, and
+     * should log its summary when done; the other create methods log theirs
+     * to the "StateMachine" log.
+     */
+    public static PropNet create(List<Gdl> description, long deadline, int numThreads, ProgressListener listener, Pipeline pipeline) throws InterruptedException {
+        return create(description, false, deadline, numThreads, listener, pipeline);
+    }
+
+    /**
+     * Receives progress reports from
+     * {@link OptimizingPropNetFactory#create(List, long, int, ProgressListener)}.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the building thread once the sentence forms have been
+         * ordered, and after each sentence form is added.
+         */
+        void onProgress(int formsAdded, int numForms);
+    }
+
+    private static PropNet createAndLog(List<Gdl> description, boolean verbose, long deadline, int numThreads, ProgressListener listener) throws InterruptedException {
+        Pipeline pipeline = new Pipeline("OptimizingPropNetFactory");
+        PropNet propnet = create(description, verbose, deadline, numThreads, listener, pipeline);
+        pipeline.logSummary("StateMachine");
+        return propnet;
+    }
+
+    private static PropNet create(List<Gdl> description, boolean verbose, long deadline, int numThreads, ProgressListener listener, Pipeline pipeline) throws InterruptedException {
+        // At the deadline, this thread is interrupted, and it cancels the
+        // workers' tasks in turn.
+        DeadlineTimer timer = ConcurrencyUtils.interruptAt(deadline);
+        ExecutorService pool = ConcurrencyUtils.newDaemonPool("OptimizingPropNetFactory worker", numThreads);
+        try {
+            return build(description, verbose, pool, listener, pipeline);
+        } catch (InterruptedException e) {
+            if (timer.cancel()) {
+                throw new InterruptedException("Deadline passed");
+            }
+            throw e;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            timer.cancel();
+        }
+    }
+
+    private static PropNet build(List<Gdl> description, final boolean verbose, final ExecutorService pool, final ProgressListener listener, final Pipeline pipeline) throws InterruptedException {
         System.out.println("Building propnet...");
 
         long startTime = System.currentTimeMillis();
 
-        description = GdlCleaner.run(description);
-        description = DeORer.run(description);
-        description = VariableConstrainer.replaceFunctionValuedVariables(description);
-        description = Relationizer.run(description);
+        description = pipeline.run(GdlStages.GDL_CLEANER, description);
+        description = pipeline.run(GdlStages.DE_ORER, description);
+        description = pipeline.run(GdlStages.VARIABLE_CONSTRAINER, description);
+        description = pipeline.run(GdlStages.RELATIONIZER, description);
 
-        description = CondensationIsolator.run(description);
+        description = pipeline.run(GdlStages.CONDENSATION_ISOLATOR, description);
 
 
         if(verbose)
@@ -126,19 +199,93 @@ public class OptimizingPropNetFactory {
 
         //We want to start with a rule graph and follow the rule graph.
         //Start by finding general information about the game
-        SentenceDomainModel model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+        SentenceDomainModel model = pipeline.run(GdlStages.domainModel(pool), description);
         //Restrict domains to values that could actually come up in rules.
         //See chinesecheckers4's "count" relation for an example of why this
         //could be useful.
-        model = SentenceDomainModelOptimizer.restrictDomainsToUsefulValues(model);
+        model = pipeline.run(GdlStages.domainModelOptimizer(pool), model);
 
         if(verbose)
             System.out.println("Setting constants...");
 
-        ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
+        final ConstantChecker constantChecker = pipeline.run(GdlStages.CONSTANT_CHECKER, model);
         if(verbose)
             System.out.println("Done setting constants");
 
+        final List<Role> roles = Role.computeRoles(description);
+        ComponentMaps maps = pipeline.run(new Stage<SentenceDomainModel, ComponentMaps>("grounding") {
+            @Override
+            public ComponentMaps run(SentenceDomainModel model) throws InterruptedException {
+                return ground(model, constantChecker, verbose, pool, listener, pipeline);
+            }
+
+            @Override
+            public int getOutputSize(ComponentMaps maps) {
+                return maps.components.size();
+            }
+        }, model);
+        //Now we can safely...
+        maps = pipeline.run(new Stage<ComponentMaps, ComponentMaps>("removeUselessBasePropositions") {
+            @Override
+            public ComponentMaps run(ComponentMaps maps) throws InterruptedException {
+                removeUselessBasePropositions(maps.components, maps.falseComponent);
+                return maps;
+            }
+
+            @Override
+            public int getOutputSize(ComponentMaps maps) {
+                return maps.components.size();
+            }
+        }, maps);
+        maps = pipeline.run(OPTIMIZE_AWAY_TRUE_AND_FALSE, maps);
+        PropNet propnet = pipeline.run(new Stage<ComponentMaps, PropNet>("PropNet") {
+            @Override
+            public PropNet run(ComponentMaps maps) throws InterruptedException {
+                if(verbose)
+                    System.out.println("Creating component set...");
+                Set<Component> componentSet = new HashSet<Component>(maps.components.values());
+                //Try saving some memory here...
+                maps.components = null;
+                maps.negations = null;
+                completeComponentSet(componentSet);
+                ConcurrencyUtils.checkForInterruption();
+                if(verbose)
+                    System.out.println("Initializing propnet object...");
+                //Make it look the same as the PropNetFactory results, until we decide
+                //how we want it to look
+                normalizePropositions(componentSet);
+                return new PropNet(roles, componentSet);
+            }
+
+            @Override
+            public int getOutputSize(PropNet propnet) {
+                return propnet.getComponents().size();
+            }
+        }, maps);
+        if(verbose) {
+            System.out.println("Done setting up propnet; took " + (System.currentTimeMillis() - startTime) + "ms, has " + propnet.getComponents().size() + " components and " + propnet.getNumLinks() + " links");
+            System.out.println("Propnet has " +propnet.getNumAnds()+" ands; "+propnet.getNumOrs()+" ors; "+propnet.getNumNots()+" nots");
+        }
+        //System.out.println(propnet);
+        return propnet;
+    }
+
+    /**
+     * The components of a PropNet under construction, by the sentences they
+     * stand for, and the constants they may be connected to.
+     */
+    private static class ComponentMaps {
+        private Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
+        private Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
+        private final Constant trueComponent = new Constant(true);
+        private final Constant falseComponent = new Constant(false);
+    }
+
+    /**
+     * Adds the components of each sentence form in the model, in topological
+     * order, then connects "next" to "true" and sets up "init".
+     */
+    private static ComponentMaps ground(SentenceDomainModel model, ConstantChecker constantChecker, boolean verbose, ExecutorService pool, ProgressListener listener, Pipeline pipeline) throws InterruptedException {
         Set<String> sentenceFormNames = SentenceForms.getNames(model.getSentenceForms());
         boolean usingBase = sentenceFormNames.contains("base");
         boolean usingInput = sentenceFormNames.contains("input");
@@ -158,60 +305,91 @@ public class OptimizingPropNetFactory {
         if(verbose)
             System.out.println("done");
 
-        List<Role> roles = Role.computeRoles(description);
-        Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
-        Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
-        Constant trueComponent = new Constant(true);
-        Constant falseComponent = new Constant(false);
+        ComponentMaps maps = new ComponentMaps();
+        Map<GdlSentence, Component> components = maps.components;
+        Map<GdlSentence, Component> negations = maps.negations;
+        Constant trueComponent = maps.trueComponent;
+        Constant falseComponent = maps.falseComponent;
         Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
         Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-        for(SentenceForm form : topologicalOrdering) {
-            ConcurrencyUtils.checkForInterruption();
-
-            if(verbose) {
-                System.out.print("Adding sentence form " + form);
-                System.out.flush();
+        int formsAdded = 0;
+        if(listener != null)
+            listener.onProgress(formsAdded, topologicalOrdering.size());
+        for(List<SentenceForm> stratum : getStrata(topologicalOrdering, dependencyGraph, usingBase, usingInput)) {
+            //Forms that can be grounded independently of the rest of the
+            //stratum are grounded together, concurrently if there is a pool.
+            //The others, which write to the components as they go, are added
+            //one at a time before that: processing a recursive form optimizes
+            //away propositions that follow from true or false, so the ground
+            //rules must not look up their conjuncts until that is done.
+            List<SentenceForm> groundable = new ArrayList<SentenceForm>();
+            List<SentenceForm> ordered = new ArrayList<SentenceForm>();
+            for(SentenceForm form : stratum) {
+                if(!constantChecker.isConstantForm(form) && !dependencyGraph.get(form).contains(form)
+                        && !form.getName().equals(GdlPool.TRUE) && !form.getName().equals(GdlPool.DOES)) {
+                    groundable.add(form);
+                } else {
+                    ordered.add(form);
+                }
             }
-            if(constantChecker.isConstantForm(form)) {
-                if(verbose)
-                    System.out.println(" (constant)");
-                //Only add it if it's important
-                if(form.getName().equals(GdlPool.LEGAL)
-                        || form.getName().equals(GdlPool.GOAL)
-                        || form.getName().equals(GdlPool.INIT)
-                        || form.getName().equals(GdlPool.NEXT)
-                        || form.getName().equals(GdlPool.TERMINAL)) {
-                    //Add it
-                    for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-                        Proposition trueProp = new Proposition(trueSentence);
-                        trueProp.addInput(trueComponent);
-                        trueComponent.addOutput(trueProp);
-                        components.put(trueSentence, trueComponent);
-                    }
+            int firstGroundable = ordered.size();
+            ordered.addAll(groundable);
+            Map<SentenceForm, Map<GdlSentence, List<GroundRule>>> groundRules = Collections.emptyMap();
+
+            for(int i = 0; i < ordered.size(); i++) {
+                SentenceForm form = ordered.get(i);
+                ConcurrencyUtils.checkForInterruption();
+                if(i == firstGroundable) {
+                    groundRules = groundForms(groundable, model, components, negations, falseComponent, functionInfoMap, constantChecker, completedSentenceFormValues, pool);
                 }
 
-                if(verbose)
-                    System.out.println("Checking whether " + form + " is a functional constant...");
-                addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-                addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+                if(verbose) {
+                    System.out.print("Adding sentence form " + form);
+                    System.out.flush();
+                }
+                if(constantChecker.isConstantForm(form)) {
+                    if(verbose)
+                        System.out.println(" (constant)");
+                    //Only add it if it's important
+                    if(form.getName().equals(GdlPool.LEGAL)
+                            || form.getName().equals(GdlPool.GOAL)
+                            || form.getName().equals(GdlPool.INIT)
+                            || form.getName().equals(GdlPool.NEXT)
+                            || form.getName().equals(GdlPool.TERMINAL)) {
+                        //Add it
+                        for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+                            Proposition trueProp = new Proposition(trueSentence);
+                            trueProp.addInput(trueComponent);
+                            trueComponent.addOutput(trueProp);
+                            components.put(trueSentence, trueComponent);
+                        }
+                    }
 
-                continue;
+                    if(verbose)
+                        System.out.println("Checking whether " + form + " is a functional constant...");
+                    addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+                    addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+                } else {
+                    if(verbose)
+                        System.out.println();
+                    //TODO: Adjust "recursive forms" appropriately
+                    //Add a temporary sentence form thingy? ...
+                    Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+                    Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+                    addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues, groundRules.get(form));
+                    //TODO: Pass these over groups of multiple sentence forms
+                    if(verbose && !temporaryComponents.isEmpty())
+                        System.out.println("Processing temporary components...");
+                    processTemporaryComponents(temporaryComponents, temporaryNegations, maps, pipeline);
+                    addFormToCompletedValues(form, completedSentenceFormValues, components);
+                    //if(verbose)
+                    //TODO: Add this, but with the correct total number of components (not just Propositions)
+                    //System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
+                }
+                formsAdded++;
+                if(listener != null)
+                    listener.onProgress(formsAdded, topologicalOrdering.size());
             }
-            if(verbose)
-                System.out.println();
-            //TODO: Adjust "recursive forms" appropriately
-            //Add a temporary sentence form thingy? ...
-            Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-            Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-            addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-            //TODO: Pass these over groups of multiple sentence forms
-            if(verbose && !temporaryComponents.isEmpty())
-                System.out.println("Processing temporary components...");
-            processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-            addFormToCompletedValues(form, completedSentenceFormValues, components);
-            //if(verbose)
-            //TODO: Add this, but with the correct total number of components (not just Propositions)
-            //System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
         }
         //Connect "next" to "true"
         if(verbose)
@@ -221,49 +399,25 @@ public class OptimizingPropNetFactory {
         if(verbose)
             System.out.println("Setting up 'init' proposition...");
         setUpInit(components, trueComponent, falseComponent);
-        //Now we can safely...
-        removeUselessBasePropositions(components, negations, trueComponent, falseComponent);
-        if(verbose)
-            System.out.println("Creating component set...");
-        Set<Component> componentSet = new HashSet<Component>(components.values());
-        //Try saving some memory here...
-        components = null;
-        negations = null;
-        completeComponentSet(componentSet);
-        ConcurrencyUtils.checkForInterruption();
-        if(verbose)
-            System.out.println("Initializing propnet object...");
-        //Make it look the same as the PropNetFactory results, until we decide
-        //how we want it to look
-        normalizePropositions(componentSet);
-        PropNet propnet = new PropNet(roles, componentSet);
-        if(verbose) {
-            System.out.println("Done setting up propnet; took " + (System.currentTimeMillis() - startTime) + "ms, has " + componentSet.size() + " components and " + propnet.getNumLinks() + " links");
-            System.out.println("Propnet has " +propnet.getNumAnds()+" ands; "+propnet.getNumOrs()+" ors; "+propnet.getNumNots()+" nots");
-        }
-        //System.out.println(propnet);
-        return propnet;
+        return maps;
     }
 
 
+    /**
+     * Connects the base propositions that nothing makes true to the false
+     * constant, for {@link #OPTIMIZE_AWAY_TRUE_AND_FALSE} to remove.
+     */
     private static void removeUselessBasePropositions(
-            Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations, Constant trueComponent,
-            Constant falseComponent) throws InterruptedException {
-        boolean changedSomething = false;
+            Map<GdlSentence, Component> components, Constant falseComponent) {
         for(Entry<GdlSentence, Component> entry : components.entrySet()) {
             if(entry.getKey().getName() == GdlPool.TRUE) {
                 Component comp = entry.getValue();
                 if(comp.getInputs().size() == 0) {
                     comp.addInput(falseComponent);
                     falseComponent.addOutput(comp);
-                    changedSomething = true;
                 }
             }
         }
-        if(!changedSomething)
-            return;
-
-        optimizeAwayTrueAndFalse(components, negations, trueComponent, falseComponent);
     }
 
     /**
@@ -328,9 +482,10 @@ public class OptimizingPropNetFactory {
     private static void processTemporaryComponents(
             Map<GdlSentence, Component> temporaryComponents,
             Map<GdlSentence, Component> temporaryNegations,
-            Map<GdlSentence, Component> components,
-            Map<GdlSentence, Component> negations, Component trueComponent,
-            Component falseComponent) throws InterruptedException {
+            ComponentMaps maps, Pipeline pipeline) throws InterruptedException {
+        Map<GdlSentence, Component> components = maps.components;
+        Map<GdlSentence, Component> negations = maps.negations;
+        Component falseComponent = maps.falseComponent;
         //For each component in temporary components, we want to "put it back"
         //into the main components section.
         //We also want to do optimization here...
@@ -364,7 +519,7 @@ public class OptimizingPropNetFactory {
                 //If this follows true/false, will get resolved by the next set of optimizations
             }
 
-            optimizeAwayTrueAndFalse(components, negations, trueComponent, falseComponent);
+            pipeline.run(OPTIMIZE_AWAY_TRUE_AND_FALSE, maps);
 
         }
     }
@@ -385,6 +540,26 @@ public class OptimizingPropNetFactory {
         }
     }
 
+    /**
+     * {@link #optimizeAwayTrueAndFalse(Map, Map, Component, Component)} on
+     * the components built so far. Besides running once at the end, this
+     * runs during grounding after each batch of temporary components, so it
+     * is always run through the pipeline, to show what it costs apart from
+     * the grounding itself.
+     */
+    private static final Stage<ComponentMaps, ComponentMaps> OPTIMIZE_AWAY_TRUE_AND_FALSE = new Stage<ComponentMaps, ComponentMaps>("optimizeAwayTrueAndFalse") {
+        @Override
+        public ComponentMaps run(ComponentMaps maps) throws InterruptedException {
+            optimizeAwayTrueAndFalse(maps.components, maps.negations, maps.trueComponent, maps.falseComponent);
+            return maps;
+        }
+
+        @Override
+        public int getOutputSize(ComponentMaps maps) {
+            return maps.components.size();
+        }
+    };
+
     private static void optimizeAwayTrueAndFalse(PropNet pn, Component trueComponent, Component falseComponent) {
         while(hasNonessentialChildren(trueComponent) || hasNonessentialChildren(falseComponent)) {
             optimizeAwayTrue(null, null, pn, trueComponent, falseComponent);
@@ -824,6 +999,84 @@ public class OptimizingPropNetFactory {
         return ordering;
     }
 
+    /**
+     * Splits the topological ordering into strata: each form is placed one
+     * stratum after the last of the forms it depends on (other than itself),
+     * so no form depends on another form of its own stratum. The forms of each
+     * stratum keep their order from the topological ordering.
+     */
+    private static List<List<SentenceForm>> getStrata(List<SentenceForm> topologicalOrdering,
+            Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+        Map<SentenceForm, Integer> levels = new HashMap<SentenceForm, Integer>();
+        List<List<SentenceForm>> strata = new ArrayList<List<SentenceForm>>();
+        for(SentenceForm form : topologicalOrdering) {
+            List<SentenceForm> dependencies = new ArrayList<SentenceForm>(dependencyGraph.get(form));
+            //Match the extra constraints of the topological ordering
+            if(usingBase && (form.getName().equals(GdlPool.TRUE) || form.getName().equals(GdlPool.NEXT) || form.getName().equals(GdlPool.INIT))) {
+                dependencies.add(form.withName(GdlPool.BASE));
+            }
+            if(usingInput && (form.getName().equals(GdlPool.DOES) || form.getName().equals(GdlPool.LEGAL))) {
+                dependencies.add(form.withName(GdlPool.INPUT));
+            }
+            int level = 0;
+            for(SentenceForm dependency : dependencies) {
+                Integer dependencyLevel = levels.get(dependency);
+                if(!dependency.equals(form) && dependencyLevel != null) {
+                    level = Math.max(level, dependencyLevel + 1);
+                }
+            }
+            levels.put(form, level);
+            while(strata.size() <= level) {
+                strata.add(new ArrayList<SentenceForm>());
+            }
+            strata.get(level).add(form);
+        }
+        return strata;
+    }
+
+    /**
+     * Grounds the rules of each of the given forms, which must all be in the
+     * same stratum, on the pool's threads if there is a pool.
+     */
+    private static Map<SentenceForm, Map<GdlSentence, List<GroundRule>>> groundForms(List<SentenceForm> forms,
+            final SentenceDomainModel model,
+            final Map<GdlSentence, Component> components,
+            final Map<GdlSentence, Component> negations,
+            final Constant falseComponent,
+            final Map<SentenceForm, FunctionInfo> functionInfoMap, final ConstantChecker constantChecker,
+            final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+            ExecutorService pool) throws InterruptedException {
+        Map<SentenceForm, Map<GdlSentence, List<GroundRule>>> result = new HashMap<SentenceForm, Map<GdlSentence, List<GroundRule>>>();
+        List<Callable<Map<GdlSentence, List<GroundRule>>>> tasks = new ArrayList<Callable<Map<GdlSentence, List<GroundRule>>>>();
+        for(final SentenceForm form : forms) {
+            tasks.add(new Callable<Map<GdlSentence, List<GroundRule>>>() {
+                @Override
+                public Map<GdlSentence, List<GroundRule>> call() throws InterruptedException {
+                    return groundRules(form, model, components, negations, falseComponent, Collections.singleton(form), new HashMap<GdlSentence, Component>(), new HashMap<GdlSentence, Component>(), functionInfoMap, constantChecker, completedSentenceFormValues);
+                }
+            });
+        }
+        List<Map<GdlSentence, List<GroundRule>>> groundRules = ConcurrencyUtils.invokeAll(pool, tasks);
+        for(int i = 0; i < forms.size(); i++) {
+            result.put(forms.get(i), groundRules.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * A ground instance of a rule, waiting to be connected: the components
+     * of its positive conjuncts, and the sentences whose negations it needs.
+     */
+    private static class GroundRule {
+        private final List<Component> conjuncts;
+        private final List<GdlSentence> negatedSentences;
+
+        public GroundRule(List<Component> conjuncts, List<GdlSentence> negatedSentences) {
+            this.conjuncts = conjuncts;
+            this.negatedSentences = negatedSentences;
+        }
+    }
+
     private static void addSentenceForm(SentenceForm form, SentenceDomainModel model,
             Map<GdlSentence, Component> components,
             Map<GdlSentence, Component> negations,
@@ -832,7 +1085,8 @@ public class OptimizingPropNetFactory {
             Set<SentenceForm> recursionForms,
             Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
             Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
-            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+            Map<GdlSentence, List<GroundRule>> groundRules) throws InterruptedException {
         //This is the meat of it (along with the entire Assignments class).
         //We need to enumerate the possible propositions in the sentence form...
         //We also need to hook up the sentence form to the inputs that can make it true.
@@ -841,7 +1095,6 @@ public class OptimizingPropNetFactory {
         //true/false if it's a constant.
 
         Set<GdlSentence> alwaysTrueSentences = model.getSentencesListedAsTrue(form);
-        Set<GdlRule> rules = model.getRules(form);
 
         for(GdlSentence alwaysTrueSentence : alwaysTrueSentences) {
             //We add the sentence as a constant
@@ -882,8 +1135,45 @@ public class OptimizingPropNetFactory {
             return;
         }
 
-        Map<GdlSentence, Set<Component>> inputsToOr = new HashMap<GdlSentence, Set<Component>>();
-        for(GdlRule rule : rules) {
+        //The rules have already been grounded if the form was grounded
+        //along with the rest of its stratum
+        if(groundRules == null) {
+            groundRules = groundRules(form, model, components, negations, falseComponent, recursionForms, temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
+        }
+        connectGroundRules(groundRules, components, negations, trueComponent, falseComponent);
+
+        //True/does sentences will have none of these rules, but
+        //still need to exist/"float"
+        //We'll do this if we haven't used base/input as a basis
+        if(form.getName().equals(GdlPool.TRUE)
+                || form.getName().equals(GdlPool.DOES)) {
+            for(GdlSentence sentence : model.getDomain(form)) {
+                ConcurrencyUtils.checkForInterruption();
+
+                Proposition prop = new Proposition(sentence);
+                components.put(sentence, prop);
+            }
+        }
+
+    }
+
+
+    /**
+     * Finds the ground instances of the rules of a sentence form. Apart from
+     * the temporary components of recursive forms, nothing is modified, and
+     * nothing is read that other forms of the same stratum could be adding,
+     * so the forms of a stratum can be grounded concurrently.
+     */
+    private static Map<GdlSentence, List<GroundRule>> groundRules(SentenceForm form, SentenceDomainModel model,
+            Map<GdlSentence, Component> components,
+            Map<GdlSentence, Component> negations,
+            Constant falseComponent,
+            Set<SentenceForm> recursionForms,
+            Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
+            Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
+            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+        Map<GdlSentence, List<GroundRule>> groundRules = new HashMap<GdlSentence, List<GroundRule>>();
+        for(GdlRule rule : model.getRules(form)) {
             Assignments assignments = AssignmentsFactory.getAssignmentsForRule(rule, model, functionInfoMap, completedSentenceFormValues);
 
             //Calculate vars in live (non-constant, non-distinct) conjuncts
@@ -893,6 +1183,11 @@ public class OptimizingPropNetFactory {
             boolean preventDuplicatesFromConstants =
                     (varsInRule.size() > varsInLiveConjuncts.size());
 
+            if(canGroundBySlots(rule, model, recursionForms, constantChecker, completedSentenceFormValues)) {
+                groundRuleBySlots(rule, assignments, model, components, negations, falseComponent, varsInLiveConjuncts, preventDuplicatesFromConstants, constantChecker, completedSentenceFormValues, groundRules);
+                continue;
+            }
+
             //Do we just pass those to the Assignments class in that case?
             for(AssignmentIterator asnItr = assignments.getIterator(); asnItr.hasNext(); ) {
                 Map<GdlVariable, GdlConstant> assignment = asnItr.next();
@@ -904,6 +1199,7 @@ public class OptimizingPropNetFactory {
 
                 //Now we go through the conjuncts as before, but we wait to hook them up.
                 List<Component> componentsToConnect = new ArrayList<Component>(rule.arity());
+                List<GdlSentence> negatedSentences = new ArrayList<GdlSentence>();
                 for(GdlLiteral literal : rule.getBody()) {
                     if(literal instanceof GdlSentence) {
                         //Get the sentence post-substitutions
@@ -1006,20 +1302,11 @@ public class OptimizingPropNetFactory {
                                 continue; //to the next conjunct
                             }
 
-                            //Check if we're sharing a component with another sentence with a negation
-                            //(i.e. look for "nots" in our outputs and use those instead)
-                            Not existingNotOutput = getNotOutput(positive);
-                            if(existingNotOutput != null) {
-                                componentsToConnect.add(existingNotOutput);
-                                negations.put(transformed, existingNotOutput);
-                                continue; //to the next conjunct
-                            }
-
-                            Not not = new Not();
-                            not.addInput(positive);
-                            positive.addOutput(not);
-                            negations.put(transformed, not);
-                            conj = not;
+                            //The "not" is found or made when the rule is
+                            //connected, as other forms may be grounded
+                            //at the same time
+                            negatedSentences.add(transformed);
+                            continue; //to the next conjunct
                         }
                         componentsToConnect.add(conj);
                     } else if(literal instanceof GdlDistinct) {
@@ -1029,20 +1316,205 @@ public class OptimizingPropNetFactory {
                     }
                 }
                 if(!componentsToConnect.contains(null)) {
-                    //Connect all the components
-                    Proposition andComponent = new Proposition(TEMP);
-
-                    andify(componentsToConnect, andComponent, trueComponent);
-                    if(!isThisConstant(andComponent, falseComponent)) {
-                        if(!inputsToOr.containsKey(sentence))
-                            inputsToOr.put(sentence, new HashSet<Component>());
-                        inputsToOr.get(sentence).add(andComponent);
-                        //We'll want to make sure at least one of the non-constant
-                        //components is changing
-                        if(preventDuplicatesFromConstants) {
-                            asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
+                    if(!groundRules.containsKey(sentence))
+                        groundRules.put(sentence, new ArrayList<GroundRule>());
+                    groundRules.get(sentence).add(new GroundRule(componentsToConnect, negatedSentences));
+                    //We'll want to make sure at least one of the non-constant
+                    //components is changing. None of the conjuncts can be
+                    //false, so neither can the rule once it's connected.
+                    if(preventDuplicatesFromConstants) {
+                        asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
+                    }
+                }
+            }
+        }
+        return groundRules;
+    }
+
+    /**
+     * Returns true if every sentence in the body of the rule is of a
+     * constant or completed sentence form, so that its instances are known
+     * before the rule is grounded.
+     */
+    private static boolean canGroundBySlots(GdlRule rule, SentenceDomainModel model,
+            Set<SentenceForm> recursionForms, ConstantChecker constantChecker,
+            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) {
+        for(GdlLiteral literal : rule.getBody()) {
+            if(literal instanceof GdlNot) {
+                literal = ((GdlNot) literal).getBody();
+            }
+            if(literal instanceof GdlSentence) {
+                GdlSentence sentence = (GdlSentence) literal;
+                SentenceForm form = model.getSentenceForm(sentence);
+                if(SentenceModelUtils.inSentenceFormGroup(sentence, recursionForms)
+                        || (!constantChecker.isConstantForm(form) && !completedSentenceFormValues.containsKey(form))) {
+                    return false;
+                }
+            } else if(!(literal instanceof GdlDistinct)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the ground instances of a rule, as groundRules does, for a rule
+     * accepted by canGroundBySlots. Each body sentence is looked up by the
+     * ids of its variables' constants in an index of its known instances,
+     * so failed assignments allocate nothing, and only the instances of
+     * the rule that are kept are built.
+     */
+    private static void groundRuleBySlots(GdlRule rule, Assignments assignments,
+            SentenceDomainModel model,
+            Map<GdlSentence, Component> components,
+            Map<GdlSentence, Component> negations,
+            Constant falseComponent,
+            Set<GdlVariable> varsInLiveConjuncts,
+            boolean preventDuplicatesFromConstants,
+            ConstantChecker constantChecker,
+            Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+            Map<GdlSentence, List<GroundRule>> groundRules) throws InterruptedException {
+        SlotAssignmentIterator asnItr = assignments.getSlotIterator();
+        List<GdlVariable> slotVariables = asnItr.getVariables();
+        SlotSentence head = SlotSentence.create(rule.getHead(), slotVariables);
+
+        //Distincts are already handled by the iterator, and are left null
+        int numLiterals = rule.arity();
+        SlotSentence.Index[] indices = new SlotSentence.Index[numLiterals];
+        int[][] literalSlots = new int[numLiterals][];
+        boolean[] negated = new boolean[numLiterals];
+        boolean[] constant = new boolean[numLiterals];
+        for(int i = 0; i < numLiterals; i++) {
+            GdlLiteral literal = rule.get(i);
+            if(literal instanceof GdlNot) {
+                negated[i] = true;
+                literal = ((GdlNot) literal).getBody();
+            }
+            if(literal instanceof GdlSentence) {
+                SentenceForm form = model.getSentenceForm((GdlSentence) literal);
+                SlotSentence slotSentence = SlotSentence.create((GdlSentence) literal, slotVariables);
+                constant[i] = constantChecker.isConstantForm(form);
+                indices[i] = slotSentence.index(constant[i] ? constantChecker.getTrueSentences(form) : completedSentenceFormValues.get(form));
+                literalSlots[i] = slotSentence.getSlots();
+            }
+        }
+        int[] liveSlots = new int[varsInLiveConjuncts.size()];
+        int numLiveSlots = 0;
+        for(GdlVariable var : varsInLiveConjuncts) {
+            liveSlots[numLiveSlots++] = slotVariables.indexOf(var);
+        }
+
+        //The component each positive conjunct connects to, or the sentence
+        //whose negation each negative one does
+        Component[] conjuncts = new Component[numLiterals];
+        GdlSentence[] negatedSentences = new GdlSentence[numLiterals];
+        while(asnItr.hasNext()) {
+            int[] assignment = asnItr.next();
+
+            ConcurrencyUtils.checkForInterruption();
+
+            boolean satisfied = true;
+            for(int i = 0; i < numLiterals; i++) {
+                conjuncts[i] = null;
+                negatedSentences[i] = null;
+                if(indices[i] == null) {
+                    continue;
+                }
+                GdlSentence instance = indices[i].get(assignment);
+                if(constant[i]) {
+                    if((instance != null) == negated[i]) {
+                        asnItr.changeOneInNext(literalSlots[i]);
+                        satisfied = false;
+                    }
+                } else if(!negated[i]) {
+                    Component conj = (instance == null) ? null : components.get(instance);
+                    //Let's say this is false; we want to backtrack and change the right variable
+                    if(conj == null || isThisConstant(conj, falseComponent)) {
+                        asnItr.changeOneInNext(literalSlots[i]);
+                        satisfied = false;
+                        continue; //look at all the other restrictions we'll face
+                    }
+                    conjuncts[i] = conj;
+                } else if(instance != null) {
+                    Component conj = negations.get(instance);
+                    if(isThisConstant(conj, falseComponent)) {
+                        asnItr.changeOneInNext(literalSlots[i]);
+                        satisfied = false;
+                        continue;
+                    }
+                    if(conj != null) {
+                        conjuncts[i] = conj;
+                    } else if(components.get(instance) != null) {
+                        //The "not" is found or made when the rule is
+                        //connected, as other forms may be grounded
+                        //at the same time
+                        negatedSentences[i] = instance;
+                    }
+                    //Otherwise the positive can't be true, so we skip this conjunct
+                }
+            }
+            if(satisfied) {
+                List<Component> componentsToConnect = new ArrayList<Component>(numLiterals);
+                List<GdlSentence> negatedToConnect = new ArrayList<GdlSentence>();
+                for(int i = 0; i < numLiterals; i++) {
+                    if(conjuncts[i] != null) {
+                        componentsToConnect.add(conjuncts[i]);
+                    } else if(negatedSentences[i] != null) {
+                        negatedToConnect.add(negatedSentences[i]);
+                    }
+                }
+                GdlSentence sentence = head.instantiate(asnItr);
+                if(!groundRules.containsKey(sentence))
+                    groundRules.put(sentence, new ArrayList<GroundRule>());
+                groundRules.get(sentence).add(new GroundRule(componentsToConnect, negatedToConnect));
+                //We'll want to make sure at least one of the non-constant
+                //components is changing. None of the conjuncts can be
+                //false, so neither can the rule once it's connected.
+                if(preventDuplicatesFromConstants) {
+                    asnItr.changeOneInNext(liveSlots);
+                }
+            }
+        }
+    }
+
+    /**
+     * Connects the ground rules of a sentence form, as found by
+     * groundRules, to new propositions for their heads, adding any "not"
+     * gates the rules need.
+     */
+    private static void connectGroundRules(Map<GdlSentence, List<GroundRule>> groundRules,
+            Map<GdlSentence, Component> components,
+            Map<GdlSentence, Component> negations,
+            Constant trueComponent, Constant falseComponent) throws InterruptedException {
+        Map<GdlSentence, Set<Component>> inputsToOr = new HashMap<GdlSentence, Set<Component>>();
+        for(Entry<GdlSentence, List<GroundRule>> entry : groundRules.entrySet()) {
+            for(GroundRule groundRule : entry.getValue()) {
+                List<Component> componentsToConnect = new ArrayList<Component>(groundRule.conjuncts);
+                for(GdlSentence negated : groundRule.negatedSentences) {
+                    Component conj = negations.get(negated);
+                    if(conj == null) {
+                        Component positive = components.get(negated);
+                        //Check if we're sharing a component with another sentence with a negation
+                        //(i.e. look for "nots" in our outputs and use those instead)
+                        conj = getNotOutput(positive);
+                        if(conj == null) {
+                            Not not = new Not();
+                            not.addInput(positive);
+                            positive.addOutput(not);
+                            conj = not;
                         }
+                        negations.put(negated, conj);
                     }
+                    componentsToConnect.add(conj);
+                }
+                //Connect all the components
+                Proposition andComponent = new Proposition(TEMP);
+
+                andify(componentsToConnect, andComponent, trueComponent);
+                if(!isThisConstant(andComponent, falseComponent)) {
+                    if(!inputsToOr.containsKey(entry.getKey()))
+                        inputsToOr.put(entry.getKey(), new HashSet<Component>());
+                    inputsToOr.get(entry.getKey()).add(andComponent);
                 }
             }
         }
@@ -1068,23 +1540,8 @@ public class OptimizingPropNetFactory {
             orify(realInputs, prop, falseComponent);
             components.put(sentence, prop);
         }
-
-        //True/does sentences will have none of these rules, but
-        //still need to exist/"float"
-        //We'll do this if we haven't used base/input as a basis
-        if(form.getName().equals(GdlPool.TRUE)
-                || form.getName().equals(GdlPool.DOES)) {
-            for(GdlSentence sentence : model.getDomain(form)) {
-                ConcurrencyUtils.checkForInterruption();
-
-                Proposition prop = new Proposition(sentence);
-                components.put(sentence, prop);
-            }
-        }
-
     }
 
-
     private static Set<GdlVariable> getVarsInLiveConjuncts(
             GdlRule rule, Set<SentenceForm> constantSentenceForms) {
         Set<GdlVariable> result = new HashSet<GdlVariable>();
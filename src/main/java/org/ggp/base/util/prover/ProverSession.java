@@ -0,0 +1,21 @@
+package org.ggp.base.util.prover;
+
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * A ProverSession answers queries against one fixed context, such as the
+ * sentences true in one game state. Since the context is always the same,
+ * it only needs to be indexed once, and sub-goals derived for one query can
+ * be reused by the next, so asking several questions about the same state
+ * through a session is cheaper than asking each of them through the Prover.
+ *
+ * Sessions are not safe for concurrent use; each thread should open its own.
+ */
+public interface ProverSession
+{
+    public abstract Set<GdlSentence> askAll(GdlSentence query);
+    public abstract GdlSentence askOne(GdlSentence query);
+    public abstract boolean prove(GdlSentence query);
+}
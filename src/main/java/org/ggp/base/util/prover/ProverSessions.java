@@ -0,0 +1,56 @@
+package org.ggp.base.util.prover;
+
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+public final class ProverSessions
+{
+    private ProverSessions()
+    {
+    }
+
+    /**
+     * Opens a session on the given prover for asking any number of queries
+     * against the given context, which must not change while the session is
+     * in use. A {@link SessionProver} opens its own session; for any other
+     * prover, the session simply asks the prover each query with the context.
+     */
+    public static ProverSession open(Prover prover, Set<GdlSentence> context)
+    {
+        if (prover instanceof SessionProver) {
+            return ((SessionProver) prover).openSession(context);
+        }
+        return new ContextSession(prover, context);
+    }
+
+    private static final class ContextSession implements ProverSession
+    {
+        private final Prover prover;
+        private final Set<GdlSentence> context;
+
+        public ContextSession(Prover prover, Set<GdlSentence> context)
+        {
+            this.prover = prover;
+            this.context = context;
+        }
+
+        @Override
+        public Set<GdlSentence> askAll(GdlSentence query)
+        {
+            return prover.askAll(query, context);
+        }
+
+        @Override
+        public GdlSentence askOne(GdlSentence query)
+        {
+            return prover.askOne(query, context);
+        }
+
+        @Override
+        public boolean prove(GdlSentence query)
+        {
+            return prover.prove(query, context);
+        }
+    }
+}
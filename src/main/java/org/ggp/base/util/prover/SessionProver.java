@@ -0,0 +1,19 @@
+package org.ggp.base.util.prover;
+
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * A Prover that can open its own sessions, indexing a context once for any
+ * number of queries. Provers that don't implement this can still be used
+ * through {@link ProverSessions#open(Prover, Set)}.
+ */
+public interface SessionProver extends Prover
+{
+    /**
+     * Opens a session for asking any number of queries against the given
+     * context, which must not change while the session is in use.
+     */
+    public abstract ProverSession openSession(Set<GdlSentence> context);
+}
@@ -1,319 +1,613 @@
 package org.ggp.base.util.prover.aima;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.ggp.base.util.gdl.GdlUtils;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
-import org.ggp.base.util.gdl.grammar.GdlDistinct;
-import org.ggp.base.util.gdl.grammar.GdlLiteral;
-import org.ggp.base.util.gdl.grammar.GdlNot;
-import org.ggp.base.util.gdl.grammar.GdlOr;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
-import org.ggp.base.util.gdl.grammar.GdlVariable;
 import org.ggp.base.util.gdl.transforms.DistinctAndNotMover;
-import org.ggp.base.util.prover.Prover;
+import org.ggp.base.util.prover.ProverSession;
+import org.ggp.base.util.prover.SessionProver;
+import org.ggp.base.util.prover.aima.binding.Bindings;
+import org.ggp.base.util.prover.aima.binding.CompiledDistinct;
+import org.ggp.base.util.prover.aima.binding.CompiledLiteral;
+import org.ggp.base.util.prover.aima.binding.CompiledNot;
+import org.ggp.base.util.prover.aima.binding.CompiledOr;
+import org.ggp.base.util.prover.aima.binding.CompiledRule;
+import org.ggp.base.util.prover.aima.binding.CompiledSentence;
 import org.ggp.base.util.prover.aima.cache.ProverCache;
 import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
-import org.ggp.base.util.prover.aima.renamer.VariableRenamer;
-import org.ggp.base.util.prover.aima.substituter.Substituter;
-import org.ggp.base.util.prover.aima.substitution.Substitution;
-import org.ggp.base.util.prover.aima.unifier.Unifier;
 
 import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
 
-public final class AimaProver implements Prover
+public final class AimaProver implements SessionProver
 {
 
     private final KnowledgeBase knowledgeBase;
 
+    /*
+     * The rules of the description, compiled for use with Bindings. The facts
+     * in contexts are not compiled, since they are ground and can be unified
+     * with as they are.
+     */
+    private final Map<GdlRule, CompiledRule> compiledRules;
+
     private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+    private final boolean tabling;
+
     public AimaProver(List<Gdl> description)
     {
-        description = DistinctAndNotMover.run(description);
-        knowledgeBase = new KnowledgeBase(Sets.newHashSet(description));
+        this(description, false);
     }
 
-    private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
+    /**
+     * Creates a prover for the given description. With tabling, recursive
+     * sentences are answered by tabled resolution (see getTabledAnswers)
+     * rather than by re-running the query they are part of until its answers
+     * stop growing, which can take far less work on games with recursive
+     * rules that depend on the state, such as paths or lines on a board.
+     */
+    public AimaProver(List<Gdl> description, boolean tabling)
     {
-        LinkedList<GdlLiteral> goals = new LinkedList<GdlLiteral>();
-        goals.add(query);
-
-        Set<Substitution> answers = new HashSet<Substitution>();
-        ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(),
-                new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
-
-        Set<GdlSentence> results = new HashSet<GdlSentence>();
-        for (Substitution theta : answers)
+        this.tabling = tabling;
+        description = DistinctAndNotMover.run(description);
+        Set<GdlRule> rules = Sets.newHashSet();
+        compiledRules = new HashMap<GdlRule, CompiledRule>();
+        for (Gdl gdl : description)
         {
-            results.add(Substituter.substitute(query, theta));
+            GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
+            rules.add(rule);
+            compiledRules.put(rule, CompiledRule.compile(rule));
         }
-
-        return results;
+        knowledgeBase = new KnowledgeBase(rules);
     }
 
-    private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+    @Override
+    public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context)
     {
-        if (goals.isEmpty())
-        {
-            results.add(theta);
-            isConstant.value = true;
-            return;
-        }
-        else
-        {
-            GdlLiteral literal = goals.removeFirst();
-            GdlLiteral qPrime = Substituter.substitute(literal, theta);
+        return openSession(context).askAll(query);
+    }
 
-            if (qPrime instanceof GdlDistinct)
-            {
-                GdlDistinct distinct = (GdlDistinct) qPrime;
-                askDistinct(distinct, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-            }
-            else if (qPrime instanceof GdlNot)
-            {
-                GdlNot not = (GdlNot) qPrime;
-                askNot(not, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-            }
-            else if (qPrime instanceof GdlOr)
-            {
-                GdlOr or = (GdlOr) qPrime;
-                askOr(or, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-            }
-            else
-            {
-                GdlSentence sentence = (GdlSentence) qPrime;
-                askSentence(sentence, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-            }
+    @Override
+    public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context)
+    {
+        return openSession(context).askOne(query);
+    }
 
-            goals.addFirst(literal);
-        }
+    @Override
+    public boolean prove(GdlSentence query, Set<GdlSentence> context)
+    {
+        return askOne(query, context) != null;
     }
 
     @Override
-    public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context)
+    public ProverSession openSession(Set<GdlSentence> context)
     {
-        return ask(query, context, false);
+        return new AimaProverSession(context);
     }
 
-    private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+    private static boolean isTrueOrDoesSentence(GdlSentence sentence) {
+        GdlConstant name = sentence.getName();
+        return name == GdlPool.TRUE || name == GdlPool.DOES;
+    }
+
+    /*
+     * Indexes the context once, and keeps the answers to sub-goals that depend
+     * on it (those involving "true" or "does" sentences) in a cache that lives
+     * as long as the session, rather than for a single query. Answers that
+     * don't depend on the context still go to the fixedAnswerCache. The
+     * bindings are reused from one query to the next.
+     */
+    private final class AimaProverSession implements ProverSession
     {
-        if (!distinct.getArg1().equals(distinct.getArg2()))
+        private final KnowledgeBase context;
+        private final ProverCache cache = ProverCache.createSingleThreadedCache();
+        private final Bindings bindings = new Bindings();
+
+        public AimaProverSession(Set<GdlSentence> context)
         {
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
-        } else {
-            isConstant.value = true;
+            this.context = new KnowledgeBase(context);
         }
-    }
 
-    private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
-    {
-        LinkedList<GdlLiteral> notGoals = new LinkedList<GdlLiteral>();
-        notGoals.add(not.getBody());
+        @Override
+        public Set<GdlSentence> askAll(GdlSentence query)
+        {
+            return new Query(context, cache, bindings).ask(query, false);
+        }
 
-        Set<Substitution> notResults = new HashSet<Substitution>();
-        boolean isConstant = true;
-        ask(notGoals, context, theta, cache, renamer, true, notResults, recursionHandler, isConstantRet);
-        isConstant &= isConstantRet.value;
+        @Override
+        public GdlSentence askOne(GdlSentence query)
+        {
+            Set<GdlSentence> results = new Query(context, cache, bindings).ask(query, true);
+            return (!results.isEmpty()) ? results.iterator().next() : null;
+        }
 
-        if (notResults.isEmpty())
+        @Override
+        public boolean prove(GdlSentence query)
         {
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
-            isConstant &= isConstantRet.value;
+            return askOne(query) != null;
         }
-        isConstantRet.value = isConstant;
     }
 
-    @Override
-    public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context)
+    /*
+     * Called when a conjunction of goals has been proven, with the variables
+     * of the goals bound accordingly. Returns true to stop the search, or
+     * false to look for more proofs.
+     */
+    private interface Continuation
     {
-        Set<GdlSentence> results = ask(query, context, true);
-        return (!results.isEmpty()) ? results.iterator().next() : null;
+        boolean proceed();
     }
 
-    private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+    private static final Continuation STOP = new Continuation() {
+        @Override
+        public boolean proceed() {
+            return true;
+        }
+    };
+
+    /*
+     * The state of a single query.
+     *
+     * Goals are proven by depth-first search over conjunctions of compiled
+     * literals, each with the frame of bindings that its variables refer to.
+     * Every method undoes the bindings it made before returning, so after a
+     * call, the bindings are as they were before it, whether or not the
+     * search was stopped early.
+     *
+     * The answers to each sentence are computed all at once, as in the
+     * original AIMA prover, so that they can be cached: the sentence with its
+     * bound variables replaced (and the others renamed in a standard way) is
+     * the cache key, and the answers are instances of it.
+     */
+    private final class Query
     {
-        boolean isConstant = true;
-        for (int i = 0; i < or.arity(); i++)
+        private final KnowledgeBase context;
+        private final ProverCache cache;
+        private final Bindings bindings;
+        private final RecursionHandler recursionHandler = new RecursionHandler();
+
+        /*
+         * Whether the answers currently being computed depend on "true" or
+         * "does" sentences; if not, they can be added to the fixedAnswerCache
+         * and reused across queries.
+         */
+        private boolean dependsOnContext;
+
+        /* The state of tabled resolution; see getTabledAnswers. */
+        private final Map<GdlSentence, Table> tables = new HashMap<GdlSentence, Table>();
+        private final List<Table> callStack = new ArrayList<Table>();
+        private final List<Table> incomplete = new ArrayList<Table>();
+        private int nextTableIndex;
+        private int pass;
+        private int incompleteCalls;
+        private int incompleteAnswers;
+
+        public Query(KnowledgeBase context, ProverCache cache, Bindings bindings)
+        {
+            this.context = context;
+            this.cache = cache;
+            this.bindings = bindings;
+        }
+
+        public Set<GdlSentence> ask(GdlSentence query, final boolean askOne)
         {
-            goals.addFirst(or.get(i));
-            ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
-            isConstant &= isConstantRet.value;
-            goals.removeFirst();
+            CompiledRule compiled = CompiledRule.compile(query);
+            final CompiledSentence goal = compiled.getHead();
+            bindings.reset();
+            final int frame = bindings.allocate(compiled.getNumVariables());
+
+            final Set<GdlSentence> results = new HashSet<GdlSentence>();
+            solve(new CompiledLiteral[] {goal}, 0, frame, new Continuation() {
+                @Override
+                public boolean proceed() {
+                    results.add(bindings.resolve(goal, frame));
+                    return askOne;
+                }
+            });
+            bindings.release(frame);
+            return results;
+        }
 
-            if (askOne && (!results.isEmpty()))
+        private boolean solve(final CompiledLiteral[] goals, final int index, final int frame, final Continuation continuation)
+        {
+            if (index == goals.length)
             {
-                break;
+                return continuation.proceed();
             }
-        }
-        isConstantRet.value = isConstant;
-    }
 
-    private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
-            IsConstant isConstantRet) {
-        Collection<Substitution> sentenceResults = findSentenceResults(sentence,
-                context, theta, cache, renamer, recursionHandler, isConstantRet);
+            CompiledLiteral literal = goals[index];
+            if (literal instanceof CompiledSentence)
+            {
+                return solveSentence((CompiledSentence) literal, goals, index, frame, continuation);
+            }
+            else if (literal instanceof CompiledNot)
+            {
+                if (solve(((CompiledNot) literal).getBody(), 0, frame, STOP))
+                {
+                    return false;
+                }
+                return solve(goals, index + 1, frame, continuation);
+            }
+            else if (literal instanceof CompiledDistinct)
+            {
+                CompiledDistinct distinct = (CompiledDistinct) literal;
+                if (bindings.identical(distinct.getArg1(), frame, distinct.getArg2(), frame))
+                {
+                    return false;
+                }
+                return solve(goals, index + 1, frame, continuation);
+            }
+            else
+            {
+                CompiledOr or = (CompiledOr) literal;
+                Continuation rest = new Continuation() {
+                    @Override
+                    public boolean proceed() {
+                        return solve(goals, index + 1, frame, continuation);
+                    }
+                };
+                for (int i = 0; i < or.arity(); i++)
+                {
+                    if (solve(or.get(i), 0, frame, rest))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
 
-        boolean isConstant = isConstantRet.value;
-        for (Substitution thetaPrime : sentenceResults)
+        private boolean solveSentence(CompiledSentence sentence, CompiledLiteral[] goals, int index, int frame, Continuation continuation)
         {
-            ask(goals, context, theta.compose(thetaPrime), cache, renamer, askOne, results, recursionHandler, isConstantRet);
-            isConstant &= isConstantRet.value;
-            if (askOne && (!results.isEmpty()))
+            GdlSentence key = bindings.resolve(sentence, frame);
+            List<GdlSentence> answers = tabling ? getTabledAnswers(sentence, frame, key) : getAnswers(sentence, frame, key);
+            if (key.isGround())
             {
-                break;
+                return !answers.isEmpty() && solve(goals, index + 1, frame, continuation);
             }
+
+            // The answers to a table that is still being completed may grow
+            // while they are used; they are only ever added to the end.
+            for (int i = 0; i < answers.size(); i++)
+            {
+                int mark = bindings.mark();
+                boolean stop = bindings.unify(sentence, frame, answers.get(i)) && solve(goals, index + 1, frame, continuation);
+                bindings.undo(mark);
+                if (stop)
+                {
+                    return true;
+                }
+            }
+            return false;
         }
-        isConstantRet.value = isConstant;
-    }
 
-    private Collection<Substitution> findSentenceResults(GdlSentence sentence,
-            KnowledgeBase context, Substitution theta,
-            ProverCache cache, VariableRenamer renamer, RecursionHandler recursionHandler,
-            IsConstant isConstantRet) {
-        GdlSentence varRenamedSentence = new VariableRenamer().rename(sentence);
-        if (!fixedAnswerCache.contains(varRenamedSentence) && !cache.contains(varRenamedSentence))
+        private List<GdlSentence> getAnswers(CompiledSentence sentence, int frame, GdlSentence key)
         {
-            if (recursionHandler.alreadyAsking.contains(varRenamedSentence)) {
+            List<GdlSentence> cachedAnswers = fixedAnswerCache.get(key);
+            if (cachedAnswers != null)
+            {
+                return cachedAnswers;
+            }
+            cachedAnswers = cache.get(key);
+            if (cachedAnswers != null)
+            {
+                dependsOnContext = true;
+                return cachedAnswers;
+            }
+
+            if (recursionHandler.alreadyAsking.contains(key)) {
                 //Mark that we're in recursive mode and shouldn't cache results
-                recursionHandler.calledRecursively.add(varRenamedSentence);
+                recursionHandler.calledRecursively.add(key);
                 //Return stuff that we've seen as an answer for this before
-                Collection<GdlSentence> previousResults = recursionHandler.previousResults.get(varRenamedSentence);
-                List<Substitution> results = Lists.newArrayListWithCapacity(previousResults.size());
-                for (GdlSentence knownResult : previousResults) {
-                    results.add(Unifier.unify(sentence, knownResult));
+                return ImmutableList.copyOf(recursionHandler.previousResults.get(key));
+            }
+            recursionHandler.alreadyAsking.add(key);
+            boolean outerDependsOnContext = dependsOnContext;
+            dependsOnContext = isTrueOrDoesSentence(key);
+
+            Set<GdlSentence> answers = computeAnswers(key, sentence, frame);
+
+            if (recursionHandler.calledRecursively.contains(key)) {
+                while (answers.size() > recursionHandler.previousResults.get(key).size()) {
+                    recursionHandler.calledRecursively.remove(key);
+                    recursionHandler.previousResults.putAll(key, answers);
+                    answers = computeAnswers(key, sentence, frame);
                 }
-                return results;
+                recursionHandler.calledRecursively.remove(key);
             }
-            recursionHandler.alreadyAsking.add(varRenamedSentence);
-            List<GdlRule> candidates = new ArrayList<GdlRule>();
-            candidates.addAll(knowledgeBase.fetch(sentence));
-            candidates.addAll(context.fetch(sentence));
-            boolean isConstant = !isTrueOrDoesSentence(sentence);
-
-            Set<Substitution> sentenceResults = new HashSet<Substitution>();
-            for (GdlRule rule : candidates)
-            {
-                GdlRule r = renamer.rename(rule);
-                Substitution thetaPrime = Unifier.unify(r.getHead(), sentence);
 
-                if (thetaPrime != null)
-                {
-                    LinkedList<GdlLiteral> sentenceGoals = new LinkedList<GdlLiteral>();
-                    for (int i = 0; i < r.arity(); i++)
-                    {
-                        sentenceGoals.add(r.get(i));
-                    }
+            recursionHandler.alreadyAsking.remove(key);
+            recursionHandler.previousResults.removeAll(key);
+
+            boolean answersDependOnContext = dependsOnContext;
+            dependsOnContext = outerDependsOnContext || answersDependOnContext;
+            List<GdlSentence> answerList = ImmutableList.copyOf(answers);
+            if (recursionHandler.calledRecursively.isEmpty()) {
+                cacheAnswers(key, answerList, answersDependOnContext);
+            }
+            return answerList;
+        }
+
+        private void cacheAnswers(GdlSentence key, List<GdlSentence> answers, boolean answersDependOnContext)
+        {
+            if (answersDependOnContext) {
+                cache.put(key, answers);
+            } else {
+                fixedAnswerCache.put(key, answers);
+            }
+        }
 
-                    ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
-                    isConstant &= isConstantRet.value;
+        private Set<GdlSentence> computeAnswers(GdlSentence key, CompiledSentence sentence, int frame)
+        {
+            final Set<GdlSentence> answers = new HashSet<GdlSentence>();
+            applyRules(key, new AnswerCollector(sentence, frame) {
+                @Override
+                void add(GdlSentence answer) {
+                    answers.add(answer);
                 }
+            });
+            return answers;
+        }
+
+        /*
+         * Tabled resolution, in the manner of SLG resolution with local
+         * scheduling: every sentence asked during the query gets a table of
+         * answers, which are computed once and shared by every call to it.
+         *
+         * A call to a sentence whose table is still being computed further up
+         * the stack is a recursive call, and is answered from the table as it
+         * stands; answers added later are still seen by callers that are
+         * iterating over it, since they are only ever appended. The tables
+         * that depend on each other this way form a strongly connected
+         * component, found as in Tarjan's algorithm, and once the search
+         * returns to the table that started it, that "leader" is evaluated
+         * again, re-evaluating the other tables as they are called, until a
+         * whole pass adds no answers to any of them. Then all of them are
+         * complete, and their answers can be cached.
+         *
+         * Unlike the RecursionHandler, this never re-derives answers that
+         * don't depend on the recursion, and the sentences asked inside a
+         * recursive computation are cached as soon as they are complete.
+         */
+        private List<GdlSentence> getTabledAnswers(CompiledSentence sentence, int frame, GdlSentence key)
+        {
+            List<GdlSentence> cachedAnswers = fixedAnswerCache.get(key);
+            if (cachedAnswers != null)
+            {
+                return cachedAnswers;
+            }
+            cachedAnswers = cache.get(key);
+            if (cachedAnswers != null)
+            {
+                dependsOnContext = true;
+                return cachedAnswers;
             }
 
-            if (recursionHandler.calledRecursively.contains(varRenamedSentence)) {
-                Set<GdlSentence> sentencesFromResults = Sets.newHashSet();
-                for (Substitution result : sentenceResults) {
-                    sentencesFromResults.add(Substituter.substitute(sentence, result));
+            Table caller = callStack.isEmpty() ? null : callStack.get(callStack.size() - 1);
+            Table table = tables.get(key);
+            if (table != null)
+            {
+                if (table.evaluating)
+                {
+                    // A recursive call: use the answers found so far.
+                    incompleteCalls++;
+                    caller.lowLink = Math.min(caller.lowLink, table.index);
+                    return table.answers;
                 }
-                while (sentencesFromResults.size() > recursionHandler.previousResults.get(varRenamedSentence).size()) {
-                    recursionHandler.calledRecursively.remove(varRenamedSentence);
-                    recursionHandler.previousResults.putAll(varRenamedSentence, sentencesFromResults);
-
-                    sentenceResults = Sets.newHashSet();
-                    for (GdlRule rule : candidates) {
-                        GdlRule r = renamer.rename(rule);
-                        Substitution thetaPrime = Unifier.unify(r.getHead(), sentence);
-
-                        if (thetaPrime != null) {
-                            LinkedList<GdlLiteral> sentenceGoals = new LinkedList<GdlLiteral>();
-                            for (int i = 0; i < r.arity(); i++) {
-                                sentenceGoals.add(r.get(i));
-                            }
-
-                            ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
-                            isConstant &= isConstantRet.value;
-                        }
-                    }
-                    sentencesFromResults = Sets.newHashSet();
-                    for (Substitution result : sentenceResults) {
-                        sentencesFromResults.add(Substituter.substitute(sentence, result));
-                    }
+                // An incomplete table in the component being completed.
+                if (table.pass != pass)
+                {
+                    reevaluate(table);
                 }
-                recursionHandler.calledRecursively.remove(varRenamedSentence);
+                incompleteCalls++;
+                caller.lowLink = Math.min(caller.lowLink, table.lowLink);
+                dependsOnContext |= table.dependsOnContext;
+                return table.answers;
             }
 
-            recursionHandler.alreadyAsking.remove(varRenamedSentence);
-            recursionHandler.previousResults.removeAll(varRenamedSentence);
+            table = new Table(key, nextTableIndex++);
+            tables.put(key, table);
+            incomplete.add(table);
+            int callsBefore = incompleteCalls;
+            evaluate(table, sentence, frame);
 
-            isConstantRet.value = isConstant;
-            if (recursionHandler.calledRecursively.isEmpty()) {
-                if (isConstant) {
-                    fixedAnswerCache.put(sentence, varRenamedSentence, sentenceResults);
-                } else {
-                    cache.put(sentence, varRenamedSentence, sentenceResults);
-                }
+            if (table.lowLink < table.index)
+            {
+                // Part of a component whose leader is further up the stack.
+                caller.lowLink = Math.min(caller.lowLink, table.lowLink);
+                return table.answers;
+            }
+
+            if (incompleteCalls != callsBefore)
+            {
+                int answersBefore;
+                do
+                {
+                    answersBefore = incompleteAnswers;
+                    pass++;
+                    reevaluate(table);
+                } while (incompleteAnswers != answersBefore);
             }
 
-            /*
-             * We filter results because they normally contain entries for all the variables
-             * encountered in subqueries, not just the sentence we're interested in. For some
-             * games (e.g. ruleDepthExponential) this is very expensive.
-             */
-            return filterSentenceResults(sentence, sentenceResults);
+            // Complete the component: every table from the leader onwards.
+            int first = incomplete.indexOf(table);
+            List<Table> component = incomplete.subList(first, incomplete.size());
+            boolean componentDependsOnContext = false;
+            for (Table member : component)
+            {
+                componentDependsOnContext |= member.dependsOnContext;
+            }
+            for (Table member : component)
+            {
+                tables.remove(member.key);
+                cacheAnswers(member.key, member.answers, componentDependsOnContext);
+            }
+            component.clear();
+            dependsOnContext |= componentDependsOnContext;
+            return table.answers;
         }
 
-        List<Substitution> cachedResults = fixedAnswerCache.get(sentence, varRenamedSentence);
-        isConstantRet.value = (cachedResults != null);
-        if (cachedResults == null) {
-            cachedResults = cache.get(sentence, varRenamedSentence);
+        /*
+         * Adds the answers to the given table's sentence that can be found from
+         * the other tables as they stand, given the frame of its variables.
+         */
+        private void evaluate(final Table table, CompiledSentence sentence, int frame)
+        {
+            callStack.add(table);
+            table.evaluating = true;
+            table.pass = pass;
+            boolean outerDependsOnContext = dependsOnContext;
+            dependsOnContext = table.dependsOnContext || isTrueOrDoesSentence(table.key);
+
+            applyRules(table.key, new AnswerCollector(sentence, frame) {
+                @Override
+                void add(GdlSentence answer) {
+                    table.add(answer);
+                }
+            });
+
+            table.dependsOnContext = dependsOnContext;
+            dependsOnContext = outerDependsOnContext || table.dependsOnContext;
+            table.evaluating = false;
+            callStack.remove(callStack.size() - 1);
         }
-        return cachedResults;
-    }
 
-    private Collection<Substitution> filterSentenceResults(
-            GdlSentence sentence, Set<Substitution> sentenceResults) {
-        Set<GdlVariable> varsInSentence = GdlUtils.getVariablesSet(sentence);
-        List<Substitution> results = Lists.newArrayListWithCapacity(sentenceResults.size());
-        for (Substitution result : sentenceResults) {
-            Substitution fixedResult = new Substitution();
-            for (GdlVariable var : varsInSentence) {
-                fixedResult.put(var, result.get(var));
+        /*
+         * Evaluates a table again, once the caller that created it is gone, in
+         * a frame of its own.
+         */
+        private void reevaluate(Table table)
+        {
+            if (table.goal == null)
+            {
+                table.goal = CompiledRule.compile(table.key);
             }
-            results.add(fixedResult);
+            int frame = bindings.allocate(table.goal.getNumVariables());
+            evaluate(table, table.goal.getHead(), frame);
+            bindings.release(frame);
         }
-        return results;
-    }
 
-    private boolean isTrueOrDoesSentence(GdlSentence sentence) {
-        GdlConstant name = sentence.getName();
-        return name == GdlPool.TRUE || name == GdlPool.DOES;
-    }
+        /*
+         * A table of answers to a sentence, while they are being computed.
+         */
+        private final class Table
+        {
+            final GdlSentence key;
+            /* The key compiled, if the table had to be evaluated again. */
+            CompiledRule goal;
+            final List<GdlSentence> answers = new ArrayList<GdlSentence>();
+            final Set<GdlSentence> answerSet = new HashSet<GdlSentence>();
+            /* The order in which the table was created. */
+            final int index;
+            /* The lowest index of a table this one has used incomplete answers from. */
+            int lowLink;
+            boolean evaluating;
+            boolean dependsOnContext;
+            /* The last pass over the component in which this was evaluated. */
+            int pass;
+
+            Table(GdlSentence key, int index)
+            {
+                this.key = key;
+                this.index = index;
+                this.lowLink = index;
+            }
 
-    @Override
-    public boolean prove(GdlSentence query, Set<GdlSentence> context)
-    {
-        return askOne(query, context) != null;
-    }
+            void add(GdlSentence answer)
+            {
+                if (answerSet.add(answer))
+                {
+                    answers.add(answer);
+                    incompleteAnswers++;
+                }
+            }
+        }
 
-    /*
-     * Mutable value holder; gets modified by methods it's passed to, as a kind of
-     * additional return value. Tracks whether queries involve "true" or "does" sentences;
-     * if not, their answers can be added to the fixedAnswerCache and reused across queries.
-     */
-    private static class IsConstant {
-        public boolean value = true;
+        /*
+         * Receives the answers to a sentence, given the frame its variables
+         * are bound in.
+         */
+        private abstract class AnswerCollector implements Continuation
+        {
+            final CompiledSentence sentence;
+            final int frame;
+
+            AnswerCollector(CompiledSentence sentence, int frame)
+            {
+                this.sentence = sentence;
+                this.frame = frame;
+            }
+
+            @Override
+            public boolean proceed()
+            {
+                add(bindings.resolve(sentence, frame));
+                return false;
+            }
+
+            abstract void add(GdlSentence answer);
+        }
+
+        /*
+         * Finds the answers to the collector's sentence, whose key is given,
+         * from every rule and fact that might match it.
+         */
+        private void applyRules(GdlSentence key, AnswerCollector collector)
+        {
+            for (GdlRule rule : knowledgeBase.fetch(key))
+            {
+                applyRule(rule, collector);
+            }
+            for (GdlRule rule : context.fetch(key))
+            {
+                applyRule(rule, collector);
+            }
+        }
+
+        private void applyRule(GdlRule rule, AnswerCollector collector)
+        {
+            CompiledSentence sentence = collector.sentence;
+            int frame = collector.frame;
+            CompiledRule compiled = compiledRules.get(rule);
+            if (compiled == null && rule.arity() == 0 && rule.getHead().isGround())
+            {
+                // A fact from the context: if it unifies, it is the answer.
+                int mark = bindings.mark();
+                if (bindings.unify(sentence, frame, rule.getHead()))
+                {
+                    collector.add(rule.getHead());
+                }
+                bindings.undo(mark);
+                return;
+            }
+            if (compiled == null)
+            {
+                compiled = CompiledRule.compile(rule);
+            }
+
+            // Renaming the rule apart is just a matter of giving it fresh slots.
+            int ruleFrame = bindings.allocate(compiled.getNumVariables());
+            int mark = bindings.mark();
+            if (bindings.unify(compiled.getHead(), ruleFrame, sentence, frame))
+            {
+                solve(compiled.getBody(), 0, ruleFrame, collector);
+            }
+            bindings.undo(mark);
+            bindings.release(ruleFrame);
+        }
     }
 
     /*
@@ -0,0 +1,363 @@
+package org.ggp.base.util.prover.aima.binding;
+
+import java.util.Arrays;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * Bindings holds the values of the variables of the rules in use during a
+ * query, in place of a map from variables to terms that is copied at every
+ * resolution step.
+ *
+ * Every use of a compiled rule allocates a frame: a block of consecutive
+ * slots, one per variable of the rule. A term is only meaningful together
+ * with the frame its variables refer to. Binding a variable sets its slot to
+ * a term and the frame of that term, so nothing is copied or substituted;
+ * the binding is also recorded on a trail, so that backtracking can undo
+ * every binding made since some point by popping the trail back to it.
+ * Frames are released in the reverse order of allocation, once every binding
+ * made in them has been undone.
+ *
+ * Terms are GdlTerms, which may come from rules, queries or answers and are
+ * then used as they are, VariableSlots and CompiledFunctions. A GdlVariable
+ * only appears in non-ground answers; it is treated as matching anything.
+ *
+ * Bindings are not thread-safe, and are meant to be reused from one query to
+ * the next by a single thread.
+ */
+public final class Bindings
+{
+    private Object[] terms = new Object[64];
+    private int[] frames = new int[64];
+    private int top;
+
+    private int[] trail = new int[64];
+    private int trailTop;
+
+    /* The result of the last call to deref(). */
+    private Object derefTerm;
+    private int derefFrame;
+
+    /* The slots of the unbound variables seen so far by resolve(). */
+    private int[] renamedSlots = new int[8];
+    private int numRenamed;
+    private GdlVariable[] renamedVariables = new GdlVariable[0];
+
+    /**
+     * Allocates a frame of the given number of unbound slots, and returns
+     * its first slot.
+     */
+    public int allocate(int numSlots)
+    {
+        int base = top;
+        top += numSlots;
+        if (top > terms.length)
+        {
+            int capacity = Math.max(top, 2 * terms.length);
+            terms = Arrays.copyOf(terms, capacity);
+            frames = Arrays.copyOf(frames, capacity);
+        }
+        return base;
+    }
+
+    /**
+     * Releases the frame starting at the given slot, and every frame
+     * allocated after it.
+     */
+    public void release(int base)
+    {
+        top = base;
+    }
+
+    /**
+     * Returns a mark to which the bindings can later be undone.
+     */
+    public int mark()
+    {
+        return trailTop;
+    }
+
+    /**
+     * Undoes every binding made since the given mark was taken.
+     */
+    public void undo(int mark)
+    {
+        while (trailTop > mark)
+        {
+            terms[trail[--trailTop]] = null;
+        }
+    }
+
+    /**
+     * Undoes every binding and releases every frame.
+     */
+    public void reset()
+    {
+        undo(0);
+        top = 0;
+    }
+
+    private void bind(int slot, Object term, int frame)
+    {
+        terms[slot] = term;
+        frames[slot] = frame;
+        if (trailTop == trail.length)
+        {
+            trail = Arrays.copyOf(trail, 2 * trail.length);
+        }
+        trail[trailTop++] = slot;
+    }
+
+    /**
+     * Follows bound variables from the given term to either a term that is
+     * not a variable or an unbound variable, and leaves the result in
+     * derefTerm and derefFrame.
+     */
+    private void deref(Object term, int frame)
+    {
+        while (term instanceof VariableSlot)
+        {
+            int slot = frame + ((VariableSlot) term).getIndex();
+            if (terms[slot] == null)
+            {
+                break;
+            }
+            term = terms[slot];
+            frame = frames[slot];
+        }
+        derefTerm = term;
+        derefFrame = frame;
+    }
+
+    /**
+     * Unifies the given sentence, with its variables in the given frame,
+     * with a sentence from some other frame.
+     */
+    public boolean unify(CompiledSentence x, int xFrame, CompiledSentence y, int yFrame)
+    {
+        if (x.getName() != y.getName() || x.arity() != y.arity() || x.isProposition() != y.isProposition())
+        {
+            return false;
+        }
+        for (int i = 0; i < x.arity(); i++)
+        {
+            if (!unifyTerm(x.get(i), xFrame, y.get(i), yFrame))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Unifies the given sentence, with its variables in the given frame,
+     * with a GDL sentence such as a fact or an answer.
+     */
+    public boolean unify(CompiledSentence x, int xFrame, GdlSentence y)
+    {
+        if (x.getName() != y.getName() || x.arity() != y.arity() || x.isProposition() != (y instanceof GdlProposition))
+        {
+            return false;
+        }
+        for (int i = 0; i < x.arity(); i++)
+        {
+            if (!unifyTerm(x.get(i), xFrame, y.get(i), 0))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean unifyTerm(Object x, int xFrame, Object y, int yFrame)
+    {
+        deref(x, xFrame);
+        x = derefTerm;
+        xFrame = derefFrame;
+        deref(y, yFrame);
+        y = derefTerm;
+        yFrame = derefFrame;
+
+        if (x instanceof VariableSlot)
+        {
+            int xSlot = xFrame + ((VariableSlot) x).getIndex();
+            if (!(y instanceof VariableSlot) || yFrame + ((VariableSlot) y).getIndex() != xSlot)
+            {
+                bind(xSlot, y, yFrame);
+            }
+            return true;
+        }
+        else if (y instanceof VariableSlot)
+        {
+            bind(yFrame + ((VariableSlot) y).getIndex(), x, xFrame);
+            return true;
+        }
+        else if (x == y || x instanceof GdlVariable || y instanceof GdlVariable)
+        {
+            return true;
+        }
+        else if (x instanceof GdlConstant || y instanceof GdlConstant)
+        {
+            return false;
+        }
+
+        int arity = arity(x);
+        if (getName(x) != getName(y) || arity != arity(y))
+        {
+            return false;
+        }
+        for (int i = 0; i < arity; i++)
+        {
+            if (!unifyTerm(get(x, i), xFrame, get(y, i), yFrame))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given terms are the same once their bound
+     * variables are replaced by their values. Unbound variables are only the
+     * same as themselves.
+     */
+    public boolean identical(Object x, int xFrame, Object y, int yFrame)
+    {
+        deref(x, xFrame);
+        x = derefTerm;
+        xFrame = derefFrame;
+        deref(y, yFrame);
+        y = derefTerm;
+        yFrame = derefFrame;
+
+        if (x instanceof VariableSlot || y instanceof VariableSlot)
+        {
+            return x instanceof VariableSlot && y instanceof VariableSlot
+                    && xFrame + ((VariableSlot) x).getIndex() == yFrame + ((VariableSlot) y).getIndex();
+        }
+        else if (x == y)
+        {
+            return true;
+        }
+        else if (x instanceof GdlConstant || y instanceof GdlConstant || x instanceof GdlVariable || y instanceof GdlVariable)
+        {
+            return false;
+        }
+
+        int arity = arity(x);
+        if (getName(x) != getName(y) || arity != arity(y))
+        {
+            return false;
+        }
+        for (int i = 0; i < arity; i++)
+        {
+            if (!identical(get(x, i), xFrame, get(y, i), yFrame))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the GDL sentence the given sentence stands for with its
+     * variables replaced by their values. Unbound variables are renamed to
+     * ?R0, ?R1, etc. in order of appearance, like the VariableRenamer does,
+     * so two sentences that are the same up to the names of their variables
+     * give the same result.
+     */
+    public GdlSentence resolve(CompiledSentence sentence, int frame)
+    {
+        if (sentence.isGround())
+        {
+            return sentence.getSentence();
+        }
+        numRenamed = 0;
+        GdlTerm[] body = new GdlTerm[sentence.arity()];
+        for (int i = 0; i < body.length; i++)
+        {
+            body[i] = resolveTerm(sentence.get(i), frame);
+        }
+        return GdlPool.getRelation(sentence.getName(), body);
+    }
+
+    private GdlTerm resolveTerm(Object term, int frame)
+    {
+        deref(term, frame);
+        term = derefTerm;
+        frame = derefFrame;
+
+        if (term instanceof GdlTerm)
+        {
+            return (GdlTerm) term;
+        }
+        else if (term instanceof VariableSlot)
+        {
+            return getRenamedVariable(frame + ((VariableSlot) term).getIndex());
+        }
+
+        CompiledFunction function = (CompiledFunction) term;
+        GdlTerm[] body = new GdlTerm[function.arity()];
+        for (int i = 0; i < body.length; i++)
+        {
+            body[i] = resolveTerm(function.get(i), frame);
+        }
+        return GdlPool.getFunction(function.getName(), body);
+    }
+
+    private GdlVariable getRenamedVariable(int slot)
+    {
+        int index = 0;
+        while (index < numRenamed && renamedSlots[index] != slot)
+        {
+            index++;
+        }
+        if (index == numRenamed)
+        {
+            if (numRenamed == renamedSlots.length)
+            {
+                renamedSlots = Arrays.copyOf(renamedSlots, 2 * numRenamed);
+            }
+            renamedSlots[numRenamed++] = slot;
+        }
+        if (index >= renamedVariables.length)
+        {
+            renamedVariables = Arrays.copyOf(renamedVariables, index + 1);
+            renamedVariables[index] = GdlPool.getVariable("?R" + index);
+        }
+        return renamedVariables[index];
+    }
+
+    private static GdlConstant getName(Object function)
+    {
+        if (function instanceof CompiledFunction)
+        {
+            return ((CompiledFunction) function).getName();
+        }
+        return ((GdlFunction) function).getName();
+    }
+
+    private static int arity(Object function)
+    {
+        if (function instanceof CompiledFunction)
+        {
+            return ((CompiledFunction) function).arity();
+        }
+        return ((GdlFunction) function).arity();
+    }
+
+    private static Object get(Object function, int index)
+    {
+        if (function instanceof CompiledFunction)
+        {
+            return ((CompiledFunction) function).get(index);
+        }
+        return ((GdlFunction) function).get(index);
+    }
+}
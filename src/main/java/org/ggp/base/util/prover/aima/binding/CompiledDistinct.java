@@ -0,0 +1,23 @@
+package org.ggp.base.util.prover.aima.binding;
+
+public final class CompiledDistinct extends CompiledLiteral
+{
+    private final Object arg1;
+    private final Object arg2;
+
+    CompiledDistinct(Object arg1, Object arg2)
+    {
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+    }
+
+    public Object getArg1()
+    {
+        return arg1;
+    }
+
+    public Object getArg2()
+    {
+        return arg2;
+    }
+}
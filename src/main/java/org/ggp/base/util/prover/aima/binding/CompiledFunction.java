@@ -0,0 +1,34 @@
+package org.ggp.base.util.prover.aima.binding;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+
+/**
+ * A function term containing variables. Function terms without variables
+ * are left as GdlFunctions, since they never need to be instantiated.
+ */
+public final class CompiledFunction
+{
+    private final GdlConstant name;
+    private final Object[] body;
+
+    CompiledFunction(GdlConstant name, Object[] body)
+    {
+        this.name = name;
+        this.body = body;
+    }
+
+    public GdlConstant getName()
+    {
+        return name;
+    }
+
+    public int arity()
+    {
+        return body.length;
+    }
+
+    public Object get(int index)
+    {
+        return body[index];
+    }
+}
@@ -0,0 +1,12 @@
+package org.ggp.base.util.prover.aima.binding;
+
+/**
+ * A literal in the body of a compiled rule. Terms within compiled literals
+ * are GdlTerms without variables, VariableSlots, or CompiledFunctions.
+ */
+public abstract class CompiledLiteral
+{
+    CompiledLiteral()
+    {
+    }
+}
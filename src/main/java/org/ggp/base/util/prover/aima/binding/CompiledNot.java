@@ -0,0 +1,19 @@
+package org.ggp.base.util.prover.aima.binding;
+
+public final class CompiledNot extends CompiledLiteral
+{
+    private final CompiledLiteral[] body;
+
+    CompiledNot(CompiledLiteral body)
+    {
+        this.body = new CompiledLiteral[] {body};
+    }
+
+    /**
+     * Returns the negated literal, as a conjunction of one literal.
+     */
+    public CompiledLiteral[] getBody()
+    {
+        return body;
+    }
+}
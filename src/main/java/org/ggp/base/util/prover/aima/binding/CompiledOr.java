@@ -0,0 +1,25 @@
+package org.ggp.base.util.prover.aima.binding;
+
+public final class CompiledOr extends CompiledLiteral
+{
+    private final CompiledLiteral[][] disjuncts;
+
+    CompiledOr(CompiledLiteral[][] disjuncts)
+    {
+        this.disjuncts = disjuncts;
+    }
+
+    public int arity()
+    {
+        return disjuncts.length;
+    }
+
+    /**
+     * Returns the disjunct with the given index, as a conjunction of one
+     * literal.
+     */
+    public CompiledLiteral[] get(int index)
+    {
+        return disjuncts[index];
+    }
+}
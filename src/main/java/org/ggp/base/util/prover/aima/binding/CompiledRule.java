@@ -0,0 +1,136 @@
+package org.ggp.base.util.prover.aima.binding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlOr;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * A rule compiled for resolution with Bindings. The variables of the rule
+ * are numbered in order of first appearance, so renaming the rule apart
+ * from every other rule in use only takes a fresh block of slots, rather
+ * than a copy of the rule with new variables.
+ */
+public final class CompiledRule
+{
+    private final CompiledSentence head;
+    private final CompiledLiteral[] body;
+    private final int numVariables;
+
+    private CompiledRule(CompiledSentence head, CompiledLiteral[] body, int numVariables)
+    {
+        this.head = head;
+        this.body = body;
+        this.numVariables = numVariables;
+    }
+
+    public static CompiledRule compile(GdlRule rule)
+    {
+        List<GdlVariable> variables = new ArrayList<GdlVariable>();
+        CompiledSentence head = compileSentence(rule.getHead(), variables);
+        CompiledLiteral[] body = new CompiledLiteral[rule.arity()];
+        for (int i = 0; i < rule.arity(); i++)
+        {
+            body[i] = compileLiteral(rule.get(i), variables);
+        }
+        return new CompiledRule(head, body, variables.size());
+    }
+
+    /**
+     * Compiles a query, as a rule with the query as its head and no body.
+     */
+    public static CompiledRule compile(GdlSentence query)
+    {
+        List<GdlVariable> variables = new ArrayList<GdlVariable>();
+        CompiledSentence head = compileSentence(query, variables);
+        return new CompiledRule(head, new CompiledLiteral[0], variables.size());
+    }
+
+    public CompiledSentence getHead()
+    {
+        return head;
+    }
+
+    public CompiledLiteral[] getBody()
+    {
+        return body;
+    }
+
+    public int getNumVariables()
+    {
+        return numVariables;
+    }
+
+    private static CompiledLiteral compileLiteral(GdlLiteral literal, List<GdlVariable> variables)
+    {
+        if (literal instanceof GdlSentence)
+        {
+            return compileSentence((GdlSentence) literal, variables);
+        }
+        else if (literal instanceof GdlNot)
+        {
+            return new CompiledNot(compileLiteral(((GdlNot) literal).getBody(), variables));
+        }
+        else if (literal instanceof GdlDistinct)
+        {
+            GdlDistinct distinct = (GdlDistinct) literal;
+            return new CompiledDistinct(compileTerm(distinct.getArg1(), variables), compileTerm(distinct.getArg2(), variables));
+        }
+        else
+        {
+            GdlOr or = (GdlOr) literal;
+            CompiledLiteral[][] disjuncts = new CompiledLiteral[or.arity()][];
+            for (int i = 0; i < or.arity(); i++)
+            {
+                disjuncts[i] = new CompiledLiteral[] {compileLiteral(or.get(i), variables)};
+            }
+            return new CompiledOr(disjuncts);
+        }
+    }
+
+    private static CompiledSentence compileSentence(GdlSentence sentence, List<GdlVariable> variables)
+    {
+        Object[] body = new Object[sentence.arity()];
+        for (int i = 0; i < sentence.arity(); i++)
+        {
+            body[i] = compileTerm(sentence.get(i), variables);
+        }
+        return new CompiledSentence(sentence, body);
+    }
+
+    private static Object compileTerm(GdlTerm term, List<GdlVariable> variables)
+    {
+        if (term.isGround())
+        {
+            return term;
+        }
+        else if (term instanceof GdlVariable)
+        {
+            int index = variables.indexOf(term);
+            if (index == -1)
+            {
+                index = variables.size();
+                variables.add((GdlVariable) term);
+            }
+            return new VariableSlot(index, (GdlVariable) term);
+        }
+        else
+        {
+            GdlFunction function = (GdlFunction) term;
+            Object[] body = new Object[function.arity()];
+            for (int i = 0; i < function.arity(); i++)
+            {
+                body[i] = compileTerm(function.get(i), variables);
+            }
+            return new CompiledFunction(function.getName(), body);
+        }
+    }
+}
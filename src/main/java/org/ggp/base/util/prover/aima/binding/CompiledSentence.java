@@ -0,0 +1,50 @@
+package org.ggp.base.util.prover.aima.binding;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+public final class CompiledSentence extends CompiledLiteral
+{
+    private final GdlSentence sentence;
+    private final Object[] body;
+
+    CompiledSentence(GdlSentence sentence, Object[] body)
+    {
+        this.sentence = sentence;
+        this.body = body;
+    }
+
+    /**
+     * Returns the sentence this was compiled from.
+     */
+    public GdlSentence getSentence()
+    {
+        return sentence;
+    }
+
+    public GdlConstant getName()
+    {
+        return sentence.getName();
+    }
+
+    public boolean isProposition()
+    {
+        return sentence instanceof GdlProposition;
+    }
+
+    public boolean isGround()
+    {
+        return sentence.isGround();
+    }
+
+    public int arity()
+    {
+        return body.length;
+    }
+
+    public Object get(int index)
+    {
+        return body[index];
+    }
+}
@@ -0,0 +1,37 @@
+package org.ggp.base.util.prover.aima.binding;
+
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * A variable of a compiled rule or query, numbered from zero within it.
+ * When a rule is used, its variables are bound in a block of consecutive
+ * slots of the Bindings, so the slot of a variable is the start of that
+ * block plus its index.
+ */
+public final class VariableSlot
+{
+    private final int index;
+    private final GdlVariable variable;
+
+    VariableSlot(int index, GdlVariable variable)
+    {
+        this.index = index;
+        this.variable = variable;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public GdlVariable getVariable()
+    {
+        return variable;
+    }
+
+    @Override
+    public String toString()
+    {
+        return variable + "#" + index;
+    }
+}
@@ -1,49 +1,287 @@
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
-
+/**
+ * KnowledgeBase holds a set of rules and facts, and finds the ones whose
+ * heads might unify with a given sentence.
+ *
+ * Rules are indexed by a discrimination tree: first by the relation name and
+ * arity of their heads, then, for each argument position, by the constant or
+ * function name and arity found there, descending into the arguments of
+ * functions. Every position keeps, for each symbol, the rules with that
+ * symbol or a variable there, so a query with a ground argument only has to
+ * look at the rules that could match it at that position. When a query has
+ * ground terms in several positions, the smallest candidate list is used.
+ * For example, a query for (true (cell 3 ?y b)) only gets the facts about
+ * the cells in row 3, instead of every true fact in the state.
+ *
+ * The rules never change after the constructor, which indexes them by the
+ * relations of their heads. The index of a function's arguments is built the
+ * first time a query needs it, and published through a volatile field.
+ * Threads that race to build the same one build equal indexes, and any of
+ * them can be kept, so the knowledge base can be used by any number of
+ * threads at once without locking.
+ */
 public final class KnowledgeBase
 {
-    private final Map<GdlConstant, List<GdlRule>> contents;
+    private final Node root;
 
     public KnowledgeBase(Set<? extends Gdl> description)
     {
-        contents = new HashMap<GdlConstant, List<GdlRule>>();
+        List<GdlRule> rules = new ArrayList<GdlRule>(description.size());
+        List<GdlTerm> heads = new ArrayList<GdlTerm>(description.size());
         for (Gdl gdl : description)
         {
             GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
-            GdlConstant key = rule.getHead().getName();
+            rules.add(rule);
+            heads.add(rule.getHead().toTerm());
+        }
+        // The heads are indexed as terms, the way the Unifier sees them.
+        root = new Node(rules, heads);
+    }
+
+    /**
+     * Returns the rules whose heads might unify with the given sentence. Every
+     * rule whose head does is returned, but some of those returned might not.
+     * The returned list must not be modified.
+     */
+    public List<GdlRule> fetch(GdlSentence sentence)
+    {
+        Object key = (sentence instanceof GdlProposition) ? sentence.getName() : new Symbol(sentence.getName(), sentence.arity());
+        Group group = root.groups.get(key);
+        if (group == null)
+        {
+            return Collections.emptyList();
+        }
+
+        List<GdlRule> best = group.rules;
+        for (int i = 0; i < sentence.arity() && best.size() > 1; i++)
+        {
+            best = narrow(group.getArgs()[i], sentence.get(i), best);
+        }
+        return best;
+    }
+
+    private static List<GdlRule> narrow(Node node, GdlTerm term, List<GdlRule> best)
+    {
+        Object key = getKey(term);
+        if (key == null)
+        {
+            return best;
+        }
+
+        Group group = node.groups.get(key);
+        List<GdlRule> candidates = (group == null) ? node.wildcards : group.rules;
+        if (candidates.size() < best.size())
+        {
+            best = candidates;
+        }
+        if (group != null && group.arity > 0)
+        {
+            GdlFunction function = (GdlFunction) term;
+            for (int i = 0; i < function.arity() && best.size() > 1; i++)
+            {
+                best = narrow(group.getArgs()[i], function.get(i), best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the key under which the given term is indexed: the constant
+     * itself, the name and arity of a function, or null for a variable.
+     */
+    private static Object getKey(GdlTerm term)
+    {
+        if (term instanceof GdlConstant)
+        {
+            return term;
+        }
+        else if (term instanceof GdlFunction)
+        {
+            GdlFunction function = (GdlFunction) term;
+            return new Symbol(function.getName(), function.arity());
+        }
+        return null;
+    }
+
+    /**
+     * One position in the tree, for the rules that can reach it.
+     */
+    private static final class Node
+    {
+        /** The rules for each symbol found at this position. */
+        final Map<Object, Group> groups;
+        /** The rules with a variable at this position or above it. */
+        final List<GdlRule> wildcards;
 
-            if (!contents.containsKey(key))
+        /**
+         * Indexes the given rules by the given terms, which are the terms
+         * found at this position in each of their heads, or null for rules
+         * that have a variable above this position.
+         */
+        Node(List<GdlRule> rules, List<GdlTerm> terms)
+        {
+            Map<Object, List<Integer>> members = new LinkedHashMap<Object, List<Integer>>();
+            List<Integer> wildcardMembers = new ArrayList<Integer>();
+            for (int i = 0; i < rules.size(); i++)
+            {
+                Object key = (terms.get(i) == null) ? null : getKey(terms.get(i));
+                if (key == null)
+                {
+                    wildcardMembers.add(i);
+                }
+                else
+                {
+                    if (!members.containsKey(key))
+                    {
+                        members.put(key, new ArrayList<Integer>());
+                    }
+                    members.get(key).add(i);
+                }
+            }
+
+            groups = new HashMap<Object, Group>(members.size() * 2);
+            for (Map.Entry<Object, List<Integer>> entry : members.entrySet())
+            {
+                groups.put(entry.getKey(), new Group(entry.getKey(), entry.getValue(), wildcardMembers, rules, terms));
+            }
+            List<GdlRule> wildcardRules = new ArrayList<GdlRule>(wildcardMembers.size());
+            for (int i : wildcardMembers)
+            {
+                wildcardRules.add(rules.get(i));
+            }
+            wildcards = freeze(wildcardRules);
+        }
+    }
+
+    /**
+     * The rules with a particular symbol, or a variable, at some position,
+     * and for a function symbol, the index of its arguments.
+     *
+     * The index of the arguments is only built when a query first needs it,
+     * since many positions are never queried with ground terms. Threads that
+     * need it at the same time may each build it; they build the same index,
+     * and the last one published is kept.
+     */
+    private static final class Group
+    {
+        final List<GdlRule> rules;
+        private final List<GdlTerm> terms;
+        private final int arity;
+        private volatile Node[] args;
+
+        Group(Object key, List<Integer> members, List<Integer> wildcardMembers, List<GdlRule> allRules, List<GdlTerm> allTerms)
+        {
+            // Merge the two lists of indices, so that the rules stay in their
+            // original order and the prover tries them in the same order as
+            // it would without the index.
+            List<GdlRule> groupRules = new ArrayList<GdlRule>(members.size() + wildcardMembers.size());
+            List<GdlTerm> groupTerms = new ArrayList<GdlTerm>(members.size() + wildcardMembers.size());
+            int m = 0;
+            int w = 0;
+            while (m < members.size() || w < wildcardMembers.size())
+            {
+                if (w == wildcardMembers.size() || (m < members.size() && members.get(m) < wildcardMembers.get(w)))
+                {
+                    int i = members.get(m++);
+                    groupRules.add(allRules.get(i));
+                    groupTerms.add(allTerms.get(i));
+                }
+                else
+                {
+                    groupRules.add(allRules.get(wildcardMembers.get(w++)));
+                    groupTerms.add(null);
+                }
+            }
+            rules = freeze(groupRules);
+            terms = groupTerms;
+            arity = (key instanceof Symbol) ? ((Symbol) key).arity : 0;
+        }
+
+        /**
+         * Returns the index of the arguments of the function symbol of this
+         * group, or null if the symbol is a constant.
+         */
+        Node[] getArgs()
+        {
+            if (arity == 0)
+            {
+                return null;
+            }
+            Node[] result = args;
+            if (result == null)
             {
-                contents.put(key, new ArrayList<GdlRule>());
+                result = new Node[arity];
+                for (int j = 0; j < arity; j++)
+                {
+                    List<GdlTerm> argTerms = new ArrayList<GdlTerm>(terms.size());
+                    for (GdlTerm term : terms)
+                    {
+                        argTerms.add((term == null) ? null : ((GdlFunction) term).get(j));
+                    }
+                    result[j] = new Node(rules, argTerms);
+                }
+                args = result;
             }
-            contents.get(key).add(rule);
+            return result;
         }
     }
 
-    public synchronized List<GdlRule> fetch(GdlSentence sentence)
+    /**
+     * The name and arity of a function or a sentence.
+     */
+    private static final class Symbol
     {
-        GdlConstant key = sentence.getName();
+        final GdlConstant name;
+        final int arity;
+
+        Symbol(GdlConstant name, int arity)
+        {
+            this.name = name;
+            this.arity = arity;
+        }
 
-        if (contents.containsKey(key))
+        @Override
+        public boolean equals(Object o)
         {
-            return contents.get(key);
+            if (!(o instanceof Symbol))
+            {
+                return false;
+            }
+            Symbol other = (Symbol) o;
+            return name.equals(other.name) && arity == other.arity;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * name.hashCode() + arity;
         }
-        else
+    }
+
+    private static List<GdlRule> freeze(List<GdlRule> rules)
+    {
+        if (rules.isEmpty())
         {
-            return new ArrayList<GdlRule>();
+            return Collections.emptyList();
         }
+        return Collections.unmodifiableList(new ArrayList<GdlRule>(rules));
     }
-}
\ No newline at end of file
+}
@@ -25,6 +25,9 @@ import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
  */
 public class FailsafeStateMachine extends StateMachine
 {
+    /** How long before the deadline the initial machine is given up on, to leave time to load the prover. */
+    private static final long PROVER_LOADING_TIME = 1000;
+
     private StateMachine theBackingMachine = null;
     private List<Gdl> gameDescription;
 
@@ -41,10 +44,19 @@ public class FailsafeStateMachine extends StateMachine
     }
 
     @Override
-    public synchronized void initialize(List<Gdl> description) {
+    public void initialize(List<Gdl> description) {
+        initialize(description, Long.MAX_VALUE);
+    }
+
+    /**
+     * Falls back to the prover if the initial machine can't be loaded by a
+     * little before the deadline.
+     */
+    @Override
+    public synchronized void initialize(List<Gdl> description, long deadline) {
         this.gameDescription = description;
 
-        if(attemptLoadingInitialMachine())
+        if(attemptLoadingInitialMachine(deadline == Long.MAX_VALUE ? deadline : deadline - PROVER_LOADING_TIME))
             return;
 
         GamerLogger.logError("StateMachine", "Failsafe Machine: failed to load initial state machine. Falling back...");
@@ -71,9 +83,9 @@ public class FailsafeStateMachine extends StateMachine
         GamerLogger.logError("StateMachine", "Failsafe Machine: online failure for regular prover. Cannot recover.");
     }
 
-    private boolean attemptLoadingInitialMachine() {
+    private boolean attemptLoadingInitialMachine(long deadline) {
         try {
-            theBackingMachine.initialize(gameDescription);
+            theBackingMachine.initialize(gameDescription, deadline);
             GamerLogger.log("StateMachine", "Failsafe Machine: successfully activated initial state machine for use!");
             return true;
         } catch(Exception e1) {
@@ -403,6 +415,52 @@ public class FailsafeStateMachine extends StateMachine
         updateRoot(theState);
     }
 
+    @Override
+    public long getZobristHash(MachineState state) {
+        if(theBackingMachine == null)
+            return super.getZobristHash(state);
+
+        try {
+            return theBackingMachine.getZobristHash(state);
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return getZobristHash(state);
+    }
+
+    /**
+     * Returns a rollout context of the backing machine, so that playouts
+     * run at its full speed. Playouts in the context are not protected by
+     * this wrapper; a context created after a failure comes from the prover
+     * that replaced the initial machine.
+     */
+    @Override
+    public RolloutContext createRolloutContext() {
+        if(theBackingMachine == null)
+            return super.createRolloutContext();
+
+        try {
+            return theBackingMachine.createRolloutContext();
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return createRolloutContext();
+    }
+
     public StateMachine getBackingMachine() {
         return theBackingMachine;
     }
@@ -0,0 +1,134 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A RolloutContext runs random playouts ("depth charges") on a state machine.
+ * Contexts are obtained from {@link StateMachine#createRolloutContext()},
+ * and each thread that wants to run playouts should create its own context
+ * and keep reusing it. Any scratch space a playout needs belongs to the
+ * context, so state machines that override createRolloutContext can run
+ * playouts without generating garbage on every move, and can run playouts
+ * in several contexts on different threads at the same time.
+ * <p>
+ * This base implementation works with any state machine, by calling its
+ * regular methods. If the state machine is not known to be thread-safe,
+ * playouts in different contexts of the same machine are serialized by
+ * locking the state machine.
+ * <p>
+ * A RolloutContext itself must only be used by one thread at a time.
+ */
+public class RolloutContext
+{
+    private final StateMachine machine;
+    private final boolean synchronize;
+    private final List<Role> roles;
+
+    /**
+     * Creates a rollout context that calls the regular methods of the given
+     * state machine. If synchronize is true, playouts lock the state machine,
+     * so that they can run alongside playouts in other contexts.
+     */
+    public RolloutContext(StateMachine machine, boolean synchronize)
+    {
+        this.machine = machine;
+        this.synchronize = synchronize;
+        this.roles = machine.getRoles();
+    }
+
+    /**
+     * Returns the state machine this context runs playouts on.
+     */
+    public StateMachine getStateMachine()
+    {
+        return machine;
+    }
+
+    /**
+     * Makes random joint moves from the given state until the end of the
+     * game, and stores the goal value of each role in the terminal state in
+     * the given array, indexed as in {@link StateMachine#getRoles()}.
+     *
+     * @return the number of state changes that were made to reach a
+     * terminal state.
+     */
+    public int performRollout(MachineState state, int[] goals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        return performRollout(state, null, null, goals);
+    }
+
+    /**
+     * Like {@link #performRollout(MachineState, int[])}, except that the
+     * given role makes the given move in the first joint move, while the
+     * other roles move randomly. The given state must not be terminal, and
+     * the returned depth includes that first joint move.
+     */
+    public int performRollout(MachineState state, Role role, Move move, int[] goals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        if (synchronize) {
+            synchronized (machine) {
+                return performRolloutUnsynchronized(state, role, move, goals);
+            }
+        }
+        return performRolloutUnsynchronized(state, role, move, goals);
+    }
+
+    private int performRolloutUnsynchronized(MachineState state, Role firstRole, Move firstMove, int[] goals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int depth = 0;
+        if (firstRole != null) {
+            depth++;
+            state = machine.getRandomNextState(state, firstRole, firstMove);
+        }
+        while (!machine.isTerminal(state)) {
+            depth++;
+            // A fresh list each time, since state machines (such as caching
+            // ones) may hold on to the moves they are given.
+            List<Move> jointMove = new ArrayList<Move>(roles.size());
+            for (Role role : roles) {
+                List<Move> legals = machine.getLegalMoves(state, role);
+                jointMove.add(legals.get(random.nextInt(legals.size())));
+            }
+            state = machine.getNextState(state, jointMove);
+        }
+        for (int i = 0; i < goals.length; i++) {
+            goals[i] = machine.getGoal(state, roles.get(i));
+        }
+        return depth;
+    }
+
+    /**
+     * Runs the given number of playouts from the given state, and stores
+     * the average goal value of each role, discounted by the given factor
+     * for each move made, in avgScores and the average playout length in
+     * avgDepth[0]. This is the equivalent of
+     * {@link StateMachine#getAverageDiscountedScoresFromRepeatedDepthCharges}.
+     */
+    public void getAverageDiscountedScores(MachineState state, double[] avgScores, double[] avgDepth, double discountFactor, int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        avgDepth[0] = 0;
+        for (int j = 0; j < avgScores.length; j++) {
+            avgScores[j] = 0;
+        }
+        int[] goals = new int[roles.size()];
+        for (int i = 0; i < repetitions; i++) {
+            int depth = performRollout(state, goals);
+            avgDepth[0] += depth;
+            double accumulatedDiscountFactor = Math.pow(discountFactor, depth);
+            for (int j = 0; j < avgScores.length; j++) {
+                avgScores[j] += goals[j] * accumulatedDiscountFactor;
+            }
+        }
+        avgDepth[0] /= repetitions;
+        for (int j = 0; j < avgScores.length; j++) {
+            avgScores[j] /= repetitions;
+        }
+    }
+}
@@ -117,6 +117,17 @@ public abstract class StateMachine
      */
     public void doPerMoveWork() {}
 
+    /** Override this in state machines that take a long time to initialize, such as
+     * propnet-based ones, so that they give up once the given deadline passes.
+     * <p>
+     * CONTRACT: Behaves like {@link #initialize(List)}, except that it may throw if the
+     *           state machine cannot be initialized by the deadline, given as by
+     *           System.currentTimeMillis().
+     */
+    public void initialize(List<Gdl> description, long deadline) {
+        initialize(description);
+    }
+
     /** Override this to provide memory-saving destructive-next-state functionality.
      * <p>
      * CONTRACT: After calling this method, "state" should not be accessed.
@@ -358,6 +369,36 @@ public abstract class StateMachine
         return getNextState(state, random);
     }
 
+    /**
+     * Returns the 64-bit {@link ZobristHash} of the given state, for use as a
+     * key in transposition tables. The hash only depends on the contents of
+     * the state, so states from different state machines hash alike.
+     * <p>
+     * The default implementation hashes the contents of the state. State
+     * machines whose states keep their hash, updating it incrementally as
+     * they compute next states, should override this to return it.
+     */
+    public long getZobristHash(MachineState state)
+    {
+        return ZobristHash.hash(state.getContents());
+    }
+
+    /**
+     * Creates a context for running random playouts on this state machine.
+     * Each thread that runs playouts should create its own context and
+     * reuse it. Unlike {@link #performDepthCharge(MachineState, int[])},
+     * playouts in different contexts may run concurrently.
+     * <p>
+     * The default implementation calls the regular state machine methods
+     * while holding a lock on the state machine. Override this in state
+     * machines that are thread-safe, or that can run playouts more cheaply
+     * with scratch space of their own.
+     */
+    public RolloutContext createRolloutContext()
+    {
+        return new RolloutContext(this, true);
+    }
+
     /**
      * Returns a terminal state derived from repeatedly making random joint moves
      * until reaching the end of the game.
@@ -0,0 +1,92 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Collection;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * ZobristHash computes 64-bit Zobrist hashes of game states. Every sentence
+ * that can be true in a state gets a pseudo-random 64-bit key, and the hash
+ * of a state is the exclusive or of the keys of its sentences. When a few
+ * sentences change from one state to the next, the new hash can be computed
+ * from the old one by xoring in the keys of just those sentences.
+ * <p>
+ * Keys are derived from the structure of the sentences themselves rather
+ * than drawn from a random number generator, so every state machine (and
+ * every player) computes the same hash for the same state, with no shared
+ * table of keys to set up.
+ */
+public final class ZobristHash
+{
+    private ZobristHash()
+    {
+    }
+
+    /**
+     * Returns the key of the given sentence.
+     */
+    public static long getKey(GdlSentence sentence)
+    {
+        long h = hashString(sentence.getName().getValue());
+        for (int i = 0; i < sentence.arity(); i++) {
+            h = combine(h, hashTerm(sentence.get(i)));
+        }
+        return mix(h);
+    }
+
+    /**
+     * Returns the hash of a state with the given sentences.
+     */
+    public static long hash(Collection<GdlSentence> sentences)
+    {
+        long h = 0;
+        for (GdlSentence sentence : sentences) {
+            h ^= getKey(sentence);
+        }
+        return h;
+    }
+
+    private static long hashTerm(GdlTerm term)
+    {
+        if (term instanceof GdlConstant) {
+            return hashString(((GdlConstant) term).getValue());
+        } else if (term instanceof GdlVariable) {
+            return ~hashString(((GdlVariable) term).getName());
+        }
+        GdlFunction function = (GdlFunction) term;
+        // Distinguish (f a) from f applied to nothing and from a constant f.
+        long h = combine(hashString(function.getName().getValue()), function.arity());
+        for (int i = 0; i < function.arity(); i++) {
+            h = combine(h, hashTerm(function.get(i)));
+        }
+        return mix(h);
+    }
+
+    /** 64-bit FNV-1a over the characters of the string. */
+    private static long hashString(String s)
+    {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    private static long combine(long h, long value)
+    {
+        return (h ^ value) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+    }
+
+    /** The SplitMix64 finalizer, so that similar inputs give unrelated keys. */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
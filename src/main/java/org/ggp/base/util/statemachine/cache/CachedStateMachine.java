@@ -8,6 +8,7 @@ import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.RolloutContext;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
@@ -112,6 +113,16 @@ public final class CachedStateMachine extends StateMachine
         }
     }
 
+    /**
+     * Playouts rarely revisit the states they pass through, so they are run
+     * directly on the backing state machine instead of filling the cache.
+     */
+    @Override
+    public RolloutContext createRolloutContext()
+    {
+        return backingStateMachine.createRolloutContext();
+    }
+
     @Override
     public void doPerMoveWork()
     {
@@ -128,6 +139,11 @@ public final class CachedStateMachine extends StateMachine
         backingStateMachine.initialize(description);
     }
 
+    @Override
+    public void initialize(List<Gdl> description, long deadline) {
+        backingStateMachine.initialize(description, deadline);
+    }
+
     @Override
     public List<Role> getRoles() {
         // TODO(schreib): Should this be cached as well?
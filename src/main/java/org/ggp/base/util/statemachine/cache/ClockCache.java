@@ -0,0 +1,214 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ClockCache is a concurrent, size-bounded cache from keys of type K to
+ * values of type V, with approximately least-recently-used eviction by the
+ * CLOCK algorithm.
+ *
+ * Lookups go straight to a ConcurrentHashMap and only set a "referenced"
+ * flag on the entry they find, so they never block. Insertions are spread
+ * over a number of stripes by the hash of their key. Each stripe owns an
+ * equal share of the capacity as a ring of entries with a clock hand, and
+ * is locked only while an entry is added to it. When a stripe is full, its
+ * hand sweeps the ring, clearing the flag of referenced entries, until it
+ * finds an unreferenced entry to evict. The capacity is a number of entries,
+ * not an amount of memory: every entry counts the same, however large its
+ * key and value are.
+ *
+ * Evictions are counted in a striped counter, so counting does not make
+ * every thread contend on the same memory either. Hits and misses are left
+ * to the caller, which knows what a lookup was for.
+ *
+ * Values for the same key computed concurrently by several threads are not
+ * merged: the first one added wins, and putIfAbsent hands it to the others.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public final class ClockCache<K, V>
+{
+    private static final class Node<K, V>
+    {
+        final K key;
+        final V value;
+        volatile boolean referenced;
+
+        Node(K key, V value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newRing(int capacity)
+    {
+        return (Node<K, V>[]) new Node<?, ?>[capacity];
+    }
+
+    private final class Stripe
+    {
+        private final Node<K, V>[] ring;
+        private int size;
+        private int hand;
+
+        Stripe(int capacity)
+        {
+            ring = newRing(capacity);
+        }
+
+        synchronized void add(Node<K, V> node)
+        {
+            if (size < ring.length) {
+                ring[size++] = node;
+                return;
+            }
+            while (true) {
+                Node<K, V> victim = ring[hand];
+                if (victim.referenced) {
+                    victim.referenced = false;
+                    hand = (hand + 1) % ring.length;
+                } else {
+                    contents.remove(victim.key, victim);
+                    evictions.increment();
+                    ring[hand] = node;
+                    hand = (hand + 1) % ring.length;
+                    return;
+                }
+            }
+        }
+
+        synchronized void clear()
+        {
+            for (int i = 0; i < size; i++) {
+                ring[i] = null;
+            }
+            size = 0;
+            hand = 0;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> contents;
+    private final List<Stripe> stripes;
+    private final StripedCounter evictions;
+
+    /**
+     * Creates a cache holding up to approximately the given number of
+     * entries, spread over the given number of stripes.
+     */
+    public ClockCache(int capacity, int numStripes)
+    {
+        if (capacity < numStripes || numStripes <= 0) {
+            throw new IllegalArgumentException("Need at least one entry per stripe, and at least one stripe.");
+        }
+        contents = new ConcurrentHashMap<K, Node<K, V>>(capacity, 0.75f, numStripes);
+        stripes = new ArrayList<Stripe>(numStripes);
+        for (int i = 0; i < numStripes; i++) {
+            stripes.add(new Stripe(capacity / numStripes + (i < capacity % numStripes ? 1 : 0)));
+        }
+        evictions = new StripedCounter(numStripes);
+    }
+
+    /**
+     * Returns the value for the given key, or null if there is none.
+     */
+    public V get(K key)
+    {
+        Node<K, V> node = contents.get(key);
+        if (node == null) {
+            return null;
+        }
+        // Avoid writing to a shared cache line when the flag is already set.
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * Adds the given value for the given key, unless there already is a
+     * value for that key, in which case that value is returned instead.
+     * Returns null if the given value was added. Adding a value may evict
+     * another one.
+     */
+    public V putIfAbsent(K key, V value)
+    {
+        Node<K, V> node = new Node<K, V>(key, value);
+        Node<K, V> existing = contents.putIfAbsent(key, node);
+        if (existing != null) {
+            return existing.value;
+        }
+        stripes.get(stripeFor(key.hashCode())).add(node);
+        return null;
+    }
+
+    private int stripeFor(int hash)
+    {
+        hash ^= hash >>> 16;
+        return (hash & 0x7FFFFFFF) % stripes.size();
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     */
+    public int size()
+    {
+        return contents.size();
+    }
+
+    /**
+     * Removes every entry. Entries added concurrently may or may not
+     * survive. The eviction count is not reset.
+     */
+    public void clear()
+    {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+        contents.clear();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * A counter split over several cells, one cache line apart, with each
+     * thread incrementing the cell picked by its id, so that threads rarely
+     * touch the same cell.
+     */
+    static final class StripedCounter
+    {
+        /** Longs per cell, to keep cells on separate cache lines. */
+        private static final int PADDING = 8;
+
+        private final AtomicLongArray cells;
+        private final int numCells;
+
+        StripedCounter(int numCells)
+        {
+            this.numCells = numCells;
+            cells = new AtomicLongArray(numCells * PADDING);
+        }
+
+        void increment()
+        {
+            cells.incrementAndGet((int) (Thread.currentThread().getId() % numCells) * PADDING);
+        }
+
+        long sum()
+        {
+            long sum = 0;
+            for (int i = 0; i < numCells; i++) {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
+        }
+    }
+}
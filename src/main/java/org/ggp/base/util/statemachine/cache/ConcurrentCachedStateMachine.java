@@ -0,0 +1,260 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.RolloutContext;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.ClockCache.StripedCounter;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * ConcurrentCachedStateMachine caches the answers of a backing state machine,
+ * like CachedStateMachine, but can be used by many threads at once. Instead
+ * of a TTL cache pruned at every move, the per-state entries live in a
+ * {@link ClockCache}, which holds a fixed number of states and evicts the
+ * ones that have not been used recently as new ones come in.
+ *
+ * Lookups never block. The answers within an entry are published through
+ * atomic fields and arrays rather than under a lock, so when several threads
+ * ask the same uncached question at the same time, each of them may ask the
+ * backing state machine, and one answer is kept. This is harmless because
+ * state machines are deterministic, but it does mean that the backing state
+ * machine itself must be safe for concurrent use (as the ProverStateMachine
+ * is) for this state machine to be.
+ *
+ * The number of queries answered from the cache (hits) and passed on to the
+ * backing state machine (misses), and the number of states evicted, are
+ * counted, and logged at every move, to show whether caching pays off for a
+ * particular game.
+ */
+public final class ConcurrentCachedStateMachine extends StateMachine
+{
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final int UNKNOWN_GOAL = Integer.MIN_VALUE;
+
+    private final StateMachine backingStateMachine;
+    private final int capacity;
+    private ClockCache<MachineState, Entry> cache;
+    private List<Role> roles;
+    private StripedCounter hits;
+    private StripedCounter misses;
+
+    private final class Entry
+    {
+        final AtomicIntegerArray goals;
+        final AtomicReferenceArray<List<Move>> moves;
+        volatile Boolean terminal;
+        volatile ConcurrentMap<List<Move>, MachineState> nexts;
+
+        Entry()
+        {
+            goals = new AtomicIntegerArray(roles.size());
+            for (int i = 0; i < roles.size(); i++) {
+                goals.set(i, UNKNOWN_GOAL);
+            }
+            moves = new AtomicReferenceArray<List<Move>>(roles.size());
+        }
+
+        ConcurrentMap<List<Move>, MachineState> getNexts()
+        {
+            ConcurrentMap<List<Move>, MachineState> result = nexts;
+            if (result == null) {
+                synchronized (this) {
+                    result = nexts;
+                    if (result == null) {
+                        result = new ConcurrentHashMap<List<Move>, MachineState>(4, 0.75f, 1);
+                        nexts = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    public ConcurrentCachedStateMachine(StateMachine backingStateMachine)
+    {
+        this(backingStateMachine, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a state machine caching the answers of the given state machine
+     * for up to the given number of states.
+     */
+    public ConcurrentCachedStateMachine(StateMachine backingStateMachine, int capacity)
+    {
+        this.backingStateMachine = backingStateMachine;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        initialize(description, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void initialize(List<Gdl> description, long deadline)
+    {
+        backingStateMachine.initialize(description, deadline);
+        roles = backingStateMachine.getRoles();
+        int numStripes = Math.min(capacity, 4 * Runtime.getRuntime().availableProcessors());
+        cache = new ClockCache<MachineState, Entry>(capacity, numStripes);
+        hits = new StripedCounter(numStripes);
+        misses = new StripedCounter(numStripes);
+    }
+
+    private Entry getEntry(MachineState state)
+    {
+        Entry entry = cache.get(state);
+        if (entry == null) {
+            entry = new Entry();
+            Entry existing = cache.putIfAbsent(state, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        Entry entry = getEntry(state);
+        int r = getRoleIndices().get(role);
+        int goal = entry.goals.get(r);
+        if (goal == UNKNOWN_GOAL) {
+            misses.increment();
+            goal = backingStateMachine.getGoal(state, role);
+            entry.goals.set(r, goal);
+        } else {
+            hits.increment();
+        }
+        return goal;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        Entry entry = getEntry(state);
+        int r = getRoleIndices().get(role);
+        List<Move> moves = entry.moves.get(r);
+        if (moves == null) {
+            misses.increment();
+            moves = ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role));
+            entry.moves.set(r, moves);
+        } else {
+            hits.increment();
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        ConcurrentMap<List<Move>, MachineState> nexts = getEntry(state).getNexts();
+        MachineState next = nexts.get(moves);
+        if (next == null) {
+            misses.increment();
+            next = backingStateMachine.getNextState(state, moves);
+            // Callers may reuse their move lists, so the key is copied.
+            MachineState existing = nexts.putIfAbsent(ImmutableList.copyOf(moves), next);
+            if (existing != null) {
+                next = existing;
+            }
+        } else {
+            hits.increment();
+        }
+        return next;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        Entry entry = getEntry(state);
+        Boolean terminal = entry.terminal;
+        if (terminal == null) {
+            misses.increment();
+            terminal = backingStateMachine.isTerminal(state);
+            entry.terminal = terminal;
+        } else {
+            hits.increment();
+        }
+        return terminal;
+    }
+
+    /**
+     * Playouts rarely revisit the states they pass through, so they are run
+     * directly on the backing state machine instead of filling the cache.
+     */
+    @Override
+    public RolloutContext createRolloutContext()
+    {
+        return backingStateMachine.createRolloutContext();
+    }
+
+    @Override
+    public void doPerMoveWork()
+    {
+        GamerLogger.log("StateMachine", String.format("Cache: %d hits, %d misses, %d states cached, %d evicted",
+                getHits(), getMisses(), cache.size(), getEvictions()));
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of queries passed on to the backing state machine.
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of states evicted from the cache to make room for
+     * new ones.
+     */
+    public long getEvictions()
+    {
+        return cache.getEvictions();
+    }
+
+    /**
+     * Returns the number of states currently cached.
+     */
+    public int getSize()
+    {
+        return cache.size();
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return backingStateMachine.getInitialState();
+    }
+}
@@ -0,0 +1,129 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * TranspositionTable is a fixed-size hash table from 64-bit state hashes,
+ * such as those returned by StateMachine.getZobristHash, to 64-bit values.
+ * What a value means is up to the caller; a minimax player might pack a
+ * score, a depth and a bound type into it, and an MCTS player a node index.
+ * <p>
+ * The table uses open addressing with a short linear probe. When every slot
+ * in the probe window is taken by other keys, the new entry replaces the
+ * one in the first slot, so the table never grows and never fails to
+ * store the latest entry.
+ * <p>
+ * The table is lock-free and safe for concurrent use. Each slot holds the
+ * value and the key xored with the value, written separately; a reader that
+ * sees a slot half-written by another thread finds that the two don't match
+ * its key and treats the slot as a miss, so it never sees a value for the
+ * wrong key. The only cost of concurrent writes to the same slot is that
+ * one of them may be lost.
+ * <p>
+ * A slot whose two words are zero is empty, so storing the value 0 under
+ * the key 0 has no effect.
+ */
+public final class TranspositionTable
+{
+    private static final int PROBE_LIMIT = 4;
+
+    /** Two words per slot: the key xored with the value, then the value. */
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    /**
+     * Creates a table with room for at least the given number of entries,
+     * rounded up to a power of two.
+     */
+    public TranspositionTable(int minimumCapacity)
+    {
+        if (minimumCapacity <= 0 || minimumCapacity > 1 << 29) {
+            throw new IllegalArgumentException("Unsupported capacity: " + minimumCapacity);
+        }
+        int capacity = Integer.highestOneBit(minimumCapacity);
+        if (capacity < minimumCapacity) {
+            capacity <<= 1;
+        }
+        slots = new AtomicLongArray(2 * capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Creates a table taking up at most approximately the given number of
+     * bytes, at 16 bytes per entry.
+     */
+    public static TranspositionTable withMemory(long bytes)
+    {
+        return new TranspositionTable(Integer.highestOneBit((int) Math.min(1 << 29, Math.max(1, bytes / 16))));
+    }
+
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the value stored for the given key, or the given default value
+     * if there is none.
+     */
+    public long get(long key, long defaultValue)
+    {
+        int home = (int) key & mask;
+        for (int i = 0; i < PROBE_LIMIT; i++) {
+            int slot = 2 * ((home + i) & mask);
+            long check = slots.get(slot);
+            long value = slots.get(slot + 1);
+            if ((check ^ value) == key && (check | value) != 0) {
+                return value;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Stores the given value for the given key, replacing any value already
+     * stored for it.
+     */
+    public void put(long key, long value)
+    {
+        int home = (int) key & mask;
+        int target = 2 * home;
+        for (int i = 0; i < PROBE_LIMIT; i++) {
+            int slot = 2 * ((home + i) & mask);
+            long check = slots.get(slot);
+            long storedValue = slots.get(slot + 1);
+            if ((check | storedValue) == 0 || (check ^ storedValue) == key) {
+                target = slot;
+                break;
+            }
+        }
+        slots.set(target + 1, value);
+        slots.set(target, key ^ value);
+    }
+
+    /**
+     * Returns the number of entries in the table. This scans the whole
+     * table, and is only exact when no other thread is writing to it.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (int slot = 0; slot < slots.length(); slot += 2) {
+            if ((slots.get(slot) | slots.get(slot + 1)) != 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes every entry. This is not atomic with respect to concurrent
+     * writes, which may survive it.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, 0);
+        }
+    }
+}
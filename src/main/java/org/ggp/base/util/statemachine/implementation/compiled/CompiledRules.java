@@ -0,0 +1,38 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+/**
+ * CompiledRules is the base class of the classes generated by the
+ * {@link RuleCompiler}. A generated class has one method per rule, which
+ * joins the tuple sets of the rule's body in nested loops and adds the
+ * resulting heads to the tuple set of the head's sentence form, and one
+ * method per stratum, which applies the rules of the stratum, repeating
+ * them until nothing new is derived if the stratum is recursive.
+ *
+ * This is public so that generated classes, which are defined in their own
+ * class loader, can extend it. Like the tuple sets it works on, it is not
+ * thread-safe.
+ */
+public abstract class CompiledRules
+{
+    /** The tuple set of each sentence form, by form ID. */
+    protected final TupleSet[] sets;
+    /** The constant IDs of the variable domains iterated over by rules. */
+    protected final int[][] domains;
+
+    protected CompiledRules(TupleSet[] sets, int[][] domains)
+    {
+        this.sets = sets;
+        this.domains = domains;
+    }
+
+    public TupleSet getTupleSet(int form)
+    {
+        return sets[form];
+    }
+
+    /**
+     * Applies the rules of the given stratum, adding their results to the
+     * tuple sets. Every stratum it depends on must have been evaluated.
+     */
+    public abstract void evaluate(int stratum);
+}
@@ -0,0 +1,444 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.transforms.ConstantChecker;
+import org.ggp.base.util.gdl.transforms.GdlStages;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.pipeline.Pipeline;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * CompiledRulesStateMachine computes everything that is true in a state
+ * bottom-up, one stratum of sentence forms at a time, with the rules
+ * compiled to bytecode by the {@link RuleCompiler} instead of being
+ * interpreted. Sentences are tuples of constant IDs in a {@link TupleSet}
+ * per sentence form, and each rule is a method of nested loops joining
+ * those sets, so no assignment maps or sentences are built while the rules
+ * are applied; GDL sentences are only built for the contents of new states
+ * and for moves, and are reused after that.
+ * <p>
+ * Constant sentence forms are computed once, the strata that depend on
+ * the moves are only evaluated to get the next state, and the sentences of
+ * the most recently queried state are kept. Nothing is grounded ahead of time, so this works for games that
+ * are too large for a propnet.
+ * <p>
+ * Like most state machines, this is not safe for concurrent use by multiple
+ * threads; give each thread its own instance.
+ */
+public class CompiledRulesStateMachine extends StateMachine
+{
+    private SentenceDomainModel model;
+    private ImmutableList<Role> roles;
+    private MachineState initialState;
+
+    private SymbolTable symbols;
+    private List<SentenceForm> forms;
+    private Map<SentenceForm, Integer> formIds;
+    private CompiledRules rules;
+
+    /** Strata IDs of the forms that do not depend on the moves, in order. */
+    private int[] stateStrata;
+    /** Strata IDs of the forms that depend on the moves, in order. */
+    private int[] moveStrata;
+    /** Forms cleared for each new state, and for each new joint move. */
+    private int[] stateForms;
+    private int[] moveForms;
+
+    private int[] legalForms;
+    private int[] goalForms;
+    private int[] terminalForms;
+    private int[] nextForms;
+    private Map<Integer, Decoder> decoders;
+
+    /** The form ID and tuple of each sentence seen in a state or move. */
+    private Map<GdlSentence, int[]> encodings;
+    private static final int[] UNKNOWN_FORM = new int[0];
+
+    /** The state whose sentences were most recently computed. */
+    private MachineState currentState;
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        long start = System.currentTimeMillis();
+        Pipeline pipeline = new Pipeline("CompiledRulesStateMachine");
+        try {
+            description = pipeline.run(GdlStages.GDL_CLEANER, description);
+            description = pipeline.run(GdlStages.DE_ORER, description);
+            description = pipeline.run(GdlStages.VARIABLE_CONSTRAINER, description);
+            description = pipeline.run(GdlStages.DISTINCT_AND_NOT_MOVER, description);
+
+            model = pipeline.run(GdlStages.DOMAIN_MODEL, description);
+            model = pipeline.run(GdlStages.DOMAIN_MODEL_OPTIMIZER, model);
+            roles = ImmutableList.copyOf(Role.computeRoles(description));
+
+            ConstantChecker constantChecker = pipeline.run(GdlStages.CONSTANT_CHECKER, model);
+            symbols = new SymbolTable();
+            forms = new ArrayList<SentenceForm>(model.getSentenceForms());
+            formIds = new HashMap<SentenceForm, Integer>();
+            for (int i = 0; i < forms.size(); i++) {
+                formIds.put(forms.get(i), i);
+            }
+            compile(constantChecker);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        legalForms = getFormsNamed(GdlPool.LEGAL);
+        goalForms = getFormsNamed(GdlPool.GOAL);
+        terminalForms = getFormsNamed(GdlPool.TERMINAL);
+        nextForms = getFormsNamed(GdlPool.NEXT);
+        decoders = new HashMap<Integer, Decoder>();
+        encodings = new HashMap<GdlSentence, int[]>();
+        currentState = null;
+        initialState = computeInitialState();
+        pipeline.logSummary("StateMachine");
+        GamerLogger.log("StateMachine", "Compiled the rules of " + forms.size() + " sentence forms in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Orders the non-constant sentence forms that have rules into strata,
+     * separating those that depend on the moves from those that don't,
+     * compiles them, and adds the constant sentences to the tuple sets.
+     */
+    private void compile(ConstantChecker constantChecker) throws InterruptedException
+    {
+        Set<SentenceForm> constantForms = constantChecker.getConstantSentenceForms();
+        SetMultimap<SentenceForm, SentenceForm> dependencyGraph = HashMultimap.create(model.getDependencyGraph());
+        Set<SentenceForm> moveDependentForms = DependencyGraphs.getMatchingAndDownstream(
+                model.getSentenceForms(), dependencyGraph, new Predicate<SentenceForm>() {
+                    @Override
+                    public boolean apply(SentenceForm form) {
+                        return form.getName() == GdlPool.DOES;
+                    }
+                });
+
+        List<Set<SentenceForm>> strata = new ArrayList<Set<SentenceForm>>();
+        Set<Set<SentenceForm>> recursiveStrata = new HashSet<Set<SentenceForm>>();
+        List<Integer> stateStrataList = new ArrayList<Integer>();
+        List<Integer> moveStrataList = new ArrayList<Integer>();
+        List<Integer> stateFormList = new ArrayList<Integer>();
+        List<Integer> moveFormList = new ArrayList<Integer>();
+        for (Set<SentenceForm> stratum : DependencyGraphs.toposortSafe(model.getSentenceForms(), dependencyGraph)) {
+            Set<SentenceForm> formsWithRules = new HashSet<SentenceForm>();
+            for (SentenceForm form : stratum) {
+                if (constantForms.contains(form)) {
+                    continue;
+                }
+                if (form.getName() == GdlPool.TRUE) {
+                    stateFormList.add(formIds.get(form));
+                } else if (form.getName() == GdlPool.DOES) {
+                    moveFormList.add(formIds.get(form));
+                }
+                if (!model.getRules(form).isEmpty()) {
+                    formsWithRules.add(form);
+                }
+            }
+            if (formsWithRules.isEmpty()) {
+                continue;
+            }
+            SentenceForm first = stratum.iterator().next();
+            if (stratum.size() > 1 || dependencyGraph.containsEntry(first, first)) {
+                recursiveStrata.add(formsWithRules);
+            }
+            boolean dependsOnMoves = moveDependentForms.contains(first);
+            (dependsOnMoves ? moveStrataList : stateStrataList).add(strata.size());
+            for (SentenceForm form : formsWithRules) {
+                (dependsOnMoves ? moveFormList : stateFormList).add(formIds.get(form));
+            }
+            strata.add(formsWithRules);
+        }
+        stateStrata = toArray(stateStrataList);
+        moveStrata = toArray(moveStrataList);
+        stateForms = toArray(stateFormList);
+        moveForms = toArray(moveFormList);
+
+        rules = new RuleCompiler(model, constantChecker, forms, symbols).compile(strata, recursiveStrata);
+        for (SentenceForm form : constantForms) {
+            TupleSet set = rules.getTupleSet(formIds.get(form));
+            for (GdlSentence sentence : constantChecker.getTrueSentences(form)) {
+                setKey(set, GdlUtils.getTupleFromGroundSentence(sentence));
+                set.addKey();
+            }
+        }
+    }
+
+    private int[] getFormsNamed(GdlConstant name)
+    {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < forms.size(); i++) {
+            if (forms.get(i).getName() == name) {
+                ids.add(i);
+            }
+        }
+        return toArray(ids);
+    }
+
+    private MachineState computeInitialState()
+    {
+        Set<GdlSentence> contents = new HashSet<GdlSentence>();
+        for (int form : getFormsNamed(GdlPool.INIT)) {
+            TupleSet set = rules.getTupleSet(form);
+            for (int i = 0; i < set.size(); i++) {
+                contents.add(getDecoder(form, GdlPool.TRUE).decode(set, i));
+            }
+        }
+        return new MachineState(contents);
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        evaluateState(state);
+        for (int form : terminalForms) {
+            if (rules.getTupleSet(form).size() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        evaluateState(state);
+        int roleId = symbols.getId(role.getName());
+        GdlSentence goal = null;
+        for (int form : goalForms) {
+            TupleSet set = rules.getTupleSet(form);
+            for (int i = 0; i < set.size(); i++) {
+                if (set.get(i, 0) == roleId) {
+                    if (goal != null) {
+                        throw new GoalDefinitionException(state, role);
+                    }
+                    goal = getDecoder(form, GdlPool.GOAL).decode(set, i);
+                }
+            }
+        }
+        if (goal == null) {
+            throw new GoalDefinitionException(state, role);
+        }
+        try {
+            return Integer.parseInt(goal.get(1).toString());
+        } catch (NumberFormatException e) {
+            throw new GoalDefinitionException(state, role);
+        }
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        evaluateState(state);
+        int roleId = symbols.getId(role.getName());
+        List<Move> moves = new ArrayList<Move>();
+        for (int form : legalForms) {
+            TupleSet set = rules.getTupleSet(form);
+            for (int i = 0; i < set.size(); i++) {
+                if (set.get(i, 0) == roleId) {
+                    moves.add(getDecoder(form, GdlPool.LEGAL).decodeMove(set, i));
+                }
+            }
+        }
+        if (moves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        evaluateState(state);
+        clear(moveForms);
+        for (int i = 0; i < roles.size(); i++) {
+            add(GdlPool.getRelation(GdlPool.DOES, new GdlTerm[] { roles.get(i).getName(), moves.get(i).getContents() }));
+        }
+        for (int stratum : moveStrata) {
+            rules.evaluate(stratum);
+        }
+
+        Set<GdlSentence> contents = new HashSet<GdlSentence>();
+        for (int form : nextForms) {
+            TupleSet set = rules.getTupleSet(form);
+            for (int i = 0; i < set.size(); i++) {
+                contents.add(getDecoder(form, GdlPool.TRUE).decode(set, i));
+            }
+        }
+        return new MachineState(contents);
+    }
+
+    /**
+     * Computes every sentence true in the given state, apart from those that
+     * depend on the moves made in it, unless it is the current state.
+     */
+    private void evaluateState(MachineState state)
+    {
+        if (state == currentState) {
+            return;
+        }
+        clear(stateForms);
+        for (GdlSentence sentence : state.getContents()) {
+            add(sentence);
+        }
+        for (int stratum : stateStrata) {
+            rules.evaluate(stratum);
+        }
+        currentState = state;
+    }
+
+    private void clear(int[] formsToClear)
+    {
+        for (int form : formsToClear) {
+            rules.getTupleSet(form).clear();
+        }
+    }
+
+    /**
+     * Adds the given sentence to the tuple set of its form, if it has one.
+     */
+    private void add(GdlSentence sentence)
+    {
+        int[] encoding = encodings.get(sentence);
+        if (encoding == null) {
+            encoding = encode(sentence);
+            encodings.put(sentence, encoding);
+        }
+        if (encoding != UNKNOWN_FORM) {
+            TupleSet set = rules.getTupleSet(encoding[0]);
+            for (int i = 1; i < encoding.length; i++) {
+                set.setKey(i - 1, encoding[i]);
+            }
+            set.addKey();
+        }
+    }
+
+    private int[] encode(GdlSentence sentence)
+    {
+        Integer form = formIds.get(model.getSentenceForm(sentence));
+        if (form == null || !forms.get(form).matches(sentence)) {
+            return UNKNOWN_FORM;
+        }
+        List<GdlConstant> tuple = GdlUtils.getTupleFromGroundSentence(sentence);
+        int[] encoding = new int[tuple.size() + 1];
+        encoding[0] = form;
+        for (int i = 0; i < tuple.size(); i++) {
+            encoding[i + 1] = symbols.getId(tuple.get(i));
+        }
+        return encoding;
+    }
+
+    private void setKey(TupleSet set, List<GdlConstant> tuple)
+    {
+        for (int i = 0; i < tuple.size(); i++) {
+            set.setKey(i, symbols.getId(tuple.get(i)));
+        }
+    }
+
+    private Decoder getDecoder(int form, GdlConstant name)
+    {
+        Decoder decoder = decoders.get(form);
+        if (decoder == null) {
+            decoder = new Decoder(forms.get(form).withName(name));
+            decoders.put(form, decoder);
+        }
+        return decoder;
+    }
+
+    /**
+     * Turns the tuples of one sentence form back into sentences, which are
+     * built once per tuple and then kept. The sentences are built with a
+     * different name from that of the tuples' form where needed, for
+     * instance with true for the tuples of next.
+     */
+    private final class Decoder
+    {
+        private final SentenceForm form;
+        private final TupleSet seen;
+        private final List<GdlSentence> sentences = new ArrayList<GdlSentence>();
+        private final List<Move> moves = new ArrayList<Move>();
+
+        Decoder(SentenceForm form)
+        {
+            this.form = form;
+            this.seen = new TupleSet(form.getTupleSize());
+        }
+
+        private int indexOf(TupleSet set, int tuple)
+        {
+            for (int i = 0; i < set.width(); i++) {
+                seen.setKey(i, set.get(tuple, i));
+            }
+            int index = seen.indexOfKey();
+            if (index < 0) {
+                List<GdlConstant> constants = new ArrayList<GdlConstant>(set.width());
+                for (int i = 0; i < set.width(); i++) {
+                    constants.add(symbols.getConstant(set.get(tuple, i)));
+                }
+                GdlSentence sentence = form.getSentenceFromTuple(constants);
+                seen.addKey();
+                sentences.add(sentence);
+                moves.add(form.getName() == GdlPool.LEGAL ? new Move(sentence.get(1)) : null);
+                index = sentences.size() - 1;
+            }
+            return index;
+        }
+
+        GdlSentence decode(TupleSet set, int tuple)
+        {
+            return sentences.get(indexOf(set, tuple));
+        }
+
+        Move decodeMove(TupleSet set, int tuple)
+        {
+            return moves.get(indexOf(set, tuple));
+        }
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,579 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModels;
+import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SentenceFormDomain;
+import org.ggp.base.util.gdl.model.assignments.AssignmentsImpl;
+import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
+import org.ggp.base.util.gdl.model.assignments.FunctionInfoImpl;
+import org.ggp.base.util.gdl.model.assignments.IterationOrderCandidate;
+import org.ggp.base.util.gdl.transforms.ConstantChecker;
+import org.ggp.base.util.gdl.transforms.DistinctAndNotMover;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.loader.GeneratedClassLoader;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * RuleCompiler turns the rules of a game into Java bytecode, generating a
+ * subclass of {@link CompiledRules} with javassist. The rules must have gone
+ * through the {@link GdlCleaner}, {@link VariableConstrainer} and
+ * {@link DistinctAndNotMover} transformations, so that variables only ever
+ * stand for constants and every sentence is a flat tuple of constants.
+ *
+ * Each rule becomes a method of nested loops, one per variable-binding step,
+ * in the order chosen by
+ * {@link AssignmentsImpl#getBestIterationOrderCandidate}: first a loop over
+ * the tuples of each of its source conjuncts, then, for the variables still
+ * unbound, a loop over the tuples of a functional conjunct or over the
+ * variable's domain. Each loop over tuples uses an index on the first
+ * position whose value is already known, if there is one. Every other
+ * literal is checked, by a hash lookup or a comparison, as soon as all of
+ * its variables are bound. Constants are inlined as their IDs in the
+ * {@link SymbolTable}.
+ *
+ * The order is chosen ahead of time, without knowing the sentences that
+ * will be true: the sizes of constant forms are known, the size of the
+ * true form is estimated from the initial state, the does form has one
+ * sentence per role, and other forms are assumed to hold every sentence in
+ * their domain.
+ */
+public final class RuleCompiler
+{
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private final SentenceDomainModel model;
+    private final SymbolTable symbols;
+    private final Map<SentenceForm, Integer> formIds = new HashMap<SentenceForm, Integer>();
+    private final List<SentenceForm> forms;
+
+    private final Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
+    private final Map<SentenceForm, Collection<GdlSentence>> estimatedSentences = new HashMap<SentenceForm, Collection<GdlSentence>>();
+
+    /* Built up while generating code. */
+    private final List<int[]> domains = new ArrayList<int[]>();
+    private final Map<SentenceForm, Set<Integer>> indexedPositions = new HashMap<SentenceForm, Set<Integer>>();
+
+    /**
+     * Creates a compiler for the rules of the given model. The given forms
+     * are numbered in order; these are the form IDs of the tuple sets of
+     * the compiled rules.
+     */
+    public RuleCompiler(SentenceDomainModel model, ConstantChecker constantChecker, List<SentenceForm> forms, SymbolTable symbols) throws InterruptedException
+    {
+        this.model = model;
+        this.symbols = symbols;
+        this.forms = forms;
+        for (int i = 0; i < forms.size(); i++)
+        {
+            formIds.put(forms.get(i), i);
+        }
+
+        int numRoles = 0;
+        for (SentenceForm form : constantChecker.getConstantSentenceForms())
+        {
+            functionInfoMap.put(form, FunctionInfoImpl.create(form, constantChecker));
+            if (form.getName() == GdlPool.ROLE)
+            {
+                numRoles += constantChecker.getTrueSentences(form).size();
+            }
+        }
+        for (SentenceForm form : forms)
+        {
+            int estimate;
+            if (constantChecker.isConstantForm(form))
+            {
+                estimate = constantChecker.getTrueSentences(form).size();
+            }
+            else if (form.getName() == GdlPool.TRUE && constantChecker.isConstantForm(form.withName(GdlPool.INIT)))
+            {
+                estimate = constantChecker.getTrueSentences(form.withName(GdlPool.INIT)).size();
+            }
+            else if (form.getName() == GdlPool.DOES)
+            {
+                estimate = numRoles;
+            }
+            else
+            {
+                estimate = getDomainSize(model.getDomain(form));
+            }
+            estimatedSentences.put(form, Collections.<GdlSentence>nCopies(Math.max(estimate, 1), null));
+        }
+    }
+
+    private static int getDomainSize(SentenceFormDomain domain)
+    {
+        long size = 1;
+        for (int i = 0; i < domain.getForm().getTupleSize(); i++)
+        {
+            size = Math.min(size * domain.getDomainForSlot(i).size(), Integer.MAX_VALUE);
+        }
+        return (int) size;
+    }
+
+    /**
+     * Generates, loads and instantiates a class applying the rules of the
+     * given strata, with an empty tuple set for every form. The strata are
+     * numbered in order for {@link CompiledRules#evaluate(int)}.
+     */
+    public CompiledRules compile(List<Set<SentenceForm>> strata, Set<Set<SentenceForm>> recursiveStrata)
+    {
+        try
+        {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new ClassClassPath(CompiledRules.class));
+            pool.importPackage(CompiledRules.class.getPackage().getName());
+            String className = CompiledRules.class.getPackage().getName() + ".GeneratedRules" + classCount.incrementAndGet();
+            CtClass generated = pool.makeClass(className, pool.get(CompiledRules.class.getName()));
+            generated.addConstructor(CtNewConstructor.make(
+                    "public " + generated.getSimpleName() + "(TupleSet[] sets, int[][] domains) { super(sets, domains); }", generated));
+
+            StringBuilder dispatch = new StringBuilder("public void evaluate(int stratum) { switch (stratum) {\n");
+            int numRules = 0;
+            for (int s = 0; s < strata.size(); s++)
+            {
+                Set<SentenceForm> stratum = strata.get(s);
+                StringBuilder calls = new StringBuilder();
+                for (SentenceForm form : stratum)
+                {
+                    for (GdlRule rule : model.getRules(form))
+                    {
+                        String body = compileRule(rule);
+                        if (body != null)
+                        {
+                            String name = "rule" + numRules++;
+                            generated.addMethod(CtNewMethod.make("private void " + name + "() {\n" + body + "}", generated));
+                            calls.append(name).append("();\n");
+                        }
+                    }
+                }
+                generated.addMethod(CtNewMethod.make(compileStratum(s, stratum, recursiveStrata.contains(stratum), calls), generated));
+                dispatch.append("case ").append(s).append(": stratum").append(s).append("(); return;\n");
+            }
+            dispatch.append("default: throw new IllegalArgumentException(\"No stratum \" + stratum);\n} }");
+            generated.addMethod(CtNewMethod.make(dispatch.toString(), generated));
+
+            byte[] bytecode = generated.toBytecode();
+            generated.detach();
+            Class<?> compiledClass = new GeneratedClassLoader(CompiledRules.class.getClassLoader()).define(className, bytecode);
+            return (CompiledRules) compiledClass.getConstructor(TupleSet[].class, int[][].class).newInstance(createTupleSets(), domains.toArray(new int[domains.size()][]));
+        }
+        catch (CannotCompileException e)
+        {
+            throw new IllegalStateException("Could not compile the rules", e);
+        }
+        catch (NotFoundException e)
+        {
+            throw new IllegalStateException("Could not compile the rules", e);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not compile the rules", e);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Could not load the compiled rules", e);
+        }
+    }
+
+    private String compileStratum(int index, Set<SentenceForm> stratum, boolean recursive, StringBuilder calls)
+    {
+        StringBuilder method = new StringBuilder("private void stratum").append(index).append("() {\n");
+        if (!recursive)
+        {
+            return method.append(calls).append("}").toString();
+        }
+        // Apply the rules until none of the stratum's forms grows
+        StringBuilder total = new StringBuilder("0");
+        for (SentenceForm form : stratum)
+        {
+            total.append(" + this.sets[").append(formIds.get(form)).append("].size()");
+        }
+        method.append("while (true) {\n");
+        method.append("int before = ").append(total).append(";\n");
+        method.append(calls);
+        method.append("if (").append(total).append(" == before) { return; }\n");
+        method.append("}\n}");
+        return method.toString();
+    }
+
+    private TupleSet[] createTupleSets()
+    {
+        TupleSet[] sets = new TupleSet[forms.size()];
+        for (int i = 0; i < sets.length; i++)
+        {
+            sets[i] = new TupleSet(forms.get(i).getTupleSize());
+            if (indexedPositions.containsKey(forms.get(i)))
+            {
+                for (int position : indexedPositions.get(forms.get(i)))
+                {
+                    sets[i].addIndex(position);
+                }
+            }
+        }
+        return sets;
+    }
+
+    /**
+     * Returns the body of the method applying the given rule, or null if the
+     * rule can never apply.
+     */
+    private String compileRule(GdlRule rule)
+    {
+        return new RuleWriter(rule).write();
+    }
+
+    /**
+     * Writes the method of a single rule, keeping track of which variables
+     * are bound and which literals have been used so far.
+     */
+    private final class RuleWriter
+    {
+        private final GdlRule rule;
+        private final StringBuilder code = new StringBuilder();
+        private final Map<GdlVariable, String> bound = new HashMap<GdlVariable, String>();
+        private final boolean[] used;
+        private final Set<Integer> declaredSets = new HashSet<Integer>();
+        private int depth;
+        private int numLoops;
+
+        RuleWriter(GdlRule rule)
+        {
+            this.rule = rule;
+            this.used = new boolean[rule.arity()];
+        }
+
+        String write()
+        {
+            for (GdlLiteral literal : rule.getBody())
+            {
+                if (literal instanceof GdlSentence && getFormId((GdlSentence) literal) == null)
+                {
+                    // A sentence no rule or fact can produce
+                    return null;
+                }
+            }
+
+            Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, model, VarDomainOpts.BODY_ONLY);
+            IterationOrderCandidate order = AssignmentsImpl.getBestIterationOrderCandidate(rule, varDomains,
+                    functionInfoMap, estimatedSentences, ImmutableMap.<GdlVariable, GdlConstant>of());
+
+            writeReadyChecks();
+            for (GdlSentence source : order.getSourceConjuncts())
+            {
+                writeLoop(source);
+            }
+            List<GdlVariable> variables = order.getVariableOrdering();
+            List<GdlSentence> functionalConjuncts = order.getFunctionalConjuncts();
+            for (int i = 0; i < variables.size(); i++)
+            {
+                GdlVariable variable = variables.get(i);
+                if (bound.containsKey(variable))
+                {
+                    continue;
+                }
+                if (functionalConjuncts.get(i) != null)
+                {
+                    writeLoop(functionalConjuncts.get(i));
+                }
+                else
+                {
+                    writeDomainLoop(variable, varDomains.get(variable));
+                }
+            }
+
+            writeKey(rule.getHead());
+            code.append(getSet(rule.getHead())).append(".addKey();\n");
+            for (; depth > 0; depth--)
+            {
+                code.append("}\n");
+            }
+            return code.toString();
+        }
+
+        /**
+         * Writes a loop over the tuples matching the given positive literal,
+         * binding its unbound variables.
+         */
+        private void writeLoop(GdlSentence literal)
+        {
+            markUsed(literal);
+            String set = getSet(literal);
+            List<GdlTerm> tuple = GdlUtils.getTupleFromSentence(literal);
+            String j = "j" + numLoops++;
+
+            int indexPosition = -1;
+            for (int i = 0; i < tuple.size() && indexPosition < 0; i++)
+            {
+                if (isKnown(tuple.get(i)))
+                {
+                    indexPosition = i;
+                }
+            }
+            if (indexPosition >= 0)
+            {
+                SentenceForm form = model.getSentenceForm(literal);
+                if (!indexedPositions.containsKey(form))
+                {
+                    indexedPositions.put(form, new HashSet<Integer>());
+                }
+                indexedPositions.get(form).add(indexPosition);
+                code.append("for (int ").append(j).append(" = ").append(set).append(".first(").append(indexPosition)
+                        .append(", ").append(getValue(tuple.get(indexPosition))).append("); ").append(j).append(" >= 0; ")
+                        .append(j).append(" = ").append(set).append(".next(").append(indexPosition).append(", ").append(j).append(")) {\n");
+            }
+            else
+            {
+                String n = "n" + numLoops;
+                code.append("int ").append(n).append(" = ").append(set).append(".size();\n");
+                code.append("for (int ").append(j).append(" = 0; ").append(j).append(" < ").append(n).append("; ")
+                        .append(j).append("++) {\n");
+            }
+            depth++;
+
+            List<String> conditions = new ArrayList<String>();
+            for (int i = 0; i < tuple.size(); i++)
+            {
+                if (i != indexPosition && isKnown(tuple.get(i)))
+                {
+                    conditions.add(set + ".get(" + j + ", " + i + ") == " + getValue(tuple.get(i)));
+                }
+            }
+            writeCondition(conditions);
+
+            conditions.clear();
+            for (int i = 0; i < tuple.size(); i++)
+            {
+                GdlTerm term = tuple.get(i);
+                if (term instanceof GdlVariable && !bound.containsKey(term))
+                {
+                    String name = "v" + bound.size();
+                    code.append("int ").append(name).append(" = ").append(set).append(".get(").append(j).append(", ").append(i).append(");\n");
+                    bound.put((GdlVariable) term, name);
+                    // Later occurrences of the same variable in the tuple
+                    for (int k = i + 1; k < tuple.size(); k++)
+                    {
+                        if (tuple.get(k) == term)
+                        {
+                            conditions.add(set + ".get(" + j + ", " + k + ") == " + name);
+                        }
+                    }
+                }
+            }
+            writeCondition(conditions);
+            writeReadyChecks();
+        }
+
+        private void writeDomainLoop(GdlVariable variable, Set<GdlConstant> domain)
+        {
+            int[] ids = new int[domain.size()];
+            int k = 0;
+            for (GdlConstant constant : domain)
+            {
+                ids[k++] = symbols.getId(constant);
+            }
+            domains.add(ids);
+            String d = "d" + numLoops;
+            String j = "j" + numLoops++;
+            String name = "v" + bound.size();
+            code.append("int[] ").append(d).append(" = this.domains[").append(domains.size() - 1).append("];\n");
+            code.append("for (int ").append(j).append(" = 0; ").append(j).append(" < ").append(d).append(".length; ")
+                    .append(j).append("++) {\n");
+            code.append("int ").append(name).append(" = ").append(d).append("[").append(j).append("];\n");
+            bound.put(variable, name);
+            depth++;
+            writeReadyChecks();
+        }
+
+        /**
+         * Writes a check of each literal not used yet whose variables are
+         * all bound.
+         */
+        private void writeReadyChecks()
+        {
+            for (int i = 0; i < rule.arity(); i++)
+            {
+                GdlLiteral literal = rule.get(i);
+                if (used[i] || !bound.keySet().containsAll(GdlUtils.getVariables(literal)))
+                {
+                    continue;
+                }
+                used[i] = true;
+                if (literal instanceof GdlSentence)
+                {
+                    writeKey((GdlSentence) literal);
+                    writeCondition(Collections.singletonList(getSet((GdlSentence) literal) + ".containsKey()"));
+                }
+                else if (literal instanceof GdlNot)
+                {
+                    GdlSentence sentence = (GdlSentence) ((GdlNot) literal).getBody();
+                    if (getFormId(sentence) != null)
+                    {
+                        writeKey(sentence);
+                        writeCondition(Collections.singletonList("!" + getSet(sentence) + ".containsKey()"));
+                    }
+                }
+                else if (literal instanceof GdlDistinct)
+                {
+                    writeDistinct((GdlDistinct) literal);
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Unexpected literal " + literal + " in rule " + rule);
+                }
+            }
+        }
+
+        private void writeDistinct(GdlDistinct distinct)
+        {
+            List<String> same = new ArrayList<String>();
+            if (!addSameConditions(distinct.getArg1(), distinct.getArg2(), same))
+            {
+                // Terms of different shapes are always distinct
+                return;
+            }
+            StringBuilder condition = new StringBuilder("!(true");
+            for (String comparison : same)
+            {
+                condition.append(" && ").append(comparison);
+            }
+            writeCondition(Collections.singletonList(condition.append(")").toString()));
+        }
+
+        /**
+         * Adds the comparisons that make the two terms the same to the given
+         * list, or returns false if they can never be the same. Variables
+         * only stand for constants.
+         */
+        private boolean addSameConditions(GdlTerm left, GdlTerm right, List<String> same)
+        {
+            if (left instanceof GdlFunction || right instanceof GdlFunction)
+            {
+                if (!(left instanceof GdlFunction) || !(right instanceof GdlFunction))
+                {
+                    return false;
+                }
+                GdlFunction leftFunction = (GdlFunction) left;
+                GdlFunction rightFunction = (GdlFunction) right;
+                if (leftFunction.getName() != rightFunction.getName() || leftFunction.arity() != rightFunction.arity())
+                {
+                    return false;
+                }
+                for (int i = 0; i < leftFunction.arity(); i++)
+                {
+                    if (!addSameConditions(leftFunction.get(i), rightFunction.get(i), same))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            same.add(getValue(left) + " == " + getValue(right));
+            return true;
+        }
+
+        private void writeKey(GdlSentence sentence)
+        {
+            String set = getSet(sentence);
+            List<GdlTerm> tuple = GdlUtils.getTupleFromSentence(sentence);
+            for (int i = 0; i < tuple.size(); i++)
+            {
+                code.append(set).append(".setKey(").append(i).append(", ").append(getValue(tuple.get(i))).append(");\n");
+            }
+        }
+
+        private void writeCondition(List<String> conditions)
+        {
+            if (conditions.isEmpty())
+            {
+                return;
+            }
+            code.append("if (");
+            for (int i = 0; i < conditions.size(); i++)
+            {
+                code.append(i == 0 ? "" : " && ").append(conditions.get(i));
+            }
+            code.append(") {\n");
+            depth++;
+        }
+
+        private void markUsed(GdlSentence literal)
+        {
+            for (int i = 0; i < rule.arity(); i++)
+            {
+                if (!used[i] && rule.get(i) == literal)
+                {
+                    used[i] = true;
+                    return;
+                }
+            }
+        }
+
+        private boolean isKnown(GdlTerm term)
+        {
+            return term instanceof GdlConstant || bound.containsKey(term);
+        }
+
+        private String getValue(GdlTerm term)
+        {
+            if (term instanceof GdlConstant)
+            {
+                return Integer.toString(symbols.getId((GdlConstant) term));
+            }
+            return bound.get(term);
+        }
+
+        /**
+         * Returns the local variable holding the tuple set of the given
+         * sentence's form, declaring it at the top of the method if needed.
+         */
+        private String getSet(GdlSentence sentence)
+        {
+            int id = getFormId(sentence);
+            String name = "s" + id;
+            if (declaredSets.add(id))
+            {
+                code.insert(0, "TupleSet " + name + " = this.sets[" + id + "];\n");
+            }
+            return name;
+        }
+    }
+
+    private Integer getFormId(GdlSentence sentence)
+    {
+        return formIds.get(model.getSentenceForm(sentence));
+    }
+}
@@ -0,0 +1,45 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+
+/**
+ * SymbolTable numbers the constants of a game, so that compiled rules can
+ * work with tuples of ints instead of GDL sentences. IDs are handed out in
+ * order, starting from zero, the first time a constant is seen; constants
+ * that only show up at runtime, in states or moves, are numbered then.
+ */
+public final class SymbolTable
+{
+    private final Map<GdlConstant, Integer> ids = new HashMap<GdlConstant, Integer>();
+    private final List<GdlConstant> constants = new ArrayList<GdlConstant>();
+
+    /**
+     * Returns the ID of the given constant, numbering it if it has none yet.
+     */
+    public int getId(GdlConstant constant)
+    {
+        Integer id = ids.get(constant);
+        if (id == null)
+        {
+            id = constants.size();
+            ids.put(constant, id);
+            constants.add(constant);
+        }
+        return id;
+    }
+
+    public GdlConstant getConstant(int id)
+    {
+        return constants.get(id);
+    }
+
+    public int size()
+    {
+        return constants.size();
+    }
+}
@@ -0,0 +1,277 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.util.Arrays;
+
+/**
+ * TupleSet is a set of tuples of constant IDs of one width, the sentences
+ * of one sentence form that are true at some point, for the code generated
+ * by the {@link RuleCompiler}.
+ *
+ * Tuples are stored one after another in a single int array, in the order
+ * they were added, and are referred to by their position in that order. An
+ * open-addressing hash table over those positions makes membership tests
+ * cheap. Tuples are never removed individually; the set is cleared as a
+ * whole when a new state is evaluated.
+ *
+ * Lookups and additions go through a key buffer held by the set, which
+ * the caller fills one value at a time with {@link #setKey(int, int)}, so
+ * that generated code never allocates a tuple.
+ *
+ * Some positions may also be indexed, as chains of the tuples with each
+ * value at that position, so that a join with a known value there only
+ * visits the matching tuples. Tuples added while a chain is being followed
+ * are added at its head, and so are not seen by that traversal.
+ *
+ * This is public so that generated classes, which are defined in their own
+ * class loader, can use it. It is not thread-safe.
+ */
+public final class TupleSet
+{
+    private static final int NONE = -1;
+
+    private final int width;
+    private final int[] key;
+    private int[] data;
+    private int size;
+    private int capacity;
+
+    /* Positions of the tuples plus one, or zero for an empty slot. */
+    private int[] table;
+    private int mask;
+
+    /* For each indexed position, the first and next tuple of each chain. */
+    private final int[][] heads;
+    private final int[][] nexts;
+
+    public TupleSet(int width)
+    {
+        this.width = width;
+        this.key = new int[width];
+        this.capacity = 8;
+        this.data = new int[capacity * width];
+        this.table = new int[16];
+        this.mask = table.length - 1;
+        this.heads = new int[width][];
+        this.nexts = new int[width][];
+    }
+
+    /**
+     * Maintains an index of the tuples by the value at the given position,
+     * for use by {@link #first(int, int)} and {@link #next(int, int)}.
+     */
+    public void addIndex(int position)
+    {
+        if (heads[position] != null)
+        {
+            return;
+        }
+        heads[position] = new int[0];
+        nexts[position] = new int[capacity];
+        for (int i = 0; i < size; i++)
+        {
+            link(position, i);
+        }
+    }
+
+    public int width()
+    {
+        return width;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the value at the given position of the tuple at the given
+     * position in the set.
+     */
+    public int get(int tuple, int position)
+    {
+        return data[tuple * width + position];
+    }
+
+    /**
+     * Sets a value of the key used by {@link #containsKey()},
+     * {@link #addKey()} and {@link #indexOfKey()}.
+     */
+    public void setKey(int position, int value)
+    {
+        key[position] = value;
+    }
+
+    public boolean containsKey()
+    {
+        return indexOfKey() != NONE;
+    }
+
+    /**
+     * Returns the position of the tuple in the key in the set, or -1 if it
+     * is not in the set.
+     */
+    public int indexOfKey()
+    {
+        int slot = hashKey() & mask;
+        while (true)
+        {
+            int entry = table[slot];
+            if (entry == 0)
+            {
+                return NONE;
+            }
+            if (matchesKey(entry - 1))
+            {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds the tuple in the key to the set, and returns true if it was not
+     * already there.
+     */
+    public boolean addKey()
+    {
+        int slot = hashKey() & mask;
+        while (true)
+        {
+            int entry = table[slot];
+            if (entry == 0)
+            {
+                break;
+            }
+            if (matchesKey(entry - 1))
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == capacity)
+        {
+            capacity *= 2;
+            data = Arrays.copyOf(data, capacity * width);
+            for (int p = 0; p < width; p++)
+            {
+                if (nexts[p] != null)
+                {
+                    nexts[p] = Arrays.copyOf(nexts[p], capacity);
+                }
+            }
+        }
+        System.arraycopy(key, 0, data, size * width, width);
+        table[slot] = size + 1;
+        for (int p = 0; p < width; p++)
+        {
+            if (heads[p] != null)
+            {
+                link(p, size);
+            }
+        }
+        size++;
+        if (2 * size > table.length)
+        {
+            rehash(2 * table.length);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first tuple with the given value at the given indexed
+     * position, or -1 if there is none.
+     */
+    public int first(int position, int value)
+    {
+        int[] chains = heads[position];
+        return (value < chains.length) ? chains[value] : NONE;
+    }
+
+    /**
+     * Returns the tuple after the given one with the same value at the given
+     * indexed position, or -1 if there is none.
+     */
+    public int next(int position, int tuple)
+    {
+        return nexts[position][tuple];
+    }
+
+    /**
+     * Removes every tuple.
+     */
+    public void clear()
+    {
+        for (int p = 0; p < width; p++)
+        {
+            int[] chains = heads[p];
+            if (chains != null)
+            {
+                for (int i = 0; i < size; i++)
+                {
+                    chains[data[i * width + p]] = NONE;
+                }
+            }
+        }
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    private void link(int position, int tuple)
+    {
+        int value = data[tuple * width + position];
+        int[] chains = heads[position];
+        if (value >= chains.length)
+        {
+            int oldLength = chains.length;
+            chains = Arrays.copyOf(chains, Math.max(value + 1, 2 * oldLength));
+            Arrays.fill(chains, oldLength, chains.length, NONE);
+            heads[position] = chains;
+        }
+        nexts[position][tuple] = chains[value];
+        chains[value] = tuple;
+    }
+
+    private int hashKey()
+    {
+        int hash = 1;
+        for (int i = 0; i < width; i++)
+        {
+            hash = 31 * hash + key[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean matchesKey(int tuple)
+    {
+        int offset = tuple * width;
+        for (int i = 0; i < width; i++)
+        {
+            if (data[offset + i] != key[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int tableSize)
+    {
+        table = new int[tableSize];
+        mask = tableSize - 1;
+        for (int i = 0; i < size; i++)
+        {
+            int hash = 1;
+            for (int j = 0; j < width; j++)
+            {
+                hash = 31 * hash + data[i * width + j];
+            }
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+/**
+ * BitParallelEvaluator evaluates a {@link CompiledPropNet} for 64 independent
+ * states at once. The value of each component is a long, whose bit l is the
+ * value of the component in lane l, so one pass over the schedule computes
+ * the gates of all 64 states with a single and, or or not per gate.
+ * <p>
+ * Lanes are selected by masks with a bit set for each lane. A typical
+ * playout loads a state into some lanes, calls {@link #propagateState()},
+ * and then alternates {@link #chooseRandomMoves(long, Random)} and
+ * {@link #advance(long)}, reading the lanes that have reached a terminal
+ * state off {@link #getTerminalLanes()}. The lanes of a batch don't need to
+ * be in step: {@link #getAverageDiscountedScores} starts a new playout in
+ * every lane that finishes, for as long as playouts are left to run.
+ * <p>
+ * Evaluators are obtained from
+ * {@link CompiledPropNetStateMachine#createBitParallelEvaluator()}. Each
+ * has its own value array, so different evaluators can be used from
+ * different threads, but an evaluator must only be used by one thread at a
+ * time.
+ */
+public final class BitParallelEvaluator
+{
+    /** The number of lanes, which are evaluated together. */
+    public static final int LANES = 64;
+
+    private final CompiledPropNet net;
+    private final long[] values;
+    /** Scratch space for choosing moves, per lane. */
+    private final int[] counts = new int[LANES];
+    private final int[] choices = new int[LANES];
+
+    BitParallelEvaluator(CompiledPropNet net)
+    {
+        this.net = net;
+        values = new long[net.getNumComponents()];
+        net.initializeConstants(values);
+    }
+
+    /**
+     * Sets the base propositions of the given lanes to the given state. The
+     * state is not propagated until {@link #propagateState()} is called, so
+     * that several states can be loaded into different lanes first.
+     */
+    public void loadState(MachineState state, long lanes)
+    {
+        PropNetMachineState bitState = toPropNetState(state);
+        for (int i = 0; i < net.numBases; i++) {
+            if (bitState.isTrue(i)) {
+                values[i] |= lanes;
+            } else {
+                values[i] &= ~lanes;
+            }
+        }
+    }
+
+    /**
+     * Computes everything that depends on the base propositions, in every
+     * lane.
+     */
+    public void propagateState()
+    {
+        net.propagate(values, net.stateSchedule);
+    }
+
+    /**
+     * Returns the lanes whose state is terminal.
+     */
+    public long getTerminalLanes()
+    {
+        return net.terminalComponent >= 0 ? values[net.terminalComponent] : 0;
+    }
+
+    /**
+     * Returns the goal value of the role with the given index in the state of
+     * the given lane, or -1 if there is not exactly one true goal.
+     */
+    public int getGoal(int role, int lane)
+    {
+        int[] goals = net.goalComponents[role];
+        int goal = -1;
+        for (int i = 0; i < goals.length; i++) {
+            if ((values[goals[i]] >>> lane & 1) != 0) {
+                if (goal != -1) {
+                    return -1;
+                }
+                goal = net.goalValues[role][i];
+            }
+        }
+        return goal;
+    }
+
+    /**
+     * Returns the legal moves of the role with the given index in the state of
+     * the given lane.
+     */
+    public List<Move> getLegalMoves(int role, int lane)
+    {
+        int[] legals = net.legalComponents[role];
+        List<Move> moves = new ArrayList<Move>();
+        for (int i = 0; i < legals.length; i++) {
+            if ((values[legals[i]] >>> lane & 1) != 0) {
+                moves.add(net.legalMoves[role][i]);
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Returns the state of the given lane.
+     */
+    public PropNetMachineState getState(int lane)
+    {
+        long[] bits = new long[PropNetMachineState.getNumWords(net.numBases)];
+        for (int i = 0; i < net.numBases; i++) {
+            if ((values[i] >>> lane & 1) != 0) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        return new PropNetMachineState(net, bits);
+    }
+
+    /**
+     * Clears the moves of every lane.
+     */
+    public void clearMoves()
+    {
+        Arrays.fill(values, net.numBases, net.numBases + net.numInputs, 0);
+    }
+
+    /**
+     * Sets the move of the role with the given index in the given lane. The
+     * moves of a lane must be cleared before setting new ones.
+     */
+    public void setMove(int role, int lane, Move move)
+    {
+        int input = net.getInputIndex(role, move);
+        if (input >= 0) {
+            values[input] |= 1L << lane;
+        }
+    }
+
+    /**
+     * Sets a random legal joint move in each of the given lanes, and clears
+     * the moves of the others. The lanes must not be terminal.
+     *
+     * @throws MoveDefinitionException if some role has no legal moves in
+     * one of the lanes
+     */
+    public void chooseRandomMoves(long lanes, Random random) throws MoveDefinitionException
+    {
+        clearMoves();
+        for (int r = 0; r < net.legalComponents.length; r++) {
+            int[] legals = net.legalComponents[r];
+            for (long w = lanes; w != 0; w &= w - 1) {
+                counts[Long.numberOfTrailingZeros(w)] = 0;
+            }
+            for (int i = 0; i < legals.length; i++) {
+                for (long w = values[legals[i]] & lanes; w != 0; w &= w - 1) {
+                    counts[Long.numberOfTrailingZeros(w)]++;
+                }
+            }
+            for (long w = lanes; w != 0; w &= w - 1) {
+                int lane = Long.numberOfTrailingZeros(w);
+                if (counts[lane] == 0) {
+                    throw new MoveDefinitionException(getState(lane), net.getRoles().get(r));
+                }
+                choices[lane] = random.nextInt(counts[lane]);
+            }
+            for (int i = 0; i < legals.length; i++) {
+                int input = net.legalInputs[r][i];
+                for (long w = values[legals[i]] & lanes; w != 0; w &= w - 1) {
+                    int lane = Long.numberOfTrailingZeros(w);
+                    if (choices[lane]-- == 0 && input >= 0) {
+                        values[input] |= 1L << lane;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the given lanes to their next state, according to the moves set
+     * in them, and propagates the new states. The other lanes keep their
+     * state.
+     */
+    public void advance(long lanes)
+    {
+        net.propagate(values, net.moveSchedule);
+        for (int i = 0; i < net.numBases; i++) {
+            values[i] = (values[net.baseTransitions[i]] & lanes) | (values[i] & ~lanes);
+        }
+        propagateState();
+    }
+
+    /**
+     * Runs the given number of random playouts from the given state, 64 at a
+     * time, and stores the average goal value of each role, discounted by the
+     * given factor for each move made, in avgScores and the average playout
+     * length in avgDepth[0]. This is the equivalent of
+     * {@link org.ggp.base.util.statemachine.StateMachine#getAverageDiscountedScoresFromRepeatedDepthCharges}.
+     */
+    public void getAverageDiscountedScores(MachineState state, double[] avgScores, double[] avgDepth, double discountFactor, int repetitions, Random random) throws MoveDefinitionException, GoalDefinitionException
+    {
+        avgDepth[0] = 0;
+        Arrays.fill(avgScores, 0);
+        PropNetMachineState start = toPropNetState(state);
+        int[] depths = new int[LANES];
+        int remaining = repetitions;
+
+        long active = takeLanes(-1L, remaining);
+        remaining -= Long.bitCount(active);
+        loadState(start, active);
+        propagateState();
+        while (active != 0) {
+            long terminal = getTerminalLanes() & active;
+            long restarted = 0;
+            if (terminal != 0) {
+                addScores(terminal, depths, avgScores, avgDepth, discountFactor);
+                restarted = takeLanes(terminal, remaining);
+                remaining -= Long.bitCount(restarted);
+                active &= ~terminal | restarted;
+            }
+            long moving = active & ~terminal;
+            chooseRandomMoves(moving, random);
+            net.propagate(values, net.moveSchedule);
+            for (int i = 0; i < net.numBases; i++) {
+                long initial = start.isTrue(i) ? restarted : 0;
+                values[i] = (values[net.baseTransitions[i]] & moving) | initial;
+            }
+            propagateState();
+            for (long w = moving; w != 0; w &= w - 1) {
+                depths[Long.numberOfTrailingZeros(w)]++;
+            }
+            for (long w = restarted; w != 0; w &= w - 1) {
+                depths[Long.numberOfTrailingZeros(w)] = 0;
+            }
+        }
+
+        if (repetitions > 0) {
+            avgDepth[0] /= repetitions;
+            for (int j = 0; j < avgScores.length; j++) {
+                avgScores[j] /= repetitions;
+            }
+        }
+    }
+
+    /**
+     * Adds the discounted goal values and the depths of the given terminal
+     * lanes to the totals.
+     */
+    private void addScores(long lanes, int[] depths, double[] scores, double[] totalDepth, double discountFactor) throws GoalDefinitionException
+    {
+        for (long w = lanes; w != 0; w &= w - 1) {
+            totalDepth[0] += depths[Long.numberOfTrailingZeros(w)];
+        }
+        for (int r = 0; r < scores.length; r++) {
+            int[] goals = net.goalComponents[r];
+            long seen = 0;
+            long repeated = 0;
+            for (int i = 0; i < goals.length; i++) {
+                long w = values[goals[i]] & lanes;
+                repeated |= seen & w;
+                seen |= w;
+                for (; w != 0; w &= w - 1) {
+                    int lane = Long.numberOfTrailingZeros(w);
+                    scores[r] += net.goalValues[r][i] * Math.pow(discountFactor, depths[lane]);
+                }
+            }
+            long undefined = lanes & (~seen | repeated);
+            if (undefined != 0) {
+                throw new GoalDefinitionException(getState(Long.numberOfTrailingZeros(undefined)), net.getRoles().get(r));
+            }
+        }
+    }
+
+    /**
+     * Returns the lowest n of the given lanes, or all of them if there are
+     * fewer.
+     */
+    private static long takeLanes(long lanes, int n)
+    {
+        long taken = 0;
+        for (int i = 0; i < n && lanes != 0; i++) {
+            long lowest = lanes & -lanes;
+            taken |= lowest;
+            lanes ^= lowest;
+        }
+        return taken;
+    }
+
+    private PropNetMachineState toPropNetState(MachineState state)
+    {
+        if (state instanceof PropNetMachineState && ((PropNetMachineState) state).getNet() == net) {
+            return (PropNetMachineState) state;
+        }
+        return PropNetMachineState.fromSentences(net, state.getContents());
+    }
+}
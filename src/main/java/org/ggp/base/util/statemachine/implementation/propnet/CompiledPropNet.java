@@ -0,0 +1,647 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.ImmutablePropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.ZobristHash;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * CompiledPropNet is a flattened, read-only copy of a {@link PropNet}. Every
+ * component is given an integer index, the inputs of each component are stored
+ * in a single array addressed through per-component offsets, and the gate type
+ * of each component is stored as a byte. The components that need computing
+ * are arranged in a topologically sorted schedule, so that a single forward
+ * pass over the schedule computes the value of every component.
+ * <p>
+ * It is built from an {@link ImmutablePropNet}, and keeps its numbering of the
+ * components, so the base propositions come first (indices
+ * 0 through {@link #getNumBases()} - 1), followed by the input propositions.
+ * This lets a state be represented directly as the prefix of a value array.
+ * <p>
+ * The schedule is split into two parts: the components that depend only on
+ * the current state, and the components that (transitively) depend on the
+ * input propositions or the INIT proposition. The former are enough to answer
+ * legal, goal and terminal queries; the latter only need to be computed when
+ * determining the next state.
+ * <p>
+ * Propnets generated from games with recursive rules may contain cycles. These
+ * are kept together in the schedule and iterated until they reach their least
+ * fixed point. A cyclic group is encoded in the schedule as a negative entry
+ * -n followed by the n components in the group.
+ * <p>
+ * The output lists of the components and the grouping of the schedule into
+ * strongly connected components are also kept, so that a
+ * {@link DifferentialPropagator} can update only the components affected by
+ * a change.
+ * <p>
+ * A CompiledPropNet holds no evaluation state, so it can be shared between
+ * any number of threads, each using its own value array.
+ */
+public final class CompiledPropNet
+{
+    // Components keep the type codes of the ImmutablePropNet, except that the
+    // propositions whose values are set from outside get codes of their own.
+    public static final byte TYPE_PROPOSITION = ImmutablePropNet.TYPE_PROPOSITION;
+    public static final byte TYPE_TRANSITION = ImmutablePropNet.TYPE_TRANSITION;
+    public static final byte TYPE_AND = ImmutablePropNet.TYPE_AND;
+    public static final byte TYPE_OR = ImmutablePropNet.TYPE_OR;
+    public static final byte TYPE_NOT = ImmutablePropNet.TYPE_NOT;
+    public static final byte TYPE_TRUE = ImmutablePropNet.TYPE_TRUE;
+    public static final byte TYPE_FALSE = ImmutablePropNet.TYPE_FALSE;
+    public static final byte TYPE_BASE = 7;
+    public static final byte TYPE_INPUT = 8;
+    public static final byte TYPE_INIT = 9;
+
+    /** The gate type of each component. */
+    final byte[] types;
+    /** The inputs of component i are inputs[inputOffsets[i]] to inputs[inputOffsets[i+1]-1]. */
+    final int[] inputOffsets;
+    final int[] inputs;
+    /** The outputs of component i are outputs[outputOffsets[i]] to outputs[outputOffsets[i+1]-1]. */
+    final int[] outputOffsets;
+    final int[] outputs;
+
+    /** Schedule for components that depend only on the base propositions. */
+    final int[] stateSchedule;
+    /** Schedule for components that depend on the input or INIT propositions. */
+    final int[] moveSchedule;
+
+    /**
+     * The computed components, grouped into strongly connected components in
+     * topological order: group g is groupMembers[groupOffsets[g]] to
+     * groupMembers[groupOffsets[g+1]-1]. Used for differential propagation.
+     */
+    final int[] groupOffsets;
+    final int[] groupMembers;
+    /** Whether each group is cyclic, and must be iterated to a fixed point. */
+    final boolean[] cyclicGroups;
+    /** The group of each computed component, or -1 for other components. */
+    final int[] componentGroups;
+
+    final int numBases;
+    final int numInputs;
+    /** The hash code of the sentence of each base proposition. */
+    final int[] baseHashCodes;
+    /** The {@link ZobristHash} key of the sentence of each base proposition. */
+    final long[] zobristKeys;
+    /** The transition component feeding each base proposition. */
+    final int[] baseTransitions;
+    /** The (init ...) proposition for each base proposition, or -1 if there is none. */
+    final int[] baseInits;
+    final boolean hasInitPropositions;
+    final int initComponent;
+    final int terminalComponent;
+
+    final ImmutableList<Role> roles;
+    /** For each role, the legal propositions and their corresponding moves. */
+    final int[][] legalComponents;
+    final Move[][] legalMoves;
+    /** For each role, the input proposition for each legal proposition, or -1 if there is none. */
+    final int[][] legalInputs;
+    /** For each role, the goal propositions and their corresponding goal values. */
+    final int[][] goalComponents;
+    final int[][] goalValues;
+
+    private final GdlSentence[] baseSentences;
+    private final Map<GdlSentence, Integer> baseIndices;
+    private final List<Map<Move, Integer>> inputIndices;
+
+    private CompiledPropNet(ImmutablePropNet propNet)
+    {
+        roles = ImmutableList.copyOf(propNet.getRoles());
+
+        // The immutable propnet already numbers the base propositions first
+        // and the input propositions next, so its numbering is kept.
+        numBases = propNet.getNumBases();
+        numInputs = propNet.getNumInputs();
+        int n = propNet.getNumComponents();
+
+        // Record gate types and the flattened input lists. Base, input
+        // and INIT propositions have their values set externally, so they
+        // are treated as having no inputs.
+        int initProposition = propNet.getInitProposition();
+        types = new byte[n];
+        inputOffsets = new int[n + 1];
+        List<Integer> inputList = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            inputOffsets[i] = inputList.size();
+            if (i < numBases) {
+                types[i] = TYPE_BASE;
+            } else if (i < numBases + numInputs) {
+                types[i] = TYPE_INPUT;
+            } else if (i == initProposition) {
+                types[i] = TYPE_INIT;
+            } else {
+                types[i] = propNet.getType(i);
+                if (types[i] != TYPE_TRUE && types[i] != TYPE_FALSE) {
+                    for (int k = 0; k < propNet.getInputCount(i); k++) {
+                        inputList.add(propNet.getInput(i, k));
+                    }
+                }
+            }
+        }
+        inputOffsets[n] = inputList.size();
+        inputs = toIntArray(inputList);
+
+        // Invert the input lists to get the output lists.
+        outputOffsets = new int[n + 1];
+        for (int input : inputs) {
+            outputOffsets[input + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outputOffsets[i + 1] += outputOffsets[i];
+        }
+        outputs = new int[inputs.length];
+        int[] outputCursor = Arrays.copyOf(outputOffsets, n);
+        for (int i = 0; i < n; i++) {
+            for (int k = inputOffsets[i]; k < inputOffsets[i + 1]; k++) {
+                outputs[outputCursor[inputs[k]]++] = i;
+            }
+        }
+
+        // Build the evaluation schedules.
+        boolean[] dependsOnMoves = new boolean[n];
+        List<int[]> groups = getEvaluationGroups(dependsOnMoves);
+        List<Integer> stateList = new ArrayList<Integer>();
+        List<Integer> moveList = new ArrayList<Integer>();
+        groupOffsets = new int[groups.size() + 1];
+        int totalMembers = 0;
+        for (int[] group : groups) {
+            totalMembers += group.length;
+        }
+        groupMembers = new int[totalMembers];
+        cyclicGroups = new boolean[groups.size()];
+        componentGroups = new int[n];
+        Arrays.fill(componentGroups, -1);
+        int numMembers = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            int[] group = groups.get(g);
+            boolean cyclic = group.length > 1 || isSelfLoop(group[0]);
+            List<Integer> target = dependsOnMoves[group[0]] ? moveList : stateList;
+            if (cyclic) {
+                target.add(-group.length);
+            }
+            groupOffsets[g] = numMembers;
+            cyclicGroups[g] = cyclic;
+            for (int c : group) {
+                target.add(c);
+                groupMembers[numMembers++] = c;
+                componentGroups[c] = g;
+            }
+        }
+        groupOffsets[groups.size()] = numMembers;
+        stateSchedule = toIntArray(stateList);
+        moveSchedule = toIntArray(moveList);
+
+        // Index the base propositions and their transitions and inits.
+        baseSentences = new GdlSentence[numBases];
+        baseIndices = new HashMap<GdlSentence, Integer>();
+        baseHashCodes = new int[numBases];
+        zobristKeys = new long[numBases];
+        baseTransitions = new int[numBases];
+        baseInits = new int[numBases];
+        for (int i = 0; i < numBases; i++) {
+            GdlSentence name = propNet.getName(i);
+            baseSentences[i] = name;
+            baseHashCodes[i] = name.hashCode();
+            zobristKeys[i] = ZobristHash.getKey(name);
+            baseIndices.put(name, i);
+            if (propNet.getInputCount(i) != 1 || propNet.getType(propNet.getInput(i, 0)) != ImmutablePropNet.TYPE_TRANSITION) {
+                throw new IllegalArgumentException("Base proposition " + name + " has " + propNet.getInputCount(i)
+                        + " inputs; it must have exactly one, its transition");
+            }
+            baseTransitions[i] = propNet.getInput(i, 0);
+            baseInits[i] = -1;
+        }
+        boolean foundInit = false;
+        for (int i = 0; i < n; i++) {
+            GdlSentence name = propNet.getName(i);
+            if (name instanceof GdlRelation && name.getName() == GdlPool.INIT) {
+                GdlSentence trueSentence = GdlPool.getRelation(GdlPool.TRUE, name.getBody());
+                Integer base = baseIndices.get(trueSentence);
+                if (base != null) {
+                    baseInits[base] = i;
+                }
+                foundInit = true;
+            }
+        }
+        hasInitPropositions = foundInit;
+        initComponent = initProposition;
+        terminalComponent = propNet.getTerminalProposition();
+
+        // Index the inputs by role and move.
+        Map<GdlConstant, Integer> roleIndices = new HashMap<GdlConstant, Integer>();
+        inputIndices = new ArrayList<Map<Move, Integer>>(roles.size());
+        for (int r = 0; r < roles.size(); r++) {
+            roleIndices.put(roles.get(r).getName(), r);
+            inputIndices.add(new HashMap<Move, Integer>());
+        }
+        for (int i = numBases; i < numBases + numInputs; i++) {
+            GdlRelation does = (GdlRelation) propNet.getName(i);
+            Integer r = roleIndices.get(does.get(0));
+            if (r != null) {
+                inputIndices.get(r).put(new Move(does.get(1)), i);
+            }
+        }
+
+        // Index the legal and goal propositions by role.
+        legalComponents = new int[roles.size()][];
+        legalMoves = new Move[roles.size()][];
+        legalInputs = new int[roles.size()][];
+        goalComponents = new int[roles.size()][];
+        goalValues = new int[roles.size()][];
+        for (int r = 0; r < roles.size(); r++) {
+            legalComponents[r] = propNet.getLegalPropositions(r);
+            legalMoves[r] = new Move[legalComponents[r].length];
+            legalInputs[r] = new int[legalComponents[r].length];
+            for (int i = 0; i < legalComponents[r].length; i++) {
+                legalMoves[r][i] = new Move(propNet.getName(legalComponents[r][i]).get(1));
+                legalInputs[r][i] = getInputIndex(r, legalMoves[r][i]);
+            }
+            goalComponents[r] = propNet.getGoalPropositions(r);
+            goalValues[r] = new int[goalComponents[r].length];
+            for (int i = 0; i < goalComponents[r].length; i++) {
+                goalValues[r][i] = getGoalValue(propNet.getName(goalComponents[r][i]));
+            }
+        }
+    }
+
+    /**
+     * Creates a CompiledPropNet from the given propnet. The propnet is not
+     * modified, and is not referenced by the result.
+     */
+    public static CompiledPropNet create(PropNet propNet)
+    {
+        return create(ImmutablePropNet.create(propNet));
+    }
+
+    /**
+     * Creates a CompiledPropNet from the given immutable propnet, which is
+     * not referenced by the result.
+     */
+    public static CompiledPropNet create(ImmutablePropNet propNet)
+    {
+        return new CompiledPropNet(propNet);
+    }
+
+    public int getNumComponents()
+    {
+        return types.length;
+    }
+
+    public int getNumBases()
+    {
+        return numBases;
+    }
+
+    public int getNumInputs()
+    {
+        return numInputs;
+    }
+
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    /**
+     * Returns the sentence of the base proposition with the given index.
+     */
+    public GdlSentence getBaseSentence(int index)
+    {
+        return baseSentences[index];
+    }
+
+    /**
+     * Returns the index of the base proposition with the given sentence,
+     * or -1 if the sentence does not correspond to any base proposition.
+     */
+    public int getBaseIndex(GdlSentence sentence)
+    {
+        Integer index = baseIndices.get(sentence);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Returns the component index of the input proposition for the given
+     * role making the given move, or -1 if the move has no input proposition.
+     */
+    public int getInputIndex(int role, Move move)
+    {
+        Integer index = inputIndices.get(role).get(move);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Computes the values of the components in the given schedule, in order.
+     * The values of all components the schedule depends on must already be set.
+     */
+    void propagate(boolean[] values, int[] schedule)
+    {
+        int i = 0;
+        while (i < schedule.length) {
+            int c = schedule[i];
+            if (c >= 0) {
+                values[c] = computeValue(values, c);
+                i++;
+            } else {
+                i = propagateGroup(values, schedule, i);
+            }
+        }
+    }
+
+    /**
+     * Computes the values of the cyclic group whose header is at the given
+     * position of the schedule, and returns the position after the group.
+     */
+    int propagateGroup(boolean[] values, int[] schedule, int header)
+    {
+        // Iterate the cyclic group up from all-false until it is stable.
+        int start = header + 1;
+        int end = start - schedule[header];
+        for (int j = start; j < end; j++) {
+            values[schedule[j]] = false;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int j = start; j < end; j++) {
+                int member = schedule[j];
+                boolean value = computeValue(values, member);
+                if (value != values[member]) {
+                    values[member] = value;
+                    changed = true;
+                }
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Computes the value of a single gate from the values of its inputs.
+     */
+    boolean computeValue(boolean[] values, int c)
+    {
+        int start = inputOffsets[c];
+        int end = inputOffsets[c + 1];
+        switch (types[c]) {
+        case TYPE_AND:
+            for (int k = start; k < end; k++) {
+                if (!values[inputs[k]]) {
+                    return false;
+                }
+            }
+            return true;
+        case TYPE_NOT:
+            return !values[inputs[start]];
+        case TYPE_TRUE:
+            return true;
+        case TYPE_FALSE:
+            return false;
+        default:
+            // Ors, transitions and view propositions: a proposition with no
+            // inputs is false, and one with several inputs acts as an or.
+            for (int k = start; k < end; k++) {
+                if (values[inputs[k]]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sets the values of the constant components. This only needs to be done
+     * once for each value array.
+     */
+    void initializeConstants(boolean[] values)
+    {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == TYPE_TRUE) {
+                values[i] = true;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #propagate(boolean[], int[])}, but over words that each
+     * hold the values of 64 independent evaluations, one per bit.
+     */
+    void propagate(long[] values, int[] schedule)
+    {
+        int i = 0;
+        while (i < schedule.length) {
+            int c = schedule[i];
+            if (c >= 0) {
+                values[c] = computeValue(values, c);
+                i++;
+            } else {
+                // Each bit goes through the same iterations as it would on
+                // its own, and stays put once its own evaluation is stable.
+                int start = i + 1;
+                int end = start - c;
+                for (int j = start; j < end; j++) {
+                    values[schedule[j]] = 0;
+                }
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    for (int j = start; j < end; j++) {
+                        int member = schedule[j];
+                        long value = computeValue(values, member);
+                        if (value != values[member]) {
+                            values[member] = value;
+                            changed = true;
+                        }
+                    }
+                }
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #computeValue(boolean[], int)}, but over words that each
+     * hold the values of 64 independent evaluations.
+     */
+    long computeValue(long[] values, int c)
+    {
+        int start = inputOffsets[c];
+        int end = inputOffsets[c + 1];
+        switch (types[c]) {
+        case TYPE_AND:
+            long and = -1L;
+            for (int k = start; k < end; k++) {
+                and &= values[inputs[k]];
+            }
+            return and;
+        case TYPE_NOT:
+            return ~values[inputs[start]];
+        case TYPE_TRUE:
+            return -1L;
+        case TYPE_FALSE:
+            return 0;
+        default:
+            long or = 0;
+            for (int k = start; k < end; k++) {
+                or |= values[inputs[k]];
+            }
+            return or;
+        }
+    }
+
+    /**
+     * Like {@link #initializeConstants(boolean[])}, but over words that each
+     * hold the values of 64 independent evaluations.
+     */
+    void initializeConstants(long[] values)
+    {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == TYPE_TRUE) {
+                values[i] = -1L;
+            }
+        }
+    }
+
+    private boolean isSelfLoop(int c)
+    {
+        for (int k = inputOffsets[c]; k < inputOffsets[c + 1]; k++) {
+            if (inputs[k] == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isComputed(int c)
+    {
+        switch (types[c]) {
+        case TYPE_PROPOSITION:
+        case TYPE_TRANSITION:
+        case TYPE_AND:
+        case TYPE_OR:
+        case TYPE_NOT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Groups the computed components into strongly connected components,
+     * using an iterative version of Tarjan's algorithm, and returns them in
+     * topological order. Also marks the components that depend on an input
+     * or INIT proposition.
+     */
+    private List<int[]> getEvaluationGroups(boolean[] dependsOnMoves)
+    {
+        int n = types.length;
+        // Tarjan's algorithm walks edges from each component to its inputs,
+        // so groups come out with every group after all the groups it reads.
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] callStack = new int[n];
+        int[] edgeCursor = new int[n];
+        int nextIndex = 1;
+        List<int[]> groups = new ArrayList<int[]>();
+
+        for (int root = 0; root < n; root++) {
+            if (!isComputed(root) || index[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            callStack[depth] = root;
+            index[root] = lowLink[root] = nextIndex++;
+            edgeCursor[root] = inputOffsets[root];
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int v = callStack[depth];
+                if (edgeCursor[v] < inputOffsets[v + 1]) {
+                    int w = inputs[edgeCursor[v]++];
+                    if (!isComputed(w)) {
+                        continue;
+                    }
+                    if (index[w] == 0) {
+                        index[w] = lowLink[w] = nextIndex++;
+                        edgeCursor[w] = inputOffsets[w];
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[++depth] = w;
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                } else {
+                    if (lowLink[v] == index[v]) {
+                        int size = 0;
+                        while (stack[stackSize - 1 - size] != v) {
+                            size++;
+                        }
+                        size++;
+                        int[] group = new int[size];
+                        for (int k = 0; k < size; k++) {
+                            int w = stack[--stackSize];
+                            onStack[w] = false;
+                            group[size - 1 - k] = w;
+                        }
+                        groups.add(group);
+                    }
+                    depth--;
+                    if (depth >= 0) {
+                        int parent = callStack[depth];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                    }
+                }
+            }
+        }
+
+        for (int[] group : groups) {
+            boolean depends = false;
+            for (int c : group) {
+                for (int k = inputOffsets[c]; k < inputOffsets[c + 1] && !depends; k++) {
+                    int input = inputs[k];
+                    depends = types[input] == TYPE_INPUT || types[input] == TYPE_INIT || dependsOnMoves[input];
+                }
+            }
+            for (int c : group) {
+                dependsOnMoves[c] = depends;
+            }
+        }
+        return groups;
+    }
+
+    private static int getGoalValue(GdlSentence goalSentence)
+    {
+        GdlRelation relation = (GdlRelation) goalSentence;
+        try {
+            return Integer.parseInt(relation.get(1).toString());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int[] toIntArray(List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,374 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.ImmutablePropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.cache.PropNetCache;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.RolloutContext;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * CompiledPropNetStateMachine is a complete propnet-based state machine. It
+ * builds a {@link PropNet} with the {@link OptimizingPropNetFactory}, flattens
+ * it into a {@link CompiledPropNet}, and answers every query by evaluating the
+ * flattened network over a primitive value array in topological order.
+ * States are returned as {@link PropNetMachineState}s, which are bitsets over
+ * the base propositions.
+ * <p>
+ * The values computed for the most recently seen state are kept, so asking
+ * for the legal moves, goals and terminality of one state only evaluates the
+ * network once. Depth charges are run entirely inside the value array, without
+ * creating intermediate MachineStates, and repeated depth charges are run 64
+ * at a time by a {@link BitParallelEvaluator}.
+ * <p>
+ * Two propagation modes are available. In {@link PropagationMode#FORWARD}
+ * mode, every component that depends on the state (or on the moves) is
+ * recomputed by a full pass over the schedule. In
+ * {@link PropagationMode#DIFFERENTIAL} mode, a {@link DifferentialPropagator}
+ * only revisits the components downstream of the base and input propositions
+ * that actually changed, which is cheaper when consecutive states differ in
+ * only a few propositions, as they do in depth charges. In
+ * {@link PropagationMode#JIT} mode, forward passes run through a
+ * {@link JitPropagator} generated for the game at initialization, which
+ * trades a compile step during metagaming for faster passes afterwards.
+ * <p>
+ * Given a {@link PropNetCache}, the state machine skips building the propnet
+ * for games whose propnet is already in the cache, which leaves most of the
+ * start clock to the gamer when the same game is played again.
+ * <p>
+ * Like most state machines, this is not safe for concurrent use by multiple
+ * threads. However, the compiled propnet is immutable once built, and the
+ * {@link RolloutContext}s returned by {@link #createRolloutContext()} each
+ * have their own value array, so any number of threads can run depth charges
+ * on one instance at the same time, each through its own context.
+ */
+public class CompiledPropNetStateMachine extends StateMachine
+{
+    public enum PropagationMode {
+        /** Recompute all dependent components with a full forward pass. */
+        FORWARD,
+        /** Only recompute the components affected by changed propositions. */
+        DIFFERENTIAL,
+        /** Recompute all dependent components with generated code. */
+        JIT
+    }
+
+    private final PropagationMode mode;
+    /** Where built propnets are looked up and stored, if anywhere. */
+    private final PropNetCache cache;
+    private CompiledPropNet net;
+    /** Only used in JIT mode. */
+    private JitPropagator jitPropagator;
+    private PropNetEvaluator evaluator;
+    /** Created on first use. */
+    private BitParallelEvaluator bitParallelEvaluator;
+    private MachineState initialState;
+
+    /** The state whose base values are currently loaded into the evaluator. */
+    private MachineState currentState;
+
+    public CompiledPropNetStateMachine()
+    {
+        this(PropagationMode.FORWARD);
+    }
+
+    public CompiledPropNetStateMachine(PropagationMode mode)
+    {
+        this(mode, null);
+    }
+
+    /**
+     * Creates a state machine that takes its propnets from the given cache,
+     * if the game has been seen before, and otherwise adds them to it once
+     * they're built. Pass {@link PropNetCache#getDefault()} to share built
+     * propnets across matches and runs of the player.
+     */
+    public CompiledPropNetStateMachine(PropagationMode mode, PropNetCache cache)
+    {
+        this.mode = mode;
+        this.cache = cache;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        initialize(description, Long.MAX_VALUE);
+    }
+
+    /**
+     * Builds the propnet on all available processors, and throws a
+     * RuntimeException if it isn't built by the deadline.
+     */
+    @Override
+    public void initialize(List<Gdl> description, long deadline)
+    {
+        try {
+            // Only the compact form is kept, so that the component objects
+            // can be collected before the propnet is compiled.
+            if (cache != null) {
+                initialize(cache.getOrCreate(description, deadline));
+            } else {
+                initialize(ImmutablePropNet.create(OptimizingPropNetFactory.create(description, deadline,
+                        Runtime.getRuntime().availableProcessors(), null)));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Initializes the state machine from an already-built propnet. The propnet
+     * is only read during this call, so the caller is free to discard it.
+     */
+    public void initialize(PropNet propNet)
+    {
+        initialize(ImmutablePropNet.create(propNet));
+    }
+
+    /**
+     * Initializes the state machine from an already-built immutable propnet.
+     */
+    public void initialize(ImmutablePropNet propNet)
+    {
+        net = CompiledPropNet.create(propNet);
+        jitPropagator = (mode == PropagationMode.JIT) ? PropNetCompiler.compile(net) : null;
+        evaluator = createEvaluator();
+        bitParallelEvaluator = null;
+        currentState = null;
+        initialState = PropNetMachineState.fromValues(net, evaluator.computeInitialBases());
+    }
+
+    private PropNetEvaluator createEvaluator()
+    {
+        return new PropNetEvaluator(net, mode == PropagationMode.DIFFERENTIAL, jitPropagator);
+    }
+
+    /**
+     * Returns the flattened propnet used by this state machine.
+     */
+    public CompiledPropNet getCompiledPropNet()
+    {
+        return net;
+    }
+
+    /**
+     * Returns the generated propagator, or null if this state machine is not
+     * in JIT mode.
+     */
+    public JitPropagator getJitPropagator()
+    {
+        return jitPropagator;
+    }
+
+    public PropagationMode getPropagationMode()
+    {
+        return mode;
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return net.getRoles();
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        loadState(state);
+        return evaluator.isTerminal();
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        loadState(state);
+        int goal = evaluator.getGoal(getRoleIndices().get(role));
+        if (goal < 0) {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        loadState(state);
+        int r = getRoleIndices().get(role);
+        int[] legals = net.legalComponents[r];
+        List<Move> moves = new ArrayList<Move>();
+        for (int i = 0; i < legals.length; i++) {
+            if (evaluator.isTrue(legals[i])) {
+                moves.add(net.legalMoves[r][i]);
+            }
+        }
+        if (moves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        loadState(state);
+        return evaluator.computeNextState(moves);
+    }
+
+    @Override
+    public long getZobristHash(MachineState state)
+    {
+        return toPropNetState(state).getZobristHash();
+    }
+
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList)
+    {
+        return PropNetMachineState.fromSentences(net, sentenceList);
+    }
+
+    @Override
+    public MachineState performDepthCharge(MachineState state, final int[] theDepth) throws TransitionDefinitionException, MoveDefinitionException
+    {
+        loadState(state);
+        int result = evaluator.performDepthCharge(ThreadLocalRandom.current(), -1, -1);
+        if (result < 0) {
+            currentState = null;
+            throw new MoveDefinitionException(state, net.getRoles().get(-1 - result));
+        }
+        if (theDepth != null)
+            theDepth[0] = result;
+
+        // The evaluator already holds the terminal state, so record it as
+        // the current state to let the caller read its goals for free.
+        currentState = evaluator.getCurrentState();
+        return currentState;
+    }
+
+    /**
+     * Runs the depth charges 64 at a time, with a {@link BitParallelEvaluator}.
+     */
+    @Override
+    public void getAverageDiscountedScoresFromRepeatedDepthCharges(MachineState state, double[] avgScores, double[] avgDepth, double discountFactor, int repetitions) throws MoveDefinitionException, GoalDefinitionException
+    {
+        if (bitParallelEvaluator == null) {
+            bitParallelEvaluator = createBitParallelEvaluator();
+        }
+        bitParallelEvaluator.getAverageDiscountedScores(state, avgScores, avgDepth, discountFactor, repetitions, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Returns a new evaluator running 64 states of this state machine's
+     * propnet at once. Batches of depth charges are much cheaper that way
+     * than one at a time.
+     */
+    public BitParallelEvaluator createBitParallelEvaluator()
+    {
+        return new BitParallelEvaluator(net);
+    }
+
+    /**
+     * Returns a rollout context with its own {@link PropNetEvaluator}, in the
+     * same propagation mode as this state machine. Playouts run entirely in
+     * the context's value array, without creating any objects per move, and
+     * don't touch the state of this state machine, so contexts can be used
+     * concurrently from different threads.
+     */
+    @Override
+    public RolloutContext createRolloutContext()
+    {
+        return new PropNetRolloutContext();
+    }
+
+    private class PropNetRolloutContext extends RolloutContext
+    {
+        private final PropNetEvaluator rolloutEvaluator = createEvaluator();
+        private BitParallelEvaluator bitParallelEvaluator;
+
+        PropNetRolloutContext()
+        {
+            super(CompiledPropNetStateMachine.this, false);
+        }
+
+        @Override
+        public int performRollout(MachineState state, int[] goals) throws MoveDefinitionException, GoalDefinitionException
+        {
+            return performRollout(state, -1, -1, goals);
+        }
+
+        @Override
+        public int performRollout(MachineState state, Role role, Move move, int[] goals) throws MoveDefinitionException, GoalDefinitionException
+        {
+            int r = getRoleIndices().get(role);
+            return performRollout(state, r, net.getInputIndex(r, move), goals);
+        }
+
+        @Override
+        public void getAverageDiscountedScores(MachineState state, double[] avgScores, double[] avgDepth, double discountFactor, int repetitions) throws MoveDefinitionException, GoalDefinitionException
+        {
+            if (bitParallelEvaluator == null) {
+                bitParallelEvaluator = createBitParallelEvaluator();
+            }
+            bitParallelEvaluator.getAverageDiscountedScores(state, avgScores, avgDepth, discountFactor, repetitions, ThreadLocalRandom.current());
+        }
+
+        private int performRollout(MachineState state, int fixedRole, int fixedInput, int[] goals) throws MoveDefinitionException, GoalDefinitionException
+        {
+            rolloutEvaluator.loadState(toPropNetState(state));
+            int result = rolloutEvaluator.performDepthCharge(ThreadLocalRandom.current(), fixedRole, fixedInput);
+            if (result < 0) {
+                throw new MoveDefinitionException(state, net.getRoles().get(-1 - result));
+            }
+            for (int r = 0; r < goals.length; r++) {
+                goals[r] = rolloutEvaluator.getGoal(r);
+                if (goals[r] < 0) {
+                    throw new GoalDefinitionException(rolloutEvaluator.getCurrentState(), net.getRoles().get(r));
+                }
+            }
+            return result;
+        }
+    }
+
+    private PropNetMachineState toPropNetState(MachineState state)
+    {
+        if (state instanceof PropNetMachineState && ((PropNetMachineState) state).getNet() == net) {
+            return (PropNetMachineState) state;
+        }
+        return PropNetMachineState.fromSentences(net, state.getContents());
+    }
+
+    /**
+     * Loads the given state into the evaluator, unless that state is already
+     * loaded.
+     */
+    private void loadState(MachineState state)
+    {
+        if (state == currentState) {
+            return;
+        }
+        PropNetMachineState bitState = toPropNetState(state);
+        if (bitState == state && state.equals(currentState)) {
+            return;
+        }
+        evaluator.loadState(bitState);
+        currentState = state;
+    }
+}
@@ -0,0 +1,228 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+
+/**
+ * DifferentialPropagator keeps the value array of a {@link CompiledPropNet}
+ * up to date in an event-driven way. Instead of evaluating every component
+ * for each new state, only the components downstream of a changed base or
+ * input proposition are revisited.
+ * <p>
+ * For every component, the propagator maintains the number of its inputs
+ * that are currently true. When a component changes value, the counters of
+ * its outputs are adjusted, and their new values are read off the counters
+ * without looking at their other inputs: an and-gate is true when all of its
+ * inputs are true, a not-gate when none is, and anything else when at least
+ * one is. Only the outputs that actually flip are pushed onto a work stack
+ * for their own outputs to be updated in turn.
+ * <p>
+ * Counters alone would let a positive loop keep itself true, so cyclic
+ * groups of components are instead recomputed from scratch, up to their
+ * least fixed point, whenever any of their inputs changes. Pending cyclic
+ * groups are kept in a heap and processed in topological order once the
+ * work stack is empty.
+ * <p>
+ * A DifferentialPropagator is not thread-safe.
+ */
+final class DifferentialPropagator
+{
+    private final CompiledPropNet net;
+    private final boolean[] values;
+    private final int[] trueInputCounts;
+
+    /**
+     * Components that have flipped but whose outputs have not been updated
+     * yet, along with the value they flipped to.
+     */
+    private int[] stack;
+    private boolean[] stackValues;
+    private int stackSize;
+
+    /** Min-heap of the cyclic groups waiting to be recomputed. */
+    private final int[] heap;
+    private int heapSize;
+    private final boolean[] queued;
+
+    /** Scratch space for the previous values of a cyclic group's members. */
+    private final boolean[] previousValues;
+
+    /**
+     * Creates a propagator working on the given value array. The values of
+     * all computed components are recomputed from the base, input and INIT
+     * propositions currently set in the array.
+     */
+    DifferentialPropagator(CompiledPropNet net, boolean[] values)
+    {
+        this.net = net;
+        this.values = values;
+        int n = net.getNumComponents();
+        int numGroups = net.cyclicGroups.length;
+        trueInputCounts = new int[n];
+        heap = new int[numGroups];
+        queued = new boolean[numGroups];
+        previousValues = new boolean[n];
+        stack = new int[64];
+        stackValues = new boolean[64];
+
+        net.initializeConstants(values);
+        net.propagate(values, net.stateSchedule);
+        net.propagate(values, net.moveSchedule);
+        for (int c = 0; c < n; c++) {
+            int count = 0;
+            for (int k = net.inputOffsets[c]; k < net.inputOffsets[c + 1]; k++) {
+                if (values[net.inputs[k]]) {
+                    count++;
+                }
+            }
+            trueInputCounts[c] = count;
+        }
+    }
+
+    /**
+     * Sets the value of a base, input or INIT proposition. The change only
+     * reaches the rest of the network on the next call to {@link #propagate()}.
+     */
+    void set(int c, boolean value)
+    {
+        if (values[c] != value) {
+            values[c] = value;
+            push(c, value);
+        }
+    }
+
+    /**
+     * Updates every component affected by the changes made since the last
+     * call, so that the value array is consistent again.
+     */
+    void propagate()
+    {
+        while (true) {
+            while (stackSize > 0) {
+                stackSize--;
+                notifyOutputs(stack[stackSize], stackValues[stackSize], -1);
+            }
+            if (heapSize == 0) {
+                break;
+            }
+            int g = poll();
+            queued[g] = false;
+            recomputeCyclicGroup(g);
+        }
+    }
+
+    private boolean valueFromCount(int c)
+    {
+        int count = trueInputCounts[c];
+        switch (net.types[c]) {
+        case CompiledPropNet.TYPE_AND:
+            return count == net.inputOffsets[c + 1] - net.inputOffsets[c];
+        case CompiledPropNet.TYPE_NOT:
+            return count == 0;
+        default:
+            return count > 0;
+        }
+    }
+
+    private void recomputeCyclicGroup(int g)
+    {
+        int start = net.groupOffsets[g];
+        int end = net.groupOffsets[g + 1];
+        for (int j = start; j < end; j++) {
+            int member = net.groupMembers[j];
+            previousValues[member] = values[member];
+            values[member] = false;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int j = start; j < end; j++) {
+                int member = net.groupMembers[j];
+                boolean value = net.computeValue(values, member);
+                if (value != values[member]) {
+                    values[member] = value;
+                    changed = true;
+                }
+            }
+        }
+        for (int j = start; j < end; j++) {
+            int member = net.groupMembers[j];
+            if (values[member] != previousValues[member]) {
+                notifyOutputs(member, values[member], g);
+            }
+        }
+    }
+
+    /**
+     * Adjusts the true-input counters of the outputs of a component that has
+     * just changed value. Outputs that flip as a result are pushed onto the
+     * work stack, and outputs in other cyclic groups than the given one (the
+     * group being recomputed, if any) have their groups queued.
+     */
+    private void notifyOutputs(int c, boolean value, int currentGroup)
+    {
+        int delta = value ? 1 : -1;
+        for (int k = net.outputOffsets[c]; k < net.outputOffsets[c + 1]; k++) {
+            int output = net.outputs[k];
+            int g = net.componentGroups[output];
+            if (net.cyclicGroups[g]) {
+                if (g != currentGroup && !queued[g]) {
+                    queued[g] = true;
+                    offer(g);
+                }
+            } else {
+                trueInputCounts[output] += delta;
+                boolean outputValue = valueFromCount(output);
+                if (outputValue != values[output]) {
+                    values[output] = outputValue;
+                    push(output, outputValue);
+                }
+            }
+        }
+    }
+
+    private void push(int c, boolean value)
+    {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+            stackValues = Arrays.copyOf(stackValues, stackSize * 2);
+        }
+        stack[stackSize] = c;
+        stackValues[stackSize] = value;
+        stackSize++;
+    }
+
+    private void offer(int g)
+    {
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= g) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = g;
+    }
+
+    private int poll()
+    {
+        int result = heap[0];
+        int last = heap[--heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+/**
+ * JitPropagator is the base class of the propagators generated by the
+ * {@link PropNetCompiler}. A generated propagator computes the schedules of
+ * one {@link CompiledPropNet} as straight-line code, one statement per gate
+ * with the indices of its inputs written in, so the JIT compiler sees plain
+ * array accesses instead of the interpreter's loop over the type, offset and
+ * input arrays.
+ * <p>
+ * Cyclic groups, which have to be iterated to a fixed point, and very wide
+ * gates are left to the interpreter, through the helpers below.
+ * <p>
+ * This is public so that generated classes, which are defined in their own
+ * class loader, can extend it. A propagator holds no evaluation state, so it
+ * can be shared by any number of evaluators and threads.
+ */
+public abstract class JitPropagator
+{
+    private final CompiledPropNet net;
+
+    /** Statistics filled in by the compiler, for reporting. */
+    long compileTime;
+    int numMethods;
+    int largestMethod;
+
+    protected JitPropagator(CompiledPropNet net)
+    {
+        this.net = net;
+    }
+
+    /**
+     * Computes the components of the state schedule, like
+     * {@link CompiledPropNet#propagate(boolean[], int[])} would.
+     */
+    public abstract void propagateState(boolean[] values);
+
+    /**
+     * Computes the components of the move schedule, like
+     * {@link CompiledPropNet#propagate(boolean[], int[])} would.
+     */
+    public abstract void propagateMoves(boolean[] values);
+
+    protected final void propagateStateGroup(boolean[] values, int header)
+    {
+        net.propagateGroup(values, net.stateSchedule, header);
+    }
+
+    protected final void propagateMoveGroup(boolean[] values, int header)
+    {
+        net.propagateGroup(values, net.moveSchedule, header);
+    }
+
+    protected final boolean computeValue(boolean[] values, int component)
+    {
+        return net.computeValue(values, component);
+    }
+
+    /**
+     * Returns how long generating and loading the propagator took, in
+     * milliseconds.
+     */
+    public long getCompileTime()
+    {
+        return compileTime;
+    }
+
+    /**
+     * Returns the number of methods the gates were split into.
+     */
+    public int getNumMethods()
+    {
+        return numMethods;
+    }
+
+    /**
+     * Returns the bytecode length of the largest generated method, which is
+     * kept under the size HotSpot refuses to compile by default.
+     */
+    public int getLargestMethod()
+    {
+        return largestMethod;
+    }
+}
@@ -0,0 +1,208 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+import org.ggp.base.util.loader.GeneratedClassLoader;
+import org.ggp.base.util.logging.GamerLogger;
+
+/**
+ * PropNetCompiler generates a {@link JitPropagator} for a
+ * {@link CompiledPropNet}. Each scheduled gate becomes one assignment to the
+ * value array, such as <tt>v[12] = v[3] && !v[7] ...</tt>, with constant
+ * inputs folded away.
+ * <p>
+ * HotSpot does not compile methods of more than 8000 bytes of bytecode, and
+ * would leave a propagator made of one huge method to the interpreter, so
+ * the assignments are split into methods of a bounded estimated size, which
+ * are in turn called from as few levels of dispatch methods as needed.
+ */
+final class PropNetCompiler
+{
+    /** The estimated bytecode size at which a method is closed. */
+    private static final int METHOD_BUDGET = 6000;
+    /** The estimated bytecode size of a call to a generated method. */
+    private static final int CALL_SIZE = 5;
+    /** Gates with more inputs than this are computed by the interpreter. */
+    private static final int MAX_INLINED_INPUTS = 64;
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private final CompiledPropNet net;
+    private final CtClass generated;
+    private int numMethods;
+    private int largestMethod;
+
+    private PropNetCompiler(CompiledPropNet net, CtClass generated)
+    {
+        this.net = net;
+        this.generated = generated;
+    }
+
+    /**
+     * Generates, loads and instantiates a propagator for the given propnet.
+     */
+    static JitPropagator compile(CompiledPropNet net)
+    {
+        long startTime = System.currentTimeMillis();
+        try {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new ClassClassPath(JitPropagator.class));
+            String className = JitPropagator.class.getPackage().getName() + ".GeneratedPropagator" + classCount.incrementAndGet();
+            CtClass generated = pool.makeClass(className, pool.get(JitPropagator.class.getName()));
+            generated.addConstructor(CtNewConstructor.make(
+                    "public " + generated.getSimpleName() + "(" + CompiledPropNet.class.getName() + " net) { super(net); }", generated));
+
+            PropNetCompiler compiler = new PropNetCompiler(net, generated);
+            compiler.compileSchedule("propagateState", net.stateSchedule, "propagateStateGroup");
+            compiler.compileSchedule("propagateMoves", net.moveSchedule, "propagateMoveGroup");
+
+            byte[] bytecode = generated.toBytecode();
+            generated.detach();
+            Class<?> propagatorClass = new GeneratedClassLoader(JitPropagator.class.getClassLoader()).define(className, bytecode);
+            JitPropagator propagator = (JitPropagator) propagatorClass.getConstructor(CompiledPropNet.class).newInstance(net);
+            propagator.compileTime = System.currentTimeMillis() - startTime;
+            propagator.numMethods = compiler.numMethods;
+            propagator.largestMethod = compiler.largestMethod;
+            GamerLogger.log("StateMachine", "Compiled " + (net.stateSchedule.length + net.moveSchedule.length)
+                    + " scheduled components into " + compiler.numMethods + " methods of at most "
+                    + compiler.largestMethod + " bytes in " + propagator.compileTime + " ms.");
+            return propagator;
+        } catch (CannotCompileException e) {
+            throw new IllegalStateException("Could not compile the propnet", e);
+        } catch (NotFoundException e) {
+            throw new IllegalStateException("Could not compile the propnet", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not compile the propnet", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load the compiled propnet", e);
+        }
+    }
+
+    /**
+     * Adds the public method computing the given schedule, along with the
+     * methods it calls.
+     */
+    private void compileSchedule(String name, int[] schedule, String groupHelper) throws CannotCompileException
+    {
+        List<String> chunks = new ArrayList<String>();
+        StringBuilder code = new StringBuilder();
+        int size = 0;
+        int i = 0;
+        while (i < schedule.length) {
+            int c = schedule[i];
+            int statementSize;
+            if (c >= 0) {
+                statementSize = writeGate(code, c);
+                i++;
+            } else {
+                code.append(groupHelper).append("(v, ").append(i).append(");\n");
+                statementSize = 10;
+                i += 1 - c;
+            }
+            size += statementSize;
+            if (size >= METHOD_BUDGET) {
+                chunks.add(addMethod("private", name + chunks.size(), code));
+                code.setLength(0);
+                size = 0;
+            }
+        }
+        if (size > 0) {
+            chunks.add(addMethod("private", name + chunks.size(), code));
+        }
+
+        // Add levels of dispatch until the calls fit in a single method.
+        int level = 0;
+        while (chunks.size() * CALL_SIZE > METHOD_BUDGET) {
+            List<String> dispatchers = new ArrayList<String>();
+            int perMethod = METHOD_BUDGET / CALL_SIZE;
+            for (int start = 0; start < chunks.size(); start += perMethod) {
+                StringBuilder calls = new StringBuilder();
+                for (String chunk : chunks.subList(start, Math.min(start + perMethod, chunks.size()))) {
+                    calls.append(chunk).append("(v);\n");
+                }
+                dispatchers.add(addMethod("private", name + "Level" + level + "_" + dispatchers.size(), calls));
+            }
+            chunks = dispatchers;
+            level++;
+        }
+        StringBuilder calls = new StringBuilder();
+        for (String chunk : chunks) {
+            calls.append(chunk).append("(v);\n");
+        }
+        addMethod("public", name, calls);
+    }
+
+    private String addMethod(String modifier, String name, CharSequence body) throws CannotCompileException
+    {
+        CtMethod method = CtNewMethod.make(modifier + " void " + name + "(boolean[] v) {\n" + body + "}", generated);
+        generated.addMethod(method);
+        numMethods++;
+        largestMethod = Math.max(largestMethod, method.getMethodInfo().getCodeAttribute().getCodeLength());
+        return name;
+    }
+
+    /**
+     * Writes the assignment computing the given gate, and returns an
+     * estimate of its bytecode size.
+     */
+    private int writeGate(StringBuilder code, int c)
+    {
+        byte type = net.types[c];
+        code.append("v[").append(c).append("] = ");
+        if (type == CompiledPropNet.TYPE_NOT) {
+            int input = net.inputs[net.inputOffsets[c]];
+            byte inputType = net.types[input];
+            if (inputType == CompiledPropNet.TYPE_TRUE || inputType == CompiledPropNet.TYPE_FALSE) {
+                code.append(inputType == CompiledPropNet.TYPE_FALSE);
+            } else {
+                code.append("!v[").append(input).append("]");
+            }
+            code.append(";\n");
+            return 16;
+        }
+
+        // Ands are decided by a false input, and everything else, which acts
+        // as an or, by a true one; inputs of the other constant are dropped.
+        boolean isAnd = type == CompiledPropNet.TYPE_AND;
+        byte deciding = isAnd ? CompiledPropNet.TYPE_FALSE : CompiledPropNet.TYPE_TRUE;
+        byte neutral = isAnd ? CompiledPropNet.TYPE_TRUE : CompiledPropNet.TYPE_FALSE;
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int k = net.inputOffsets[c]; k < net.inputOffsets[c + 1]; k++) {
+            int input = net.inputs[k];
+            if (net.types[input] == deciding) {
+                code.append(!isAnd).append(";\n");
+                return 8;
+            }
+            if (net.types[input] != neutral) {
+                inputs.add(input);
+            }
+        }
+        if (inputs.isEmpty()) {
+            code.append(isAnd).append(";\n");
+        } else if (inputs.size() > MAX_INLINED_INPUTS) {
+            code.append("computeValue(v, ").append(c).append(");\n");
+        } else {
+            String operator = isAnd ? " && " : " || ";
+            for (int k = 0; k < inputs.size(); k++) {
+                if (k > 0) {
+                    code.append(operator);
+                }
+                code.append("v[").append(inputs.get(k)).append("]");
+            }
+            code.append(";\n");
+        }
+        return 12 + 8 * Math.min(inputs.size(), MAX_INLINED_INPUTS);
+    }
+}
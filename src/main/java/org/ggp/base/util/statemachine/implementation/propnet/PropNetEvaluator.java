@@ -0,0 +1,270 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.statemachine.Move;
+
+/**
+ * PropNetEvaluator holds the mutable evaluation state for a
+ * {@link CompiledPropNet}: the value of every component, the input
+ * propositions currently set, and, in differential mode, the
+ * {@link DifferentialPropagator} that keeps the values up to date. Forward
+ * passes run through a {@link JitPropagator} when one is given.
+ * <p>
+ * The compiled propnet itself is immutable, so any number of evaluators can
+ * share it. Each evaluator must only be used by one thread at a time.
+ */
+final class PropNetEvaluator
+{
+    private final CompiledPropNet net;
+    private final boolean[] values;
+    /** The input propositions currently set to true, one slot per role. */
+    private final int[] activeInputs;
+    /** Only used in differential mode. */
+    private final DifferentialPropagator propagator;
+    /** Only used in forward mode, if the propnet was compiled. */
+    private final JitPropagator jitPropagator;
+    /**
+     * The state whose base values are loaded, or null if they were computed
+     * in place, as by a depth charge.
+     */
+    private PropNetMachineState loadedState;
+
+    PropNetEvaluator(CompiledPropNet net, boolean differential, JitPropagator jitPropagator)
+    {
+        this.net = net;
+        values = new boolean[net.getNumComponents()];
+        net.initializeConstants(values);
+        activeInputs = new int[net.roles.size()];
+        Arrays.fill(activeInputs, -1);
+        propagator = differential ? new DifferentialPropagator(net, values) : null;
+        this.jitPropagator = differential ? null : jitPropagator;
+    }
+
+    /**
+     * Computes the base values of the initial state. When the propnet
+     * contains (init ...) propositions, these are read directly, since they
+     * only depend on constant relations. Otherwise, the INIT proposition is
+     * set and the transitions are read, as in the traditional propnet
+     * approach. The evaluator is left without a state loaded.
+     */
+    boolean[] computeInitialBases()
+    {
+        for (int i = 0; i < net.numBases; i++) {
+            setValue(i, false);
+        }
+        clearInputs();
+        if (net.initComponent >= 0) {
+            setValue(net.initComponent, true);
+        }
+        propagateState();
+        propagateMoves();
+        boolean[] bases = new boolean[net.numBases];
+        for (int i = 0; i < net.numBases; i++) {
+            if (net.hasInitPropositions) {
+                bases[i] = net.baseInits[i] >= 0 && values[net.baseInits[i]];
+            } else {
+                bases[i] = values[net.baseTransitions[i]];
+            }
+        }
+        if (net.initComponent >= 0) {
+            setValue(net.initComponent, false);
+            propagateMoves();
+        }
+        loadedState = null;
+        return bases;
+    }
+
+    /**
+     * Loads the base values of the given state and computes everything that
+     * depends on them.
+     */
+    void loadState(PropNetMachineState state)
+    {
+        for (int i = 0; i < net.numBases; i++) {
+            setValue(i, state.isTrue(i));
+        }
+        propagateState();
+        loadedState = state;
+    }
+
+    /**
+     * Returns a state holding the base values currently loaded.
+     */
+    PropNetMachineState getCurrentState()
+    {
+        loadedState = PropNetMachineState.fromValues(net, values);
+        return loadedState;
+    }
+
+    boolean isTerminal()
+    {
+        return net.terminalComponent >= 0 && values[net.terminalComponent];
+    }
+
+    boolean isTrue(int component)
+    {
+        return values[component];
+    }
+
+    /**
+     * Returns the goal value for the role with the given index in the state
+     * currently loaded, or -1 if there is not exactly one true goal.
+     */
+    int getGoal(int role)
+    {
+        int[] goals = net.goalComponents[role];
+        int goal = -1;
+        for (int i = 0; i < goals.length; i++) {
+            if (values[goals[i]]) {
+                if (goal != -1) {
+                    return -1;
+                }
+                goal = net.goalValues[role][i];
+            }
+        }
+        return goal;
+    }
+
+    /**
+     * Sets the given moves and computes the next state, which is returned.
+     * When the current state was loaded from a PropNetMachineState, the
+     * Zobrist hash of the next state is computed incrementally, from the
+     * base propositions that changed.
+     */
+    PropNetMachineState computeNextState(List<Move> moves)
+    {
+        clearInputs();
+        for (int r = 0; r < activeInputs.length; r++) {
+            setInput(r, net.getInputIndex(r, moves.get(r)));
+        }
+        propagateMoves();
+        long[] bits = new long[PropNetMachineState.getNumWords(net.numBases)];
+        for (int i = 0; i < net.numBases; i++) {
+            if (values[net.baseTransitions[i]]) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        if (loadedState == null) {
+            return new PropNetMachineState(net, bits);
+        }
+        long[] previousBits = loadedState.getBits();
+        long hash = loadedState.getZobristHash();
+        for (int w = 0; w < bits.length; w++) {
+            long changed = bits[w] ^ previousBits[w];
+            while (changed != 0) {
+                hash ^= net.zobristKeys[(w << 6) + Long.numberOfTrailingZeros(changed)];
+                changed &= changed - 1;
+            }
+        }
+        return new PropNetMachineState(net, bits, hash);
+    }
+
+    /**
+     * Makes random joint moves from the state currently loaded until a
+     * terminal state is reached, and leaves that state loaded. If fixedRole
+     * is not -1, that role makes the move with the given input proposition
+     * in the first joint move, instead of a random one. Returns the number
+     * of moves made, or -1 - r if role r has no legal moves in some state
+     * along the way.
+     */
+    int performDepthCharge(Random random, int fixedRole, int fixedInput)
+    {
+        loadedState = null;
+        int depth = 0;
+        while (!isTerminal()) {
+            depth++;
+            clearInputs();
+            for (int r = 0; r < activeInputs.length; r++) {
+                if (r == fixedRole && depth == 1) {
+                    setInput(r, fixedInput);
+                    continue;
+                }
+                int[] legals = net.legalComponents[r];
+                int numLegal = 0;
+                for (int i = 0; i < legals.length; i++) {
+                    if (values[legals[i]]) {
+                        numLegal++;
+                    }
+                }
+                if (numLegal == 0) {
+                    return -1 - r;
+                }
+                int choice = random.nextInt(numLegal);
+                for (int i = 0; i < legals.length; i++) {
+                    if (values[legals[i]] && choice-- == 0) {
+                        setInput(r, net.legalInputs[r][i]);
+                        break;
+                    }
+                }
+            }
+            propagateMoves();
+            for (int i = 0; i < net.numBases; i++) {
+                setValue(i, values[net.baseTransitions[i]]);
+            }
+            propagateState();
+        }
+        return depth;
+    }
+
+    private void setInput(int role, int input)
+    {
+        if (input >= 0) {
+            setValue(input, true);
+            activeInputs[role] = input;
+        }
+    }
+
+    private void clearInputs()
+    {
+        for (int r = 0; r < activeInputs.length; r++) {
+            if (activeInputs[r] >= 0) {
+                setValue(activeInputs[r], false);
+                activeInputs[r] = -1;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a base, input or INIT proposition.
+     */
+    private void setValue(int c, boolean value)
+    {
+        if (propagator != null) {
+            propagator.set(c, value);
+        } else {
+            values[c] = value;
+        }
+    }
+
+    /**
+     * Brings the components that depend on the base propositions up to date.
+     */
+    private void propagateState()
+    {
+        if (propagator != null) {
+            propagator.propagate();
+        } else if (jitPropagator != null) {
+            jitPropagator.propagateState(values);
+        } else {
+            net.propagate(values, net.stateSchedule);
+        }
+    }
+
+    /**
+     * Brings the components that depend on the input propositions up to date.
+     * The state must already have been propagated.
+     */
+    private void propagateMoves()
+    {
+        if (propagator != null) {
+            propagator.propagate();
+        } else if (jitPropagator != null) {
+            jitPropagator.propagateMoves(values);
+        } else {
+            net.propagate(values, net.moveSchedule);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.ZobristHash;
+
+/**
+ * PropNetMachineState is a MachineState represented as a bitset over the base
+ * propositions of a {@link CompiledPropNet}: bit i is set when the base
+ * proposition with index i is true. This makes states cheap to create, copy,
+ * hash and compare, which matters for caches and transposition tables.
+ * <p>
+ * The 64-bit {@link ZobristHash} of the state is known from the moment the
+ * state is created, either computed from the bitset or updated incrementally
+ * from the previous state, and is used to short-circuit equality checks
+ * between states of the same propnet. The GDL contents of the state are only
+ * materialised when {@link #getContents()} is first called, so existing code
+ * that works with sentence sets keeps working.
+ * <p>
+ * To stay interchangeable with plain MachineStates, {@link #hashCode()} is the
+ * same value a plain MachineState with the same contents would return, and
+ * states from different propnets (or plain states) are compared by contents.
+ * <p>
+ * PropNetMachineStates are immutable.
+ */
+public final class PropNetMachineState extends MachineState
+{
+    private final CompiledPropNet net;
+    private final long[] bits;
+    private final long zobristHash;
+
+    private int hashCode;
+    private volatile Set<GdlSentence> contents;
+
+    /**
+     * Creates a state from the given bitset. The array is not copied, so the
+     * caller must not modify it afterwards.
+     */
+    PropNetMachineState(CompiledPropNet net, long[] bits)
+    {
+        this(net, bits, computeZobristHash(net, bits));
+    }
+
+    /**
+     * Creates a state from the given bitset and its already-known Zobrist
+     * hash. The array is not copied, so the caller must not modify it
+     * afterwards.
+     */
+    PropNetMachineState(CompiledPropNet net, long[] bits, long zobristHash)
+    {
+        this.net = net;
+        this.bits = bits;
+        this.zobristHash = zobristHash;
+    }
+
+    /**
+     * Creates a state from the first {@link CompiledPropNet#getNumBases()}
+     * entries of the given value array.
+     */
+    static PropNetMachineState fromValues(CompiledPropNet net, boolean[] values)
+    {
+        long[] bits = new long[getNumWords(net.numBases)];
+        for (int i = 0; i < net.numBases; i++) {
+            if (values[i]) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        return new PropNetMachineState(net, bits);
+    }
+
+    /**
+     * Creates a state containing the given sentences. Sentences that do not
+     * correspond to any base proposition of the propnet are ignored.
+     */
+    static PropNetMachineState fromSentences(CompiledPropNet net, Set<GdlSentence> sentences)
+    {
+        long[] bits = new long[getNumWords(net.numBases)];
+        for (GdlSentence sentence : sentences) {
+            int base = net.getBaseIndex(sentence);
+            if (base >= 0) {
+                bits[base >>> 6] |= 1L << base;
+            }
+        }
+        return new PropNetMachineState(net, bits);
+    }
+
+    static int getNumWords(int numBases)
+    {
+        return (numBases + 63) >>> 6;
+    }
+
+    CompiledPropNet getNet()
+    {
+        return net;
+    }
+
+    /**
+     * Returns true if the base proposition with the given index is true in
+     * this state.
+     */
+    public boolean isTrue(int base)
+    {
+        return (bits[base >>> 6] & (1L << base)) != 0;
+    }
+
+    /**
+     * Returns the 64-bit {@link ZobristHash} of this state, which is the same
+     * as the hash of a plain MachineState with the same contents.
+     */
+    public long getZobristHash()
+    {
+        return zobristHash;
+    }
+
+    /**
+     * Returns the bitset of this state, which must not be modified.
+     */
+    long[] getBits()
+    {
+        return bits;
+    }
+
+    @Override
+    public Set<GdlSentence> getContents()
+    {
+        Set<GdlSentence> result = contents;
+        if (result == null) {
+            Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+            for (int i = 0; i < net.numBases; i++) {
+                if (isTrue(i)) {
+                    sentences.add(net.getBaseSentence(i));
+                }
+            }
+            result = Collections.unmodifiableSet(sentences);
+            contents = result;
+        }
+        return result;
+    }
+
+    @Override
+    public MachineState clone()
+    {
+        // The state is immutable, so the bitset can be shared.
+        return new PropNetMachineState(net, bits, zobristHash);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // Matches Set.hashCode() over the contents, without building them.
+        // As with String, a zero value is simply recomputed.
+        int h = hashCode;
+        if (h == 0) {
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    h += net.baseHashCodes[(w << 6) + Long.numberOfTrailingZeros(word)];
+                    word &= word - 1;
+                }
+            }
+            hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof PropNetMachineState) {
+            PropNetMachineState other = (PropNetMachineState) o;
+            if (other.net == net) {
+                return other.zobristHash == zobristHash && Arrays.equals(other.bits, bits);
+            }
+        }
+        return super.equals(o);
+    }
+
+    /**
+     * Returns the exclusive or of the Zobrist keys of the bits set in the
+     * given bitset.
+     */
+    static long computeZobristHash(CompiledPropNet net, long[] bits)
+    {
+        long h = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                h ^= net.zobristKeys[(w << 6) + Long.numberOfTrailingZeros(word)];
+                word &= word - 1;
+            }
+        }
+        return h;
+    }
+}
@@ -10,10 +10,13 @@ import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.prover.Prover;
+import org.ggp.base.util.prover.ProverSession;
+import org.ggp.base.util.prover.ProverSessions;
 import org.ggp.base.util.prover.aima.AimaProver;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.RolloutContext;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
@@ -29,19 +32,52 @@ public class ProverStateMachine extends StateMachine
     private MachineState initialState;
     private Prover prover;
     private ImmutableList<Role> roles;
+    private final boolean tabling;
+
+    /*
+     * The legal, terminal and goal queries about a state are all answered in
+     * the context of that state, and callers usually ask several of them about
+     * the same state in a row, so each thread keeps a prover session open for
+     * the last state it asked about. The session records the prover it was
+     * opened on, so it isn't reused once the machine has been re-initialized.
+     */
+    private final ThreadLocal<StateSession> lastSession = new ThreadLocal<StateSession>();
+
+    private static final class StateSession
+    {
+        final Prover prover;
+        final MachineState state;
+        final ProverSession session;
+
+        StateSession(Prover prover, MachineState state, ProverSession session)
+        {
+            this.prover = prover;
+            this.state = state;
+            this.session = session;
+        }
+    }
 
     /**
      * Initialize must be called before using the StateMachine
      */
     public ProverStateMachine()
     {
+        this(false);
+    }
 
+    /**
+     * Creates a state machine whose prover optionally uses tabled resolution
+     * for recursive rules; see {@link AimaProver#AimaProver(List, boolean)}.
+     */
+    public ProverStateMachine(boolean tabling)
+    {
+        this.tabling = tabling;
     }
 
     @Override
     public void initialize(List<Gdl> description)
     {
-        prover = new AimaProver(description);
+        prover = new AimaProver(description, tabling);
         roles = ImmutableList.copyOf(Role.computeRoles(description));
         initialState = computeInitialState();
     }
@@ -52,10 +88,21 @@ public class ProverStateMachine extends StateMachine
         return new ProverResultParser().toState(results);
     }
 
+    private ProverSession getSession(MachineState state)
+    {
+        StateSession last = lastSession.get();
+        if (last == null || last.prover != prover || (last.state != state && !last.state.equals(state)))
+        {
+            last = new StateSession(prover, state, ProverSessions.open(prover, ProverQueryBuilder.getContext(state)));
+            lastSession.set(last);
+        }
+        return last.session;
+    }
+
     @Override
     public int getGoal(MachineState state, Role role) throws GoalDefinitionException
     {
-        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getGoalQuery(role), ProverQueryBuilder.getContext(state));
+        Set<GdlSentence> results = getSession(state).askAll(ProverQueryBuilder.getGoalQuery(role));
 
         if (results.size() != 1)
         {
@@ -85,7 +132,7 @@ public class ProverStateMachine extends StateMachine
     @Override
     public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
     {
-        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getLegalQuery(role), ProverQueryBuilder.getContext(state));
+        Set<GdlSentence> results = getSession(state).askAll(ProverQueryBuilder.getLegalQuery(role));
 
         if (results.isEmpty())
         {
@@ -111,6 +158,16 @@ public class ProverStateMachine extends StateMachine
         return new ProverResultParser().toState(results);
     }
 
+    /**
+     * The prover is thread-safe, and sessions are kept per thread, so
+     * playouts in different contexts don't need to be serialized.
+     */
+    @Override
+    public RolloutContext createRolloutContext()
+    {
+        return new RolloutContext(this, false);
+    }
+
     @Override
     public List<Role> getRoles()
     {
@@ -120,6 +177,6 @@ public class ProverStateMachine extends StateMachine
     @Override
     public boolean isTerminal(MachineState state)
     {
-        return prover.prove(ProverQueryBuilder.getTerminalQuery(), ProverQueryBuilder.getContext(state));
+        return getSession(state).prove(ProverQueryBuilder.getTerminalQuery());
     }
 }
\ No newline at end of file
@@ -1,13 +1,10 @@
 package org.ggp.base.util.symbol.factory;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
 import org.ggp.base.util.symbol.grammar.Symbol;
-import org.ggp.base.util.symbol.grammar.SymbolAtom;
-import org.ggp.base.util.symbol.grammar.SymbolList;
 import org.ggp.base.util.symbol.grammar.SymbolPool;
 
 
@@ -16,72 +13,108 @@ public final class SymbolFactory
     private SymbolFactory() {
     }
 
+    /**
+     * Parses the first symbolic expression in the given text; anything after
+     * it is ignored. Atoms are separated by whitespace and parentheses.
+     *
+     * The text is read in a single pass, without being copied or split up
+     * first, and lists are built with an explicit stack rather than by
+     * recursion, so neither the length of the text nor the nesting depth of
+     * the expression is limited by anything but memory.
+     */
     public static Symbol create(String string) throws SymbolFormatException
     {
-        try
-        {
-            String preprocessed = preprocess(string);
-            List<String> tokens = lex(preprocessed);
-            return convert(new LinkedList<String>(tokens));
-        }
-        catch (Exception e)
-        {
-            throw new SymbolFormatException(string);
-        }
+        return create((CharSequence) string);
     }
 
-    /* Private, implementation-specific methods below here */
-
-    private static Symbol convert(LinkedList<String> tokens)
+    /**
+     * Parses the first symbolic expression in the given text, as in
+     * {@link #create(String)}.
+     */
+    public static Symbol create(CharSequence string) throws SymbolFormatException
     {
-        if (tokens.getFirst().equals("("))
-        {
-            return convertList(tokens);
-        }
-        else
+        Symbol symbol = parse(string);
+        if (symbol == null)
         {
-            return convertAtom(tokens);
+            throw new SymbolFormatException(string.toString());
         }
+        return symbol;
     }
 
-    private static SymbolAtom convertAtom(LinkedList<String> tokens)
-    {
-        return SymbolPool.getAtom(tokens.removeFirst());
-    }
+    /* Private, implementation-specific methods below here */
 
-    private static SymbolList convertList(LinkedList<String> tokens)
+    /**
+     * Returns the first expression in the text, or null if the text ends
+     * before it does.
+     */
+    private static Symbol parse(CharSequence text)
     {
-        List<Symbol> contents = new ArrayList<Symbol>();
-
-        tokens.removeFirst();
-        while (!tokens.getFirst().equals(")"))
+        int length = text.length();
+        // The contents of the lists opened but not yet closed, innermost last
+        List<List<Symbol>> openLists = new ArrayList<List<Symbol>>();
+        int i = 0;
+        while (i < length)
         {
-            contents.add(convert(tokens));
+            char c = text.charAt(i);
+            Symbol symbol;
+            if (isWhitespace(c))
+            {
+                i++;
+                continue;
+            }
+            else if (c == '(')
+            {
+                openLists.add(new ArrayList<Symbol>());
+                i++;
+                continue;
+            }
+            else if (c == ')')
+            {
+                if (openLists.isEmpty())
+                {
+                    // A closing parenthesis with nothing to close has always
+                    // been read as an atom of its own.
+                    return SymbolPool.getAtom(")");
+                }
+                symbol = SymbolPool.getList(openLists.remove(openLists.size() - 1));
+                i++;
+            }
+            else
+            {
+                int start = i;
+                while (i < length && !isDelimiter(text.charAt(i)))
+                {
+                    i++;
+                }
+                symbol = SymbolPool.getAtom(text.subSequence(start, i).toString());
+            }
+
+            if (openLists.isEmpty())
+            {
+                return symbol;
+            }
+            openLists.get(openLists.size() - 1).add(symbol);
         }
-        tokens.removeFirst();
-
-        return SymbolPool.getList(contents);
-    }
-
-    private static List<String> lex(String string)
-    {
-        List<String> tokens = new ArrayList<String>();
-        for (String token : string.split(" "))
+        if (openLists.isEmpty())
         {
-            tokens.add(token);
+            // Text with no tokens at all has always been read as the empty
+            // atom, which callers turn into an unrecognized move or term.
+            return SymbolPool.getAtom("");
         }
-
-        return tokens;
+        return null;
     }
 
-    private static String preprocess(String string)
+    /**
+     * Returns whether the character is whitespace, in the sense of the
+     * regular expression class \s.
+     */
+    private static boolean isWhitespace(char c)
     {
-        string = string.replaceAll("\\(", " ( ");
-        string = string.replaceAll("\\)", " ) ");
-
-        string = string.replaceAll("\\s+", " ");
-        string = string.trim();
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
 
-        return string;
+    private static boolean isDelimiter(char c)
+    {
+        return c == '(' || c == ')' || isWhitespace(c);
     }
-}
\ No newline at end of file
+}
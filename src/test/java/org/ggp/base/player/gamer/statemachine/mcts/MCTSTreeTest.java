@@ -0,0 +1,95 @@
+package org.ggp.base.player.gamer.statemachine.mcts;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MCTSTreeTest extends Assert {
+
+    private StateMachine sm;
+    private Role xplayer;
+    private Role oplayer;
+
+    @Before
+    public void setUp() throws Exception {
+        sm = new ProverStateMachine();
+        sm.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        xplayer = sm.getRoles().get(0);
+        oplayer = sm.getRoles().get(1);
+    }
+
+    private MachineState play(MachineState state, String xMove, String oMove) throws Exception {
+        return sm.getNextState(state, Arrays.asList(Move.create(xMove), Move.create(oMove)));
+    }
+
+    @Test
+    public void testFindsWinningMove() throws Exception {
+        MachineState state = sm.getInitialState();
+        state = play(state, "(mark 1 1)", "noop");
+        state = play(state, "noop", "(mark 2 1)");
+        state = play(state, "(mark 1 2)", "noop");
+        state = play(state, "noop", "(mark 2 2)");
+        MCTSTree tree = new MCTSTree(sm, sm.createRolloutContext(), 1 << 20);
+        assertFalse(tree.setRoot(state));
+        for (int i = 0; i < 2000; i++) {
+            tree.iterate();
+        }
+        assertEquals(Move.create("(mark 1 3)"), tree.getBestMove(xplayer));
+        assertEquals(Move.create("noop"), tree.getBestMove(oplayer));
+        assertEquals(2000, tree.getRootVisits());
+    }
+
+    @Test
+    public void testReRootingKeepsSubtree() throws Exception {
+        MCTSTree tree = new MCTSTree(sm, sm.createRolloutContext(), 1 << 20);
+        tree.setRoot(sm.getInitialState());
+        for (int i = 0; i < 3000; i++) {
+            tree.iterate();
+        }
+        int nodesBefore = tree.getNumNodes();
+        // One node per iteration, except those that end in a known terminal node.
+        assertTrue(nodesBefore > 1000 && nodesBefore <= 3001);
+
+        MachineState next = play(sm.getInitialState(), tree.getBestMove(xplayer).toString(), "noop");
+        assertTrue(tree.setRoot(next));
+        assertTrue(tree.getNumNodes() < nodesBefore);
+        assertTrue(tree.getRootVisits() > 0);
+        // The discarded nodes are reused without growing the arrays.
+        int capacity = tree.getNodeCapacity();
+        for (int i = 0; i < nodesBefore - tree.getNumNodes(); i++) {
+            tree.iterate();
+        }
+        assertEquals(capacity, tree.getNodeCapacity());
+
+        // A state that is not a child of the root starts a new tree.
+        MachineState unrelated = play(next, "noop", "(mark 3 3)");
+        unrelated = play(unrelated, "(mark 3 1)", "noop");
+        assertFalse(tree.setRoot(unrelated));
+        assertEquals(1, tree.getNumNodes());
+        assertEquals(0, tree.getRootVisits());
+    }
+
+    @Test
+    public void testTreeStaysWithinBudget() throws Exception {
+        long budget = 16 * 1024;
+        MCTSTree tree = new MCTSTree(sm, sm.createRolloutContext(), budget);
+        tree.setRoot(sm.getInitialState());
+        for (int i = 0; i < 3000; i++) {
+            tree.iterate();
+        }
+        assertTrue(tree.isFull());
+        assertTrue(tree.getAllocatedBytes() <= budget);
+        assertEquals(3000, tree.getRootVisits());
+        List<Move> legals = sm.getLegalMoves(sm.getInitialState(), xplayer);
+        assertTrue(legals.contains(tree.getBestMove(xplayer)));
+    }
+}
@@ -0,0 +1,130 @@
+package org.ggp.base.player.gamer.statemachine.montecarlo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.player.gamer.event.GamerPlayoutRateEvent;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.observer.Event;
+import org.ggp.base.util.observer.Observer;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.RolloutContext;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Unit tests for the ParallelMonteCarloGamer, to verify that its workers
+ * run playouts and that it selects a legal move before the deadline.
+ */
+public class ParallelMonteCarloGamerTest extends Assert {
+    @Test
+    public void testSelectsLegalMoveInTime() throws Exception {
+        ParallelMonteCarloGamer g = new ParallelMonteCarloGamer() {
+            @Override
+            protected int getNumThreads() {
+                return 4;
+            }
+        };
+        final List<GamerPlayoutRateEvent> rates = new ArrayList<GamerPlayoutRateEvent>();
+        g.addObserver(new Observer() {
+            @Override
+            public void observe(Event event) {
+                if (event instanceof GamerPlayoutRateEvent) {
+                    rates.add((GamerPlayoutRateEvent) event);
+                }
+            }
+        });
+
+        Match m = new Match("", -1, 1000, 1000, new TestGameRepository().getGame("ticTacToe"), "");
+        g.setMatch(m);
+        g.setRoleName(GdlPool.getConstant("xplayer"));
+        g.metaGame(System.currentTimeMillis() + 10000);
+        // Playouts run on the propnet by default.
+        assertTrue(((FailsafeStateMachine) g.getStateMachine()).getBackingMachine() instanceof CompiledPropNetStateMachine);
+        long deadline = System.currentTimeMillis() + 2000;
+        GdlTerm move = g.selectMove(deadline);
+        assertTrue(System.currentTimeMillis() < deadline);
+        assertTrue(g.getStateMachine().getLegalMoves(g.getCurrentState(), g.getRole()).contains(new Move(move)));
+
+        assertEquals(1, rates.size());
+        assertEquals(4, rates.get(0).getThreads());
+        assertTrue(rates.get(0).getPlayouts() > 0);
+        g.stateMachineAbort();
+    }
+
+    @Test
+    public void testStuckWorkerIsReplaced() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger contextsCreated = new AtomicInteger();
+        ParallelMonteCarloGamer g = new ParallelMonteCarloGamer() {
+            @Override
+            protected int getNumThreads() {
+                return 2;
+            }
+
+            @Override
+            public StateMachine getInitialStateMachine() {
+                return new ProverStateMachine() {
+                    @Override
+                    public RolloutContext createRolloutContext() {
+                        // The first context's playouts never end, even when
+                        // interrupted, until the test releases them.
+                        final boolean stuck = contextsCreated.getAndIncrement() == 0;
+                        return new RolloutContext(this, false) {
+                            @Override
+                            public int performRollout(MachineState state, Role role, Move move, int[] goals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+                                if (stuck) {
+                                    Uninterruptibles.awaitUninterruptibly(release);
+                                }
+                                return super.performRollout(state, role, move, goals);
+                            }
+                        };
+                    }
+                };
+            }
+        };
+        final List<GamerPlayoutRateEvent> rates = new ArrayList<GamerPlayoutRateEvent>();
+        g.addObserver(new Observer() {
+            @Override
+            public void observe(Event event) {
+                if (event instanceof GamerPlayoutRateEvent) {
+                    rates.add((GamerPlayoutRateEvent) event);
+                }
+            }
+        });
+
+        Match m = new Match("", -1, 1000, 1000, new TestGameRepository().getGame("ticTacToe"), "");
+        g.setMatch(m);
+        g.setRoleName(GdlPool.getConstant("xplayer"));
+        g.metaGame(System.currentTimeMillis() + 1000);
+        try {
+            for (int i = 0; i < 2; i++) {
+                long deadline = System.currentTimeMillis() + 2000;
+                g.selectMove(deadline);
+                assertTrue(System.currentTimeMillis() < deadline);
+                assertTrue(rates.get(i).getPlayouts() > 0);
+            }
+            // Only the stuck worker's context was replaced, and only once.
+            assertEquals(3, contextsCreated.get());
+        } finally {
+            release.countDown();
+            g.stateMachineAbort();
+        }
+    }
+}
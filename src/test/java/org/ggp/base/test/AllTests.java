@@ -4,44 +4,76 @@ import org.ggp.base.apps.logging.LogSummarizerTest;
 import org.ggp.base.apps.tiltyard.TiltyardRequestFarmTest;
 import org.ggp.base.player.gamer.clojure.ClojureGamerTest;
 import org.ggp.base.player.gamer.python.PythonGamerTest;
+import org.ggp.base.player.gamer.statemachine.mcts.MCTSTreeTest;
+import org.ggp.base.player.gamer.statemachine.montecarlo.ParallelMonteCarloGamerTest;
 import org.ggp.base.util.crypto.BaseCryptographyTest;
 import org.ggp.base.util.crypto.BaseHashingTest;
 import org.ggp.base.util.crypto.CanonicalJSONTest;
 import org.ggp.base.util.crypto.SignableJSONTest;
 import org.ggp.base.util.game.GameParsingTest;
+import org.ggp.base.util.gdl.grammar.GdlPoolTest;
 import org.ggp.base.util.gdl.model.DependencyGraphsTest;
 import org.ggp.base.util.gdl.model.SimpleSentenceFormTest;
+import org.ggp.base.util.gdl.model.assignments.SlotSentenceTest;
 import org.ggp.base.util.gdl.scrambler.GdlRendererTest;
 import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
 import org.ggp.base.util.http.HttpTest;
+import org.ggp.base.util.pipeline.PipelineTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.propnet.architecture.ImmutablePropNetTest;
+import org.ggp.base.util.propnet.cache.PropNetCacheTest;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactoryTest;
+import org.ggp.base.util.prover.aima.AimaProverTest;
+import org.ggp.base.util.prover.aima.binding.BindingsTest;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBaseTest;
+import org.ggp.base.util.statemachine.cache.ConcurrentCachedStateMachineTest;
+import org.ggp.base.util.statemachine.cache.TranspositionTableTest;
+import org.ggp.base.util.statemachine.implementation.compiled.CompiledRulesStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachineTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
+import org.ggp.base.util.symbol.factory.SymbolFactoryTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    AimaProverTest.class,
     BaseCryptographyTest.class,
     BaseHashingTest.class,
+    BindingsTest.class,
     CanonicalJSONTest.class,
     ClojureGamerTest.class,
+    CompiledPropNetStateMachineTest.class,
+    CompiledRulesStateMachineTest.class,
+    ConcurrentCachedStateMachineTest.class,
     DependencyGraphsTest.class,
     GameParsingTest.class,
     GdlCleanerTest.class,
+    GdlPoolTest.class,
     GdlRendererTest.class,
     GdlScramblerTest.class,
     HttpTest.class,
+    ImmutablePropNetTest.class,
     InfoResponseTest.class,
+    KnowledgeBaseTest.class,
     LogSummarizerTest.class,
+    MCTSTreeTest.class,
     NoTabsInRulesheetsTest.class,
+    OptimizingPropNetFactoryTest.class,
+    ParallelMonteCarloGamerTest.class,
+    PipelineTest.class,
+    PropNetCacheTest.class,
     ProverStateMachineTest.class,
     PythonGamerTest.class,
     SignableJSONTest.class,
     SimpleSentenceFormTest.class,
+    SlotSentenceTest.class,
     StaticValidationTest.class,
+    SymbolFactoryTest.class,
     TiltyardRequestFarmTest.class,
+    TranspositionTableTest.class,
 })
 public class AllTests {
 
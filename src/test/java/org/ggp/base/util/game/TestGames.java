@@ -0,0 +1,99 @@
+package org.ggp.base.util.game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.ImmutablePropNet;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Fixtures shared by the tests that build propnets from the games in the
+ * {@link TestGameRepository}.
+ */
+public final class TestGames {
+    private TestGames() {
+    }
+
+    /**
+     * A small set of test games that the OptimizingPropNetFactory can build,
+     * covering recursion, negation and games of different sizes.
+     */
+    public static final List<String> PROPNET_GAMES = ImmutableList.of(
+            "connectFour", "test_case_2a", "test_case_3d", "test_case_5c", "ticTacToe");
+
+    /**
+     * The test games that the OptimizingPropNetFactory can't build, with the
+     * reason why. It fails on these the same way as before it was made
+     * parallel, so they are left out of the propnet consistency tests.
+     */
+    public static final Map<String, String> UNBUILDABLE_GAMES = ImmutableMap.of(
+            "test_case_3e", "SentenceDomainModelOptimizer throws a NullPointerException on the role variables in the legal and goal rules",
+            "test_case_3f", "SentenceDomainModelOptimizer throws a NullPointerException on the role variables in the legal and goal rules",
+            "test_case_5a", "SentenceFormsFinder overflows the stack on the function nesting of the recursive r rule",
+            "test_case_5d", "the topological ordering of the mutually recursive r and s forms never ends");
+
+    /**
+     * Returns the key of every game in the {@link TestGameRepository} that
+     * the OptimizingPropNetFactory can build, in order.
+     */
+    public static List<String> getBuildableGames() {
+        List<String> games = new ArrayList<String>(new TestGameRepository().getGameKeys());
+        games.removeAll(UNBUILDABLE_GAMES.keySet());
+        Collections.sort(games);
+        return games;
+    }
+
+    public static List<Gdl> getRules(String game) {
+        return new TestGameRepository().getGame(game).getRules();
+    }
+
+    /**
+     * Checks that a CompiledPropNetStateMachine running the given propnet
+     * agrees with the prover on the rules of the given game, over 100 random
+     * depth charges.
+     */
+    public static void assertConsistentWithProver(String game, ImmutablePropNet propNet) {
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(getRules(game));
+        CompiledPropNetStateMachine subject = new CompiledPropNetStateMachine();
+        subject.initialize(propNet);
+        Assert.assertTrue("Inconsistent on " + game, StateMachineVerifier.checkMachineConsistency(reference, subject, 100));
+    }
+
+    /**
+     * Checks that two ImmutablePropNets built for the given game are the same,
+     * component for component.
+     */
+    public static void assertSameNetwork(String game, ImmutablePropNet expected, ImmutablePropNet actual) {
+        Assert.assertEquals(game, expected.getRoles(), actual.getRoles());
+        Assert.assertEquals(game, expected.getNumComponents(), actual.getNumComponents());
+        Assert.assertEquals(game, expected.getNumEdges(), actual.getNumEdges());
+        Assert.assertEquals(game, expected.getNumBases(), actual.getNumBases());
+        Assert.assertEquals(game, expected.getNumInputs(), actual.getNumInputs());
+        for (int c = 0; c < expected.getNumComponents(); c++) {
+            String message = game + " component " + c;
+            Assert.assertEquals(message, expected.getType(c), actual.getType(c));
+            Assert.assertEquals(message, expected.getName(c), actual.getName(c));
+            Assert.assertEquals(message, expected.getInputCount(c), actual.getInputCount(c));
+            for (int i = 0; i < expected.getInputCount(c); i++) {
+                Assert.assertEquals(message, expected.getInput(c, i), actual.getInput(c, i));
+            }
+        }
+        for (int r = 0; r < expected.getRoles().size(); r++) {
+            Assert.assertArrayEquals(game, expected.getLegalPropositions(r), actual.getLegalPropositions(r));
+            Assert.assertArrayEquals(game, expected.getGoalPropositions(r), actual.getGoalPropositions(r));
+        }
+        Assert.assertEquals(game, expected.getInitProposition(), actual.getInitProposition());
+        Assert.assertEquals(game, expected.getTerminalProposition(), actual.getTerminalProposition());
+    }
+}
@@ -0,0 +1,84 @@
+package org.ggp.base.util.gdl.grammar;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class GdlPoolTest extends Assert {
+
+    @Test
+    public void testIdsAreDistinctHashCodes() throws Exception {
+        Set<Integer> ids = new HashSet<Integer>();
+        List<GdlConstant> constants = new ArrayList<GdlConstant>();
+        for (int i = 0; i < 100; i++) {
+            GdlConstant constant = GdlPool.getConstant("id_test_" + i);
+            constants.add(constant);
+            assertTrue(ids.add(constant.getId()));
+            assertEquals(constant.getId(), constant.hashCode());
+            assertTrue(constant.getId() >= 0);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(constants.get(i).getId(), GdlPool.getConstant("id_test_" + i).getId());
+        }
+
+        GdlVariable variable = GdlPool.getVariable("?idTest");
+        assertSame(variable, GdlPool.getVariable("?idTest"));
+        assertEquals(variable.getId(), variable.hashCode());
+        assertTrue(variable.getId() >= 0);
+    }
+
+    @Test
+    public void testUnreferencedObjectsAreReclaimed() throws Exception {
+        WeakReference<GdlConstant> constant = new WeakReference<GdlConstant>(GdlPool.getConstant("reclaim_test"));
+        WeakReference<Gdl> rule = new WeakReference<Gdl>(GdlFactory.create("(<= (reclaim_head ?x) (reclaim_body ?x) (not (reclaim_other ?x)) (distinct ?x reclaim_value))"));
+        for (int i = 0; i < 20 && (constant.get() != null || rule.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        // System.gc() is only a hint, so skip rather than fail if the JVM
+        // didn't collect the objects.
+        Assume.assumeTrue(constant.get() == null && rule.get() == null);
+    }
+
+    @Test
+    public void testReferencedObjectsAreKept() throws Exception {
+        GdlConstant constant = GdlPool.getConstant("keep_test");
+        Gdl rule = GdlFactory.create("(<= (keep_head ?x) (keep_body ?x))");
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        assertSame(constant, GdlPool.getConstant("keep_test"));
+        assertSame(rule, GdlFactory.create("(<= (keep_head ?x) (keep_body ?x))"));
+        assertSame(GdlPool.TRUE, GdlPool.getConstant("true"));
+    }
+
+    @Test
+    public void testCaseInsensitiveSpellingsAreReclaimed() throws Exception {
+        GdlPool.caseSensitive = false;
+        try {
+            GdlConstant constant = GdlPool.getConstant("Case_Test");
+            assertSame(constant, GdlPool.getConstant("CASE_TEST"));
+            assertSame(GdlPool.TRUE, GdlPool.getConstant("True"));
+            GdlVariable variable = GdlPool.getVariable("?CaseTest");
+            assertSame(variable, GdlPool.getVariable("?casetest"));
+
+            WeakReference<GdlConstant> reclaimed = new WeakReference<GdlConstant>(GdlPool.getConstant("Reclaim_Case_Test"));
+            for (int i = 0; i < 20 && reclaimed.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            Assume.assumeTrue(reclaimed.get() == null);
+            // Once the first spelling is gone, the next one takes its place.
+            assertEquals("RECLAIM_CASE_TEST", GdlPool.getConstant("RECLAIM_CASE_TEST").getValue());
+        } finally {
+            GdlPool.caseSensitive = true;
+        }
+    }
+}
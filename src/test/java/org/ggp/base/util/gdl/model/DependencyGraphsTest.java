@@ -7,6 +7,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
@@ -36,4 +37,26 @@ public class DependencyGraphsTest extends Assert {
         assertEquals(ImmutableSet.of(3, 4, 6, 7, 8), ordering.get(2));
         assertEquals(ImmutableSet.of(5), ordering.get(3));
     }
+
+    @Test
+    public void testToposortLevels() throws Exception {
+        Set<Integer> allElements = Sets.newHashSet(1, 2, 3, 4, 5, 6, 7);
+        Multimap<Integer, Integer> graph = HashMultimap.create();
+
+        graph.put(2, 1);
+        graph.put(3, 1);
+        graph.put(4, 2);
+        graph.put(4, 3);
+        graph.put(5, 6);
+        graph.put(6, 5);
+        graph.put(6, 6);
+
+        List<List<Set<Integer>>> levels = DependencyGraphs.toposortLevels(allElements, graph);
+        assertEquals(3, levels.size());
+        assertEquals(ImmutableSet.of(ImmutableSet.of(1), ImmutableSet.of(5, 6), ImmutableSet.of(7)),
+                ImmutableSet.copyOf(levels.get(0)));
+        assertEquals(ImmutableSet.of(ImmutableSet.of(2), ImmutableSet.of(3)),
+                ImmutableSet.copyOf(levels.get(1)));
+        assertEquals(ImmutableList.of(ImmutableSet.of(4)), levels.get(2));
+    }
 }
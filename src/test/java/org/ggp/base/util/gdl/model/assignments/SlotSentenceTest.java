@@ -0,0 +1,105 @@
+package org.ggp.base.util.gdl.model.assignments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.transforms.CommonTransforms;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class SlotSentenceTest extends Assert {
+
+    @Test
+    public void testSlotsGiveSameAssignmentsAsMaps() throws Exception {
+        GdlRule rule = (GdlRule) GdlFactory.create("(<= (r ?x ?y ?z) (p ?x ?y) (q ?z) (distinct ?x ?z))");
+        Set<GdlConstant> domain = ImmutableSet.of(GdlPool.getConstant("a"), GdlPool.getConstant("b"), GdlPool.getConstant("c"));
+        Map<GdlVariable, Set<GdlConstant>> varDomains = new HashMap<GdlVariable, Set<GdlConstant>>();
+        for (String var : new String[] {"?x", "?y", "?z"}) {
+            varDomains.put(GdlPool.getVariable(var), domain);
+        }
+        Assignments assignments = AssignmentsFactory.getAssignmentsForRule(rule, varDomains,
+                Collections.<SentenceForm, FunctionInfo>emptyMap(), Collections.<SentenceForm, List<GdlSentence>>emptyMap());
+
+        List<Map<GdlVariable, GdlConstant>> expected = new ArrayList<Map<GdlVariable, GdlConstant>>();
+        for (AssignmentIterator asnItr = assignments.getIterator(); asnItr.hasNext(); ) {
+            expected.add(new HashMap<GdlVariable, GdlConstant>(asnItr.next()));
+        }
+        List<Map<GdlVariable, GdlConstant>> actual = new ArrayList<Map<GdlVariable, GdlConstant>>();
+        SlotAssignmentIterator slotItr = assignments.getSlotIterator();
+        List<GdlVariable> variables = slotItr.getVariables();
+        while (slotItr.hasNext()) {
+            int[] slots = slotItr.next();
+            Map<GdlVariable, GdlConstant> assignment = new HashMap<GdlVariable, GdlConstant>();
+            for (int i = 0; i < variables.size(); i++) {
+                assertEquals(slotItr.getConstant(i).getId(), slots[i]);
+                assignment.put(variables.get(i), slotItr.getConstant(i));
+            }
+            actual.add(assignment);
+        }
+        assertEquals(18, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testIndexFindsInstances() throws Exception {
+        GdlSentence sentence = (GdlSentence) GdlFactory.create("(f ?x (g ?y ?x) c)");
+        GdlVariable x = GdlPool.getVariable("?x");
+        GdlVariable y = GdlPool.getVariable("?y");
+        SlotSentence slotSentence = SlotSentence.create(sentence, Arrays.asList(y, x));
+        assertArrayEquals(new int[] {1, 0}, slotSentence.getSlots());
+
+        GdlSentence instance = (GdlSentence) GdlFactory.create("(f a (g b a) c)");
+        SlotSentence.Index index = slotSentence.index(Arrays.asList(instance,
+                (GdlSentence) GdlFactory.create("(f a (g b d) c)"),
+                (GdlSentence) GdlFactory.create("(f a (g b a) d)"),
+                (GdlSentence) GdlFactory.create("(f a b c)"),
+                (GdlSentence) GdlFactory.create("(h a)")));
+        assertEquals(1, index.size());
+        int a = GdlPool.getConstant("a").getId();
+        int b = GdlPool.getConstant("b").getId();
+        assertSame(instance, index.get(new int[] {b, a}));
+        assertNull(index.get(new int[] {a, b}));
+        assertNull(index.get(new int[] {a, a}));
+    }
+
+    @Test
+    public void testIndexGrows() throws Exception {
+        GdlVariable x = GdlPool.getVariable("?x");
+        GdlVariable y = GdlPool.getVariable("?y");
+        SlotSentence slotSentence = SlotSentence.create((GdlSentence) GdlFactory.create("(cell ?x ?y)"), Arrays.asList(x, y));
+        SlotSentence.Index index = slotSentence.newIndex();
+        List<GdlConstant> constants = new ArrayList<GdlConstant>();
+        for (int i = 0; i < 40; i++) {
+            constants.add(GdlPool.getConstant("grow_" + i));
+        }
+        Map<GdlVariable, GdlConstant> assignment = new HashMap<GdlVariable, GdlConstant>();
+        for (GdlConstant cx : constants) {
+            for (GdlConstant cy : constants) {
+                assignment.put(x, cx);
+                assignment.put(y, cy);
+                assertTrue(index.add(CommonTransforms.replaceVariables(slotSentence.getSentence(), assignment)));
+            }
+        }
+        assertEquals(1600, index.size());
+        for (GdlConstant cx : constants) {
+            for (GdlConstant cy : constants) {
+                GdlSentence found = index.get(new int[] {cx.getId(), cy.getId()});
+                assertEquals("( cell " + cx + " " + cy + " )", found.toString());
+            }
+        }
+    }
+}
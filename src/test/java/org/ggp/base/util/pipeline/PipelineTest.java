@@ -0,0 +1,103 @@
+package org.ggp.base.util.pipeline;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class PipelineTest extends Assert {
+    private static final Stage<String, List<String>> SPLIT = new Stage<String, List<String>>("split") {
+        @Override
+        public List<String> run(String input) {
+            return ImmutableList.copyOf(input.split(" "));
+        }
+
+        @Override
+        public int getOutputSize(List<String> output) {
+            return output.size();
+        }
+    };
+
+    private static final Stage<List<String>, String> FIRST = new Stage<List<String>, String>("first") {
+        @Override
+        public String run(List<String> input) {
+            return input.get(0);
+        }
+
+        @Override
+        public int getOutputSize(String output) {
+            return output.length();
+        }
+    };
+
+    @Test
+    public void testRecordsStagesInOrder() throws Exception {
+        Pipeline pipeline = new Pipeline("test");
+        List<String> words = pipeline.run(SPLIT, "alpha beta gamma");
+        String first = pipeline.run(FIRST, words);
+        assertEquals("alpha", first);
+
+        List<StageRecord> records = pipeline.getRecords();
+        assertEquals(2, records.size());
+        assertEquals("split", records.get(0).getName());
+        assertEquals(3, records.get(0).getOutputSize());
+        assertEquals("first", records.get(1).getName());
+        assertEquals(5, records.get(1).getOutputSize());
+        assertEquals(records.get(0).getNanos() + records.get(1).getNanos(), pipeline.getTotalNanos());
+
+        String summary = pipeline.getSummary();
+        assertTrue(summary, summary.startsWith("test: "));
+        assertTrue(summary, summary.contains("; split "));
+        assertTrue(summary, summary.endsWith(", 5 out"));
+    }
+
+    @Test
+    public void testNestedStagesAreChargedSeparately() throws Exception {
+        final Pipeline pipeline = new Pipeline("test");
+        Stage<String, String> outer = new Stage<String, String>("outer") {
+            @Override
+            public String run(String input) throws InterruptedException {
+                String first = null;
+                for (int i = 0; i < 3; i++) {
+                    first = pipeline.run(FIRST, pipeline.run(SPLIT, input));
+                }
+                return first;
+            }
+
+            @Override
+            public int getOutputSize(String output) {
+                return output.length();
+            }
+        };
+        assertEquals("alpha", pipeline.run(outer, "alpha beta gamma"));
+
+        List<StageRecord> records = pipeline.getRecords();
+        assertEquals(3, records.size());
+        assertEquals("split", records.get(0).getName());
+        assertEquals(3, records.get(0).getRuns());
+        assertEquals("first", records.get(1).getName());
+        assertEquals(3, records.get(1).getRuns());
+        assertEquals("outer", records.get(2).getName());
+        assertEquals(1, records.get(2).getRuns());
+        for (StageRecord record : records) {
+            assertTrue(record.getNanos() >= 0);
+        }
+        // Each stage is counted once in the total.
+        assertEquals(records.get(0).getNanos() + records.get(1).getNanos() + records.get(2).getNanos(), pipeline.getTotalNanos());
+        assertTrue(pipeline.getSummary(), pipeline.getSummary().contains(" out (3 runs)"));
+    }
+
+    @Test
+    public void testFailedStageIsNotRecorded() throws Exception {
+        Pipeline pipeline = new Pipeline("test");
+        try {
+            pipeline.run(FIRST, ImmutableList.<String>of());
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        assertTrue(pipeline.getRecords().isEmpty());
+    }
+}
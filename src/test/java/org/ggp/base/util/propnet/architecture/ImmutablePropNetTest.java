@@ -0,0 +1,73 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGames;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImmutablePropNetTest extends Assert {
+
+    @Test
+    public void testOutputsMirrorInputs() throws Exception {
+        for (String game : TestGames.PROPNET_GAMES) {
+            PropNet propNet = OptimizingPropNetFactory.create(TestGames.getRules(game));
+            ImmutablePropNet immutable = ImmutablePropNet.create(propNet);
+            assertEquals(propNet.getSize(), immutable.getNumComponents());
+            assertEquals(propNet.getBasePropositions().size(), immutable.getNumBases());
+            assertEquals(propNet.getInputPropositions().size(), immutable.getNumInputs());
+            int numOutputs = 0;
+            for (int c = 0; c < immutable.getNumComponents(); c++) {
+                for (int i = 0; i < immutable.getOutputCount(c); i++) {
+                    int output = immutable.getOutput(c, i);
+                    assertTrue(getInputs(immutable, output).contains(c));
+                    numOutputs++;
+                }
+            }
+            assertEquals(immutable.getNumEdges(), numOutputs);
+        }
+    }
+
+    @Test
+    public void testInputsAreSorted() throws Exception {
+        for (String game : TestGames.PROPNET_GAMES) {
+            ImmutablePropNet immutable = ImmutablePropNet.create(OptimizingPropNetFactory.create(TestGames.getRules(game)));
+            for (int c = 0; c < immutable.getNumComponents(); c++) {
+                for (int i = 1; i < immutable.getInputCount(c); i++) {
+                    assertTrue(immutable.getInput(c, i - 1) < immutable.getInput(c, i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTripThroughPropNet() throws Exception {
+        for (String game : TestGames.PROPNET_GAMES) {
+            ImmutablePropNet immutable = ImmutablePropNet.create(OptimizingPropNetFactory.create(TestGames.getRules(game)));
+            TestGames.assertSameNetwork(game, immutable, ImmutablePropNet.create(immutable.toPropNet()));
+        }
+    }
+
+    @Test
+    public void testNumberingIsDeterministic() throws Exception {
+        // Each build holds its components in hash sets of different orders,
+        // so this fails if the numbering depends on that order.
+        for (String game : TestGames.PROPNET_GAMES) {
+            ImmutablePropNet first = ImmutablePropNet.create(OptimizingPropNetFactory.create(TestGames.getRules(game)));
+            for (int i = 0; i < 3; i++) {
+                ImmutablePropNet next = ImmutablePropNet.create(OptimizingPropNetFactory.create(TestGames.getRules(game)));
+                TestGames.assertSameNetwork(game, first, next);
+            }
+        }
+    }
+
+    private static Set<Integer> getInputs(ImmutablePropNet propNet, int component) {
+        Set<Integer> inputs = new HashSet<Integer>();
+        for (int i = 0; i < propNet.getInputCount(component); i++) {
+            inputs.add(propNet.getInput(component, i));
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,111 @@
+package org.ggp.base.util.propnet.cache;
+
+import java.io.File;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGames;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.ImmutablePropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PropNetCacheTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCachedPropNetMatchesBuiltOne() throws Exception {
+        PropNetCache cache = new PropNetCache(folder.getRoot(), PropNetCache.DEFAULT_MAX_BYTES);
+        for (String game : TestGames.PROPNET_GAMES) {
+            List<Gdl> rules = TestGames.getRules(game);
+            String key = PropNetCache.computeKey(rules);
+            assertNull(cache.get(key));
+            ImmutablePropNet built = ImmutablePropNet.create(OptimizingPropNetFactory.create(rules));
+            cache.put(key, built);
+
+            ImmutablePropNet cached = cache.get(key);
+            assertNotNull(cached);
+            assertEquals(built.getRoles(), cached.getRoles());
+            assertEquals(built.getNumComponents(), cached.getNumComponents());
+            assertEquals(built.getNumEdges(), cached.getNumEdges());
+            assertEquals(built.getNumBases(), cached.getNumBases());
+            assertEquals(built.getNumInputs(), cached.getNumInputs());
+            for (int c = 0; c < built.getNumComponents(); c++) {
+                assertEquals(built.getType(c), cached.getType(c));
+                assertEquals(built.getName(c), cached.getName(c));
+                assertEquals(built.getInputCount(c), cached.getInputCount(c));
+            }
+
+            TestGames.assertConsistentWithProver(game, cached);
+        }
+    }
+
+    @Test
+    public void testStateMachineFillsCache() throws Exception {
+        PropNetCache cache = new PropNetCache(folder.getRoot(), PropNetCache.DEFAULT_MAX_BYTES);
+        List<Gdl> rules = TestGames.getRules("ticTacToe");
+        new CompiledPropNetStateMachine(CompiledPropNetStateMachine.PropagationMode.FORWARD, cache).initialize(rules);
+        assertNotNull(cache.get(PropNetCache.computeKey(rules)));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        PropNetCache unbounded = new PropNetCache(folder.getRoot(), Long.MAX_VALUE);
+        String[] games = {"ticTacToe", "connectFour", "test_case_3d"};
+        String[] keys = new String[games.length];
+        for (int i = 0; i < games.length; i++) {
+            List<Gdl> rules = TestGames.getRules(games[i]);
+            keys[i] = PropNetCache.computeKey(rules);
+            unbounded.put(keys[i], ImmutablePropNet.create(OptimizingPropNetFactory.create(rules)));
+        }
+        // Make ticTacToe the oldest entry, then use it, leaving connectFour
+        // as the least recently used.
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < games.length; i++) {
+            assertTrue(unbounded.getFile(keys[i]).setLastModified(now - 100000 + 10000 * i));
+        }
+        assertNotNull(unbounded.get(keys[0]));
+
+        // Adding the last game again to a cache with room for everything but
+        // connectFour should evict connectFour only.
+        File connectFour = unbounded.getFile(keys[1]);
+        long cap = unbounded.getSize() - connectFour.length();
+        PropNetCache bounded = new PropNetCache(folder.getRoot(), cap);
+        bounded.put(keys[2], bounded.get(keys[2]));
+        assertFalse(connectFour.exists());
+        assertNotNull(bounded.get(keys[0]));
+        assertNotNull(bounded.get(keys[2]));
+        assertTrue(bounded.getSize() <= cap);
+    }
+
+    @Test
+    public void testKeyIgnoresRulesheetFormatting() throws Exception {
+        String rulesheet = "( (role a) (init (p)) (<= (legal a b) (true (p))) (<= (next (p)) (does a b)) (<= terminal (true (p))) (goal a 100) )";
+        List<Gdl> rules = Game.createEphemeralGame(rulesheet).getRules();
+        assertEquals(6, rules.size());
+        List<Gdl> reformatted = Game.createEphemeralGame(rulesheet.replace(" (", "\n  (")).getRules();
+        assertEquals(PropNetCache.computeKey(rules), PropNetCache.computeKey(reformatted));
+    }
+
+    @Test
+    public void testKeyIgnoresRuleOrderButNotRoleOrder() throws Exception {
+        String roles = "(role a) (role b) ";
+        String others = "(init (p)) (<= (legal a b) (true (p))) (<= (next (p)) (does a b)) (<= terminal (true (p))) (goal a 100) ";
+        String reordered = "(goal a 100) (<= terminal (true (p))) (<= (next (p)) (does a b)) (init (p)) (<= (legal a b) (true (p))) ";
+        String key = computeKey("( " + roles + others + ")");
+        assertEquals(key, computeKey("( " + roles + reordered + ")"));
+        assertEquals(key, computeKey("( " + reordered + roles + ")"));
+        // The order of the roles numbers them in the propnet.
+        assertFalse(key.equals(computeKey("( (role b) (role a) " + others + ")")));
+    }
+
+    private static String computeKey(String rulesheet) {
+        return PropNetCache.computeKey(Game.createEphemeralGame(rulesheet).getRules());
+    }
+}
@@ -0,0 +1,129 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGames;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.ImmutablePropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OptimizingPropNetFactoryTest extends Assert {
+
+    @Test
+    public void testThreadCountDoesNotChangePropNet() throws Exception {
+        for (String game : TestGames.PROPNET_GAMES) {
+            List<Gdl> rules = TestGames.getRules(game);
+            ImmutablePropNet sequential = ImmutablePropNet.create(OptimizingPropNetFactory.create(rules, Long.MAX_VALUE, 1, null));
+            for (int numThreads : new int[] {2, 4}) {
+                ImmutablePropNet parallel = ImmutablePropNet.create(OptimizingPropNetFactory.create(rules, Long.MAX_VALUE, numThreads, null));
+                TestGames.assertSameNetwork(game, sequential, parallel);
+            }
+        }
+    }
+
+    @Test
+    public void testGroundRulesSeeOptimizedRecursiveStratum() throws Exception {
+        // The recursive forms of a stratum optimize away the constant-true
+        // (p a) while the other forms of the stratum have rules using it.
+        String game = "test_stratum_true_view";
+        for (int numThreads : new int[] {1, 4}) {
+            PropNet propNet = OptimizingPropNetFactory.create(TestGames.getRules(game), Long.MAX_VALUE, numThreads, null);
+            TestGames.assertConsistentWithProver(game, ImmutablePropNet.create(propNet));
+        }
+    }
+
+    @Test
+    public void testBuildRunsOnTheGivenNumberOfThreads() throws Exception {
+        for (int numThreads : new int[] {1, 4}) {
+            assertWorkersStopped();
+            final int[] maxWorkers = {0};
+            OptimizingPropNetFactory.create(TestGames.getRules("connectFour"), Long.MAX_VALUE, numThreads, new OptimizingPropNetFactory.ProgressListener() {
+                @Override
+                public void onProgress(int formsAdded, int numForms) {
+                    maxWorkers[0] = Math.max(maxWorkers[0], getWorkers().size());
+                }
+            });
+            if (numThreads == 1) {
+                // A single thread builds on the calling thread.
+                assertEquals(0, maxWorkers[0]);
+            } else {
+                assertTrue(maxWorkers[0] > 1);
+                assertTrue(maxWorkers[0] <= numThreads);
+            }
+            // The workers don't outlive the build.
+            assertWorkersStopped();
+        }
+    }
+
+    @Test
+    public void testProgressReachesAllForms() throws Exception {
+        final int[] progress = {-1, -1};
+        OptimizingPropNetFactory.create(TestGames.getRules("ticTacToe"), Long.MAX_VALUE, 2, new OptimizingPropNetFactory.ProgressListener() {
+            @Override
+            public void onProgress(int formsAdded, int numForms) {
+                assertEquals(progress[0] + 1, formsAdded);
+                progress[0] = formsAdded;
+                progress[1] = numForms;
+            }
+        });
+        assertTrue(progress[1] > 0);
+        assertEquals(progress[1], progress[0]);
+    }
+
+    @Test
+    public void testPassedDeadlineInterrupts() throws Exception {
+        try {
+            OptimizingPropNetFactory.create(TestGames.getRules("connectFour"), System.currentTimeMillis() - 1, 2, null);
+            fail("Expected an InterruptedException");
+        } catch (InterruptedException e) {
+            // Expected
+        }
+        // The deadline only applies during the build.
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testDeadlineDuringBuildInterrupts() throws Exception {
+        for (int numThreads : new int[] {1, 4}) {
+            final long deadline = System.currentTimeMillis() + 100;
+            try {
+                // Holds up the build until the deadline has passed.
+                OptimizingPropNetFactory.create(TestGames.getRules("connectFour"), deadline, numThreads, new OptimizingPropNetFactory.ProgressListener() {
+                    @Override
+                    public void onProgress(int formsAdded, int numForms) {
+                        try {
+                            Thread.sleep(Long.MAX_VALUE);
+                        } catch (InterruptedException e) {
+                            assertTrue(System.currentTimeMillis() >= deadline);
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                fail("Expected an InterruptedException");
+            } catch (InterruptedException e) {
+                assertEquals("Deadline passed", e.getMessage());
+            }
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+    }
+
+    private static List<Thread> getWorkers() {
+        List<Thread> workers = new ArrayList<Thread>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("OptimizingPropNetFactory worker")) {
+                workers.add(thread);
+            }
+        }
+        return workers;
+    }
+
+    private static void assertWorkersStopped() throws InterruptedException {
+        for (Thread worker : getWorkers()) {
+            worker.join(5000);
+            assertFalse(worker.isAlive());
+        }
+    }
+}
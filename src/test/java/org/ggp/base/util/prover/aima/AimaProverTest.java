@@ -0,0 +1,122 @@
+package org.ggp.base.util.prover.aima;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.prover.Prover;
+import org.ggp.base.util.prover.ProverSession;
+import org.ggp.base.util.prover.ProverSessions;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AimaProverTest extends Assert {
+
+    @Test
+    public void testSessionAnswersMatchSingleQueries() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        AimaProver prover = new AimaProver(rules);
+        ProverStateMachine sm = new ProverStateMachine();
+        sm.initialize(rules);
+
+        GdlSentence[] queries = {
+            (GdlSentence) GdlFactory.create("(legal ?r ?m)"),
+            (GdlSentence) GdlFactory.create("(goal ?r ?g)"),
+            (GdlSentence) GdlFactory.create("(line x)"),
+            (GdlSentence) GdlFactory.create("open"),
+            ProverQueryBuilder.getTerminalQuery(),
+        };
+
+        MachineState state = sm.getInitialState();
+        while (true) {
+            Set<GdlSentence> context = ProverQueryBuilder.getContext(state);
+            ProverSession session = prover.openSession(context);
+            // Ask every query twice, so the second time uses what the session kept.
+            for (int i = 0; i < 2; i++) {
+                for (GdlSentence query : queries) {
+                    assertEquals(prover.askAll(query, context), session.askAll(query));
+                    assertEquals(prover.prove(query, context), session.prove(query));
+                }
+            }
+            if (sm.isTerminal(state)) {
+                break;
+            }
+            state = sm.getNextState(state, sm.getRandomJointMove(state));
+        }
+    }
+
+    @Test
+    public void testDefaultSessionAsksTheProver() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        final AimaProver aima = new AimaProver(rules);
+        // A prover that can't open its own sessions.
+        Prover prover = new Prover() {
+            @Override
+            public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context) {
+                return aima.askAll(query, context);
+            }
+            @Override
+            public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context) {
+                return aima.askOne(query, context);
+            }
+            @Override
+            public boolean prove(GdlSentence query, Set<GdlSentence> context) {
+                return aima.prove(query, context);
+            }
+        };
+        ProverStateMachine sm = new ProverStateMachine();
+        sm.initialize(rules);
+        Set<GdlSentence> context = ProverQueryBuilder.getContext(sm.getInitialState());
+        ProverSession session = ProverSessions.open(prover, context);
+        GdlSentence query = (GdlSentence) GdlFactory.create("(legal ?r ?m)");
+        assertEquals(aima.askAll(query, context), session.askAll(query));
+        assertEquals(aima.prove(query, context), session.prove(query));
+        assertNotNull(session.askOne(query));
+    }
+
+    @Test
+    public void testTablingMatchesRecursionHandler() throws Exception {
+        String[] games = {"test_case_5a", "test_case_5c", "test_case_5d", "test_case_5e", "test_recursive_reachability"};
+        for (String game : games) {
+            List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+            ProverStateMachine plain = new ProverStateMachine(false);
+            ProverStateMachine tabled = new ProverStateMachine(true);
+            plain.initialize(rules);
+            tabled.initialize(rules);
+
+            Random random = new Random(game.hashCode());
+            for (int i = 0; i < 5; i++) {
+                MachineState state = plain.getInitialState();
+                assertEquals(game, state, tabled.getInitialState());
+                while (true) {
+                    boolean terminal = plain.isTerminal(state);
+                    assertEquals(game, terminal, tabled.isTerminal(state));
+                    if (terminal) {
+                        assertEquals(game, plain.getGoals(state), tabled.getGoals(state));
+                        break;
+                    }
+                    List<Move> jointMove = new ArrayList<Move>();
+                    for (Role role : plain.getRoles()) {
+                        List<Move> moves = plain.getLegalMoves(state, role);
+                        assertEquals(game, new HashSet<Move>(moves), new HashSet<Move>(tabled.getLegalMoves(state, role)));
+                        jointMove.add(moves.get(random.nextInt(moves.size())));
+                    }
+                    MachineState next = plain.getNextState(state, jointMove);
+                    assertEquals(game, next, tabled.getNextState(state, jointMove));
+                    state = next;
+                }
+            }
+        }
+    }
+}
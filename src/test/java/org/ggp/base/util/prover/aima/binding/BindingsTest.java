@@ -0,0 +1,58 @@
+package org.ggp.base.util.prover.aima.binding;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BindingsTest extends Assert {
+
+    @Test
+    public void testUnifyAndUndo() throws Exception {
+        Bindings bindings = new Bindings();
+        CompiledRule rule = CompiledRule.compile((GdlRule) GdlFactory.create("(<= (next (cell ?x ?y ?p)) (does ?p (mark ?x ?y)))"));
+        CompiledRule query = CompiledRule.compile(sentence("(next (cell 1 ?b ?c))"));
+        assertEquals(3, rule.getNumVariables());
+        assertEquals(2, query.getNumVariables());
+
+        int queryFrame = bindings.allocate(query.getNumVariables());
+        int ruleFrame = bindings.allocate(rule.getNumVariables());
+        int mark = bindings.mark();
+        assertTrue(bindings.unify(rule.getHead(), ruleFrame, query.getHead(), queryFrame));
+        assertEquals(sentence("(next (cell 1 ?R0 ?R1))"), bindings.resolve(query.getHead(), queryFrame));
+
+        CompiledSentence does = (CompiledSentence) rule.getBody()[0];
+        mark = bindings.mark();
+        assertFalse(bindings.unify(does, ruleFrame, sentence("(does xplayer (mark 2 2))")));
+        bindings.undo(mark);
+        mark = bindings.mark();
+        assertTrue(bindings.unify(does, ruleFrame, sentence("(does xplayer (mark 1 3))")));
+        assertEquals(sentence("(next (cell 1 3 xplayer))"), bindings.resolve(query.getHead(), queryFrame));
+        assertEquals(sentence("(next (cell 1 3 xplayer))"), bindings.resolve(rule.getHead(), ruleFrame));
+
+        bindings.undo(mark);
+        assertEquals(sentence("(next (cell 1 ?R0 ?R1))"), bindings.resolve(query.getHead(), queryFrame));
+        bindings.release(ruleFrame);
+    }
+
+    @Test
+    public void testRepeatedVariables() throws Exception {
+        Bindings bindings = new Bindings();
+        CompiledRule query = CompiledRule.compile(sentence("(same ?x ?x ?y)"));
+        int frame = bindings.allocate(query.getNumVariables());
+        assertEquals(sentence("(same ?R0 ?R0 ?R1)"), bindings.resolve(query.getHead(), frame));
+
+        int mark = bindings.mark();
+        assertFalse(bindings.unify(query.getHead(), frame, sentence("(same a b c)")));
+        bindings.undo(mark);
+        assertTrue(bindings.unify(query.getHead(), frame, sentence("(same a a c)")));
+        assertEquals(sentence("(same a a c)"), bindings.resolve(query.getHead(), frame));
+        assertTrue(bindings.identical(query.getHead().get(0), frame, query.getHead().get(1), frame));
+        assertFalse(bindings.identical(query.getHead().get(0), frame, query.getHead().get(2), frame));
+    }
+
+    private static GdlSentence sentence(String string) throws Exception {
+        return (GdlSentence) GdlFactory.create(string);
+    }
+}
@@ -0,0 +1,85 @@
+package org.ggp.base.util.prover.aima.knowledge;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.prover.aima.unifier.Unifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KnowledgeBaseTest extends Assert {
+
+    private static final String[] DESCRIPTION = {
+        "(true (cell 1 1 x))",
+        "(true (cell 1 2 b))",
+        "(true (cell 2 1 o))",
+        "(true (cell 2 2 b))",
+        "(true (control xplayer))",
+        "(<= (true (cell ?m 3 b)) (index ?m))",
+        "(<= (true ?x) (wildcard ?x))",
+        "(index 1)",
+        "(index 2)",
+        "terminal",
+    };
+
+    @Test
+    public void testFetchNarrowsByGroundArguments() throws Exception {
+        KnowledgeBase kb = new KnowledgeBase(parse(DESCRIPTION));
+
+        assertEquals(7, kb.fetch(sentence("(true ?x)")).size());
+        // (cell 1 1 x), (cell 1 2 b), the (cell ?m 3 b) rule and the wildcard rule
+        assertEquals(4, kb.fetch(sentence("(true (cell 1 ?y ?v))")).size());
+        // (cell 1 2 b), (cell 2 2 b) and the wildcard rule
+        assertEquals(3, kb.fetch(sentence("(true (cell ?x 2 ?v))")).size());
+        // Only the wildcard rule has something other than cell or control
+        assertEquals(1, kb.fetch(sentence("(true (step 1))")).size());
+        assertEquals(2, kb.fetch(sentence("(true (control ?p))")).size());
+        assertEquals(1, kb.fetch(sentence("(index 2)")).size());
+        assertEquals(1, kb.fetch(sentence("terminal")).size());
+        assertEquals(0, kb.fetch(sentence("(index 2 3)")).size());
+        assertEquals(0, kb.fetch(sentence("(goal xplayer 100)")).size());
+    }
+
+    @Test
+    public void testFetchReturnsEveryUnifiableRule() throws Exception {
+        Set<Gdl> description = parse(DESCRIPTION);
+        KnowledgeBase kb = new KnowledgeBase(description);
+
+        String[] queries = {
+            "(true ?x)", "(true (cell ?x ?y ?v))", "(true (cell 1 3 b))", "(true (cell 2 ?y o))",
+            "(true (cell ?x ?y x))", "(true (control ?p))", "(true (control oplayer))", "(index ?i)",
+            "(true (cell (f 1) 3 b))", "terminal",
+        };
+        for (String query : queries) {
+            GdlSentence sentence = sentence(query);
+            List<GdlRule> fetched = kb.fetch(sentence);
+            for (Gdl gdl : description) {
+                GdlSentence head = (gdl instanceof GdlRule) ? ((GdlRule) gdl).getHead() : (GdlSentence) gdl;
+                if (Unifier.unify(head, sentence) != null) {
+                    boolean found = false;
+                    for (GdlRule rule : fetched) {
+                        found |= rule.getHead().equals(head);
+                    }
+                    assertTrue(head + " should be fetched for " + query, found);
+                }
+            }
+        }
+    }
+
+    private static Set<Gdl> parse(String[] strings) throws Exception {
+        Set<Gdl> description = new HashSet<Gdl>();
+        for (String string : strings) {
+            description.add(GdlFactory.create(string));
+        }
+        return description;
+    }
+
+    private static GdlSentence sentence(String string) throws Exception {
+        return (GdlSentence) GdlFactory.create(string);
+    }
+}
@@ -0,0 +1,100 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentCachedStateMachineTest extends Assert {
+
+    private static List<Gdl> getRules(String game) {
+        return new TestGameRepository().getGame(game).getRules();
+    }
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        for (String game : new String[] {"connectFour", "test_case_2b", "ticTacToe"}) {
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(getRules(game));
+            StateMachine subject = new ConcurrentCachedStateMachine(new ProverStateMachine(), 1000);
+            subject.initialize(getRules(game));
+            assertTrue("Inconsistent on " + game, StateMachineVerifier.checkMachineConsistency(reference, subject, 200));
+        }
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() throws Exception {
+        ConcurrentCachedStateMachine sm = new ConcurrentCachedStateMachine(new ProverStateMachine());
+        sm.initialize(getRules("ticTacToe"));
+        MachineState state = sm.getInitialState();
+        Role xplayer = sm.getRoles().get(0);
+        List<Move> moves = sm.getLegalMoves(state, xplayer);
+        assertEquals(0, sm.getHits());
+        assertEquals(1, sm.getMisses());
+        assertSame(moves, sm.getLegalMoves(state, xplayer));
+        assertFalse(sm.isTerminal(state));
+        assertFalse(sm.isTerminal(state));
+        assertEquals(2, sm.getHits());
+        assertEquals(2, sm.getMisses());
+        assertEquals(1, sm.getSize());
+        assertEquals(0, sm.getEvictions());
+    }
+
+    @Test
+    public void testEvictionBoundsSize() throws Exception {
+        ConcurrentCachedStateMachine sm = new ConcurrentCachedStateMachine(new ProverStateMachine(), 50);
+        sm.initialize(getRules("ticTacToe"));
+        int[] depth = new int[1];
+        for (int i = 0; i < 50; i++) {
+            sm.performDepthCharge(sm.getInitialState(), depth);
+        }
+        assertTrue(sm.getSize() <= 50);
+        assertTrue(sm.getEvictions() > 0);
+        // Recently used states survive eviction.
+        sm.isTerminal(sm.getInitialState());
+        long hits = sm.getHits();
+        sm.isTerminal(sm.getInitialState());
+        assertEquals(hits + 1, sm.getHits());
+    }
+
+    @Test
+    public void testConcurrentDepthCharges() throws Exception {
+        final ConcurrentCachedStateMachine sm = new ConcurrentCachedStateMachine(new ProverStateMachine(), 500);
+        sm.initialize(getRules("ticTacToe"));
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        int[] depth = new int[1];
+                        for (int i = 0; i < 100; i++) {
+                            MachineState state = sm.performDepthCharge(sm.getInitialState(), depth);
+                            if (sm.getGoal(state, sm.getRoles().get(0)) + sm.getGoal(state, sm.getRoles().get(1)) != 100) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(sm.getSize() <= 500);
+    }
+}
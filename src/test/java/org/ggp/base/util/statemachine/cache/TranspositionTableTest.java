@@ -0,0 +1,76 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TranspositionTableTest extends Assert {
+
+    @Test
+    public void testPutAndGet() {
+        TranspositionTable table = new TranspositionTable(1000);
+        assertEquals(1024, table.getCapacity());
+        assertEquals(-1, table.get(42, -1));
+        table.put(42, 7);
+        assertEquals(7, table.get(42, -1));
+        table.put(42, 8);
+        assertEquals(8, table.get(42, -1));
+        assertEquals(1, table.size());
+        // Keys with the same home slot are probed past each other.
+        table.put(42 + 1024, 9);
+        assertEquals(8, table.get(42, -1));
+        assertEquals(9, table.get(42 + 1024, -1));
+        table.clear();
+        assertEquals(-1, table.get(42, -1));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testFullProbeWindowReplacesEntry() {
+        TranspositionTable table = new TranspositionTable(16);
+        for (int i = 0; i < 5; i++) {
+            table.put(3 + 16 * i, i);
+        }
+        // The last key took over the first slot of the probe window.
+        assertEquals(-1, table.get(3, -1));
+        for (int i = 1; i < 5; i++) {
+            assertEquals(i, table.get(3 + 16 * i, -1));
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersNeverCorruptValues() throws Exception {
+        final TranspositionTable table = new TranspositionTable(256);
+        final AtomicInteger wrongValues = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 200000; i++) {
+                        // Few keys into a small table, so threads keep
+                        // overwriting each other's slots.
+                        long key = random.nextInt(1024) * 0x9E3779B97F4A7C15L;
+                        if (random.nextBoolean()) {
+                            table.put(key, ~key);
+                        } else {
+                            long value = table.get(key, ~key);
+                            if (value != ~key) {
+                                wrongValues.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, wrongValues.get());
+    }
+}
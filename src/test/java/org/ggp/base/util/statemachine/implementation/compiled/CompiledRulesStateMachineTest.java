@@ -0,0 +1,62 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledRulesStateMachineTest extends Assert {
+
+    // Test games whose rules the sentence model is able to analyze.
+    private static final List<String> GAMES = Arrays.asList(
+            "connectFour", "simpleMutex", "test_case_1a", "test_case_1b",
+            "test_case_2a", "test_case_2b", "test_case_2c", "test_case_3a",
+            "test_case_3c", "test_case_3d", "test_case_4a", "test_case_5b",
+            "test_case_5c", "test_case_5d", "test_case_5e", "test_clean_not_distinct",
+            "test_distinct_beginning_rule", "test_recursive_reachability", "ticTacToe");
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        for (String game : GAMES) {
+            List<Gdl> description = new TestGameRepository().getGame(game).getRules();
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(description);
+            StateMachine subject = new CompiledRulesStateMachine();
+            subject.initialize(description);
+            assertTrue("Inconsistent on " + game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+        }
+    }
+
+    @Test
+    public void testTupleSetIndexSurvivesGrowthAndClear() {
+        TupleSet set = new TupleSet(2);
+        set.addIndex(1);
+        for (int i = 0; i < 100; i++) {
+            set.setKey(0, i);
+            set.setKey(1, i % 3);
+            assertTrue(set.addKey());
+        }
+        set.setKey(0, 4);
+        set.setKey(1, 1);
+        assertFalse(set.addKey());
+        assertEquals(100, set.size());
+
+        int count = 0;
+        for (int j = set.first(1, 2); j >= 0; j = set.next(1, j)) {
+            assertEquals(2, set.get(j, 1));
+            count++;
+        }
+        assertEquals(33, count);
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertEquals(-1, set.first(1, 2));
+        assertFalse(set.containsKey());
+    }
+}
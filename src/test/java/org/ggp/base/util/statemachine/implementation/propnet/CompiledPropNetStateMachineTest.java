@@ -0,0 +1,352 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.game.TestGames;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.RolloutContext;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.ZobristHash;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine.PropagationMode;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledPropNetStateMachineTest extends Assert {
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        for (String game : TestGames.getBuildableGames()) {
+            List<Gdl> description = TestGames.getRules(game);
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(description);
+            StateMachine subject = new CompiledPropNetStateMachine();
+            subject.initialize(description);
+            assertTrue("Inconsistent on " + game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+        }
+    }
+
+    @Test
+    public void testDifferentialConsistencyWithProver() throws Exception {
+        for (String game : TestGames.getBuildableGames()) {
+            List<Gdl> description = TestGames.getRules(game);
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(description);
+            StateMachine subject = new CompiledPropNetStateMachine(PropagationMode.DIFFERENTIAL);
+            subject.initialize(description);
+            assertTrue("Inconsistent on " + game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+        }
+    }
+
+    @Test
+    public void testJitConsistencyWithProver() throws Exception {
+        for (String game : TestGames.getBuildableGames()) {
+            List<Gdl> description = TestGames.getRules(game);
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(description);
+            CompiledPropNetStateMachine subject = new CompiledPropNetStateMachine(PropagationMode.JIT);
+            subject.initialize(description);
+            assertTrue("Inconsistent on " + game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+            // HotSpot leaves methods of more than 8000 bytes to the interpreter.
+            assertTrue(subject.getJitPropagator().getLargestMethod() < 8000);
+        }
+    }
+
+    @Test
+    public void testUnbuildableGamesStillFail() throws Exception {
+        // Once the factory can build one of these, it belongs in the
+        // consistency tests above.
+        for (String game : TestGames.UNBUILDABLE_GAMES.keySet()) {
+            boolean built;
+            try {
+                OptimizingPropNetFactory.create(TestGames.getRules(game), System.currentTimeMillis() + 2000, 1, null);
+                built = true;
+            } catch (Throwable e) {
+                built = false;
+            }
+            assertFalse(game + " can be built now", built);
+        }
+    }
+
+    @Test
+    public void testInitialStateIgnoresNextRules() throws Exception {
+        // The "next" rules of this game would fire on an empty state, but
+        // must not contribute to the initial state.
+        List<Gdl> description = TestGames.getRules("test_case_3d");
+        StateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(description);
+        MachineState state = sm.getInitialState();
+        Role xplayer = new Role(GdlPool.getConstant("xplayer"));
+        assertEquals(1, state.getContents().size());
+        assertEquals(Collections.singletonList(Move.create("win")), sm.getLegalMoves(state, xplayer));
+    }
+
+    @Test
+    public void testDepthChargeOnTicTacToe() throws Exception {
+        List<Gdl> description = TestGames.getRules("ticTacToe");
+        StateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(description);
+        int[] depth = new int[1];
+        for (int i = 0; i < 100; i++) {
+            MachineState state = sm.performDepthCharge(sm.getInitialState(), depth);
+            assertTrue(sm.isTerminal(state));
+            assertTrue(depth[0] >= 5 && depth[0] <= 9);
+            int xGoal = sm.getGoal(state, sm.getRoles().get(0));
+            int oGoal = sm.getGoal(state, sm.getRoles().get(1));
+            assertEquals(100, xGoal + oGoal);
+        }
+    }
+
+    @Test
+    public void testStatesInterchangeableWithPlainStates() throws Exception {
+        List<Gdl> description = TestGames.getRules("ticTacToe");
+        StateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(description);
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(description);
+
+        MachineState state = sm.getInitialState();
+        MachineState proverState = prover.getInitialState();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(state instanceof PropNetMachineState);
+            assertEquals(proverState.getContents(), state.getContents());
+            MachineState plain = new MachineState(state.getContents());
+            assertEquals(plain.hashCode(), state.hashCode());
+            assertEquals(state, plain);
+            assertEquals(plain, state);
+            assertEquals(state, state.clone());
+            assertEquals(state, sm.getMachineStateFromSentenceList(state.getContents()));
+
+            List<Move> moves = sm.getRandomJointMove(state);
+            MachineState next = sm.getNextState(state, moves);
+            assertEquals(next, sm.getNextState(plain, moves));
+            assertFalse(next.equals(state));
+            state = next;
+            proverState = prover.getNextState(proverState, moves);
+        }
+    }
+
+    @Test
+    public void testConcurrentRolloutContexts() throws Exception {
+        List<Gdl> description = TestGames.getRules("ticTacToe");
+        StateMachine[] machines = {new CompiledPropNetStateMachine(),
+                new CompiledPropNetStateMachine(PropagationMode.DIFFERENTIAL), new ProverStateMachine(),
+                new FailsafeStateMachine(new CompiledPropNetStateMachine())};
+        for (final StateMachine sm : machines) {
+            sm.initialize(description);
+            final AtomicInteger failures = new AtomicInteger();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            RolloutContext context = sm.createRolloutContext();
+                            int[] goals = new int[2];
+                            for (int i = 0; i < 200; i++) {
+                                int depth = context.performRollout(sm.getInitialState(), goals);
+                                if (depth < 5 || depth > 9 || goals[0] + goals[1] != 100) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(sm.getClass().getSimpleName(), 0, failures.get());
+        }
+    }
+
+    @Test
+    public void testFailsafeKeepsPropNetRollouts() throws Exception {
+        FailsafeStateMachine failsafe = new FailsafeStateMachine(new CompiledPropNetStateMachine());
+        failsafe.initialize(TestGames.getRules("ticTacToe"));
+        // Playouts run in the propnet's own contexts, not through the wrapper.
+        assertSame(failsafe.getBackingMachine(), failsafe.createRolloutContext().getStateMachine());
+        MachineState state = failsafe.getInitialState();
+        assertEquals(failsafe.getBackingMachine().getZobristHash(state), failsafe.getZobristHash(state));
+    }
+
+    @Test
+    public void testFailsafeFallsBackAtDeadline() throws Exception {
+        List<Gdl> description = TestGames.getRules("connectFour");
+        FailsafeStateMachine failsafe = new FailsafeStateMachine(new CompiledPropNetStateMachine());
+        failsafe.initialize(description, System.currentTimeMillis() + 60000);
+        assertTrue(failsafe.getBackingMachine() instanceof CompiledPropNetStateMachine);
+        // Too little time to build the propnet, which leaves time for the prover.
+        failsafe = new FailsafeStateMachine(new CompiledPropNetStateMachine());
+        failsafe.initialize(description, System.currentTimeMillis() + 500);
+        assertTrue(failsafe.getBackingMachine() instanceof ProverStateMachine);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testZobristHashesMatchProver() throws Exception {
+        for (String game : Arrays.asList("connectFour", "test_case_2a", "ticTacToe")) {
+            List<Gdl> description = TestGames.getRules(game);
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(description);
+            StateMachine subject = new CompiledPropNetStateMachine();
+            subject.initialize(description);
+            for (int i = 0; i < 20; i++) {
+                MachineState state = subject.getInitialState();
+                MachineState proverState = prover.getInitialState();
+                while (true) {
+                    // The hash of each state is updated incrementally from the
+                    // previous state, and must match a hash from scratch.
+                    assertEquals(ZobristHash.hash(state.getContents()), subject.getZobristHash(state));
+                    assertEquals(prover.getZobristHash(proverState), subject.getZobristHash(state));
+                    if (subject.isTerminal(state)) {
+                        break;
+                    }
+                    List<Move> jointMove = subject.getRandomJointMove(state);
+                    state = subject.getNextState(state, jointMove);
+                    proverState = prover.getNextState(proverState, jointMove);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBitParallelLanesMatchSingleEvaluation() throws Exception {
+        Random random = new Random(0);
+        for (String game : TestGames.getBuildableGames()) {
+            List<Gdl> description = TestGames.getRules(game);
+            CompiledPropNetStateMachine subject = new CompiledPropNetStateMachine();
+            subject.initialize(description);
+            BitParallelEvaluator evaluator = subject.createBitParallelEvaluator();
+
+            // Load a different state, from a random walk of random length, into each lane.
+            MachineState[] states = new MachineState[BitParallelEvaluator.LANES];
+            for (int lane = 0; lane < states.length; lane++) {
+                MachineState state = subject.getInitialState();
+                for (int steps = random.nextInt(10); steps > 0 && !subject.isTerminal(state); steps--) {
+                    state = subject.getNextState(state, subject.getRandomJointMove(state));
+                }
+                states[lane] = state;
+                evaluator.loadState(state, 1L << lane);
+            }
+            evaluator.propagateState();
+
+            long moving = 0;
+            List<List<Move>> jointMoves = new ArrayList<List<Move>>();
+            evaluator.clearMoves();
+            for (int lane = 0; lane < states.length; lane++) {
+                boolean terminal = subject.isTerminal(states[lane]);
+                assertEquals(game, terminal, (evaluator.getTerminalLanes() >>> lane & 1) != 0);
+                List<Move> jointMove = null;
+                if (terminal) {
+                    for (int r = 0; r < subject.getRoles().size(); r++) {
+                        assertEquals(game, subject.getGoal(states[lane], subject.getRoles().get(r)), evaluator.getGoal(r, lane));
+                    }
+                } else {
+                    for (int r = 0; r < subject.getRoles().size(); r++) {
+                        assertEquals(game, new HashSet<Move>(subject.getLegalMoves(states[lane], subject.getRoles().get(r))),
+                                new HashSet<Move>(evaluator.getLegalMoves(r, lane)));
+                    }
+                    jointMove = subject.getRandomJointMove(states[lane]);
+                    for (int r = 0; r < jointMove.size(); r++) {
+                        evaluator.setMove(r, lane, jointMove.get(r));
+                    }
+                    moving |= 1L << lane;
+                }
+                jointMoves.add(jointMove);
+            }
+
+            evaluator.advance(moving);
+            for (int lane = 0; lane < states.length; lane++) {
+                MachineState expected = (jointMoves.get(lane) == null) ? states[lane] : subject.getNextState(states[lane], jointMoves.get(lane));
+                assertEquals(game, expected.getContents(), evaluator.getState(lane).getContents());
+            }
+        }
+    }
+
+    @Test
+    public void testBitParallelAverageScoresMatchProverOnDeterministicGames() throws Exception {
+        // Every playout of these games makes the same moves to the same
+        // terminal state, so the averages must be exactly the prover's.
+        for (String game : Arrays.asList("test_case_1a", "test_case_2a", "test_case_4a")) {
+            List<Gdl> description = TestGames.getRules(game);
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(description);
+            CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+            sm.initialize(description);
+            double[] expectedScores = new double[1];
+            double[] expectedDepth = new double[1];
+            reference.getAverageDiscountedScoresFromRepeatedDepthCharges(reference.getInitialState(), expectedScores, expectedDepth, 0.9, 10);
+            double[] scores = new double[1];
+            double[] depth = new double[1];
+            sm.getAverageDiscountedScoresFromRepeatedDepthCharges(sm.getInitialState(), scores, depth, 0.9, 100);
+            assertEquals(game, expectedDepth[0], depth[0], 0);
+            assertEquals(game, expectedScores[0], scores[0], 1e-9);
+        }
+    }
+
+    @Test
+    public void testBitParallelAverageScoresMatchProver() throws Exception {
+        List<Gdl> description = TestGames.getRules("ticTacToe");
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(description);
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(description);
+        List<Role> roles = reference.getRoles();
+        double discountFactor = 0.9;
+
+        // The mean and variance of the discounted scores and of the depth,
+        // over playouts run one at a time on the prover.
+        int scalarRepetitions = 2000;
+        double[] sums = new double[3];
+        double[] sumsOfSquares = new double[3];
+        int[] theDepth = new int[1];
+        for (int i = 0; i < scalarRepetitions; i++) {
+            MachineState terminal = reference.performDepthCharge(reference.getInitialState(), theDepth);
+            double discount = Math.pow(discountFactor, theDepth[0]);
+            double[] sample = {reference.getGoal(terminal, roles.get(0)) * discount,
+                    reference.getGoal(terminal, roles.get(1)) * discount, theDepth[0]};
+            for (int j = 0; j < 3; j++) {
+                sums[j] += sample[j];
+                sumsOfSquares[j] += sample[j] * sample[j];
+            }
+        }
+
+        // Not a multiple of the number of lanes, so the last batch is partial.
+        int repetitions = 5003;
+        double[] scores = new double[2];
+        double[] depth = new double[1];
+        sm.getAverageDiscountedScoresFromRepeatedDepthCharges(sm.getInitialState(), scores, depth, discountFactor, repetitions);
+        double[] batched = {scores[0], scores[1], depth[0]};
+        for (int j = 0; j < 3; j++) {
+            double mean = sums[j] / scalarRepetitions;
+            double variance = sumsOfSquares[j] / scalarRepetitions - mean * mean;
+            // Five standard errors of the difference between the two means.
+            double tolerance = 5 * Math.sqrt(variance * (1.0 / scalarRepetitions + 1.0 / repetitions));
+            assertEquals(mean, batched[j], tolerance);
+        }
+
+        // From a terminal state, every playout ends at once.
+        MachineState terminal = reference.performDepthCharge(reference.getInitialState(), theDepth);
+        sm.getAverageDiscountedScoresFromRepeatedDepthCharges(terminal, scores, depth, discountFactor, 100);
+        assertEquals(0, depth[0], 0);
+        assertEquals(reference.getGoal(terminal, roles.get(0)), scores[0], 1e-9);
+        assertEquals(reference.getGoal(terminal, roles.get(1)), scores[1], 1e-9);
+    }
+}
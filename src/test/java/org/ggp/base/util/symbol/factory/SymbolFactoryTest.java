@@ -0,0 +1,71 @@
+package org.ggp.base.util.symbol.factory;
+
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+import org.ggp.base.util.symbol.grammar.Symbol;
+import org.ggp.base.util.symbol.grammar.SymbolList;
+import org.ggp.base.util.symbol.grammar.SymbolPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SymbolFactoryTest extends Assert {
+
+    @Test
+    public void testParseNestedLists() throws Exception {
+        Symbol symbol = SymbolFactory.create("(<= (legal ?p (mark ?x ?y)) (true (cell ?x ?y b)))");
+        assertEquals("( <= ( legal ?p ( mark ?x ?y ) ) ( true ( cell ?x ?y b ) ) )", symbol.toString());
+        assertSame(symbol, SymbolFactory.create("(<=(legal ?p(mark ?x ?y))(true(cell ?x ?y b)))"));
+    }
+
+    @Test
+    public void testWhitespaceIsIgnored() throws Exception {
+        assertSame(SymbolFactory.create("(a (b c) d)"), SymbolFactory.create("\t(a\r\n  ( b\fc )\u000Bd )\n"));
+        assertSame(SymbolPool.getAtom("abc"), SymbolFactory.create("  abc  "));
+    }
+
+    @Test
+    public void testOnlyFirstExpressionIsRead() throws Exception {
+        assertSame(SymbolPool.getAtom("a"), SymbolFactory.create("a b"));
+        assertEquals("( a )", SymbolFactory.create("(a) (b)").toString());
+    }
+
+    @Test
+    public void testEmptyTextIsEmptyAtom() throws Exception {
+        assertSame(SymbolPool.getAtom(""), SymbolFactory.create(" "));
+    }
+
+    @Test
+    public void testStrayClosingParenthesisIsAnAtom() throws Exception {
+        assertSame(SymbolPool.getAtom(")"), SymbolFactory.create(") a"));
+    }
+
+    @Test
+    public void testMalformedTextIsRejected() throws Exception {
+        for (String malformed : new String[] {"(a (b)", "((("}) {
+            try {
+                SymbolFactory.create(malformed);
+                fail("Parsed " + malformed);
+            } catch (SymbolFormatException e) {
+                assertEquals(malformed, e.getSource());
+            }
+        }
+    }
+
+    @Test
+    public void testDeepNesting() throws Exception {
+        int depth = 100000;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            text.append("(f ");
+        }
+        for (int i = 0; i < depth; i++) {
+            text.append(')');
+        }
+        Symbol symbol = SymbolFactory.create(text);
+        for (int i = 0; i < depth; i++) {
+            SymbolList list = (SymbolList) symbol;
+            assertEquals(i < depth - 1 ? 2 : 1, list.size());
+            symbol = list.size() > 1 ? list.get(1) : null;
+        }
+        assertNull(symbol);
+    }
+}
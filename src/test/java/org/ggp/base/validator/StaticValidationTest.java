@@ -91,6 +91,11 @@ public class StaticValidationTest {
         expectWarnings(validate("test_invalid_sentence_arities_differ"));
     }
 
+    @Test
+    public void testRecursiveReachabilityValidation() throws Exception {
+        validate("test_recursive_reachability");
+    }
+
     @Test
     public void testTicTacToeValidation() throws Exception {
         validate("ticTacToe");